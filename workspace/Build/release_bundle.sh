@@ -19,6 +19,9 @@ DBDIR=${DIR}/app/db
 SQL=${DIR}/app/sql
 cd ${DBDIR}
 sqlite3 $DB < ${SQL}/createTables.sql
+sqlite3 $DB < ${SQL}/overlap.sql
+sqlite3 $DB < ${SQL}/metrics.sql
+sqlite3 $DB < ${SQL}/repair.sql
 sqlite3 $DB < ${SQL}/preferences.sql
 sqlite3 $DB < ${SQL}/gates.sql
 echo "${DB} creation compete."
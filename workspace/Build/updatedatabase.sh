@@ -1,6 +1,9 @@
 
 #	Update configuration tables in the redistricting database.
-#	This does not create or drop tables. It only updates Preferences and GateProperties.
+#	This does not drop tables. It updates Preferences and GateProperties and
+#	creates the overlap and metric cache tables if they are missing. Columns added to
+#	the Dataset, PlanFeature and MetricCache tables since their creation are added
+#	with their defaults.
 #	The current directory is the build project.
 #
 #!/bin/sh
@@ -17,4 +20,18 @@ cd ${DBDIR}
 cp ${DB} ${DB}.bak
 sqlite3 $DB < ${SQL}/preferences.sql
 sqlite3 $DB < ${SQL}/gates.sql
+sqlite3 $DB < ${SQL}/overlap.sql
+sqlite3 $DB < ${SQL}/metrics.sql
+sqlite3 $DB < ${SQL}/repair.sql
+if ! sqlite3 $DB "PRAGMA table_info(Dataset)" | grep -q "|simplifyTolerance|"
+then
+	sqlite3 $DB "ALTER TABLE Dataset ADD COLUMN simplifyTolerance REAL DEFAULT 0."
+fi
+for TABLE in PlanFeature MetricCache
+do
+	if ! sqlite3 $DB "PRAGMA table_info(${TABLE})" | grep -q "|areaError|"
+	then
+		sqlite3 $DB "ALTER TABLE ${TABLE} ADD COLUMN areaError REAL DEFAULT 0."
+	fi
+done
 echo "${DB} update compete."
\ No newline at end of file
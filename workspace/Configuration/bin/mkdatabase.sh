@@ -17,6 +17,9 @@ cd ${DBDIR}
 cp $DB rc.db.bak
 rm -f $DB
 sqlite3 $DB < ${SQL}/createTables.sql
+sqlite3 $DB < ${SQL}/overlap.sql
+sqlite3 $DB < ${SQL}/metrics.sql
+sqlite3 $DB < ${SQL}/repair.sql
 sqlite3 $DB < ${SQL}/preferences.sql
 sqlite3 $DB < ${SQL}/gates.sql
 echo "${DB} creation compete."
\ No newline at end of file
@@ -16,7 +16,9 @@ CREATE TABLE AttributeAlias (
 );
 -- The Dataset table holds configuration information for overlay layers. 
 -- The data files must be read each time the application is started
--- to actually populate the diagram.
+-- to actually populate the diagram. A non-zero simplifyTolerance is the
+-- distance, in dataset units, within which feature boundaries are simplified
+-- as they are read.
 DROP TABLE IF EXISTS Dataset;
 CREATE TABLE Dataset (
 	id		INTEGER  PRIMARY KEY,
@@ -25,6 +27,7 @@ CREATE TABLE Dataset (
 	shapeFilePath TEXT NULL,
 	role text NULL,
 	districtColumn TEXT NULL,
+	simplifyTolerance REAL DEFAULT 0.,
 	UNIQUE (name)
 );
 -- The FeatureAttribute table holds the latest known Features for a layer.
@@ -83,6 +86,7 @@ CREATE TABLE PlanFeature (
 	hispanic	real DEFAULT 0.,
 	white		real DEFAULT 0.,
 	crossings	integer DEFAULT 0.,
+	areaError	real DEFAULT 0.,
 	PRIMARY KEY(planId,featureId),
 	FOREIGN KEY (planId) references Plan(id) ON DELETE CASCADE
 );
@@ -0,0 +1,26 @@
+-- Copyright 2020. Charles Coughlin. All rights reserved.
+-- The MetricCache table holds the district metrics of a plan for each analysis
+-- configuration in which they have been computed. A configuration is identified
+-- by a digest of the boundary, affiliation, demographic and county datasets,
+-- their content hashes and resolved attribute aliases, and the aggregation
+-- settings. Returning to a configuration restores its metrics without any
+-- aggregation. The PlanFeature table continues to hold the current metrics.
+-- The metrics are derived data, so the table is created only if absent.
+CREATE TABLE IF NOT EXISTS MetricCache (
+	planId		INTEGER  NOT NULL,
+	configuration TEXT NOT NULL,
+	featureId	INTEGER  NOT NULL,
+	name 		text NOT NULL,
+	area		real DEFAULT 0.,
+	perimeter	real DEFAULT 0.,
+	population	real DEFAULT 0.,
+	democrat	real DEFAULT 0.,
+	republican	real DEFAULT 0.,
+	black		real DEFAULT 0.,
+	hispanic	real DEFAULT 0.,
+	white		real DEFAULT 0.,
+	crossings	integer DEFAULT 0.,
+	areaError	real DEFAULT 0.,
+	PRIMARY KEY(planId,configuration,featureId),
+	FOREIGN KEY (planId) references Plan(id) ON DELETE CASCADE
+);
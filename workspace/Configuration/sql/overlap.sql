@@ -0,0 +1,23 @@
+-- Copyright 2020. Charles Coughlin. All rights reserved.
+-- These tables cache the results of overlaying the districts of a plan
+-- with an affiliation or demographic dataset. A row of weights belongs to
+-- a single district and is identified by a fingerprint of the district
+-- geometry together with the content hash of the source shapefile. Rows
+-- are thus re-used by any plan that contains an identical district.
+-- The weights are the fraction of a source feature's area that lies
+-- within the district. They are derived data, so the tables are created
+-- only if absent and survive updates.
+CREATE TABLE IF NOT EXISTS OverlapRow (
+	id	INTEGER  PRIMARY KEY,
+	districtHash TEXT NOT NULL,
+	sourceHash TEXT NOT NULL,
+	sources INTEGER NOT NULL,
+	UNIQUE(districtHash,sourceHash)
+);
+CREATE TABLE IF NOT EXISTS OverlapWeight (
+	rowId		INTEGER  NOT NULL,
+	feature		INTEGER  NOT NULL,
+	weight		real DEFAULT 0.,
+	PRIMARY KEY(rowId,feature),
+	FOREIGN KEY (rowId) references OverlapRow(id) ON DELETE CASCADE
+);
@@ -4,8 +4,14 @@
 --
 DELETE FROM Preferences;
 REPLACE INTO Preferences(Name,Value) VALUES('GoogleKey','xxxx');
+REPLACE INTO Preferences(Name,Value) VALUES('AggregationThreads','0');
+REPLACE INTO Preferences(Name,Value) VALUES('DemographicAssignment','AREA');
+REPLACE INTO Preferences(Name,Value) VALUES('RasterAreaError','0.01');
+REPLACE INTO Preferences(Name,Value) VALUES('PartitionCellSize','0');
 REPLACE INTO Preferences(Name,Value) VALUES('AffiliationId','-1');
+REPLACE INTO Preferences(Name,Value) VALUES('AggregationStrategy','DISTRICT');
 REPLACE INTO Preferences(Name,Value) VALUES('CountyBoundariesId','-1');
 REPLACE INTO Preferences(Name,Value) VALUES('DemographicId','-1');
 REPLACE INTO Preferences(Name,Value) VALUES('CompetitivenessThreshold','15');
 REPLACE INTO Preferences(Name,Value) VALUES('PartisanAsymmetryMetric','PARTISAN_BIAS');
+REPLACE INTO Preferences(Name,Value) VALUES('PopulationWeightingId','-1');
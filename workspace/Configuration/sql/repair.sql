@@ -0,0 +1,11 @@
+-- Copyright 2020. Charles Coughlin. All rights reserved.
+-- The GeometryRepair table records the features of a shapefile that were found
+-- invalid on load, by position within the file. A file is identified by its
+-- content hash. A row with position -1 marks a file as validated, so that a file
+-- with no invalid features is not checked again. The positions are derived data,
+-- so the table is created only if absent.
+CREATE TABLE IF NOT EXISTS GeometryRepair (
+	contentHash	TEXT NOT NULL,
+	position	INTEGER NOT NULL,
+	PRIMARY KEY(contentHash,position)
+);
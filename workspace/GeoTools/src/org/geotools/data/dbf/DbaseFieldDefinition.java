@@ -4,7 +4,7 @@ import java.io.IOException;
 import java.nio.charset.Charset;
 import java.util.logging.Logger;
 
-import org.openjump.io.EndianAwareInputStream;
+import org.openjump.io.EndianAwareInput;
 
 
 /**
@@ -45,7 +45,7 @@ public class DbaseFieldDefinition implements DbaseConstants{
    * @param charset
    * @throws IOException
    */
-    public void load(int pos, EndianAwareInputStream instream, Charset charset) throws IOException {
+    public void load(int pos, EndianAwareInput instream, Charset charset) throws IOException {
         byte[] strbuf = new byte[DBF_NAMELEN]; // <---- byte array buffer for storing string's byte data
 	    int j = -1;
 	    int term = -1;
@@ -1,21 +1,30 @@
 package org.geotools.data.dbf;
 
+import java.io.EOFException;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.text.DateFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.BitSet;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Logger;
 
+import org.openjump.feature.AttributeSource;
 import org.openjump.feature.AttributeType;
 import org.openjump.feature.BasicFeature;
 import org.openjump.feature.Feature;
 import org.openjump.feature.FeatureDataset;
 import org.openjump.feature.FeatureSchema;
+import org.openjump.feature.LazyFeature;
+import org.openjump.feature.LazyFeatureDataset;
+import org.openjump.io.EndianAwareInput;
 import org.openjump.io.EndianAwareInputStream;
+import org.openjump.io.MappedFileInput;
 
 
 /**
@@ -23,11 +32,17 @@ import org.openjump.io.EndianAwareInputStream;
  * Construct it with a filename (including the .dbf)
  * this causes the header and field definitions to be read.<p>
  * Later queries return rows or columns of the database.
+ * <p>
+ * Records may be loaded as a raw block instead of as parsed features. The block
+ * is a view of the mapping if the file is memory-mapped. A column is decoded on
+ * first request, all rows at once, into an array of primitives or of strings that
+ * is retained. Columns that are never requested are never parsed. The features
+ * of the dataset then draw their attributes from these columns.
  * <hr>
  * @author <a href="mailto:ian@geog.leeds.ac.uk">Ian Turton</a> Centre for
  * Computational Geography, University of Leeds, LS2 9JT, 1998.
  */
-public class DbaseFile  {
+public class DbaseFile implements AttributeSource {
 	private static final String CLSS = "DbfFile";
 	private static final Logger LOGGER = Logger.getLogger(CLSS); 
     private SimpleDateFormat simpleDataParser = new SimpleDateFormat("yyyyMMdd");
@@ -37,6 +52,20 @@ public class DbaseFile  {
     private DbaseFieldDefinition[] fielddef;
     private FeatureDataset features = null;
     private FeatureSchema schema = null;
+    private ByteBuffer records = null;                  // Raw record block, if loaded as such
+    private int recordCount = 0;
+    private final Map<Integer,Object> columns;          // Decoded columns by field index
+    private final Map<Integer,double[]> numericColumns; // Numeric columns as doubles
+
+    // An integer column, with the rows where the value is missing
+    private static class LongColumn {
+    	private final long[] values;
+    	private final BitSet missing;
+    	private LongColumn(int count) {
+    		this.values = new long[count];
+    		this.missing = new BitSet(count);
+    	}
+    }
 
     /**
      * Constructor. 
@@ -47,6 +76,8 @@ public class DbaseFile  {
     	this.simpleDataParser.setLenient(true);
     	this.header = new DbaseHeader();
     	this.schema = new FeatureSchema();
+    	this.columns = new ConcurrentHashMap<>();
+    	this.numericColumns = new ConcurrentHashMap<>();
     }
     
     public FeatureSchema getFeatureSchema() { return this.schema; }
@@ -56,7 +87,7 @@ public class DbaseFile  {
      * @param in InputStream ready for reading
      * @exception IOException If the file can't be opened.
      */
-    public void load(EndianAwareInputStream instream) throws Exception {
+    public void load(EndianAwareInput instream) throws Exception {
     	header.load(instream);
     	// A map to store a unique reference for identical field value
     	uniqueStrings = new HashMap<>();
@@ -81,15 +112,9 @@ public class DbaseFile  {
      * @return the number of records read.
      */
     public int loadFeatures(EndianAwareInputStream in) {
-    	this.schema = new FeatureSchema();
+    	this.schema = createSchema();
     	this.features = new FeatureDataset(schema);
-        
-        schema.addAttribute("GEOMETRY", AttributeType.GEOMETRY);
         int numfields = header.getFieldCount();
-        for (int j = 0; j < numfields; j++) {
-            AttributeType type = AttributeType.valueOf((getFieldType(j).toUpperCase()));
-            schema.addAttribute( getFieldName(j), type );
-        }
         
     	int count = 0;
     	try {
@@ -110,6 +135,294 @@ public class DbaseFile  {
     	return count;
     }
 	
+    /**
+     * Load the data records as a raw block, without parsing them. A mapped file is not
+     * copied. Each record is a LazyFeature whose attributes are decoded from the block
+     * on request. The features do not yet have a geometry. A truncated file yields the
+     * complete records only.
+     * @param in input positioned at the first record
+     * @return the number of records loaded
+     */
+    public int loadRecords(EndianAwareInput in) throws IOException {
+    	this.schema = createSchema();
+    	columns.clear();
+    	numericColumns.clear();
+    	int size = header.getRecordSize();
+    	int expected = Math.max(0,header.getLastRecord());
+    	if( in instanceof MappedFileInput ) {
+    		MappedFileInput mapped = (MappedFileInput)in;
+    		int available = (size==0 ? 0 : (mapped.length()-mapped.position())/size);
+    		recordCount = Math.min(expected,available);
+    		records = mapped.slice(recordCount*size);
+    	}
+    	else {
+    		byte[] block = new byte[expected*size];
+    		int count = 0;
+    		try {
+    			while(count<expected) {
+    				in.readFully(block,count*size,size);
+    				count++;
+    			}
+    		}
+    		catch(EOFException eofe) {
+    			LOGGER.warning(String.format("%s: End of file after %d of %d records", CLSS,count,expected));
+    		}
+    		recordCount = count;
+    		records = ByteBuffer.wrap(block,0,count*size).slice();
+    	}
+    	LazyFeatureDataset dataset = new LazyFeatureDataset(schema,null,this);
+    	for(int row=0;row<recordCount;row++) {
+    		dataset.add(new LazyFeature(schema,null,this,row));
+    	}
+    	this.features = dataset;
+    	LOGGER.info(String.format("%s: Successfully loaded %d records (%d attributes, %d bytes)", CLSS,recordCount,header.getFieldCount(),records.limit()));
+    	return recordCount;
+    }
+
+    /**
+     * @return the number of records loaded
+     */
+    public int getRecordCount() { return (records==null && features!=null ? features.size() : recordCount); }
+    @Override
+    public int size() { return getRecordCount(); }
+
+    /**
+     * @param name the name of a field
+     * @return the index of the field, -1 if there is none by that name
+     */
+    public int getFieldIndex(String name) {
+    	for(int col=0;col<header.getFieldCount();col++) {
+    		if( getFieldName(col).equals(name) ) return col;
+    	}
+    	return -1;
+    }
+
+    /**
+     * Attributes are in field order, after the geometry. Values are taken from the
+     * decoded column, which is decoded first if necessary. Dates and booleans are
+     * decoded one at a time.
+     */
+    @Override
+    public Object getAttribute(int position,int attributeIndex) {
+    	int col = attributeIndex-1;
+    	if( records==null || col<0 || col>=header.getFieldCount() ) return null;
+    	switch (fielddef[col].fieldtype) {
+    		case 'F':
+    		case 'N':
+    			if( isIntegral(col) ) {
+    				LongColumn column = getLongColumn(col);
+    				if( column.missing.get(position) ) return null;
+    				if( fielddef[col].fieldlen > 9 ) return Long.valueOf(column.values[position]);
+    				return Integer.valueOf((int)column.values[position]);
+    			}
+    			double value = getDoubleColumn(col)[position];
+    			return (Double.isNaN(value) ? null : Double.valueOf(value));
+    		case 'L':
+    		case 'D':
+    			return parseRecordValue(position,col);
+    		default:
+    			return getStringColumn(col)[position];
+    	}
+    }
+
+    @Override
+    public double[] getNumericColumn(int attributeIndex) {
+    	int col = attributeIndex-1;
+    	if( records==null || col<0 || col>=header.getFieldCount() ) return null;
+    	char type = fielddef[col].fieldtype;
+    	if( type!='N' && type!='F' ) return null;
+    	return getDoubleColumn(col);
+    }
+
+    /**
+     * @param col index of a numeric field
+     * @return the values of the field by row, NaN where missing. The array is shared
+     *         and must not be modified.
+     */
+    public double[] getDoubleColumn(int col) {
+    	return numericColumns.computeIfAbsent(col, key -> {
+    		long start = System.currentTimeMillis();
+    		double[] values = new double[recordCount];
+    		if( isIntegral(col) ) {
+    			LongColumn column = getLongColumn(col);
+    			for(int row=0;row<recordCount;row++) {
+    				values[row] = (column.missing.get(row) ? Double.NaN : (double)column.values[row]);
+    			}
+    		}
+    		else {
+    			ByteBuffer buffer = records.duplicate();
+    			byte[] field = new byte[fielddef[col].fieldlen];
+    			for(int row=0;row<recordCount;row++) {
+    				readField(buffer,row,col,field);
+    				values[row] = parseDouble(field);
+    			}
+    		}
+    		LOGGER.fine(String.format("%s: Decoded %s in %d msecs", CLSS,getFieldName(col),System.currentTimeMillis()-start));
+    		return values;
+    	});
+    }
+
+    /**
+     * @param col index of a character field
+     * @return the values of the field by row. Identical values share a String. The
+     *         array is shared and must not be modified.
+     */
+    public String[] getStringColumn(int col) {
+    	return (String[])columns.computeIfAbsent(col, key -> {
+    		String[] values = new String[recordCount];
+    		Map<String,String> unique = new HashMap<>();
+    		ByteBuffer buffer = records.duplicate();
+    		int len = fielddef[col].fieldlen;
+    		byte[] field = new byte[len];
+    		for(int row=0;row<recordCount;row++) {
+    			readField(buffer,row,col,field);
+    			String s;
+    			if( fielddef[col].fieldtype=='C' ) {
+    				int end = len;
+    				while( end>0 && (field[end-1]==' ' || field[end-1]==0) ) end--;  //trim trailing spaces
+    				s = new String(field,0,end,charset);
+    			}
+    			else {
+    				s = new String(field,0,len);
+    			}
+    			String master = unique.putIfAbsent(s,s);
+    			values[row] = (master==null ? s : master);
+    		}
+    		return values;
+    	});
+    }
+
+    // Integer fields are 'N' with no decimals
+    private boolean isIntegral(int col) {
+    	return fielddef[col].fieldtype=='N' && fielddef[col].fieldnumdec==0;
+    }
+
+    private LongColumn getLongColumn(int col) {
+    	return (LongColumn)columns.computeIfAbsent(col, key -> {
+    		LongColumn column = new LongColumn(recordCount);
+    		ByteBuffer buffer = records.duplicate();
+    		byte[] field = new byte[fielddef[col].fieldlen];
+    		for(int row=0;row<recordCount;row++) {
+    			readField(buffer,row,col,field);
+    			if( !parseLong(field,column.values,row) ) column.missing.set(row);
+    		}
+    		return column;
+    	});
+    }
+
+    private void readField(ByteBuffer buffer,int row,int col,byte[] field) {
+    	buffer.position(row*header.getRecordSize()+fielddef[col].fieldstart);
+    	buffer.get(field,0,field.length);
+    }
+
+    // Dates and booleans are parsed as they always have been, one value at a time.
+    private synchronized Object parseRecordValue(int row,int col) {
+    	byte[] rec = new byte[header.getRecordSize()];
+    	ByteBuffer buffer = records.duplicate();
+    	buffer.position(row*rec.length);
+    	buffer.get(rec);
+    	try {
+    		return ParseRecordColumn(rec,col);
+    	}
+    	catch(Exception ex) {
+    		return null;
+    	}
+    }
+
+    /**
+     * Parse an integer, as Long.parseLong() does after trimming, without creating a String.
+     * @return false if the field is blank or not an integer
+     */
+    private static boolean parseLong(byte[] field,long[] values,int index) {
+    	int start = 0;
+    	int end = field.length;
+    	while( start<end && field[start]>=0 && field[start]<=' ' ) start++;
+    	while( end>start && field[end-1]>=0 && field[end-1]<=' ' ) end--;
+    	int pos = start;
+    	boolean negative = false;
+    	if( pos<end && (field[pos]=='-' || field[pos]=='+') ) {
+    		negative = field[pos]=='-';
+    		pos++;
+    	}
+    	if( pos==end ) return false;
+    	if( end-pos>18 ) {    // Might overflow
+    		try {
+    			values[index] = Long.parseLong(new String(field,start,end-start));
+    			return true;
+    		}
+    		catch(NumberFormatException nfe) {
+    			return false;
+    		}
+    	}
+    	long value = 0;
+    	for(;pos<end;pos++) {
+    		int digit = field[pos]-'0';
+    		if( digit<0 || digit>9 ) return false;
+    		value = 10*value+digit;
+    	}
+    	values[index] = (negative ? -value : value);
+    	return true;
+    }
+
+    /**
+     * Parse a decimal number, as Double.parseDouble() does after trimming. Plain
+     * numbers of up to 15 digits are converted directly. The mantissa and the power
+     * of ten are then exact, so their quotient is correctly rounded. Anything
+     * else goes to Double.parseDouble().
+     * @return the value, NaN if the field is blank or not a number
+     */
+    private static double parseDouble(byte[] field) {
+    	int start = 0;
+    	int end = field.length;
+    	while( start<end && field[start]>=0 && field[start]<=' ' ) start++;
+    	while( end>start && field[end-1]>=0 && field[end-1]<=' ' ) end--;
+    	if( start==end ) return Double.NaN;
+    	int pos = start;
+    	boolean negative = false;
+    	if( field[pos]=='-' || field[pos]=='+' ) {
+    		negative = field[pos]=='-';
+    		pos++;
+    	}
+    	long mantissa = 0;
+    	int digits = 0;
+    	int decimals = -1;          // Digits after the point, -1 if there is no point
+    	boolean plain = true;
+    	for(;pos<end && plain;pos++) {
+    		byte b = field[pos];
+    		if( b>='0' && b<='9' ) {
+    			mantissa = 10*mantissa+(b-'0');
+    			digits++;
+    			if( decimals>=0 ) decimals++;
+    		}
+    		else if( b=='.' && decimals<0 ) decimals = 0;
+    		else plain = false;
+    	}
+    	if( plain && digits>0 && digits<=15 ) {
+    		double value = (decimals>0 ? mantissa/POWERS_OF_TEN[decimals] : (double)mantissa);
+    		return (negative ? -value : value);
+    	}
+    	try {
+    		// dBase can have numbers that look like '********'
+    		return Double.parseDouble(new String(field,start,end-start));
+    	}
+    	catch(NumberFormatException nfe) {
+    		return Double.NaN;
+    	}
+    }
+    private static final double[] POWERS_OF_TEN = { 1e0,1e1,1e2,1e3,1e4,1e5,1e6,1e7,1e8,1e9,1e10,1e11,1e12,1e13,1e14,1e15 };
+
+    // The schema has the geometry first, then the fields in order
+    private FeatureSchema createSchema() {
+    	FeatureSchema fs = new FeatureSchema();
+    	fs.addAttribute("GEOMETRY", AttributeType.GEOMETRY);
+    	int numfields = header.getFieldCount();
+    	for (int j = 0; j < numfields; j++) {
+    		AttributeType type = AttributeType.valueOf((getFieldType(j).toUpperCase()));
+    		fs.addAttribute( getFieldName(j), type );
+    	}
+    	return fs;
+    }
+
     /**
      * Returns the header.
      */
@@ -3,7 +3,7 @@ package org.geotools.data.dbf;
 import java.io.IOException;
 import java.util.logging.Logger;
 
-import org.openjump.io.EndianAwareInputStream;
+import org.openjump.io.EndianAwareInput;
 import org.openjump.io.EndianType;
 
 
@@ -35,7 +35,7 @@ public class DbaseHeader  {
 	 * @param file file Stream attached to the input file
 	 * @exception IOException read error.
 	 */
-	public void load(EndianAwareInputStream eastream) throws IOException {
+	public void load(EndianAwareInput eastream) throws IOException {
 		eastream.setType(EndianType.LITTLE);
 		id = eastream.readUnsignedByte();
 		if(DEBUG) LOGGER.info("DbfHeader id: " + id);
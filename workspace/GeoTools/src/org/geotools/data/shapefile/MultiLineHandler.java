@@ -78,9 +78,9 @@ public class MultiLineHandler implements ShapeHandler {
             
             LineString lines[] = new LineString[numParts];
             Coordinate[] coords = new Coordinate[numPoints];
-            
+            double[] xy = Shapefile.readCoordinates(in,numPoints);
             for (int t=0 ; t<numPoints ; t++) {
-                coords[t] = new Coordinate(in.readDouble(),in.readDouble());
+                coords[t] = new Coordinate(xy[2*t],xy[2*t+1]);
 		    	actualReadWords += 8;
             }
             
@@ -85,10 +85,11 @@ public class PolygonHandler implements ShapeHandler {
             ArrayList<LineString> badRings = new ArrayList<LineString>();
             Coordinate[] coords = new Coordinate[numPoints];
             
+            double[] xy = Shapefile.readCoordinates(file,numPoints);
             for(int t=0 ; t<numPoints ; t++) {
-                coords[t]= new Coordinate(file.readDouble(),file.readDouble());
-                actualReadWords += 8;
+                coords[t]= new Coordinate(xy[2*t],xy[2*t+1]);
             }
+            actualReadWords += 8*numPoints;
             
             if (myShapeType == 15) {  // PolygonZ
                 file.readDouble();  //zmin
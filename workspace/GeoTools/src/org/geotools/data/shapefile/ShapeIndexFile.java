@@ -2,7 +2,7 @@ package org.geotools.data.shapefile;
 
 import java.util.logging.Logger;
 
-import org.openjump.io.EndianAwareInputStream;
+import org.openjump.io.EndianAwareInput;
 import org.openjump.io.EndianType;
 
 
@@ -35,7 +35,7 @@ public class ShapeIndexFile {
      * @param in InputStream ready for reading
      * @exception IOException If the file can't be opened.
      */
-    public void load(EndianAwareInputStream instream) throws Exception {
+    public void load(EndianAwareInput instream) throws Exception {
     	header.load(instream);
     	instream.setType(EndianType.BIG);
     	for (int index = 0; index < records.length; index++) {
@@ -46,4 +46,11 @@ public class ShapeIndexFile {
     	}
     	LOGGER.info(String.format("%s: Successfully initialized type %d, %d records",CLSS,header.getShapeType(),records.length));
     }
+
+    public int getRecordCount() { return records.length; }
+    /**
+     * @param index zero-based, one less than the record number
+     * @return offset and content length of the record, in 16-bit words. Null if not loaded.
+     */
+    public RecordReference getRecord(int index) { return records[index]; }
 }
@@ -0,0 +1,175 @@
+/**
+ * Copyright (C) 2020 Charles Coughlin
+ *
+ * This program is free software; you may redistribute it and/or
+ * modify it under the terms of the GNU General Public License.
+ */
+package org.geotools.data.shapefile;
+
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import org.geotools.data.wkt.ProjectionFile;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.CoordinateFilter;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.openjump.feature.GeometrySource;
+import org.openjump.io.EndianType;
+import org.openjump.io.MappedFileInput;
+
+/**
+ * Decode the records of a .shp file on request, at the offsets given by its
+ * .shx index. When constructed, only the header of each record is read, which
+ * holds the bounding box of the shape. Decoded geometries are kept in a cache
+ * of soft references of bounded size, least recently used first to go.
+ *
+ * If there is a projection, geometries are reprojected as they are decoded.
+ * The bounding boxes are reprojected by sampling their edges, then widened
+ * slightly so that the curvature of the projection between samples cannot
+ * leave part of a shape outside.
+ */
+public class ShapeRecordSource implements GeometrySource {
+	private static final String CLSS = "ShapeRecordSource";
+	private static final Logger LOGGER = Logger.getLogger(CLSS);
+	private static final int CACHE_CAPACITY = 10000;     // Geometries
+	private static final int EDGE_SAMPLES = 16;          // Per edge of a reprojected box
+	private static final double EDGE_MARGIN = 1.0E-6;    // Relative to the size of the box
+	private final MappedFileInput input;                 // Shared, read through views
+	private final ShapeIndexFile shx;
+	private final ShapeHandler handler;                  // Handlers are stateless
+	private final GeometryFactory factory;
+	private final ProjectionFile projection;             // Null if none
+	private final double[] bounds;                       // minx,miny,maxx,maxy by position
+	private final Map<Integer,SoftReference<Geometry>> cache;
+
+	/**
+	 * Read the header of the .shp file and of each of its records.
+	 * @param in the .shp file. It may be closed afterwards, its content is retained.
+	 * @param shx the index of the .shp file
+	 * @param prj the projection, null if none
+	 * @throws ShapefileException if the index does not account for every record
+	 */
+	public ShapeRecordSource(MappedFileInput in,ShapeIndexFile shx,ProjectionFile prj) throws Exception {
+		this.input = in.duplicate();
+		this.shx = shx;
+		this.factory = new GeometryFactory();
+		this.projection = (prj==null || prj.getFilter()==null ? null : prj);
+		ShapefileHeader header = new ShapefileHeader();
+		header.load(input);
+		if( !Shapefile.isIndexComplete(shx,header) ) {
+			throw new ShapefileException(String.format("%s: index does not match the shape file",CLSS));
+		}
+		this.handler = Shapefile.getShapeHandler(header.getShapeType());
+		if( handler==null ) throw new ShapefileException("Unsupported shape type: " + header.getShapeType());
+		this.bounds = new double[4*shx.getRecordCount()];
+		readBounds();
+		this.cache = new LinkedHashMap<Integer,SoftReference<Geometry>>(16,0.75f,true) {
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Integer,SoftReference<Geometry>> eldest) {
+				return size()>CACHE_CAPACITY;
+			}
+		};
+	}
+
+	@Override
+	public int size() { return shx.getRecordCount(); }
+
+	@Override
+	public Envelope getEnvelope(int position) {
+		if( Double.isNaN(bounds[4*position]) ) return new Envelope();
+		return new Envelope(bounds[4*position],bounds[4*position+2],bounds[4*position+1],bounds[4*position+3]);
+	}
+
+	@Override
+	public Geometry getGeometry(int position) {
+		synchronized(cache) {
+			SoftReference<Geometry> reference = cache.get(position);
+			Geometry geometry = (reference==null?null:reference.get());
+			if( geometry!=null ) return geometry;
+		}
+		Geometry geometry = decode(position);
+		synchronized(cache) {
+			cache.put(position,new SoftReference<>(geometry));
+		}
+		return geometry;
+	}
+
+	// A record that cannot be read is an empty geometry, as in a parallel load.
+	private Geometry decode(int position) {
+		MappedFileInput view = input.duplicate();
+		try {
+			view.seek(2*shx.getRecord(position).getOffset()+8);
+			view.setType(EndianType.LITTLE);
+			Geometry geometry = handler.read(view,factory,shx.getRecord(position).getLength());
+			if( projection!=null ) {
+				synchronized(projection) {     // The filter is not thread-safe
+					geometry = projection.reproject(geometry);
+				}
+			}
+			return geometry;
+		}
+		catch(IOException|ShapefileException ex) {
+			LOGGER.warning(String.format("%s.decode: Error reading record %d (%s)",CLSS,position+1,ex.getLocalizedMessage()));
+			return handler.getEmptyGeometry(factory);
+		}
+	}
+
+	// Every record starts with its shape type. The box of a multi-part shape follows,
+	// a point is its own box. A null shape has none.
+	private void readBounds() throws IOException {
+		MappedFileInput view = input.duplicate();
+		view.setType(EndianType.LITTLE);
+		for(int position=0;position<shx.getRecordCount();position++) {
+			view.seek(2*shx.getRecord(position).getOffset()+8);
+			int type = view.readInt();
+			double minx = Double.NaN;
+			double miny = Double.NaN;
+			double maxx = Double.NaN;
+			double maxy = Double.NaN;
+			if( type==Shapefile.POINT || type==Shapefile.POINTM || type==Shapefile.POINTZ ) {
+				minx = maxx = view.readDouble();
+				miny = maxy = view.readDouble();
+			}
+			else if( type!=Shapefile.NULL ) {
+				minx = view.readDouble();
+				miny = view.readDouble();
+				maxx = view.readDouble();
+				maxy = view.readDouble();
+			}
+			if( projection!=null && !Double.isNaN(minx) ) {
+				Envelope env = project(new Envelope(minx,maxx,miny,maxy));
+				minx = env.getMinX();
+				miny = env.getMinY();
+				maxx = env.getMaxX();
+				maxy = env.getMaxY();
+			}
+			bounds[4*position]   = minx;
+			bounds[4*position+1] = miny;
+			bounds[4*position+2] = maxx;
+			bounds[4*position+3] = maxy;
+		}
+		LOGGER.info(String.format("%s: Read bounds of %d records",CLSS,shx.getRecordCount()));
+	}
+
+	private Envelope project(Envelope box) {
+		CoordinateFilter filter = projection.getFilter();
+		Envelope result = new Envelope();
+		for(int sample=0;sample<=EDGE_SAMPLES;sample++) {
+			double x = box.getMinX()+sample*box.getWidth()/EDGE_SAMPLES;
+			double y = box.getMinY()+sample*box.getHeight()/EDGE_SAMPLES;
+			for(Coordinate c:new Coordinate[] { new Coordinate(x,box.getMinY()),new Coordinate(x,box.getMaxY()),
+												new Coordinate(box.getMinX(),y),new Coordinate(box.getMaxX(),y) }) {
+				filter.filter(c);
+				result.expandToInclude(c);
+			}
+		}
+		result.expandBy(EDGE_MARGIN*Math.max(result.getWidth(),result.getHeight()));
+		return result;
+	}
+}
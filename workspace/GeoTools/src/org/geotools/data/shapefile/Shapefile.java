@@ -1,9 +1,11 @@
 package org.geotools.data.shapefile;
 
+import java.io.DataInput;
 import java.io.EOFException;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.logging.Logger;
+import java.util.stream.IntStream;
 
 import org.locationtech.jts.geom.Geometry;
 import org.locationtech.jts.geom.GeometryCollection;
@@ -14,8 +16,9 @@ import org.locationtech.jts.geom.MultiPoint;
 import org.locationtech.jts.geom.MultiPolygon;
 import org.locationtech.jts.geom.Point;
 import org.locationtech.jts.geom.Polygon;
-import org.openjump.io.EndianAwareInputStream;
+import org.openjump.io.EndianAwareInput;
 import org.openjump.io.EndianType;
+import org.openjump.io.MappedFileInput;
 
 /**
  * This class represents an ESRI Shape file.<p>
@@ -54,6 +57,9 @@ public class Shapefile  {
     public static final int MULTIPOINTZ = 18;
     public static final int MULTIPATCH  = 31;
     public static final int UNDEFINED   = -1;
+    
+    private static final int PARALLEL_MINIMUM = 1000;       // Fewer records are decoded sequentially
+    private static final int SLICES_PER_PROCESSOR = 4;      // Records vary in size, so balance the load
 
     private int errorCount;
     private final ShapefileHeader header;
@@ -75,7 +81,7 @@ public class Shapefile  {
      * @param in InputStream ready for reading
      * @exception IOException If the file can't be opened.
      */
-    public void load(EndianAwareInputStream instream) throws Exception {
+    public void load(EndianAwareInput instream) throws Exception {
     	header.load(instream);
     	LOGGER.info(String.format("%s.load: Completed read of header ...",CLSS));
     	ArrayList<Geometry> list = new ArrayList<>();
@@ -122,11 +128,12 @@ public class Shapefile  {
     /**
      * Initializer: Read the open stream and populate the shapefile. This
      * version of the method reads the index file to determine which
-     * records are of interest. (TODO)
+     * records are of interest. If the file is memory-mapped and the index
+     * accounts for all of it, large files are decoded in parallel.
      * @param in InputStream ready for reading
      * @exception IOException If the file can't be opened.
      */
-    public void load(EndianAwareInputStream instream,ShapeIndexFile shx) throws Exception {
+    public void load(EndianAwareInput instream,ShapeIndexFile shx) throws Exception {
     	header.load(instream);
     	LOGGER.info(String.format("%s.load with index: Completed read of header ...",CLSS));
     	//byte[] bytes = instream.readBytes(64);
@@ -138,6 +145,10 @@ public class Shapefile  {
     	int type = header.getShapeType();
     	ShapeHandler handler = getShapeHandler(type);
     	if(handler==null) throw new ShapefileException("Unsupported shape type: " + type);
+    	if( isParallelCapable(instream,shx) ) {
+    		loadParallel((MappedFileInput)instream,shx,type,factory);
+    		return;
+    	}
 
     	errorCount = 0;
     	int count = 1;
@@ -183,6 +194,94 @@ public class Shapefile  {
     	geometryCollection = factory.createGeometryCollection((Geometry[])list.toArray(new Geometry[]{}));
     	LOGGER.info(String.format("%s.load with index: Completed read with %d geometries, %d errors.",CLSS,geometryCollection.getNumGeometries(),errorCount));
     }
+    /**
+     * Decode the records concurrently. The record range is divided into slices,
+     * each decoded by its own handler from its own view of the mapped file, at
+     * the offsets given by the index. Geometries are collected in record order.
+     * A record that cannot be decoded is replaced by an empty geometry, so that
+     * later records still line up with their rows in the .dbf.
+     */
+    private void loadParallel(MappedFileInput input,ShapeIndexFile shx,int type,GeometryFactory factory) throws Exception {
+    	long start = System.currentTimeMillis();
+    	int count = shx.getRecordCount();
+    	int slices = Math.min(count,SLICES_PER_PROCESSOR*Runtime.getRuntime().availableProcessors());
+    	Geometry[] geometries = new Geometry[count];
+    	ShapeHandler[] handlers = new ShapeHandler[slices];
+    	int[] errors = new int[slices];
+    	for(int slice=0;slice<slices;slice++) {
+    		handlers[slice] = getShapeHandler(type);
+    	}
+    	IntStream.range(0,slices).parallel().forEach(slice -> {
+    		MappedFileInput view = input.duplicate();
+    		ShapeHandler handler = handlers[slice];
+    		int end = (int)((long)(slice+1)*count/slices);
+    		for(int index=(int)((long)slice*count/slices);index<end;index++) {
+    			int recordNumber = index+1;
+    			try {
+    				view.seek(2*shx.getRecord(index).getOffset());
+    				view.setType(EndianType.BIG);
+    				int number = view.readInt();
+    				if( number!=recordNumber ) {
+    					throw new ShapefileException(String.format("wrong record number (%d vs %d)",number,recordNumber));
+    				}
+    				int contentLength = view.readInt();
+    				view.setType(EndianType.LITTLE);
+    				Geometry body = handler.read(view,factory,contentLength);
+    				if (body.getUserData() != null) errors[slice]++;
+    				geometries[index] = body;
+    			}
+    			catch(IOException|ShapefileException ex) {
+    				LOGGER.warning(String.format("%s.loadParallel: Error reading record %d (%s)",CLSS,recordNumber,ex.getLocalizedMessage()));
+    				errors[slice]++;
+    				geometries[index] = handler.getEmptyGeometry(factory);
+    			}
+    		}
+    	});
+    	errorCount = IntStream.of(errors).sum();
+    	geometryCollection = factory.createGeometryCollection(geometries);
+    	LOGGER.info(String.format("%s.loadParallel: Completed read with %d geometries, %d errors in %d slices (%d msecs).",CLSS,
+    			geometryCollection.getNumGeometries(),errorCount,slices,System.currentTimeMillis()-start));
+    }
+    private boolean isParallelCapable(EndianAwareInput instream,ShapeIndexFile shx) {
+    	if( !(instream instanceof MappedFileInput) || shx==null ) return false;
+    	if( shx.getRecordCount()<PARALLEL_MINIMUM ) return false;
+    	return isIndexComplete(shx,header);
+    }
+    /**
+     * The index must be fully loaded and its last record must end where the file
+     * does, so that the index finds every record a sequential read would.
+     * @param shx the index
+     * @param header the header of the .shp file
+     * @return true if records may be read at the offsets of the index alone
+     */
+    static boolean isIndexComplete(ShapeIndexFile shx,ShapefileHeader header) {
+    	int count = shx.getRecordCount();
+    	if( count==0 ) return false;
+    	for(int index=0;index<count;index++) {
+    		if( shx.getRecord(index)==null ) return false;
+    	}
+    	RecordReference last = shx.getRecord(count-1);
+    	return (long)last.getOffset()+4+last.getLength() == header.fileLength;
+    }
+    /**
+     * Read the x,y pairs of a shape. Where the input supports it they are
+     * copied as a single run.
+     * @param in input positioned at the first x
+     * @param numPoints number of points
+     * @return the coordinates, x and y interleaved
+     */
+    static double[] readCoordinates(DataInput in,int numPoints) throws IOException {
+    	double[] xy = new double[2*numPoints];
+    	if( in instanceof EndianAwareInput ) {
+    		((EndianAwareInput)in).readDoubles(xy,0,xy.length);
+    	}
+    	else {
+    		for(int index=0;index<xy.length;index++) {
+    			xy[index] = in.readDouble();
+    		}
+    	}
+    	return xy;
+    }
     /**
      * Get the number of errors found after a read.
      */
@@ -10,7 +10,7 @@ import java.io.IOException;
 import java.util.logging.Logger;
 
 import org.locationtech.jts.geom.Envelope;
-import org.openjump.io.EndianAwareInputStream;
+import org.openjump.io.EndianAwareInput;
 import org.openjump.io.EndianType;
 
 
@@ -34,7 +34,7 @@ public class ShapefileHeader{
     	
     }
     
-    public void load(EndianAwareInputStream inputStream) throws IOException {
+    public void load(EndianAwareInput inputStream) throws IOException {
     	inputStream.setType(EndianType.BIG);
         fileCode = inputStream.readInt();
         //LOGGER.info(String.format("%s.load: - filecode (%d)",CLSS,fileCode));
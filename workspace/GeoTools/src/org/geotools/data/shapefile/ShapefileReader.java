@@ -14,12 +14,15 @@
  */
 package org.geotools.data.shapefile;
 
+import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -40,15 +43,28 @@ import org.openjump.feature.Feature;
 import org.openjump.feature.FeatureCollection;
 import org.openjump.feature.FeatureDataset;
 import org.openjump.feature.FeatureSchema;
+import org.openjump.feature.LazyFeature;
+import org.openjump.feature.LazyFeatureDataset;
+import org.openjump.io.CompressedArchive;
 import org.openjump.io.CompressedFile;
+import org.openjump.io.EndianAwareInput;
 import org.openjump.io.EndianAwareInputStream;
 import org.openjump.io.EndianType;
+import org.openjump.io.MappedFileInput;
 
 /**
  * ShapefileReader contains static methods for handling Shapefiles.
  * 
  * Uses a modified version of geotools to do the .dbf and .shp
  * file reading. 
+ * 
+ * A shapefile is normally an archive. It may also be uncompressed, named
+ * either by its .shp component or by the directory that holds the components,
+ * as when an archive has been extracted. The .shp and .shx components of an
+ * uncompressed shapefile are memory-mapped rather than streamed.
+ * 
+ * On request, geometries are decoded lazily. The features then hold only their
+ * attributes and a reference to their record in the .shp file.
  */
 public class ShapefileReader {
 	private static final String CLSS = "ShapefileReader";
@@ -63,15 +79,27 @@ public class ShapefileReader {
      * @return
      */
     public static boolean isShapefile(String fname) throws Exception {
-    	boolean success = false;
     	if( CompressedFile.isArchive(fname)) {
-    		if( CompressedFile.getFnameByExtension(fname, ".dbf")!=null &&
-    			CompressedFile.getFnameByExtension(fname, ".prj")!=null &&
-    			CompressedFile.getFnameByExtension(fname, ".shp")!=null &&
-    			CompressedFile.getFnameByExtension(fname, ".shx")!=null ) {
+    		try (CompressedArchive archive = new CompressedArchive(fname)) {
+    			return isShapefile(fname,archive);
+    		}
+    	}
+    	return isShapefile(fname,null);
+    }
+    // @param archive the open archive, null if the file is not an archive
+    private static boolean isShapefile(String fname,CompressedArchive archive) {
+    	boolean success = false;
+    	if( archive!=null ) {
+    		if( archive.getEntryByExtension(".dbf")!=null &&
+    			archive.getEntryByExtension(".prj")!=null &&
+    			archive.getEntryByExtension(".shp")!=null &&
+    			archive.getEntryByExtension(".shx")!=null ) {
     			success = true;
     		}
     	}
+    	else if( isUncompressedShapefile(fname) ) {
+    		success = true;
+    	}
     	else {
     		if( fname.endsWith(".dbf")) success = true;
     	}
@@ -89,12 +117,36 @@ public class ShapefileReader {
     	if( fname.endsWith(".dbf")) success = true;
     	return success;
     }
+    /**
+     * Test whether or not a path represents an uncompressed shapefile. The path is
+     * either the .shp file or a directory containing one. Either way the .shx and .dbf
+     * components must be present alongside, with the same base name.
+     * @param fname
+     * @return
+     */
+    public static boolean isUncompressedShapefile(String fname) {
+    	return getComponentFile(fname,".shp")!=null && getComponentFile(fname,".shx")!=null && getComponentFile(fname,".dbf")!=null;
+    }
+    /**
+     * @param fname path of an uncompressed shapefile, either the .shp file or its directory
+     * @return the components that are present, in order of extension. Empty if none.
+     */
+    public static List<File> getComponentFiles(String fname) {
+    	List<File> files = new ArrayList<>();
+    	for(String extension:Arrays.asList(".cpg",".dbf",".prj",".shp",".shx")) {
+    		File file = getComponentFile(fname,extension);
+    		if( file!=null ) files.add(file);
+    	}
+    	return files;
+    }
    
     /**
      * Main method to read a compressed shape-file. The .zip file may contain both
      * .shp and .dbf files. Most of the work is done in the org.geotools.* package.
      * 
      * This method also works if given a "loose" uncompressed dbfile that includes geometry. 
+     * An archive is opened and its entries indexed once, then every component is
+     * read from that index.
      *
      * @param shpFileName path to the compressed shapefile.
      * @param idCOlumn the column that gets the district name for an aggregated result.
@@ -103,10 +155,29 @@ public class ShapefileReader {
      * @return a FeatureCollection created from .shp and .dbf (dbf is optional)
      */
     public static FeatureCollection read(String shpFileName,String idColumn,String districtColumn) throws Exception {
+    	return read(shpFileName,idColumn,districtColumn,false);
+    }
+    
+    /**
+     * Same as read(String,String,String), with the option of lazy geometry. A lazy
+     * collection holds LazyFeatures, each of which decodes its geometry from the
+     * .shp file when it is first accessed. Envelopes come from the record headers.
+     * Geometries are decoded eagerly regardless if features are aggregated by district,
+     * if there is no .dbf or if the .shx index does not match the .shp file.
+     *
+     * @param lazy true to defer decoding of geometries until they are used
+     */
+    public static FeatureCollection read(String shpFileName,String idColumn,String districtColumn,boolean lazy) throws Exception {
     	if (shpFileName == null) {
     		throw new IllegalArgumentException(String.format("%s.read: No input file specified", CLSS));
     	}
-    	if(!isShapefile(shpFileName)) {
+    	try (CompressedArchive archive = (CompressedFile.isArchive(shpFileName)?new CompressedArchive(shpFileName):null)) {
+    		return read(shpFileName,archive,idColumn,districtColumn,lazy);
+    	}
+    }
+    
+    private static FeatureCollection read(String shpFileName,CompressedArchive archive,String idColumn,String districtColumn,boolean lazy) throws Exception {
+    	if(!isShapefile(shpFileName,archive)) {
     		throw new IllegalArgumentException(String.format("%s.read: File %s is not a shapefile", CLSS,shpFileName));
     	}
     	FeatureCollection featureCollection = null;
@@ -114,15 +185,24 @@ public class ShapefileReader {
     	Shapefile shapefile = null;
     	DbaseFile dbfFile = null;
     	ProjectionFile  prjFile = null;
+    	long start = System.currentTimeMillis();
     	if( isUncompressedDbFile(shpFileName)) {
-    		dbfFile = getDbfFile(shpFileName,Charset.defaultCharset());
+    		dbfFile = getDbfFile(shpFileName,archive,Charset.defaultCharset());
     	}
     	else {  
     		// Read the .cpg file, if it exists. It is the character set for DbFile. Else use default.
-        	String charsetName = readCharset(shpFileName);   
-        	dbfFile = getDbfFile(shpFileName,Charset.forName(charsetName));
-        	shapefile = getShapefile(shpFileName,dbfFile);
-        	prjFile   = getPrjFile(shpFileName,Charset.forName(charsetName));
+        	String charsetName = readCharset(shpFileName,archive);   
+        	dbfFile = getDbfFile(shpFileName,archive,Charset.forName(charsetName));
+        	prjFile   = getPrjFile(shpFileName,archive,Charset.forName(charsetName));
+        	if( lazy && districtColumn==null && dbfFile.getFeatureDataset()!=null ) {
+        		featureCollection = readLazily(shpFileName,archive,dbfFile,prjFile);
+        		if( featureCollection!=null ) {
+        			LOGGER.info(String.format("%s.read: %s read %d features with lazy geometry in %d msecs",CLSS,shpFileName,
+        					featureCollection.size(),System.currentTimeMillis()-start));
+        			return featureCollection;
+        		}
+        	}
+        	shapefile = getShapefile(shpFileName,archive,dbfFile);
     	}
     	FeatureSchema fs;
     	if( shapefile!=null ) {
@@ -144,7 +224,7 @@ public class ShapefileReader {
     		// dbfFile exists. Use its features.
     		else {
     			fs = dbfFile.getFeatureSchema();
-    			featureCollection =  new FeatureDataset(fs);
+    			featureCollection =  new LazyFeatureDataset(fs,null,dbfFile);
     			int recordCount = dbfFile.getHeader().getLastRecord();
     			if (collection.getNumGeometries() != recordCount) {
     				LOGGER.severe(String.format("%s: Error in %s, shp record count (%d) does not match dbf record count (%d)", CLSS,shpFileName, 
@@ -237,6 +317,8 @@ public class ShapefileReader {
     				feat.setGeometry(prjFile.reproject(geom));
     			}
     		}
+    		LOGGER.info(String.format("%s.read: %s read %d features in %d msecs",CLSS,shpFileName,featureCollection.size(),
+    				System.currentTimeMillis()-start));
     	}
     	// Shapefile is null, so we need to get the geometries from the DbfFile
     	// This doesn't work ... the lone dbfFiles that I've found don't have 
@@ -250,11 +332,10 @@ public class ShapefileReader {
     }
     
     /** ============================= Helper Methods ================================ **/
-    private static String readCharset(String shpfileName) throws Exception {
+    private static String readCharset(String shpfileName,CompressedArchive archive) throws Exception {
         String charsetName = Charset.defaultCharset().name(); // Just return the platform default
-        String fname = CompressedFile.getFnameByExtension(shpfileName,".cpg");
         
-        try (InputStream in = CompressedFile.openFile(shpfileName,fname)) {
+        try (InputStream in = openComponent(shpfileName,archive,".cpg")) {
         	byte[] bytes = in.readAllBytes();
         	if( bytes.length<16 ) {   // If too long, we've just read junk
         		String code = new String(bytes);
@@ -272,25 +353,24 @@ public class ShapefileReader {
     /**
      * Get a DbfFile.
      * @param srcFileName either a dbf or an archive file (*.zip etc.)
+     * @param archive the open archive, null if the source is not an archive
      * @param charset the charset to use to read this dbf file
      * @return a DbfFile object for the dbf file named FileName
      * @throws IOException if an I/O error occurs during dbf file reading
      */
-    private static DbaseFile getDbfFile(String srcFileName, Charset charset)  {
+    private static DbaseFile getDbfFile(String srcFileName, CompressedArchive archive, Charset charset)  {
     	DbaseFile dbfFile = new DbaseFile(charset);
-    	EndianAwareInputStream in = null;
+    	EndianAwareInput in = null;
     	try {
     		// default is a *.dbf src file
     		if (srcFileName.matches("(?i).*\\.dbf$")) {
     			File file = new File( srcFileName );
-    			in = new EndianAwareInputStream(new FileInputStream(file));
+    			in = new MappedFileInput(file);
     		}
     		// An archive can hold multiple files, get the one with a .dbf extension
-    		else if (CompressedFile.hasArchiveFileExtension(srcFileName)) {
+    		else if (archive!=null || isUncompressedShapefile(srcFileName)) {
     			try {
-    				String compressedFname = CompressedFile.getFnameByExtension(srcFileName, ".dbf");
-    				InputStream instream = CompressedFile.openFile(srcFileName, compressedFname);
-    				in = new EndianAwareInputStream(instream);
+    				in = openInput(srcFileName, archive, ".dbf");
     			}
     			catch(Exception ex) {
     				LOGGER.warning(String.format("%s.getDbFile: Failed to create from %s (%s)",CLSS,srcFileName,ex.getLocalizedMessage()));
@@ -299,7 +379,7 @@ public class ShapefileReader {
     		if(in!=null) {
     			LOGGER.info(String.format("%s: Loading ... DbfFile %s",CLSS,srcFileName));
     			dbfFile.load(in);
-    			dbfFile.loadFeatures(in);
+    			dbfFile.loadRecords(in);    // Columns are decoded on demand
     		}
     	}
     	catch(Exception ex) {
@@ -319,21 +399,22 @@ public class ShapefileReader {
     /**
      * Get a Projection file (.prj). The entire file should be little endian.
      * @param srcFileName either a dbf or an archive file (*.zip etc.)
+     * @param archive the open archive, null if the source is not an archive
      * @param charset the charset to use to read this dbf file
      * @return a ProjectionFile object for the prj file named srcFileName
      * @throws IOException if an I/O error occurs during prj file reading
      */
-    private static ProjectionFile getPrjFile(String srcFileName, Charset charset)  {
+    private static ProjectionFile getPrjFile(String srcFileName, CompressedArchive archive, Charset charset)  {
     	ProjectionFile prj = null;
-    	String fname = "";
+    	InputStream stream = null;
     	try {
-    		fname = CompressedFile.getFnameByExtension(srcFileName,".prj");
+    		stream = openComponent(srcFileName,archive,".prj");
     	}
     	catch(Exception ex) {
     		LOGGER.severe(String.format("%s: Failed to find projection file in %s (%s)",CLSS,srcFileName,ex.getLocalizedMessage()));
     		return null;
     	}
-    	try (InputStream in = CompressedFile.openFile(srcFileName,fname);
+    	try (InputStream in = stream;
     		EndianAwareInputStream eastream = new EndianAwareInputStream(in)) {
     		eastream.setType(EndianType.LITTLE);
     		
@@ -346,19 +427,42 @@ public class ShapefileReader {
     	}
     	return prj;
     }
+    // The features take their attributes from the .dbf file, column by column, and their geometries from a record source.
+    // @return null if the .shp file cannot be read at the offsets of the index
+    private static FeatureCollection readLazily(String shpFileName,CompressedArchive archive,DbaseFile dbfFile,ProjectionFile prjFile) {
+    	int recordCount = dbfFile.getHeader().getLastRecord();
+    	if( dbfFile.getFeatureDataset().size()!=recordCount ) return null;
+    	ShapeIndexFile shx = getShx(shpFileName,archive,recordCount);
+    	if( shx==null ) return null;
+    	ShapeRecordSource source = null;
+    	try (MappedFileInput input = openMapped(shpFileName,archive)) {
+    		source = new ShapeRecordSource(input,shx,prjFile);
+    	}
+    	catch(Exception ex) {
+    		LOGGER.warning(String.format("%s.readLazily: Reading %s eagerly (%s)",CLSS,shpFileName,ex.getLocalizedMessage()));
+    		return null;
+    	}
+    	FeatureSchema fs = dbfFile.getFeatureSchema();
+    	LazyFeatureDataset featureCollection = new LazyFeatureDataset(fs,source,dbfFile);
+    	for (int row = 0; row < recordCount; row++) {
+    		featureCollection.add(new LazyFeature(fs,source,dbfFile,row));
+    	}
+    	return featureCollection;
+    }
+    
     // If the dbfFile and shape index files exist, then use them. Otherwise process the .shp file directly
-    private static Shapefile getShapefile(String shpfileName, DbaseFile dbfFile)  {
+    private static Shapefile getShapefile(String shpfileName, CompressedArchive archive, DbaseFile dbfFile)  {
     	Shapefile shape = null;
-    	String fname = "";
+    	EndianAwareInput input = null;
     	try {
-    		fname = CompressedFile.getFnameByExtension(shpfileName,".shp");
+    		input = openInput(shpfileName,archive,".shp");
     	}
     	catch(Exception ex) {
     		LOGGER.severe(String.format("%s.getShapefile: Failed to open shape file %s  (%s)",CLSS,shpfileName,ex.getLocalizedMessage()));
     		return null;
     	}
-    	try (InputStream in = CompressedFile.openFile(shpfileName,fname);
-       		 EndianAwareInputStream eastream = new EndianAwareInputStream(in)) {
+    	long start = System.currentTimeMillis();
+    	try (EndianAwareInput eastream = input) {
        		
     		Shapefile shp = new Shapefile();
     		if( dbfFile==null ) {
@@ -367,10 +471,12 @@ public class ShapefileReader {
         	}
     		else {
     			int recordCount = dbfFile.getHeader().getLastRecord();
-    			ShapeIndexFile shx = getShx(shpfileName,recordCount);
+    			ShapeIndexFile shx = getShx(shpfileName,archive,recordCount);
     			shp.load(eastream,shx);
     		}
     		shape = shp;
+    		LOGGER.info(String.format("%s.getShapefile: Decoded %s in %d msecs (%s)",CLSS,shpfileName,System.currentTimeMillis()-start,
+    				(eastream instanceof MappedFileInput?"mapped":"streamed")));
        	}
        	catch(Exception ex) {
        		LOGGER.severe(String.format("%s.getShapefile: Failed to load shape file %s (%s)",CLSS,shpfileName,ex.getLocalizedMessage()));
@@ -379,18 +485,17 @@ public class ShapefileReader {
     	return shape;
     }
     
-    private static ShapeIndexFile getShx(String srcFileName,int count)  {
+    private static ShapeIndexFile getShx(String srcFileName,CompressedArchive archive,int count)  {
     	ShapeIndexFile sif = null;
-    	String fname = "";
+    	EndianAwareInput input = null;
     	try {
-    		fname = CompressedFile.getFnameByExtension(srcFileName,".shx");
+    		input = openInput(srcFileName,archive,".shx");
     	}
     	catch(Exception ex) {
     		LOGGER.severe(String.format("%s: Failed to find shape index file in %s  (%s)",CLSS,srcFileName,ex.getLocalizedMessage()));
     		return null;
     	}
-    	try (InputStream in = CompressedFile.openFile(srcFileName,fname);
-    		 EndianAwareInputStream eastream = new EndianAwareInputStream(in)) {
+    	try (EndianAwareInput eastream = input) {
     		
     		ShapeIndexFile file = new ShapeIndexFile(count);
     		file.load(eastream);
@@ -401,5 +506,69 @@ public class ShapefileReader {
     	}
     	return sif;
     }
+    
+    // Open a component as a stream, whether it is within an archive or uncompressed
+    private static InputStream openComponent(String srcFileName,CompressedArchive archive,String extension) throws Exception {
+    	if( archive!=null ) {
+    		return archive.openEntryByExtension(extension);
+    	}
+    	File file = getComponentFile(srcFileName,extension);
+    	if( file==null ) throw new FileNotFoundException(String.format("No %s component for %s",extension,srcFileName));
+    	return new BufferedInputStream(new FileInputStream(file));
+    }
+    
+    // An uncompressed .shp is mapped. One within an archive is read into memory, to be read in the same way.
+    private static MappedFileInput openMapped(String srcFileName,CompressedArchive archive) throws Exception {
+    	if( archive!=null ) {
+    		try (InputStream in = archive.openEntryByExtension(".shp")) {
+    			return MappedFileInput.wrap(in.readAllBytes());
+    		}
+    	}
+    	File file = getComponentFile(srcFileName,".shp");
+    	if( file==null ) throw new FileNotFoundException(String.format("No .shp component for %s",srcFileName));
+    	return new MappedFileInput(file);
+    }
+    
+    // An uncompressed component is mapped, one within an archive is streamed
+    private static EndianAwareInput openInput(String srcFileName,CompressedArchive archive,String extension) throws Exception {
+    	if( archive!=null ) {
+    		return new EndianAwareInputStream(archive.openEntryByExtension(extension));
+    	}
+    	File file = getComponentFile(srcFileName,extension);
+    	if( file==null ) throw new FileNotFoundException(String.format("No %s component for %s",extension,srcFileName));
+    	return new MappedFileInput(file);
+    }
+    
+    // The path is either a .shp file or a directory. In the latter case the base name is
+    // that of the first .shp file in the directory. Extensions may be in either case.
+    // @return the component with the given extension, null if it does not exist
+    private static File getComponentFile(String fname,String extension) {
+    	if( fname==null ) return null;
+    	File path = new File(fname);
+    	File directory = null;
+    	String base = null;
+    	if( path.isDirectory() ) {
+    		directory = path;
+    		String[] names = path.list();
+    		if( names==null ) return null;
+    		Arrays.sort(names);
+    		for(String name:names) {
+    			if( name.toLowerCase().endsWith(".shp") ) {
+    				base = name.substring(0,name.length()-4);
+    				break;
+    			}
+    		}
+    	}
+    	else if( path.isFile() && path.getName().toLowerCase().endsWith(".shp") ) {
+    		directory = path.getParentFile();
+    		base = path.getName().substring(0,path.getName().length()-4);
+    	}
+    	if( base==null ) return null;
+    	for(String ext:new String[] {extension.toLowerCase(),extension.toUpperCase()}) {
+    		File file = new File(directory,base+ext);
+    		if( file.isFile() ) return file;
+    	}
+    	return null;
+    }
 
 }
@@ -0,0 +1,31 @@
+/**
+ * Copyright (C) 2020 Charles Coughlin
+ *
+ * This program is free software; you may redistribute it and/or
+ * modify it under the terms of the GNU General Public License.
+ */
+package org.openjump.feature;
+
+/**
+ * Supplies the non-geometric attributes of the features of a LazyFeatureDataset
+ * by position. Attributes are identified by their index within the feature schema.
+ * Values are decoded on request. Implementations must allow concurrent calls.
+ */
+public interface AttributeSource {
+	/**
+	 * @return the number of features
+	 */
+	public int size();
+	/**
+	 * @param position zero-based position of the feature
+	 * @param attributeIndex index of the attribute in the schema
+	 * @return the value, null if missing
+	 */
+	public Object getAttribute(int position,int attributeIndex);
+	/**
+	 * @param attributeIndex index of the attribute in the schema
+	 * @return the values of a numeric attribute by position, NaN where missing.
+	 *         Null if the attribute is not numeric. The array is shared and must not be modified.
+	 */
+	public double[] getNumericColumn(int attributeIndex);
+}
@@ -68,8 +68,7 @@ public class BasicFeature extends AbstractBasicFeature implements Serializable {
     	Envelope bounds = null;
     	Geometry geom = getGeometry();
     	if( geom!=null) {
-    		Geometry env = geom.getEnvelope();
-    		bounds = env.getEnvelopeInternal(); // Envelope that contains the min and max  values.
+    		bounds = new Envelope(geom.getEnvelopeInternal()); // Envelope that contains the min and max  values.
     	}
     	return bounds;
     }
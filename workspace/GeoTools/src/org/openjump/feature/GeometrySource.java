@@ -0,0 +1,32 @@
+/**
+ * Copyright (C) 2020 Charles Coughlin
+ *
+ * This program is free software; you may redistribute it and/or
+ * modify it under the terms of the GNU General Public License.
+ */
+package org.openjump.feature;
+
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+
+/**
+ * Supplies the geometries of a LazyFeatureDataset by position. The envelope of
+ * every geometry is known in advance, the geometry itself is decoded on request.
+ * Implementations must allow concurrent calls.
+ */
+public interface GeometrySource {
+	/**
+	 * @return the number of geometries
+	 */
+	public int size();
+	/**
+	 * @param position zero-based position of the geometry
+	 * @return the geometry, decoded if necessary. Never null.
+	 */
+	public Geometry getGeometry(int position);
+	/**
+	 * @param position zero-based position of the geometry
+	 * @return a copy of the envelope of the geometry, empty for a null shape
+	 */
+	public Envelope getEnvelope(int position);
+}
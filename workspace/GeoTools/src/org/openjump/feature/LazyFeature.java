@@ -0,0 +1,112 @@
+/**
+ * Copyright (C) 2020 Charles Coughlin
+ *
+ * This program is free software; you may redistribute it and/or
+ * modify it under the terms of the GNU General Public License.
+ */
+package org.openjump.feature;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+
+/**
+ * A feature whose values are obtained from sources when they are accessed,
+ * rather than held. The geometry comes from a GeometrySource and the other
+ * attributes from an AttributeSource. Either may be absent, in which case the
+ * values must be set explicitly. Bounds come from the geometry source without
+ * decoding the geometry. A value that is set explicitly is held like that of
+ * any other feature and the source is no longer consulted for it.
+ */
+public class LazyFeature extends AbstractBasicFeature {
+	private static final long serialVersionUID = 2286397342766416015L;
+	private final transient GeometrySource geometrySource;      // Null if the geometry is set
+	private final transient AttributeSource attributeSource;    // Null if attributes are set
+	private final int position;
+	private Geometry geometry;
+	private boolean geometryAssigned;          // The geometry has been set explicitly
+	private Map<Integer,Object> assigned;      // Other values set explicitly, null if none
+
+	/**
+	 * @param featureSchema schema of the feature, including a geometry attribute
+	 * @param geometrySource the supplier of the geometry, null if it is to be set
+	 * @param attributeSource the supplier of other attributes, null if they are to be set
+	 * @param position the position of the feature within the sources
+	 */
+	public LazyFeature(FeatureSchema featureSchema,GeometrySource geometrySource,AttributeSource attributeSource,int position) {
+		super(featureSchema);
+		this.geometrySource = geometrySource;
+		this.attributeSource = attributeSource;
+		this.position = position;
+		this.geometry = null;
+		this.geometryAssigned = false;
+		this.assigned = null;
+	}
+
+	public int getPosition() { return this.position; }
+	public AttributeSource getAttributeSource() { return this.attributeSource; }
+	/**
+	 * @return true if any attribute other than the geometry has been set explicitly
+	 */
+	public boolean hasAssignedAttributes() { return assigned!=null; }
+
+	@Override
+	public Envelope getBounds() {
+		if( geometryAssigned || geometrySource==null ) {
+			return (geometry==null ? null : new Envelope(geometry.getEnvelopeInternal()));
+		}
+		return geometrySource.getEnvelope(position);
+	}
+
+	@Override
+	public Object getAttribute(int i) {
+		if( getSchema().isOperation(i) ) {
+			try {
+				return getSchema().getOperation(i).invoke(this);
+			}
+			catch(Exception e) {
+				return new Error(e);
+			}
+		}
+		if( i==getSchema().getGeometryIndex() ) {
+			if( geometryAssigned || geometrySource==null ) return geometry;
+			return geometrySource.getGeometry(position);
+		}
+		if( assigned!=null && assigned.containsKey(i) ) return assigned.get(i);
+		return (attributeSource==null ? null : attributeSource.getAttribute(position,i));
+	}
+
+	@Override
+	public void setAttribute(int attributeIndex,Object newAttribute) {
+		if( attributeIndex==getSchema().getGeometryIndex() ) {
+			geometry = (Geometry)newAttribute;
+			geometryAssigned = true;
+		}
+		else {
+			if( assigned==null ) assigned = new HashMap<>();
+			assigned.put(attributeIndex,newAttribute);
+		}
+	}
+
+	/**
+	 * A low-level accessor that is not normally used. Every value is decoded.
+	 * @return a copy of the values
+	 */
+	@Override
+	public Object[] getAttributes() {
+		Object[] attributes = new Object[getSchema().getAttributeCount()];
+		for(int i=0;i<attributes.length;i++) {
+			attributes[i] = getAttribute(i);
+		}
+		return attributes;
+	}
+
+	@Override
+	public void setAttributes(Object[] attributes) {
+		for(int i=0;i<attributes.length;i++) {
+			setAttribute(i,attributes[i]);
+		}
+	}
+}
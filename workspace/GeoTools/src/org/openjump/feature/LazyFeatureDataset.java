@@ -0,0 +1,102 @@
+/**
+ * Copyright (C) 2020 Charles Coughlin
+ *
+ * This program is free software; you may redistribute it and/or
+ * modify it under the terms of the GNU General Public License.
+ */
+package org.openjump.feature;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.locationtech.jts.geom.Envelope;
+
+/**
+ * A FeatureDataset of LazyFeatures, which decode their values only when
+ * they are accessed. The envelope and envelope queries use the bounds of the
+ * features, so they decode no geometry. A numeric attribute may be fetched
+ * as a column, without decoding the attribute feature by feature.
+ */
+public class LazyFeatureDataset extends FeatureDataset {
+	private static final long serialVersionUID = -3151570861744738052L;
+	private final transient GeometrySource geometrySource;
+	private final transient AttributeSource attributeSource;
+	private Envelope envelope = null;
+
+	/**
+	 * @param featureSchema the types of the attributes of the features in this collection
+	 * @param geometrySource the supplier of the geometries of the features, null if none
+	 * @param attributeSource the supplier of the other attributes of the features, null if none
+	 */
+	public LazyFeatureDataset(FeatureSchema featureSchema,GeometrySource geometrySource,AttributeSource attributeSource) {
+		super(featureSchema);
+		this.geometrySource = geometrySource;
+		this.attributeSource = attributeSource;
+	}
+
+	public GeometrySource getGeometrySource() { return this.geometrySource; }
+	public AttributeSource getAttributeSource() { return this.attributeSource; }
+
+	/**
+	 * The column is available only if every feature is a LazyFeature drawing on
+	 * the attribute source, in order, and no attribute has been set since.
+	 * @param attribute name of a numeric attribute
+	 * @return the values of the attribute in collection order, NaN where missing.
+	 *         Null if the column is not available. The array is shared and must not be modified.
+	 */
+	public double[] getNumericColumn(String attribute) {
+		if( attributeSource==null || attribute==null || !getFeatureSchema().hasAttribute(attribute) ) return null;
+		int position = 0;
+		for(Feature feature:getFeatures()) {
+			if( !(feature instanceof LazyFeature) ) return null;
+			LazyFeature lazy = (LazyFeature)feature;
+			if( lazy.getAttributeSource()!=attributeSource || lazy.getPosition()!=position || lazy.hasAssignedAttributes() ) return null;
+			position++;
+		}
+		if( position!=attributeSource.size() ) return null;
+		return attributeSource.getNumericColumn(getFeatureSchema().getAttributeIndex(attribute));
+	}
+
+	@Override
+	public Envelope getEnvelope() {
+		if( envelope==null ) {
+			Envelope env = new Envelope();
+			for(Feature feature:getFeatures()) {
+				Envelope bounds = feature.getBounds();
+				if( bounds!=null ) env.expandToInclude(bounds);
+			}
+			envelope = env;
+		}
+		return envelope;
+	}
+
+	@Override
+	public List<Feature> query(Envelope env) {
+		List<Feature> queryResult = new ArrayList<>();
+		if( !env.intersects(getEnvelope()) ) return queryResult;
+		for(Feature feature:getFeatures()) {
+			Envelope bounds = feature.getBounds();
+			if( bounds!=null && bounds.intersects(env) ) queryResult.add(feature);
+		}
+		return queryResult;
+	}
+
+	@Override
+	public void add(Feature feature) {
+		super.add(feature);
+		envelope = null;
+	}
+
+	@Override
+	public void addAll(Collection<Feature> features) {
+		super.addAll(features);
+		envelope = null;
+	}
+
+	@Override
+	public void invalidateEnvelope() {
+		super.invalidateEnvelope();
+		envelope = null;
+	}
+}
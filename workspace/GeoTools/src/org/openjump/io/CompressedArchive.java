@@ -0,0 +1,139 @@
+/**
+ * Copyright (C) 2020 Charles Coughlin
+ *
+ * This program is free software; you may redistribute it and/or
+ * modify it under the terms of the GNU General Public License.
+ */
+package org.openjump.io;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.apache.commons.compress.archivers.ArchiveEntry;
+import org.apache.commons.compress.archivers.ArchiveException;
+import org.apache.commons.compress.archivers.ArchiveInputStream;
+import org.apache.commons.compress.archivers.ArchiveStreamFactory;
+
+/**
+ *  A handle on an archive whose entries are indexed once, when it is opened,
+ *  so that any number of components may then be found and read without
+ *  scanning the archive again. A .zip file is opened for random access and its
+ *  entries are read from the central directory. Other archives, such as .tar.gz,
+ *  can only be streamed, so their entries are read into memory in a single pass.
+ *  Entries are kept in archive order.
+ */
+public class CompressedArchive implements AutoCloseable {
+	private static final String CLSS = "CompressedArchive";
+	private static final Logger LOGGER = Logger.getLogger(CLSS);
+	private final String path;
+	private final List<String> names;
+	private final ZipFile zipFile;                 // Null unless a .zip
+	private final Map<String,byte[]> contents;     // Entries of a streamed archive
+
+	/**
+	 * Open and index the archive.
+	 * @param filePath path to the archive
+	 */
+	public CompressedArchive(String filePath) throws IOException {
+		this.path = filePath;
+		this.names = new ArrayList<>();
+		this.contents = new HashMap<>();
+		File file = new File(filePath);
+		if( !file.exists() ) throw new FileNotFoundException(String.format("%s: Couldn't find file %s",CLSS,filePath));
+		if( CompressedFile.isZip(filePath) ) {
+			this.zipFile = new ZipFile(file);
+			Enumeration<? extends ZipEntry> entries = zipFile.entries();
+			while( entries.hasMoreElements() ) {
+				ZipEntry entry = entries.nextElement();
+				if( !entry.isDirectory() ) names.add(entry.getName());
+			}
+		}
+		else {
+			this.zipFile = null;
+			index();
+		}
+		LOGGER.fine(String.format("%s: Indexed %d entries of %s",CLSS,names.size(),filePath));
+	}
+
+	public String getPath() { return this.path; }
+	/**
+	 * @return the names of the entries, directories excluded, in archive order
+	 */
+	public List<String> getEntryNames() { return Collections.unmodifiableList(names); }
+
+	/**
+	 * @param extension including the dot, e.g. ".shp". Case is ignored.
+	 * @return the name of the first entry with the extension, null if there is none
+	 */
+	public String getEntryByExtension(String extension) {
+		String suffix = extension.toLowerCase();
+		for(String name:names) {
+			if( name.toLowerCase().endsWith(suffix) ) return name;
+		}
+		return null;
+	}
+
+	/**
+	 * @param name the name of an entry
+	 * @return a stream on the contents of the entry. The caller closes it.
+	 */
+	public InputStream openEntry(String name) throws IOException {
+		if( zipFile!=null ) {
+			ZipEntry entry = (name==null?null:zipFile.getEntry(name));
+			if( entry==null ) throw createFNFE(name);
+			return new BufferedInputStream(zipFile.getInputStream(entry));
+		}
+		byte[] bytes = (name==null?null:contents.get(name));
+		if( bytes==null ) throw createFNFE(name);
+		return new ByteArrayInputStream(bytes);
+	}
+
+	/**
+	 * @param extension including the dot. Case is ignored.
+	 * @return a stream on the first entry with the extension. The caller closes it.
+	 */
+	public InputStream openEntryByExtension(String extension) throws IOException {
+		String name = getEntryByExtension(extension);
+		if( name==null ) throw createFNFE("*"+extension);
+		return openEntry(name);
+	}
+
+	@Override
+	public void close() throws IOException {
+		contents.clear();
+		if( zipFile!=null ) zipFile.close();
+	}
+
+	// Read every entry of a streamed archive in one pass.
+	private void index() throws IOException {
+		try (InputStream in = CompressedFile.openFile(path,null);
+			 ArchiveInputStream archive = new ArchiveStreamFactory().createArchiveInputStream(in)) {
+			ArchiveEntry entry;
+			while((entry = archive.getNextEntry()) != null) {
+				if( entry.isDirectory() || !archive.canReadEntryData(entry) ) continue;
+				names.add(entry.getName());
+				contents.put(entry.getName(),archive.readAllBytes());
+			}
+		}
+		catch(ArchiveException ae) {
+			throw new IOException(String.format("%s: Couldn't determine archive type of %s",CLSS,path),ae);
+		}
+	}
+
+	private FileNotFoundException createFNFE(String name) {
+		return new FileNotFoundException(String.format("%s: Couldn't find entry \"%s\" in compressed file: %s",CLSS,name,path));
+	}
+}
@@ -47,8 +47,6 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.logging.Logger;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
 
 import org.apache.commons.compress.archivers.ArchiveEntry;
 import org.apache.commons.compress.archivers.ArchiveException;
@@ -78,40 +76,14 @@ public class CompressedFile {
   }
 
   /**
-   * Searches through the .zip file looking for a file with the given extension.
-   * Returns null if it doesn't find one.
+   * Searches through the archive looking for a file with the given extension.
+   * Returns null if it doesn't find one. To find several components, open a
+   * CompressedArchive instead, which indexes the archive only once.
    */
   public static String getFnameByExtension(String compressedFile,String extension) throws Exception {
-	  String inside_zip_extension;
-	  InputStream instream = new FileInputStream(compressedFile);
-	  ZipInputStream zipstream = new ZipInputStream(instream);
-	  try {
-
-		  // need to find the correct file within the .zip file
-		  ZipEntry entry;
-
-		  entry = zipstream.getNextEntry();
-
-		  while (entry != null) {
-			  inside_zip_extension = entry.getName().substring(
-					  entry.getName().length() - extension.length());
-
-			  if (inside_zip_extension.compareToIgnoreCase(extension) == 0) {
-				  return (entry.getName());
-			  }
-			  entry = zipstream.getNextEntry();
-		  }
-	  }
-	  finally {
-		  try {
-			  zipstream.close();
-			  instream.close();
-		  }
-		  catch(IOException ioe) {
-			  LOGGER.warning(String.format("%s: Failed to close archive streams (%s)",CLSS,ioe.getLocalizedMessage()));
-		  }
+	  try (CompressedArchive archive = new CompressedArchive(compressedFile)) {
+		  return archive.getEntryByExtension(extension);
 	  }
-	  return null;
   }
 
   public static List<URI> listEntries(File file) throws Exception {
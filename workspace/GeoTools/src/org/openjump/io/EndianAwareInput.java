@@ -0,0 +1,26 @@
+/**  
+ * Copyright (C) 2020 Charles Coughlin
+ * 
+ * This program is free software; you may redistribute it and/or
+ * modify it under the terms of the GNU General Public License.
+ */
+package org.openjump.io;
+
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.IOException;
+
+/**
+ * A DataInput whose byte order can be changed between reads. Shapefiles
+ * mix big-endian record headers with little-endian content.
+ */
+public interface EndianAwareInput extends DataInput, Closeable {
+	public void setType(EndianType et);
+	/**
+	 * Read a run of doubles in the current byte order.
+	 * @param values destination array
+	 * @param offset position of the first value in the array
+	 * @param length number of doubles to read
+	 */
+	public void readDoubles(double[] values,int offset,int length) throws IOException;
+}
@@ -19,7 +19,6 @@
 package org.openjump.io;
 
 import java.io.BufferedInputStream;
-import java.io.DataInput;
 import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -28,7 +27,7 @@ import java.io.InputStream;
  *  A class that gives most of the functionality of DataInputStream, but is endian aware.
  *  Uses a real java.io.DataInputStream to actually do the writing.
  */
-public class EndianAwareInputStream implements DataInput, AutoCloseable {
+public class EndianAwareInputStream implements EndianAwareInput {
     private final DataInputStream in;
     private EndianType type;
     private byte[] buf = new byte[8];
@@ -42,6 +41,7 @@ public class EndianAwareInputStream implements DataInput, AutoCloseable {
         this.in = new DataInputStream(is);
         this.type = EndianType.BIG;
     }
+    @Override
     public void setType(EndianType et) { this.type = et; }
     
     /** close the stream**/
@@ -120,6 +120,13 @@ public class EndianAwareInputStream implements DataInput, AutoCloseable {
     	}
     }
 
+    @Override
+    public void readDoubles(double[] values,int offset,int length) throws IOException {
+    	for(int index=offset;index<offset+length;index++) {
+    		values[index] = readDouble();
+    	}
+    }
+
     /** skip ahead in the stream
      * @param num number of bytes to read ahead
      */
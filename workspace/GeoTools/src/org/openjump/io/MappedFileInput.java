@@ -0,0 +1,215 @@
+/**
+ * Copyright (C) 2020 Charles Coughlin
+ *
+ * This program is free software; you may redistribute it and/or
+ * modify it under the terms of the GNU General Public License.
+ */
+package org.openjump.io;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ *  Read an uncompressed file through a read-only memory map. Values are
+ *  decoded directly from the mapped buffer in the current byte order, so
+ *  little-endian content needs neither a copy nor a swap in Java code.
+ *  Runs of doubles, such as the coordinates of a shape, are copied in bulk.
+ *  The file must be smaller than 2GB, the limit of a shapefile in any case.
+ *  Independent views of the same mapping may be read concurrently, each with
+ *  its own position and byte order.
+ */
+public class MappedFileInput implements EndianAwareInput {
+    private final FileChannel channel;     // Null for a view
+    private final ByteBuffer buffer;
+
+    /**
+     * Map the entire file. The byte order is initially BIG.
+     * @param file the file to read
+     */
+    public MappedFileInput(File file) throws IOException {
+    	this.channel = FileChannel.open(file.toPath(),StandardOpenOption.READ);
+    	long size = channel.size();
+    	if( size>Integer.MAX_VALUE ) {
+    		channel.close();
+    		throw new IOException(String.format("%s is too large to map (%d bytes)",file.getName(),size));
+    	}
+    	this.buffer = channel.map(FileChannel.MapMode.READ_ONLY,0,size);
+    	buffer.order(ByteOrder.BIG_ENDIAN);
+    }
+
+    /**
+     * Read content that is already in memory, such as an entry of an archive,
+     * in the same way as a mapped file. The byte order is initially BIG.
+     * @param bytes the content, which is not copied
+     */
+    public static MappedFileInput wrap(byte[] bytes) {
+    	return new MappedFileInput(ByteBuffer.wrap(bytes));
+    }
+
+    private MappedFileInput(ByteBuffer view) {
+    	this.channel = null;
+    	this.buffer = view;
+    	buffer.order(ByteOrder.BIG_ENDIAN);
+    }
+
+    /**
+     * @return a view of the same mapping, positioned at the start with byte order BIG.
+     *         It is valid only as long as this input remains open.
+     */
+    public MappedFileInput duplicate() {
+    	ByteBuffer view = buffer.duplicate();
+    	view.position(0);
+    	return new MappedFileInput(view);
+    }
+    /**
+     * @param position byte offset from the start of the file
+     */
+    public void seek(int position) throws IOException {
+    	if( position<0 || position>buffer.limit() ) {
+    		throw new EOFException(String.format("seek to %d, limit is %d",position,buffer.limit()));
+    	}
+    	buffer.position(position);
+    }
+    public int length() { return buffer.limit(); }
+    public int position() { return buffer.position(); }
+    /**
+     * @param length number of bytes
+     * @return a read-only view of the next bytes, which are then skipped. The view
+     *         shares the mapping and has position zero.
+     */
+    public ByteBuffer slice(int length) throws IOException {
+    	require(length);
+    	ByteBuffer view = buffer.slice().asReadOnlyBuffer();
+    	view.limit(length);
+    	buffer.position(buffer.position()+length);
+    	return view;
+    }
+
+    @Override
+    public void setType(EndianType et) {
+    	buffer.order(et.equals(EndianType.LITTLE)?ByteOrder.LITTLE_ENDIAN:ByteOrder.BIG_ENDIAN);
+    }
+    /**
+     * The mapping itself is released once the buffer is no longer referenced.
+     * Closing a view has no effect.
+     */
+    @Override
+    public void close() throws IOException {
+        if( channel!=null ) channel.close();
+    }
+
+    @Override
+    public void readDoubles(double[] values,int offset,int length) throws IOException {
+    	require(8*length);
+    	buffer.asDoubleBuffer().get(values,offset,length);   // View takes the buffer's order
+    	buffer.position(buffer.position()+8*length);
+    }
+
+    @Override
+    public byte readByte() throws IOException {
+    	require(1);
+        return buffer.get();
+    }
+    @Override
+    public int readUnsignedByte() throws IOException {
+        return readByte() & 0xff;
+    }
+    @Override
+    public short readShort() throws IOException {
+    	require(2);
+    	return buffer.getShort();
+    }
+    @Override
+    public int readUnsignedShort() throws IOException {
+    	return readShort() & 0xffff;
+    }
+    @Override
+    public char readChar() throws IOException {
+    	require(2);
+    	return buffer.getChar();
+    }
+    @Override
+    public int readInt() throws IOException {
+    	require(4);
+    	return buffer.getInt();
+    }
+    @Override
+    public long readLong() throws IOException {
+    	require(8);
+    	return buffer.getLong();
+    }
+    @Override
+    public float readFloat() throws IOException {
+    	require(4);
+    	return buffer.getFloat();
+    }
+    @Override
+    public double readDouble() throws IOException {
+    	require(8);
+    	return buffer.getDouble();
+    }
+    @Override
+    public boolean readBoolean() throws IOException {
+    	return readByte()!=0;
+    }
+
+    @Override
+    public int skipBytes(int num) throws IOException {
+    	int count = Math.max(0,Math.min(num,buffer.remaining()));
+    	buffer.position(buffer.position()+count);
+        return count;
+    }
+
+	@Override
+	public void readFully(byte[] b) throws IOException {
+		readFully(b,0,b.length);
+	}
+
+	@Override
+	public void readFully(byte[] b, int off, int len) throws IOException {
+		require(len);
+		buffer.get(b,off,len);
+	}
+
+	/**
+	 * As DataInputStream, each byte is taken as a character. The line ends
+	 * at '\n', '\r' or "\r\n", which is not included.
+	 * @return the line, or null if no bytes remain
+	 */
+	@Override
+	public String readLine() throws IOException {
+		if( !buffer.hasRemaining() ) return null;
+		StringBuilder line = new StringBuilder();
+		while( buffer.hasRemaining() ) {
+			int c = buffer.get() & 0xff;
+			if( c=='\n' ) break;
+			if( c=='\r' ) {
+				if( buffer.hasRemaining() && buffer.get(buffer.position())=='\n' ) buffer.get();
+				break;
+			}
+			line.append((char)c);
+		}
+		return line.toString();
+	}
+
+	/**
+	 * The length prefix is read in the current byte order.
+	 */
+	@Override
+	public String readUTF() throws IOException {
+		return DataInputStream.readUTF(this);
+	}
+
+	// Match the stream behavior at end of file
+	private void require(int count) throws EOFException {
+		if( buffer.remaining()<count ) {
+			throw new EOFException(String.format("%d bytes requested at %d, %d remain",count,buffer.position(),buffer.remaining()));
+		}
+	}
+}
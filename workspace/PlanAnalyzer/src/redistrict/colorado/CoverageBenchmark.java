@@ -0,0 +1,191 @@
+package redistrict.colorado;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.logging.Logger;
+
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.prep.PreparedGeometry;
+import org.locationtech.jts.geom.prep.PreparedGeometryFactory;
+import org.locationtech.jts.index.strtree.STRtree;
+import org.locationtech.jts.operation.union.CascadedPolygonUnion;
+import org.locationtech.jts.triangulate.VoronoiDiagramBuilder;
+
+import redistrict.colorado.core.CoverageOverlay;
+import redistrict.colorado.core.OverlapCalculator;
+import redistrict.colorado.core.OverlapMatrix;
+
+/**
+ * Compare the coverage overlay with the per-district overlay on synthetic coverages.
+ * Districts and source features are both Voronoi tessellations of a square, from
+ * random seeds. The per-district path is that of the aggregation: candidates from a
+ * spatial index, a prepared intersection test, then the area kernel, with the JTS
+ * intersection where the kernel declines. Both methods are timed over the same
+ * inputs, after a warm-up pass, and the largest difference in area fraction is
+ * reported. Districts that the coverage overlay does not fill are counted, since
+ * they would fall back to the per-district path. No database is needed.
+ *
+ * If nested, each district is instead the union of the source features whose
+ * interior points fall in its cell, as a plan drawn from census blocks would be.
+ * The district boundaries then follow source boundaries and are much longer.
+ *
+ * Arguments (all optional): districts, source features, random seed, nested (true/false).
+ */
+public class CoverageBenchmark {
+	private static final String CLSS = "CoverageBenchmark";
+	private static final Logger LOGGER = Logger.getLogger(CLSS);
+	private static final double SIDE = 100.;
+	private static final int DEFAULT_DISTRICTS = 8;
+	private static final int DEFAULT_SOURCES = 20000;
+	private static final int PASSES = 3;          // The first is a warm-up and is not counted
+	private final GeometryFactory factory = new GeometryFactory();
+
+	/**
+	 * @return the cells of a Voronoi tessellation of the square, clipped to it
+	 */
+	private List<Geometry> tessellate(int count,Random random) {
+		List<Coordinate> seeds = new ArrayList<>();
+		for(int i=0;i<count;i++) {
+			seeds.add(new Coordinate(SIDE*random.nextDouble(),SIDE*random.nextDouble()));
+		}
+		Envelope square = new Envelope(0.,SIDE,0.,SIDE);
+		VoronoiDiagramBuilder builder = new VoronoiDiagramBuilder();
+		builder.setSites(seeds);
+		builder.setClipEnvelope(square);
+		Geometry diagram = builder.getDiagram(factory);
+		Geometry clip = factory.toGeometry(square);
+		List<Geometry> cells = new ArrayList<>();
+		for(int i=0;i<diagram.getNumGeometries();i++) {
+			cells.add(diagram.getGeometryN(i).intersection(clip));
+		}
+		return cells;
+	}
+
+	/**
+	 * @return districts that are unions of the source features whose interior points lie in each cell
+	 */
+	private List<Geometry> nest(List<Geometry> cells,List<Geometry> sources) {
+		List<List<Geometry>> members = new ArrayList<>();
+		List<PreparedGeometry> prepared = new ArrayList<>();
+		for(Geometry cell:cells) {
+			members.add(new ArrayList<>());
+			prepared.add(PreparedGeometryFactory.prepare(cell));
+		}
+		for(Geometry source:sources) {
+			Geometry point = source.getInteriorPoint();
+			for(int row=0;row<cells.size();row++) {
+				if( prepared.get(row).covers(point) ) {
+					members.get(row).add(source);
+					break;
+				}
+			}
+		}
+		List<Geometry> districts = new ArrayList<>();
+		for(List<Geometry> list:members) {
+			if( !list.isEmpty() ) districts.add(CascadedPolygonUnion.union(list));
+		}
+		return districts;
+	}
+
+	/**
+	 * Fill the matrix district by district, as the aggregation does without a coverage overlay.
+	 */
+	private void overlayByDistrict(List<Geometry> districts,List<Geometry> sources,STRtree index,OverlapMatrix matrix) {
+		for(int row=0;row<districts.size();row++) {
+			Geometry geometry = districts.get(row);
+			PreparedGeometry district = PreparedGeometryFactory.prepare(geometry);
+			OverlapCalculator calculator = new OverlapCalculator(geometry);
+			@SuppressWarnings("unchecked")
+			List<Integer> candidates = index.query(geometry.getEnvelopeInternal());
+			List<Integer> positions = new ArrayList<>();
+			List<Double> fractions = new ArrayList<>();
+			for(Integer position:candidates) {
+				Geometry source = sources.get(position);
+				if( !district.intersects(source) ) continue;
+				double fraction = calculator.areaRatio(source);
+				if( Double.isNaN(fraction) ) fraction = source.intersection(geometry).getArea()/source.getArea();
+				positions.add(position);
+				fractions.add(fraction);
+			}
+			int[] p = new int[positions.size()];
+			double[] f = new double[fractions.size()];
+			for(int i=0;i<p.length;i++) {
+				p[i] = positions.get(i);
+				f[i] = fractions.get(i);
+			}
+			matrix.setRow(row,p,f);
+		}
+	}
+
+	private void run(int districtCount,int sourceCount,long seed,boolean nested) {
+		Random random = new Random(seed);
+		List<Geometry> districts = tessellate(districtCount,random);
+		List<Geometry> sources = tessellate(sourceCount,random);
+		if( nested ) districts = nest(districts,sources);
+		int vertices = 0;
+		for(Geometry district:districts) {
+			vertices += district.getNumPoints();
+		}
+		STRtree index = new STRtree();
+		for(int position=0;position<sources.size();position++) {
+			index.insert(sources.get(position).getEnvelopeInternal(),position);
+		}
+		index.build();
+		OverlapMatrix exact = null;
+		OverlapMatrix coverage = null;
+		boolean[] filled = null;
+		long districtNanos = 0;
+		long coverageNanos = 0;
+		for(int pass=0;pass<PASSES;pass++) {
+			long start = System.nanoTime();
+			exact = new OverlapMatrix(districts.size(),sources.size());
+			overlayByDistrict(districts,sources,index,exact);
+			long middle = System.nanoTime();
+			coverage = new OverlapMatrix(districts.size(),sources.size());
+			CoverageOverlay overlay = new CoverageOverlay(districts,sources);
+			filled = overlay.overlay(coverage,new boolean[districts.size()]);
+			long end = System.nanoTime();
+			if( pass>0 ) {
+				districtNanos += middle-start;
+				coverageNanos += end-middle;
+			}
+		}
+		int unfilled = 0;
+		double worst = 0.;
+		double[] dense = new double[sources.size()];
+		for(int row=0;row<districts.size();row++) {
+			if( !filled[row] ) {
+				unfilled++;
+				continue;
+			}
+			Arrays.fill(dense,0.);
+			int[] positions = exact.getFeatures(row);
+			double[] weights = exact.getWeights(row);
+			for(int i=0;i<positions.length;i++) dense[positions[i]] = weights[i];
+			positions = coverage.getFeatures(row);
+			weights = coverage.getWeights(row);
+			for(int i=0;i<positions.length;i++) dense[positions[i]] -= weights[i];
+			for(double difference:dense) worst = Math.max(worst,Math.abs(difference));
+		}
+		int passes = PASSES-1;
+		LOGGER.info(String.format("%s: %d %sdistricts of %d vertices in all, %d sources, seed %d",CLSS,districts.size(),
+				(nested?"nested ":""),vertices,sources.size(),seed));
+		LOGGER.info(String.format("%s: per district %d msecs, coverage overlay %d msecs per pass, speedup %2.1f",CLSS,
+				districtNanos/passes/1000000,coverageNanos/passes/1000000,(double)districtNanos/Math.max(1,coverageNanos)));
+		LOGGER.info(String.format("%s: largest difference in area fraction %2.3e, %d districts not filled by the coverage overlay",CLSS,
+				worst,unfilled));
+	}
+
+	public static void main(String[] args) {
+		int districts = (args.length>0 ? Integer.parseInt(args[0]) : DEFAULT_DISTRICTS);
+		int sources = (args.length>1 ? Integer.parseInt(args[1]) : DEFAULT_SOURCES);
+		long seed = (args.length>2 ? Long.parseLong(args[2]) : 1L);
+		boolean nested = (args.length>3 ? Boolean.parseBoolean(args[3]) : false);
+		new CoverageBenchmark().run(districts,sources,seed,nested);
+	}
+}
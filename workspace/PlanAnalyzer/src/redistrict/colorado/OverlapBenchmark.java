@@ -0,0 +1,161 @@
+package redistrict.colorado;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.logging.Logger;
+
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+
+import redistrict.colorado.core.DistrictPartition;
+import redistrict.colorado.core.OverlapCalculator;
+
+/**
+ * Compare the area-only overlap kernel with the JTS intersection on synthetic data.
+ * A district with a long, wiggly boundary is overlaid with randomly placed source
+ * polygons, about a quarter of which straddle the boundary. Both methods are timed over the
+ * same sources, after a warm-up pass, and the largest difference in area fraction
+ * is reported. No database is needed.
+ *
+ * If a cell size is given, the district is instead partitioned into cells, and the
+ * partitioned overlay is compared with the kernel applied to the whole district.
+ * The time to build the partition is reported separately, together with the total
+ * for a district aggregated against several layers, with the partition built afresh
+ * and taken from the cache.
+ *
+ * Arguments (all optional): district vertices, source features, random seed, cell size.
+ */
+public class OverlapBenchmark {
+	private static final String CLSS = "OverlapBenchmark";
+	private static final Logger LOGGER = Logger.getLogger(CLSS);
+	private static final int DEFAULT_VERTICES = 10000;
+	private static final int DEFAULT_SOURCES = 1000;
+	private static final int PASSES = 2;          // The first is a warm-up and is not counted
+	private static final int LAYERS = 3;          // Affiliation, demographic and county
+	private final GeometryFactory factory = new GeometryFactory();
+
+	/**
+	 * A closed ring around the origin whose radius oscillates at two frequencies.
+	 */
+	private Geometry createDistrict(int vertices) {
+		Coordinate[] ring = new Coordinate[vertices+1];
+		for(int i=0;i<vertices;i++) {
+			double theta = 2*Math.PI*i/vertices;
+			double radius = 50.+3.*Math.sin(40*theta)+0.3*Math.sin(vertices/20*theta);
+			ring[i] = new Coordinate(2*radius*Math.cos(theta),radius*Math.sin(theta));
+		}
+		ring[vertices] = ring[0];
+		return factory.createPolygon(ring);
+	}
+
+	/**
+	 * Small polygons, of up to 32 vertices, placed around the district boundary.
+	 */
+	private List<Geometry> createSources(int count,Random random) {
+		List<Geometry> sources = new ArrayList<>();
+		for(int i=0;i<count;i++) {
+			double theta = 2*Math.PI*random.nextDouble();
+			double radius = 42.+16.*random.nextDouble();
+			Coordinate center = new Coordinate(2*radius*Math.cos(theta),radius*Math.sin(theta));
+			sources.add(factory.createPoint(center).buffer(0.5+2.*random.nextDouble(),1+random.nextInt(8)));
+		}
+		return sources;
+	}
+
+	private void runPartitioned(int vertices,int count,long seed,double cellSize) {
+		Geometry district = createDistrict(vertices);
+		List<Geometry> sources = createSources(count,new Random(seed));
+		double[] whole = new double[count];
+		double[] parts = new double[count];
+		long wholeNanos = 0;
+		long partNanos = 0;
+		long buildNanos = 0;
+		int pieces = 0;
+		for(int pass=0;pass<PASSES;pass++) {
+			long start = System.nanoTime();
+			OverlapCalculator calculator = new OverlapCalculator(district);
+			for(int i=0;i<count;i++) {
+				whole[i] = calculator.areaRatio(sources.get(i));
+			}
+			long middle = System.nanoTime();
+			DistrictPartition partition = new DistrictPartition(district,cellSize);
+			long built = System.nanoTime();
+			// As taken from the cache, with fresh area kernels
+			partition = partition.copy();
+			for(int i=0;i<count;i++) {
+				parts[i] = partition.areaRatio(sources.get(i));
+			}
+			long end = System.nanoTime();
+			if( pass>0 ) {
+				wholeNanos += middle-start;
+				buildNanos += built-middle;
+				partNanos += end-built;
+			}
+			pieces = partition.getPieceCount();
+		}
+		double worst = 0.;
+		for(int i=0;i<count;i++) {
+			worst = Math.max(worst,Math.abs(whole[i]-parts[i]));
+		}
+		int passes = PASSES-1;
+		long wholeMsecs = wholeNanos/passes/1000000;
+		long partMsecs = partNanos/passes/1000000;
+		long buildMsecs = buildNanos/passes/1000000;
+		LOGGER.info(String.format("%s: district of %d vertices, %d sources, seed %d, %d pieces of size %f",CLSS,vertices,count,seed,pieces,cellSize));
+		LOGGER.info(String.format("%s: whole %d msecs, partitioned %d msecs per layer, partition built in %d msecs",CLSS,
+				wholeMsecs,partMsecs,buildMsecs));
+		LOGGER.info(String.format("%s: %d layers: whole %d msecs, partition built %d msecs, partition cached %d msecs",CLSS,LAYERS,
+				LAYERS*wholeMsecs,buildMsecs+LAYERS*partMsecs,LAYERS*partMsecs));
+		LOGGER.info(String.format("%s: largest difference in area fraction %2.3e",CLSS,worst));
+	}
+
+	private void run(int vertices,int count,long seed) {
+		Geometry district = createDistrict(vertices);
+		List<Geometry> sources = createSources(count,new Random(seed));
+		double[] kernel = new double[count];
+		double[] exact = new double[count];
+		long kernelNanos = 0;
+		long exactNanos = 0;
+		for(int pass=0;pass<PASSES;pass++) {
+			long start = System.nanoTime();
+			OverlapCalculator calculator = new OverlapCalculator(district);
+			for(int i=0;i<count;i++) {
+				kernel[i] = calculator.areaRatio(sources.get(i));
+			}
+			long middle = System.nanoTime();
+			for(int i=0;i<count;i++) {
+				Geometry source = sources.get(i);
+				exact[i] = source.intersection(district).getArea()/source.getArea();
+			}
+			long end = System.nanoTime();
+			if( pass>0 ) {
+				kernelNanos += middle-start;
+				exactNanos += end-middle;
+			}
+		}
+		int declined = 0;
+		int straddling = 0;
+		double worst = 0.;
+		for(int i=0;i<count;i++) {
+			if( exact[i]>0. && exact[i]<1. ) straddling++;
+			if( Double.isNaN(kernel[i]) ) declined++;
+			else worst = Math.max(worst,Math.abs(kernel[i]-exact[i]));
+		}
+		int passes = PASSES-1;
+		LOGGER.info(String.format("%s: district of %d vertices, %d sources (%d straddling), seed %d",CLSS,vertices,count,straddling,seed));
+		LOGGER.info(String.format("%s: area kernel %d msecs, intersection %d msecs per pass, speedup %2.1f",CLSS,
+				kernelNanos/passes/1000000,exactNanos/passes/1000000,(double)exactNanos/Math.max(1,kernelNanos)));
+		LOGGER.info(String.format("%s: largest difference in area fraction %2.3e, %d declined by the kernel",CLSS,worst,declined));
+	}
+
+	public static void main(String[] args) {
+		int vertices = (args.length>0 ? Integer.parseInt(args[0]) : DEFAULT_VERTICES);
+		int count = (args.length>1 ? Integer.parseInt(args[1]) : DEFAULT_SOURCES);
+		long seed = (args.length>2 ? Long.parseLong(args[2]) : 1L);
+		double cellSize = (args.length>3 ? Double.parseDouble(args[3]) : 0.);
+		if( cellSize>0. ) new OverlapBenchmark().runPartitioned(vertices,count,seed,cellSize);
+		else new OverlapBenchmark().run(vertices,count,seed);
+	}
+}
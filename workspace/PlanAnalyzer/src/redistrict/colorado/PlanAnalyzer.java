@@ -24,6 +24,7 @@ import redistrict.colorado.core.LoggerUtility;
 import redistrict.colorado.core.PathConstants;
 import redistrict.colorado.db.Database;
 import redistrict.colorado.pane.MainSplitPane;
+import redistrict.colorado.plan.BackgroundAggregator;
 import redistrict.colorado.ui.MainMenuBar;
 import redistrict.colorado.ui.StatusPane;
 import redistrict.colorado.ui.UIConstants;
@@ -57,10 +58,13 @@ public class PlanAnalyzer extends Application {
 		
 		root.setScene(mainScene);
 		root.show();
+		// Compute any missing plan metrics before they are needed
+		BackgroundAggregator.getInstance().schedule();
 	}
 	
 	@Override
 	public void stop() {
+		BackgroundAggregator.getInstance().cancel();
 		Database.getInstance().shutdown();
 	}
 
@@ -0,0 +1,128 @@
+package redistrict.colorado;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.logging.Logger;
+
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.triangulate.VoronoiDiagramBuilder;
+
+import redistrict.colorado.core.OverlapCalculator;
+import redistrict.colorado.core.OverlapMatrix;
+import redistrict.colorado.core.RasterOverlay;
+
+/**
+ * Cross-check the raster estimate of district overlaps against the exact area
+ * kernel on synthetic coverages. Districts and source features are both Voronoi
+ * tessellations of a square, from random seeds, so that their boundaries are
+ * unrelated. Each source is given a random population. For every district the
+ * check reports the area and population assigned by each method. The difference
+ * in area, as a fraction of the district, must not exceed the bound that the
+ * raster reports for that district. No database is needed.
+ *
+ * Arguments (all optional): districts, source features, acceptable area error, random seed.
+ */
+public class RasterCheck {
+	private static final String CLSS = "RasterCheck";
+	private static final Logger LOGGER = Logger.getLogger(CLSS);
+	private static final double SIDE = 100.;
+	private static final int DEFAULT_DISTRICTS = 8;
+	private static final int DEFAULT_SOURCES = 3000;
+	private static final double DEFAULT_ERROR = 0.01;
+	private final GeometryFactory factory = new GeometryFactory();
+
+	/**
+	 * @return the cells of a Voronoi tessellation of the square, clipped to it
+	 */
+	private List<Geometry> tessellate(int count,Random random) {
+		List<Coordinate> seeds = new ArrayList<>();
+		for(int i=0;i<count;i++) {
+			seeds.add(new Coordinate(SIDE*random.nextDouble(),SIDE*random.nextDouble()));
+		}
+		Envelope square = new Envelope(0.,SIDE,0.,SIDE);
+		VoronoiDiagramBuilder builder = new VoronoiDiagramBuilder();
+		builder.setSites(seeds);
+		builder.setClipEnvelope(square);
+		Geometry diagram = builder.getDiagram(factory);
+		Geometry clip = factory.toGeometry(square);
+		List<Geometry> cells = new ArrayList<>();
+		for(int i=0;i<diagram.getNumGeometries();i++) {
+			cells.add(diagram.getGeometryN(i).intersection(clip));
+		}
+		return cells;
+	}
+
+	private boolean run(int districtCount,int sourceCount,double maxError,long seed) {
+		Random random = new Random(seed);
+		List<Geometry> districts = tessellate(districtCount,random);
+		List<Geometry> sources = tessellate(sourceCount,random);
+		double[] area = new double[sources.size()];
+		double[] population = new double[sources.size()];
+		for(int position=0;position<sources.size();position++) {
+			area[position] = sources.get(position).getArea();
+			population[position] = random.nextInt(2000);
+		}
+		// Exact weights
+		long start = System.nanoTime();
+		OverlapMatrix exact = new OverlapMatrix(districts.size(),sources.size());
+		for(int row=0;row<districts.size();row++) {
+			OverlapCalculator calculator = new OverlapCalculator(districts.get(row));
+			Envelope env = districts.get(row).getEnvelopeInternal();
+			List<Integer> positions = new ArrayList<>();
+			List<Double> fractions = new ArrayList<>();
+			for(int position=0;position<sources.size();position++) {
+				Geometry source = sources.get(position);
+				if( !env.intersects(source.getEnvelopeInternal()) ) continue;
+				double fraction = calculator.areaRatio(source);
+				if( Double.isNaN(fraction) ) fraction = source.intersection(districts.get(row)).getArea()/area[position];
+				if( fraction<=0. ) continue;
+				positions.add(position);
+				fractions.add(fraction);
+			}
+			int[] p = new int[positions.size()];
+			double[] f = new double[fractions.size()];
+			for(int i=0;i<p.length;i++) {
+				p[i] = positions.get(i);
+				f[i] = fractions.get(i);
+			}
+			exact.setRow(row,p,f);
+		}
+		long exactNanos = System.nanoTime()-start;
+		// Raster estimate
+		start = System.nanoTime();
+		RasterOverlay raster = new RasterOverlay(districts,maxError);
+		OverlapMatrix estimate = new OverlapMatrix(districts.size(),sources.size());
+		raster.overlay(estimate,sources,new boolean[districts.size()]);
+		long rasterNanos = System.nanoTime()-start;
+
+		LOGGER.info(String.format("%s: %d districts, %d sources, area error %2.4f, seed %d",CLSS,districts.size(),sources.size(),maxError,seed));
+		LOGGER.info(String.format("%s: exact %d msecs, raster %d msecs (%d cells of size %f)",CLSS,exactNanos/1000000,
+				rasterNanos/1000000,raster.getCellCount(),raster.getCellSize()));
+		boolean success = true;
+		for(int row=0;row<districts.size();row++) {
+			double districtArea = districts.get(row).getArea();
+			double areaError = Math.abs(estimate.multiply(row,area)-exact.multiply(row,area))/districtArea;
+			double exactPopulation = exact.multiply(row,population);
+			double populationError = Math.abs(estimate.multiply(row,population)-exactPopulation)/Math.max(1.,exactPopulation);
+			boolean within = areaError<=raster.getErrorBound(row);
+			if( !within ) success = false;
+			LOGGER.info(String.format("%s: district %d, area error %2.5f (bound %2.5f)%s, population %1.0f, error %2.5f",CLSS,row,
+					areaError,raster.getErrorBound(row),(within?"":" EXCEEDED"),exactPopulation,populationError));
+		}
+		LOGGER.info(String.format("%s: %s",CLSS,(success?"all districts within their bounds":"FAILED")));
+		return success;
+	}
+
+	public static void main(String[] args) {
+		int districts = (args.length>0 ? Integer.parseInt(args[0]) : DEFAULT_DISTRICTS);
+		int sources = (args.length>1 ? Integer.parseInt(args[1]) : DEFAULT_SOURCES);
+		double maxError = (args.length>2 ? Double.parseDouble(args[2]) : DEFAULT_ERROR);
+		long seed = (args.length>3 ? Long.parseLong(args[3]) : 1L);
+		boolean success = new RasterCheck().run(districts,sources,maxError,seed);
+		System.exit(success?0:1);
+	}
+}
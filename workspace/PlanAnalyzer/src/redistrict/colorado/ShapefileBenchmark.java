@@ -0,0 +1,200 @@
+package redistrict.colorado;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+import java.util.logging.Logger;
+
+import org.geotools.data.shapefile.ShapeIndexFile;
+import org.geotools.data.shapefile.Shapefile;
+import org.locationtech.jts.geom.GeometryCollection;
+import org.openjump.io.EndianAwareInput;
+import org.openjump.io.EndianAwareInputStream;
+import org.openjump.io.MappedFileInput;
+
+/**
+ * Compare the memory-mapped read of a shapefile with the stream read on synthetic data.
+ * A polygon shapefile and its index are written to a temporary directory. The same
+ * file is then decoded through a buffered stream, as an archive entry is, through
+ * the mapping sequentially, and through the mapping in parallel at the offsets of
+ * the index, as an uncompressed shapefile is. Each is timed after a warm-up pass,
+ * with the file in the operating system's cache, and the geometries are checked
+ * against those of the first stream read. No database is needed.
+ *
+ * Arguments (all optional): records, vertices per record, random seed.
+ */
+public class ShapefileBenchmark {
+	private static final String CLSS = "ShapefileBenchmark";
+	private static final Logger LOGGER = Logger.getLogger(CLSS);
+	private static final int DEFAULT_RECORDS = 100000;
+	private static final int DEFAULT_VERTICES = 32;
+	private static final int PASSES = 3;          // The first is a warm-up and is not counted
+	private static final int STREAMED = 0;        // Methods, in the order they are run
+	private static final int MAPPED = 1;
+	private static final int PARALLEL = 2;
+	private static final int METHODS = 3;
+	private static final int FILE_CODE = 9994;     // Identifies a shapefile
+	private static final int HEADER_BYTES = 100;
+	private static final double SIDE = 1000.;
+
+	/**
+	 * Write a polygon shapefile of single-ring records, and its index. Rings are
+	 * clockwise, as shells are in a shapefile.
+	 */
+	private void write(File shp,File shx,int records,int vertices,long seed) throws IOException {
+		int points = vertices+1;
+		int contentBytes = 4+32+4+4+4+16*points;
+		int shpBytes = HEADER_BYTES+records*(8+contentBytes);
+		int shxBytes = HEADER_BYTES+records*8;
+		Random random = new Random(seed);
+		ByteBuffer body = ByteBuffer.allocate(shpBytes-HEADER_BYTES);
+		ByteBuffer index = ByteBuffer.allocate(shxBytes-HEADER_BYTES);
+		int offset = HEADER_BYTES;
+		for(int record=1;record<=records;record++) {
+			double x = SIDE*random.nextDouble();
+			double y = SIDE*random.nextDouble();
+			double radius = 0.5+random.nextDouble();
+			index.order(ByteOrder.BIG_ENDIAN).putInt(offset/2).putInt(contentBytes/2);
+			body.order(ByteOrder.BIG_ENDIAN).putInt(record).putInt(contentBytes/2);
+			body.order(ByteOrder.LITTLE_ENDIAN).putInt(Shapefile.POLYGON);
+			body.putDouble(x-radius).putDouble(y-radius).putDouble(x+radius).putDouble(y+radius);
+			body.putInt(1).putInt(points).putInt(0);
+			for(int i=0;i<points;i++) {
+				double theta = -2*Math.PI*(i%vertices)/vertices;
+				body.putDouble(x+radius*Math.cos(theta)).putDouble(y+radius*Math.sin(theta));
+			}
+			offset += 8+contentBytes;
+		}
+		writeFile(shp,header(shpBytes),body);
+		writeFile(shx,header(shxBytes),index);
+	}
+
+	private ByteBuffer header(int fileBytes) {
+		ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+		header.order(ByteOrder.BIG_ENDIAN).putInt(FILE_CODE);
+		for(int i=0;i<5;i++) header.putInt(0);
+		header.putInt(fileBytes/2);
+		header.order(ByteOrder.LITTLE_ENDIAN).putInt(1000).putInt(Shapefile.POLYGON);
+		header.putDouble(0.).putDouble(0.).putDouble(SIDE).putDouble(SIDE);
+		for(int i=0;i<4;i++) header.putDouble(0.);
+		return header;
+	}
+
+	private void writeFile(File file,ByteBuffer header,ByteBuffer body) throws IOException {
+		header.flip();
+		body.flip();
+		try (FileChannel channel = FileChannel.open(file.toPath(),StandardOpenOption.CREATE,StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			while( header.hasRemaining() ) channel.write(header);
+			while( body.hasRemaining() ) channel.write(body);
+		}
+	}
+
+	private ShapeIndexFile readIndex(EndianAwareInput input,int records) throws Exception {
+		try (EndianAwareInput in = input) {
+			ShapeIndexFile index = new ShapeIndexFile(records);
+			index.load(in);
+			return index;
+		}
+	}
+
+	// Streamed, as a component of an archive is read
+	private GeometryCollection readStreamed(File shp,File shx,int records) throws Exception {
+		ShapeIndexFile index = readIndex(new EndianAwareInputStream(new BufferedInputStream(new FileInputStream(shx))),records);
+		try (EndianAwareInput in = new EndianAwareInputStream(new BufferedInputStream(new FileInputStream(shp)))) {
+			Shapefile shapefile = new Shapefile();
+			shapefile.load(in,index);
+			return shapefile.getGeometryCollection();
+		}
+	}
+
+	// Mapped, without the index, so the records are decoded one after another
+	private GeometryCollection readMapped(File shp) throws Exception {
+		try (MappedFileInput in = new MappedFileInput(shp)) {
+			Shapefile shapefile = new Shapefile();
+			shapefile.load(in,null);
+			return shapefile.getGeometryCollection();
+		}
+	}
+
+	// Mapped with the index, as an uncompressed shapefile is read
+	private GeometryCollection readParallel(File shp,File shx,int records) throws Exception {
+		ShapeIndexFile index = readIndex(new MappedFileInput(shx),records);
+		try (MappedFileInput in = new MappedFileInput(shp)) {
+			Shapefile shapefile = new Shapefile();
+			shapefile.load(in,index);
+			return shapefile.getGeometryCollection();
+		}
+	}
+
+	private GeometryCollection read(int method,File shp,File shx,int records) throws Exception {
+		switch(method) {
+			case STREAMED: return readStreamed(shp,shx,records);
+			case MAPPED:   return readMapped(shp);
+			default:       return readParallel(shp,shx,records);
+		}
+	}
+
+	private int countDifferences(GeometryCollection expected,GeometryCollection actual) {
+		if( expected.getNumGeometries()!=actual.getNumGeometries() ) return Math.max(expected.getNumGeometries(),actual.getNumGeometries());
+		int count = 0;
+		for(int i=0;i<expected.getNumGeometries();i++) {
+			if( !expected.getGeometryN(i).equalsExact(actual.getGeometryN(i)) ) count++;
+		}
+		return count;
+	}
+
+	private void run(int records,int vertices,long seed) throws Exception {
+		File directory = Files.createTempDirectory(CLSS).toFile();
+		File shp = new File(directory,"benchmark.shp");
+		File shx = new File(directory,"benchmark.shx");
+		try {
+			write(shp,shx,records,vertices,seed);
+			// The stream read of the warm-up pass is the reference. Other results are released
+			// once checked, and garbage is collected before each read, so that the timings
+			// are not distorted by the collection of earlier results.
+			GeometryCollection reference = null;
+			long[] nanos = new long[METHODS];
+			int[] differences = new int[METHODS];
+			for(int pass=0;pass<PASSES;pass++) {
+				for(int method=0;method<METHODS;method++) {
+					System.gc();
+					long start = System.nanoTime();
+					GeometryCollection result = read(method,shp,shx,records);
+					long elapsed = System.nanoTime()-start;
+					if( reference==null ) reference = result;
+					else differences[method] = Math.max(differences[method],countDifferences(reference,result));
+					if( pass>0 ) nanos[method] += elapsed;
+				}
+			}
+			int passes = PASSES-1;
+			LOGGER.info(String.format("%s: %d records of %d vertices, %d bytes, seed %d",CLSS,records,vertices,shp.length(),seed));
+			LOGGER.info(String.format("%s: streamed %d msecs, mapped %d msecs, mapped in parallel %d msecs per pass",CLSS,
+					nanos[STREAMED]/passes/1000000,nanos[MAPPED]/passes/1000000,nanos[PARALLEL]/passes/1000000));
+			LOGGER.info(String.format("%s: speedup %2.1f mapped, %2.1f mapped in parallel (%d processors)",CLSS,
+					(double)nanos[STREAMED]/Math.max(1,nanos[MAPPED]),(double)nanos[STREAMED]/Math.max(1,nanos[PARALLEL]),
+					Runtime.getRuntime().availableProcessors()));
+			LOGGER.info(String.format("%s: %d records differ when streamed, %d when mapped, %d in parallel",CLSS,
+					differences[STREAMED],differences[MAPPED],differences[PARALLEL]));
+		}
+		finally {
+			shp.delete();
+			shx.delete();
+			directory.delete();
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		int records = (args.length>0 ? Integer.parseInt(args[0]) : DEFAULT_RECORDS);
+		int vertices = (args.length>1 ? Integer.parseInt(args[1]) : DEFAULT_VERTICES);
+		long seed = (args.length>2 ? Long.parseLong(args[2]) : 1L);
+		new ShapefileBenchmark().run(records,vertices,seed);
+	}
+}
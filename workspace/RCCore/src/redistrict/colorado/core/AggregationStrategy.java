@@ -0,0 +1,60 @@
+/**  
+ * Copyright (C) 2020 Charles Coughlin
+ * 
+ * This program is free software; you may redistribute it and/or
+ * modify it under the terms of the GNU General Public License.
+ */
+package redistrict.colorado.core;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Specify the available methods for overlaying source datasets with the districts
+ * of a plan. Create lookup maps between labels and enums. Go both directions.
+ */
+public enum AggregationStrategy
+{
+	COVERAGE,
+	DISTRICT,
+	RASTER
+	;
+
+	// Create a map for reverse lookup by string
+	private static final Map<String, AggregationStrategy> LABEL_MAP = createLabelMap();
+	private static final Map<AggregationStrategy,String> ENUM_MAP = createEnumMap();
+    private static Map<String, AggregationStrategy> createLabelMap() {
+        Map<String, AggregationStrategy> map = new HashMap<>();
+        map.put("Coverage Overlay",COVERAGE);
+        map.put("District by District",DISTRICT);
+        map.put("Raster Estimate",RASTER);
+        return map;
+    }  
+    private static Map<AggregationStrategy,String> createEnumMap() {
+        Map<AggregationStrategy,String> map = new HashMap<>();
+        map.put(COVERAGE,"Coverage Overlay");
+        map.put(DISTRICT,"District by District");
+        map.put(RASTER,"Raster Estimate");
+        return map;
+    }  
+
+	/**
+	 * @return strategy labels in a list.
+	 */
+	public static List<String> labels() {
+		List<String> list = new ArrayList<>();
+		for(AggregationStrategy strategy:AggregationStrategy.values() ) {
+			list.add(labelForStrategy(strategy));
+		}
+		return list;
+	}
+
+	public static AggregationStrategy strategyForLabel(String label) {
+		return LABEL_MAP.get(label);
+	}
+	public static String labelForStrategy(AggregationStrategy strategy) {
+		return ENUM_MAP.get(strategy);
+	}
+}
@@ -6,20 +6,38 @@
  */
 package redistrict.colorado.core;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.logging.Logger;
+
 import redistrict.colorado.db.Database;
 import redistrict.colorado.db.DatasetCache;
 import redistrict.colorado.db.PreferencesTable;
+import redistrict.colorado.pref.PreferenceKeys;
 
 /**
  * The analysis model holds the current parameters for running the comparison.
  * These are all configured on the SetupPane
  * Parameter values are stored in the Preferences table.
+ * The settings that determine the metrics of a plan are summarized by a
+ * configuration key, under which computed metrics are cached. Each family of
+ * metrics has its own key, so that a change can be traced to the families it affects.
  */
 public class AnalysisModel {
+	private final static String CLSS = "AnalysisModel";
+	private static Logger LOGGER = Logger.getLogger(CLSS);
 	private final long id;
 	private long affiliationId;
 	private long demographicId;
 	private long countyBoundariesId;   // Or other political boundary
+	private long populationId;         // Fine population dataset for weighting, -1 for area weighting
 	private String affGeoName = null;
 	private String blackName = null;
 	private String countyGeoName = null;
@@ -33,17 +51,21 @@ public class AnalysisModel {
 	private String whiteName = null;
 	private double competitiveThreshold = 0.;;
 	private PartisanMetric partisanMetric = null;
+	private AggregationStrategy aggregationStrategy = null;
 	
 	public AnalysisModel(long id) {
 		this.id = id;
 		this.demographicId = -1;
 		this.affiliationId = -1;
 		this.countyBoundariesId = -1;
+		this.populationId = -1;
 		this.competitiveThreshold = PreferencesTable.DEFAULT_COMETITIVE_THRESHOLD;
 		this.partisanMetric = PartisanMetric.MEAN_MEDIAN;
+		this.aggregationStrategy = AggregationStrategy.DISTRICT;
 	}
 	
 	public long getAffiliationId() { return this.affiliationId; }
+	public AggregationStrategy getAggregationStrategy() { return this.aggregationStrategy; }
 	public String getAffiliationGeometryName() { return this.affGeoName; }
 	public double getCompetitiveThreshold() { return this.competitiveThreshold; }
 	public long getCountyBoundariesId() { return this.countyBoundariesId; }
@@ -59,15 +81,153 @@ public class AnalysisModel {
 	public String getAttributeForRepublican() { return republicanName; }
 	public String getAttributeForWhite() { return whiteName; }
 	public PartisanMetric getPartisanMetric() { return this.partisanMetric; }
+	public long getPopulationId() { return this.populationId; }
 
 	
 	// When we change the affiliations dataset, re-query for the alias names
 	public void setAffiliationId(long aid) { this.affiliationId = aid; }
+	public void setAggregationStrategy(AggregationStrategy strategy) { this.aggregationStrategy = strategy; }
 	public void setDemographicId(long did) { this.demographicId = did; }
 	public void setCompetitiveThreshold(double threshold) { this.competitiveThreshold=threshold; }
 	public void setCountyBoundariesId(long cbid) { 
 		this.countyBoundariesId = cbid; }
 	public void setPartisanMetric(PartisanMetric metric) { this.partisanMetric=metric; }
+	public void setPopulationId(long pid) { this.populationId = pid; }
+	/**
+	 * Compute a key that identifies everything that the aggregated metrics of a plan
+	 * depend upon: the contents of the boundary, affiliation, demographic, county and
+	 * population datasets, their attribute aliases, and the aggregation settings.
+	 * The competitive threshold and partisan metric are applied afterwards, so are
+	 * not part of the key. Exact strategies share a key, since their results agree.
+	 * @param boundary the plan's boundary dataset
+	 * @return a SHA-256 digest in hex, null if any dataset cannot be hashed.
+	 */
+	public String getConfigurationKey(DatasetModel boundary) {
+		if( boundary==null ) return null;
+		StringBuilder description = new StringBuilder();
+		long[] ids = { boundary.getId(),affiliationId,demographicId,countyBoundariesId,populationId };
+		for(long datasetId:ids) {
+			if( !describeDataset(description,datasetId) ) return null;
+		}
+		describeAssignment(description);
+		describeStrategy(description);
+		return digest(description.toString());
+	}
+	/**
+	 * Compute a key that identifies what a single family of metrics depends upon,
+	 * apart from the plan boundaries. A change of setup need only recompute the
+	 * families whose keys differ before and after.
+	 * @param family the metric family
+	 * @return a SHA-256 digest in hex, null if any dataset cannot be hashed.
+	 */
+	public String getFamilyKey(MetricFamily family) {
+		StringBuilder description = new StringBuilder(family.name());
+		switch(family) {
+			case AFFILIATION:
+				if( !describeDataset(description,affiliationId) || !describeDataset(description,populationId) ) return null;
+				describeStrategy(description);
+				break;
+			case DEMOGRAPHIC:
+				if( !describeDataset(description,demographicId) || !describeDataset(description,populationId) ) return null;
+				describeAssignment(description);
+				describeStrategy(description);
+				break;
+			case COUNTY:
+				if( !describeDataset(description,countyBoundariesId) ) return null;
+				break;
+			default:
+				break;
+		}
+		return digest(description.toString());
+	}
+	/**
+	 * @return the key of every metric family
+	 */
+	public Map<MetricFamily,String> getFamilyKeys() {
+		Map<MetricFamily,String> keys = new EnumMap<>(MetricFamily.class);
+		for(MetricFamily family:MetricFamily.values()) {
+			keys.put(family, getFamilyKey(family));
+		}
+		return keys;
+	}
+	/**
+	 * @param previous family keys obtained before a change of setup
+	 * @return the families whose keys have changed since
+	 */
+	public Set<MetricFamily> getChangedFamilies(Map<MetricFamily,String> previous) {
+		Set<MetricFamily> changed = EnumSet.noneOf(MetricFamily.class);
+		for(MetricFamily family:MetricFamily.values()) {
+			String key = getFamilyKey(family);
+			if( key==null || !key.equals(previous.get(family)) ) changed.add(family);
+		}
+		return changed;
+	}
+	/**
+	 * Bring the metrics of plans up to date after a change to this configuration. Each plan
+	 * takes the metrics cached for the new configuration if there are any. Otherwise it keeps
+	 * its metrics with the changed families marked stale. The database holds only current
+	 * metrics, so those of a stale plan are removed.
+	 * @param plans the plans to update
+	 * @param changed the families affected by the change
+	 */
+	public void restoreMetrics(List<PlanModel> plans,Set<MetricFamily> changed) {
+		int restored = 0;
+		for(PlanModel plan:plans) {
+			List<PlanFeature> metrics = Database.getInstance().getMetricCacheTable().getMetrics(plan.getId(),getConfigurationKey(plan.getBoundary()));
+			if( metrics==null ) {
+				plan.invalidateMetrics(changed);
+				Database.getInstance().getPlanTable().clearMetrics(plan.getId());
+			}
+			else {
+				plan.setMetrics(metrics);
+				Database.getInstance().getPlanTable().updatePlanMetrics(plan);
+				restored++;
+			}
+		}
+		LOGGER.info(String.format("%s.restoreMetrics: Restored cached metrics for %d of %d plans, %s stale for the others",CLSS,
+				restored,plans.size(),changed.toString()));
+	}
+	// Append the content hash and the attribute aliases of a dataset.
+	// @return false if the dataset exists but cannot be hashed
+	private boolean describeDataset(StringBuilder description,long datasetId) {
+		description.append('[');
+		DatasetModel dm = DatasetCache.getInstance().getDataset(datasetId);
+		if( dm!=null ) {
+			String hash = dm.getContentHash();
+			if( hash==null ) return false;
+			description.append(hash);
+			// Sorted, so that the order of the alias table is irrelevant
+			Map<String,String> aliases = new TreeMap<>(Database.getInstance().getAttributeAliasTable().aliasByName(datasetId));
+			for(String name:aliases.keySet()) {
+				description.append(';').append(name).append('=').append(aliases.get(name));
+			}
+		}
+		description.append(']');
+		return true;
+	}
+	private void describeAssignment(StringBuilder description) {
+		String assignment = Database.getInstance().getPreferencesTable().getParameter(PreferenceKeys.DEMOGRAPHIC_ASSIGNMENT);
+		description.append(assignment==null?"":assignment.trim().toUpperCase());
+	}
+	private void describeStrategy(StringBuilder description) {
+		if( aggregationStrategy==AggregationStrategy.RASTER ) {
+			description.append(';').append(aggregationStrategy.name()).append('=');
+			description.append(Database.getInstance().getPreferencesTable().getParameter(PreferenceKeys.RASTER_AREA_ERROR));
+		}
+	}
+	private String digest(String description) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			StringBuilder hex = new StringBuilder();
+			for(byte b:digest.digest(description.getBytes(StandardCharsets.UTF_8))) {
+				hex.append(String.format("%02x",b));
+			}
+			return hex.toString();
+		}
+		catch(NoSuchAlgorithmException ex) {
+			return null;
+		}
+	}
 	public void updateAffiliationFeatures() { 
 		DatasetModel dm = DatasetCache.getInstance().getDataset(affiliationId);
 		if(dm==null) return;
@@ -0,0 +1,507 @@
+/**
+ * Copyright (C) 2020 Charles Coughlin
+ *
+ * This program is free software; you may redistribute it and/or
+ * modify it under the terms of the GNU General Public License.
+ */
+package redistrict.colorado.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.locationtech.jts.geom.CoordinateSequence;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.Polygon;
+import org.locationtech.jts.index.strtree.STRtree;
+
+/**
+ * Overlay all districts of a plan with all features of a source dataset at once,
+ * rather than district by district. The area of every district/source fragment is
+ * obtained from a single noding pass over the boundaries of both coverages.
+ *
+ * The boundary segments of the districts are split wherever they cross or overlap a
+ * source boundary and vice versa. Each piece then lies wholly inside or outside any
+ * given polygon. A fragment's area is a line integral (Green's theorem) around its
+ * boundary, which consists of district pieces inside the source and source pieces
+ * inside the district. A district piece is credited to the sources that contain a point
+ * just to its left, that is on the district side. A source piece is credited to a
+ * district only if the district contains points on both sides, so that a piece
+ * shared by the two boundaries is counted once, as a district piece.
+ *
+ * A district whose fragments fail a consistency check is not filled, so that the
+ * caller may fall back to the exact per-district computation.
+ */
+public class CoverageOverlay {
+	private static final double DISTANCE_TOLERANCE = 1.0E-12;   // Fraction of the extent
+	private static final double OFFSET = 1.0E-9;                // Side test offset, fraction of the extent
+	private static final double AREA_TOLERANCE = 1.0E-6;        // Fraction of the source area
+	private static final int MAX_CELLS = 2048;                  // Per side of the noding grid
+	private static final int STRIDE = 4;                        // x0,y0,x1,y1
+	private final List<Geometry> districts;
+	private final List<Geometry> sources;
+	private final Envelope extent;
+	private final double tolerance;
+	private final double offset;
+	private double originX;
+	private double originY;
+	// Packed boundaries
+	private double[] districtSegments;
+	private int[] districtOwners;
+	private int districtCount;
+	private double[] sourceSegments;
+	private int[] sourceOwners;
+	private int sourceCount;
+	// Split points
+	private Splits districtSplits;
+	private Splits sourceSplits;
+	private int pairCount;
+
+	/**
+	 * @param districtGeometries districts by row, Polygon or MultiPolygon. Null entries are ignored.
+	 * @param sourceGeometries source features by position. Null entries are ignored.
+	 */
+	public CoverageOverlay(List<Geometry> districtGeometries,List<Geometry> sourceGeometries) {
+		this.districts = districtGeometries;
+		this.sources = sourceGeometries;
+		this.extent = new Envelope();
+		for(Geometry geometry:districts) {
+			if( geometry!=null ) extent.expandToInclude(geometry.getEnvelopeInternal());
+		}
+		double size = Math.max(1.,Math.max(extent.getWidth(),extent.getHeight()));
+		this.tolerance = DISTANCE_TOLERANCE*size;
+		this.offset = OFFSET*size;
+		this.pairCount = 0;
+	}
+
+	/**
+	 * @return the number of district/source segment pairs that were tested
+	 */
+	public int getPairCount() { return this.pairCount; }
+
+	/**
+	 * Compute the area fractions for all districts in one pass.
+	 * @param matrix receives a row for each district that is computed
+	 * @param skip flags by row, true if the row is already known and need not be set
+	 * @return flags by row, true if the row was set
+	 */
+	public boolean[] overlay(OverlapMatrix matrix,boolean[] skip) {
+		boolean[] filled = new boolean[districts.size()];
+		if( extent.isNull() ) return filled;
+		originX = extent.centre().x;
+		originY = extent.centre().y;
+		pack();
+		node();
+
+		// Index both coverages for point location
+		STRtree districtIndex = new STRtree();
+		DistrictLocator[] districtLocators = new DistrictLocator[districts.size()];
+		for(int row=0;row<districts.size();row++) {
+			Geometry geometry = districts.get(row);
+			if( geometry==null ) continue;
+			districtLocators[row] = new DistrictLocator(geometry);
+			districtIndex.insert(geometry.getEnvelopeInternal(),Integer.valueOf(row));
+		}
+		districtIndex.build();
+		STRtree sourceIndex = new STRtree();
+		DistrictLocator[] sourceLocators = new DistrictLocator[sources.size()];
+		for(int position=0;position<sources.size();position++) {
+			Geometry geometry = sources.get(position);
+			if( geometry==null || !geometry.getEnvelopeInternal().intersects(extent) ) continue;
+			sourceLocators[position] = new DistrictLocator(geometry);
+			sourceIndex.insert(geometry.getEnvelopeInternal(),Integer.valueOf(position));
+		}
+		sourceIndex.build();
+
+		// Accumulate the fragment areas
+		List<Map<Integer,double[]>> areas = new ArrayList<>();
+		for(int row=0;row<districts.size();row++) areas.add(new HashMap<>());
+		double[] piece = new double[STRIDE];
+		for(int seg=0;seg<districtCount;seg++) {
+			int owner = districtOwners[seg];
+			if( skip[owner] ) continue;
+			int pieces = districtSplits.pieceCount(seg);
+			for(int p=0;p<pieces;p++) {
+				if( !districtSplits.piece(districtSegments,seg,p,piece) ) continue;
+				double lx = leftX(piece);
+				double ly = leftY(piece);
+				for(Integer position:query(sourceIndex,lx,ly)) {
+					if( sourceLocators[position].contains(lx,ly) ) accumulate(areas.get(owner),position,piece);
+				}
+			}
+		}
+		for(int seg=0;seg<sourceCount;seg++) {
+			int owner = sourceOwners[seg];
+			int pieces = sourceSplits.pieceCount(seg);
+			for(int p=0;p<pieces;p++) {
+				if( !sourceSplits.piece(sourceSegments,seg,p,piece) ) continue;
+				double lx = leftX(piece);
+				double ly = leftY(piece);
+				double rx = piece[0]+piece[2]-lx;     // Reflected to the right
+				double ry = piece[1]+piece[3]-ly;
+				for(Integer row:query(districtIndex,lx,ly)) {
+					if( skip[row] ) continue;
+					DistrictLocator locator = districtLocators[row];
+					if( locator.contains(lx,ly) && locator.contains(rx,ry) ) accumulate(areas.get(row),owner,piece);
+				}
+			}
+		}
+
+		// Convert to fractions of the source area, checking that each is plausible
+		double[] sourceArea = new double[sources.size()];
+		double[] sourceTotal = new double[sources.size()];
+		for(int row=0;row<districts.size();row++) {
+			for(Map.Entry<Integer,double[]> entry:areas.get(row).entrySet()) {
+				int position = entry.getKey();
+				if( sourceArea[position]==0. ) sourceArea[position] = sources.get(position).getArea();
+				sourceTotal[position] += entry.getValue()[0];
+			}
+		}
+		for(int row=0;row<districts.size();row++) {
+			if( skip[row] || districts.get(row)==null ) continue;
+			Map<Integer,double[]> fragments = areas.get(row);
+			int[] positions = new int[fragments.size()];
+			int count = 0;
+			for(Integer position:fragments.keySet()) positions[count++] = position;
+			Arrays.sort(positions);
+			double[] fractions = new double[count];
+			int kept = 0;
+			boolean valid = true;
+			for(int index=0;index<count;index++) {
+				int position = positions[index];
+				double area = fragments.get(position)[0];
+				double limit = AREA_TOLERANCE*sourceArea[position];
+				if( area<-limit || area>sourceArea[position]+limit || sourceTotal[position]>sourceArea[position]+limit ) {
+					valid = false;
+					break;
+				}
+				double fraction = Math.min(1.,area/sourceArea[position]);
+				if( fraction<=AREA_TOLERANCE ) continue;
+				positions[kept] = position;
+				fractions[kept] = fraction;
+				kept++;
+			}
+			if( !valid ) continue;
+			matrix.setRow(row,Arrays.copyOf(positions,kept),Arrays.copyOf(fractions,kept));
+			filled[row] = true;
+		}
+		return filled;
+	}
+
+	// A point just to the left of the middle of a piece
+	private double leftX(double[] piece) {
+		double dx = piece[2]-piece[0];
+		double dy = piece[3]-piece[1];
+		double length = Math.sqrt(dx*dx+dy*dy);
+		return (piece[0]+piece[2])/2.-dy/length*Math.min(offset,length/4.);
+	}
+	private double leftY(double[] piece) {
+		double dx = piece[2]-piece[0];
+		double dy = piece[3]-piece[1];
+		double length = Math.sqrt(dx*dx+dy*dy);
+		return (piece[1]+piece[3])/2.+dx/length*Math.min(offset,length/4.);
+	}
+
+	@SuppressWarnings("unchecked")
+	private List<Integer> query(STRtree index,double x,double y) {
+		return index.query(new Envelope(x,x,y,y));
+	}
+
+	// Add the line integral of a piece, relative to the origin, to a fragment
+	private void accumulate(Map<Integer,double[]> fragments,int key,double[] piece) {
+		double[] area = fragments.get(key);
+		if( area==null ) {
+			area = new double[1];
+			fragments.put(key,area);
+		}
+		double ax = piece[0]-originX;
+		double ay = piece[1]-originY;
+		double bx = piece[2]-originX;
+		double by = piece[3]-originY;
+		area[0] += 0.5*(ax*by-ay*bx);
+	}
+
+	/**
+	 * Pack the rings of both coverages into segment arrays, interiors on the left.
+	 * Source features entirely outside the districts are omitted.
+	 */
+	private void pack() {
+		districtSegments = new double[STRIDE*1024];
+		districtOwners = new int[1024];
+		districtCount = 0;
+		for(int row=0;row<districts.size();row++) {
+			Geometry geometry = districts.get(row);
+			if( geometry!=null ) packGeometry(geometry,row,true);
+		}
+		sourceSegments = new double[STRIDE*1024];
+		sourceOwners = new int[1024];
+		sourceCount = 0;
+		for(int position=0;position<sources.size();position++) {
+			Geometry geometry = sources.get(position);
+			if( geometry!=null && geometry.getEnvelopeInternal().intersects(extent) ) packGeometry(geometry,position,false);
+		}
+	}
+
+	private void packGeometry(Geometry geometry,int owner,boolean isDistrict) {
+		for(int n=0;n<geometry.getNumGeometries();n++) {
+			Geometry part = geometry.getGeometryN(n);
+			if( !(part instanceof Polygon) ) continue;
+			Polygon polygon = (Polygon)part;
+			packRing(polygon.getExteriorRing().getCoordinateSequence(),true,owner,isDistrict);
+			for(int h=0;h<polygon.getNumInteriorRing();h++) {
+				packRing(polygon.getInteriorRingN(h).getCoordinateSequence(),false,owner,isDistrict);
+			}
+		}
+	}
+
+	private void packRing(CoordinateSequence seq,boolean shell,int owner,boolean isDistrict) {
+		int n = seq.size();
+		if( n<4 ) return;
+		double signed = 0.;
+		double x0 = seq.getX(0);
+		double y0 = seq.getY(0);
+		for(int i=1;i<n-1;i++) {
+			signed += (seq.getX(i)-x0)*(seq.getY(i+1)-y0)-(seq.getY(i)-y0)*(seq.getX(i+1)-x0);
+		}
+		boolean reverse = (shell? signed<0. : signed>0.);
+		double[] segs = (isDistrict?districtSegments:sourceSegments);
+		int[] owners = (isDistrict?districtOwners:sourceOwners);
+		int count = (isDistrict?districtCount:sourceCount);
+		if( count+n > owners.length ) {
+			int size = Math.max(2*owners.length,count+n);
+			segs = Arrays.copyOf(segs,STRIDE*size);
+			owners = Arrays.copyOf(owners,size);
+		}
+		for(int i=0;i<n-1;i++) {
+			int a = (reverse?n-1-i:i);
+			int b = (reverse?n-2-i:i+1);
+			int j = STRIDE*count;
+			segs[j]   = seq.getX(a);
+			segs[j+1] = seq.getY(a);
+			segs[j+2] = seq.getX(b);
+			segs[j+3] = seq.getY(b);
+			owners[count] = owner;
+			count++;
+		}
+		if( isDistrict ) {
+			districtSegments = segs;
+			districtOwners = owners;
+			districtCount = count;
+		}
+		else {
+			sourceSegments = segs;
+			sourceOwners = owners;
+			sourceCount = count;
+		}
+	}
+
+	/**
+	 * Find the split points of every district segment against every source segment.
+	 * Source segments are bucketed in a uniform grid over the extent, so that each
+	 * district segment is tested only against those nearby, and each pair once.
+	 */
+	private void node() {
+		districtSplits = new Splits(districtCount);
+		sourceSplits = new Splits(sourceCount);
+		int cells = Math.max(1,Math.min(MAX_CELLS,(int)Math.sqrt(sourceCount/2.)));
+		double cellWidth = Math.max(extent.getWidth()/cells,tolerance);
+		double cellHeight = Math.max(extent.getHeight()/cells,tolerance);
+		// Compressed cell index over the source segments
+		int[] cellStart = new int[cells*cells+1];
+		for(int seg=0;seg<sourceCount;seg++) {
+			int j = STRIDE*seg;
+			int c0 = cell(Math.min(sourceSegments[j],sourceSegments[j+2]),extent.getMinX(),cellWidth,cells);
+			int c1 = cell(Math.max(sourceSegments[j],sourceSegments[j+2]),extent.getMinX(),cellWidth,cells);
+			int r0 = cell(Math.min(sourceSegments[j+1],sourceSegments[j+3]),extent.getMinY(),cellHeight,cells);
+			int r1 = cell(Math.max(sourceSegments[j+1],sourceSegments[j+3]),extent.getMinY(),cellHeight,cells);
+			for(int r=r0;r<=r1;r++) for(int c=c0;c<=c1;c++) cellStart[r*cells+c+1]++;
+		}
+		for(int k=0;k<cells*cells;k++) cellStart[k+1]+=cellStart[k];
+		int[] cellSegments = new int[cellStart[cells*cells]];
+		int[] fill = Arrays.copyOf(cellStart,cells*cells);
+		for(int seg=0;seg<sourceCount;seg++) {
+			int j = STRIDE*seg;
+			int c0 = cell(Math.min(sourceSegments[j],sourceSegments[j+2]),extent.getMinX(),cellWidth,cells);
+			int c1 = cell(Math.max(sourceSegments[j],sourceSegments[j+2]),extent.getMinX(),cellWidth,cells);
+			int r0 = cell(Math.min(sourceSegments[j+1],sourceSegments[j+3]),extent.getMinY(),cellHeight,cells);
+			int r1 = cell(Math.max(sourceSegments[j+1],sourceSegments[j+3]),extent.getMinY(),cellHeight,cells);
+			for(int r=r0;r<=r1;r++) for(int c=c0;c<=c1;c++) cellSegments[fill[r*cells+c]++] = seg;
+		}
+
+		int[] visited = new int[sourceCount];
+		for(int seg=0;seg<districtCount;seg++) {
+			int j = STRIDE*seg;
+			double minX = Math.min(districtSegments[j],districtSegments[j+2])-tolerance;
+			double maxX = Math.max(districtSegments[j],districtSegments[j+2])+tolerance;
+			double minY = Math.min(districtSegments[j+1],districtSegments[j+3])-tolerance;
+			double maxY = Math.max(districtSegments[j+1],districtSegments[j+3])+tolerance;
+			int c0 = cell(minX,extent.getMinX(),cellWidth,cells);
+			int c1 = cell(maxX,extent.getMinX(),cellWidth,cells);
+			int r0 = cell(minY,extent.getMinY(),cellHeight,cells);
+			int r1 = cell(maxY,extent.getMinY(),cellHeight,cells);
+			for(int r=r0;r<=r1;r++) {
+				for(int c=c0;c<=c1;c++) {
+					for(int k=cellStart[r*cells+c];k<cellStart[r*cells+c+1];k++) {
+						int other = cellSegments[k];
+						if( visited[other]==seg+1 ) continue;
+						visited[other] = seg+1;
+						int i = STRIDE*other;
+						if( Math.max(sourceSegments[i],sourceSegments[i+2])<minX || Math.min(sourceSegments[i],sourceSegments[i+2])>maxX ||
+							Math.max(sourceSegments[i+1],sourceSegments[i+3])<minY || Math.min(sourceSegments[i+1],sourceSegments[i+3])>maxY ) continue;
+						pairCount++;
+						intersect(seg,other);
+					}
+				}
+			}
+		}
+		districtSplits.sort();
+		sourceSplits.sort();
+	}
+
+	private static int cell(double v,double min,double width,int cells) {
+		int c = (int)Math.floor((v-min)/width);
+		if( c<0 ) c = 0;
+		else if( c>=cells ) c = cells-1;
+		return c;
+	}
+
+	/**
+	 * Record where a district segment and a source segment split each other.
+	 * Where a split falls at a vertex of the other segment, the vertex itself is used.
+	 */
+	private void intersect(int dseg,int sseg) {
+		int j = STRIDE*dseg;
+		int i = STRIDE*sseg;
+		double px = districtSegments[j];
+		double py = districtSegments[j+1];
+		double rx = districtSegments[j+2]-px;
+		double ry = districtSegments[j+3]-py;
+		double qx = sourceSegments[i];
+		double qy = sourceSegments[i+1];
+		double sx = sourceSegments[i+2]-qx;
+		double sy = sourceSegments[i+3]-qy;
+		double rlen = Math.sqrt(rx*rx+ry*ry);
+		double slen = Math.sqrt(sx*sx+sy*sy);
+		if( rlen==0. || slen==0. ) return;
+		double te = tolerance/rlen;
+		double ue = tolerance/slen;
+		double denom = rx*sy-ry*sx;
+		double wx = qx-px;
+		double wy = qy-py;
+		if( Math.abs(denom) > DISTANCE_TOLERANCE*rlen*slen ) {
+			double t = (wx*sy-wy*sx)/denom;
+			double u = (wx*ry-wy*rx)/denom;
+			if( t<-te || t>1.+te || u<-ue || u>1.+ue ) return;
+			double x = px+t*rx;
+			double y = py+t*ry;
+			if( t>te && t<1.-te ) {
+				if( u<=ue )         districtSplits.add(dseg,t,qx,qy);
+				else if( u>=1.-ue ) districtSplits.add(dseg,t,qx+sx,qy+sy);
+				else                districtSplits.add(dseg,t,x,y);
+			}
+			if( u>ue && u<1.-ue ) {
+				if( t<=te )         sourceSplits.add(sseg,u,px,py);
+				else if( t>=1.-te ) sourceSplits.add(sseg,u,px+rx,py+ry);
+				else                sourceSplits.add(sseg,u,x,y);
+			}
+			return;
+		}
+		// Parallel. Only collinear segments split each other, at their end points.
+		if( Math.abs(wx*ry-wy*rx)/rlen > tolerance ) return;
+		double t0 = (wx*rx+wy*ry)/(rlen*rlen);
+		double t1 = ((wx+sx)*rx+(wy+sy)*ry)/(rlen*rlen);
+		if( t0>te && t0<1.-te ) districtSplits.add(dseg,t0,qx,qy);
+		if( t1>te && t1<1.-te ) districtSplits.add(dseg,t1,qx+sx,qy+sy);
+		double u0 = (-wx*sx-wy*sy)/(slen*slen);
+		double u1 = ((rx-wx)*sx+(ry-wy)*sy)/(slen*slen);
+		if( u0>ue && u0<1.-ue ) sourceSplits.add(sseg,u0,px,py);
+		if( u1>ue && u1<1.-ue ) sourceSplits.add(sseg,u1,px+rx,py+ry);
+	}
+
+	/**
+	 * Split points of a set of segments. Points are added in any order, then
+	 * grouped by segment and sorted along it.
+	 */
+	private static class Splits {
+		private final int segmentCount;
+		private int[] segments;
+		private double[] params;
+		private double[] xy;
+		private int count;
+		private int[] start;     // By segment, after sort()
+		private int[] order;
+
+		public Splits(int segs) {
+			this.segmentCount = segs;
+			this.segments = new int[256];
+			this.params = new double[256];
+			this.xy = new double[512];
+			this.count = 0;
+		}
+
+		public void add(int seg,double t,double x,double y) {
+			if( count==segments.length ) {
+				segments = Arrays.copyOf(segments,2*count);
+				params = Arrays.copyOf(params,2*count);
+				xy = Arrays.copyOf(xy,4*count);
+			}
+			segments[count] = seg;
+			params[count] = t;
+			xy[2*count] = x;
+			xy[2*count+1] = y;
+			count++;
+		}
+
+		public void sort() {
+			start = new int[segmentCount+1];
+			for(int k=0;k<count;k++) start[segments[k]+1]++;
+			for(int seg=0;seg<segmentCount;seg++) start[seg+1]+=start[seg];
+			order = new int[count];
+			int[] fill = Arrays.copyOf(start,segmentCount);
+			for(int k=0;k<count;k++) order[fill[segments[k]]++] = k;
+			// Insertion sort along each segment, there are seldom more than a few
+			for(int seg=0;seg<segmentCount;seg++) {
+				for(int a=start[seg]+1;a<start[seg+1];a++) {
+					int k = order[a];
+					int b = a-1;
+					while( b>=start[seg] && params[order[b]]>params[k] ) {
+						order[b+1] = order[b];
+						b--;
+					}
+					order[b+1] = k;
+				}
+			}
+		}
+
+		public int pieceCount(int seg) { return start[seg+1]-start[seg]+1; }
+
+		/**
+		 * Fill the end points of a piece of a segment.
+		 * @return false if the piece has no length
+		 */
+		public boolean piece(double[] segs,int seg,int p,double[] piece) {
+			int first = start[seg];
+			int last = start[seg+1];
+			if( p==0 ) {
+				piece[0] = segs[STRIDE*seg];
+				piece[1] = segs[STRIDE*seg+1];
+			}
+			else {
+				piece[0] = xy[2*order[first+p-1]];
+				piece[1] = xy[2*order[first+p-1]+1];
+			}
+			if( first+p==last ) {
+				piece[2] = segs[STRIDE*seg+2];
+				piece[3] = segs[STRIDE*seg+3];
+			}
+			else {
+				piece[2] = xy[2*order[first+p]];
+				piece[3] = xy[2*order[first+p]+1];
+			}
+			return piece[0]!=piece[2] || piece[1]!=piece[3];
+		}
+	}
+}
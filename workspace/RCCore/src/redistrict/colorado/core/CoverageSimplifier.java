@@ -0,0 +1,309 @@
+/**
+ * Copyright (C) 2020 Charles Coughlin
+ *
+ * This program is free software; you may redistribute it and/or
+ * modify it under the terms of the GNU General Public License.
+ */
+package redistrict.colorado.core;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.locationtech.jts.algorithm.Distance;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.LinearRing;
+import org.locationtech.jts.geom.Polygon;
+import org.locationtech.jts.geom.Polygonal;
+
+/**
+ * Remove redundant vertices from a set of polygons that form a coverage, such as
+ * the precincts or blocks of a shapefile, so that boundaries shared by neighbouring
+ * features remain shared. Without this, simplifying each feature on its own would
+ * open slivers and overlaps between them.
+ *
+ * Rings are broken into chains at the nodes of the coverage, the vertices that do
+ * not have exactly two distinct neighbours. Each chain is simplified once by
+ * Douglas-Peucker, and the vertices it keeps are kept by every ring that contains
+ * the chain. Nodes are always kept. A feature whose simplified geometry is not valid
+ * is restored to its original vertices, together with the chains it shares.
+ * Features that are not polygonal are left unchanged.
+ *
+ * The instance retains a report of the vertex reduction and the relative change
+ * in area of each feature. An instance must not be shared between threads.
+ */
+public class CoverageSimplifier {
+	private final double tolerance;
+	private final Map<Coordinate,Vertex> vertices;
+	private double[] areaChanges;          // |simplified-original|/original by position
+	private int verticesBefore = 0;
+	private int verticesAfter = 0;
+	private int restoredCount = 0;
+	private long elapsed = 0;
+
+	/**
+	 * @param distance the largest distance that a boundary may move, in dataset units
+	 */
+	public CoverageSimplifier(double distance) {
+		this.tolerance = distance;
+		this.vertices = new HashMap<>();
+		this.areaChanges = new double[0];
+	}
+
+	public double getTolerance() { return this.tolerance; }
+	public int getVerticesBefore() { return this.verticesBefore; }
+	public int getVerticesAfter() { return this.verticesAfter; }
+	/**
+	 * @return the number of features restored to their original geometry
+	 */
+	public int getRestoredCount() { return this.restoredCount; }
+	public long getElapsedTime() { return this.elapsed; }
+	/**
+	 * @return the change in area of the feature at a position, as a fraction of its original area
+	 */
+	public double getAreaChange(int position) { return this.areaChanges[position]; }
+	/**
+	 * @return the position of the feature whose area changed the most, -1 if there are none.
+	 */
+	public int getMaxAreaChangePosition() {
+		int result = -1;
+		for(int position=0;position<areaChanges.length;position++) {
+			if( result<0 || areaChanges[position]>areaChanges[result] ) result = position;
+		}
+		return result;
+	}
+	public double getMaxAreaChange() {
+		int position = getMaxAreaChangePosition();
+		return (position<0?0.:areaChanges[position]);
+	}
+	/**
+	 * @return a one-line description of the result, suitable for display
+	 */
+	public String getSummary() {
+		double reduction = (verticesBefore>0 ? 100.*(verticesBefore-verticesAfter)/verticesBefore : 0.);
+		return String.format("%d of %d vertices removed (%.1f%%), largest area change %.4f%%, %d features restored",
+				verticesBefore-verticesAfter,verticesBefore,reduction,100.*getMaxAreaChange(),restoredCount);
+	}
+
+	/**
+	 * @param geometries the features of the coverage by position. Null entries are ignored.
+	 * @return the simplified geometries by position.
+	 */
+	public List<Geometry> simplify(List<Geometry> geometries) {
+		long start = System.currentTimeMillis();
+		vertices.clear();
+		int count = geometries.size();
+		areaChanges = new double[count];
+		verticesBefore = 0;
+		verticesAfter = 0;
+		restoredCount = 0;
+		// Find the nodes of the coverage
+		for(Geometry geometry:geometries) {
+			if( !(geometry instanceof Polygonal) ) continue;
+			for(Coordinate[] ring:rings(geometry)) {
+				for(int i=0;i<ring.length-1;i++) {
+					if( ring[i].equals2D(ring[i+1]) ) continue;
+					vertex(ring[i]).addNeighbour(ring[i+1]);
+					vertex(ring[i+1]).addNeighbour(ring[i]);
+				}
+			}
+		}
+		// Simplify each chain once. A ring without nodes is broken at its smallest vertex,
+		// which is the same for every copy of the ring.
+		for(Geometry geometry:geometries) {
+			if( !(geometry instanceof Polygonal) ) continue;
+			for(Coordinate[] ring:rings(geometry)) {
+				int first = -1;
+				int smallest = 0;
+				for(int i=0;i<ring.length-1;i++) {
+					if( vertex(ring[i]).isNode() ) {
+						first = i;
+						break;
+					}
+					if( ring[i].compareTo(ring[smallest])<0 ) smallest = i;
+				}
+				if( first<0 ) {
+					first = smallest;
+					vertex(ring[first]).node = true;
+				}
+				simplifyRing(ring,first);
+			}
+		}
+		// Build the results, then restore any feature that is no longer valid.
+		// Restoring a feature restores its neighbours' shared chains, so repeat
+		// until a pass restores nothing. Each repeat restores at least one feature.
+		List<Geometry> results = new ArrayList<>(geometries);
+		boolean[] restored = new boolean[count];
+		boolean changed = true;
+		while( changed ) {
+			changed = false;
+			for(int position=0;position<count;position++) {
+				Geometry geometry = geometries.get(position);
+				if( !(geometry instanceof Polygonal) || restored[position] ) continue;
+				Geometry result = rebuild(geometry);
+				if( result==null || !result.isValid() ) {
+					for(Coordinate[] ring:rings(geometry)) {
+						for(Coordinate c:ring) vertex(c).keep = true;
+					}
+					restored[position] = true;
+					restoredCount++;
+					result = geometry;
+					changed = true;
+				}
+				results.set(position,result);
+			}
+		}
+		for(int position=0;position<count;position++) {
+			Geometry geometry = geometries.get(position);
+			if( geometry==null ) continue;
+			Geometry result = results.get(position);
+			verticesBefore += geometry.getNumPoints();
+			verticesAfter += result.getNumPoints();
+			double area = geometry.getArea();
+			if( area>0. ) areaChanges[position] = Math.abs(result.getArea()-area)/area;
+		}
+		vertices.clear();
+		elapsed = System.currentTimeMillis()-start;
+		return results;
+	}
+
+	private Vertex vertex(Coordinate c) {
+		Vertex v = vertices.get(c);
+		if( v==null ) {
+			v = new Vertex();
+			vertices.put(c,v);
+		}
+		return v;
+	}
+
+	private List<Coordinate[]> rings(Geometry geometry) {
+		List<Coordinate[]> list = new ArrayList<>();
+		for(int n=0;n<geometry.getNumGeometries();n++) {
+			Geometry part = geometry.getGeometryN(n);
+			if( !(part instanceof Polygon) || part.isEmpty() ) continue;
+			Polygon polygon = (Polygon)part;
+			list.add(polygon.getExteriorRing().getCoordinates());
+			for(int h=0;h<polygon.getNumInteriorRing();h++) {
+				list.add(polygon.getInteriorRingN(h).getCoordinates());
+			}
+		}
+		return list;
+	}
+
+	// Walk the ring from a node, simplifying each chain whose vertices are not yet decided
+	private void simplifyRing(Coordinate[] ring,int first) {
+		int size = ring.length-1;              // Distinct positions, the last repeats the first
+		if( size<1 ) return;
+		vertex(ring[first]).keep = true;
+		List<Coordinate> chain = new ArrayList<>();
+		chain.add(ring[first]);
+		for(int k=1;k<=size;k++) {
+			Coordinate c = ring[(first+k)%size];
+			if( c.equals2D(chain.get(chain.size()-1)) ) continue;
+			chain.add(c);
+			if( k==size || vertex(c).isNode() ) {
+				simplifyChain(chain);
+				vertex(c).keep = true;
+				chain.clear();
+				chain.add(c);
+			}
+		}
+	}
+
+	// Douglas-Peucker over the interior vertices of a chain, using an explicit stack
+	private void simplifyChain(List<Coordinate> chain) {
+		int last = chain.size()-1;
+		if( last<2 ) return;
+		if( vertex(chain.get(1)).decided ) return;    // Already simplified from a neighbour
+		for(int i=1;i<last;i++) {
+			Vertex v = vertex(chain.get(i));
+			v.decided = true;
+			v.keep = false;
+		}
+		int[] stack = new int[2*chain.size()];
+		int top = 0;
+		stack[top++] = 0;
+		stack[top++] = last;
+		while( top>0 ) {
+			int end = stack[--top];
+			int begin = stack[--top];
+			if( end-begin<2 ) continue;
+			Coordinate a = chain.get(begin);
+			Coordinate b = chain.get(end);
+			double max = -1.;
+			int farthest = begin+1;
+			for(int i=begin+1;i<end;i++) {
+				double d = (a.equals2D(b) ? a.distance(chain.get(i)) : Distance.pointToSegment(chain.get(i),a,b));
+				if( d>max ) {
+					max = d;
+					farthest = i;
+				}
+			}
+			// A closed chain always keeps its farthest vertex so that the ring survives
+			if( max>tolerance || (begin==0 && end==last && a.equals2D(b)) ) {
+				vertex(chain.get(farthest)).keep = true;
+				stack[top++] = begin;
+				stack[top++] = farthest;
+				stack[top++] = farthest;
+				stack[top++] = end;
+			}
+		}
+	}
+
+	private Geometry rebuild(Geometry geometry) {
+		GeometryFactory factory = geometry.getFactory();
+		List<Polygon> polygons = new ArrayList<>();
+		for(int n=0;n<geometry.getNumGeometries();n++) {
+			Geometry part = geometry.getGeometryN(n);
+			if( !(part instanceof Polygon) || part.isEmpty() ) continue;
+			Polygon polygon = (Polygon)part;
+			LinearRing shell = rebuildRing(factory,polygon.getExteriorRing().getCoordinates());
+			if( shell==null ) return null;
+			LinearRing[] holes = new LinearRing[polygon.getNumInteriorRing()];
+			for(int h=0;h<holes.length;h++) {
+				holes[h] = rebuildRing(factory,polygon.getInteriorRingN(h).getCoordinates());
+				if( holes[h]==null ) return null;
+			}
+			polygons.add(factory.createPolygon(shell,holes));
+		}
+		if( geometry instanceof Polygon ) return polygons.get(0);
+		return factory.createMultiPolygon(polygons.toArray(new Polygon[polygons.size()]));
+	}
+
+	// @return null if fewer than three distinct vertices remain
+	private LinearRing rebuildRing(GeometryFactory factory,Coordinate[] ring) {
+		List<Coordinate> kept = new ArrayList<>();
+		for(int i=0;i<ring.length-1;i++) {
+			Coordinate c = ring[i];
+			if( !vertex(c).keep ) continue;
+			if( !kept.isEmpty() && kept.get(kept.size()-1).equals2D(c) ) continue;
+			kept.add(c);
+		}
+		if( kept.size()<3 ) return null;
+		kept.add(kept.get(0));
+		return factory.createLinearRing(kept.toArray(new Coordinate[kept.size()]));
+	}
+
+	/**
+	 * The state of a coverage vertex. A vertex with exactly two distinct
+	 * neighbours lies within a single chain.
+	 */
+	private static class Vertex {
+		private Coordinate first = null;
+		private Coordinate second = null;
+		private boolean node = false;
+		private boolean decided = false;
+		private boolean keep = false;
+
+		private void addNeighbour(Coordinate c) {
+			if( node || (first!=null && c.equals2D(first)) || (second!=null && c.equals2D(second)) ) return;
+			if( first==null ) first = c;
+			else if( second==null ) second = c;
+			else node = true;
+		}
+		private boolean isNode() { return node || second==null; }
+	}
+}
@@ -0,0 +1,130 @@
+/**
+ * Copyright (C) 2020 Charles Coughlin
+ *
+ * This program is free software; you may redistribute it and/or
+ * modify it under the terms of the GNU General Public License.
+ */
+package redistrict.colorado.core;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.locationtech.jts.geom.Geometry;
+
+/**
+ * Allocate the features of a coarse source dataset, such as precincts or block groups,
+ * to the districts of a plan in proportion to population rather than area. A fine
+ * population dataset, typically census blocks, is the intermediary. Each fine feature
+ * is assigned whole to the source feature and to the district that contain its interior
+ * point. The factor for a source feature and a district is then the population of the
+ * fine features they have in common, divided by the population of the source feature.
+ * In a rural precinct, where people are far from evenly spread, this places them
+ * where they actually live.
+ *
+ * The assignment of fine features to source features depends on neither the plan nor
+ * its districts. It is made once, and may be divided among threads by source position.
+ * A source feature that contains no population has no factors and must be apportioned
+ * by some other means.
+ */
+public class Crosswalk {
+	private final DatasetModel fine;
+	private final double[] population;     // By fine position
+	private final int[] sourceOf;          // Source position by fine position, -1 if none
+	private double[] sourceTotals;         // Population by source position
+	private final int sourceCount;
+
+	/**
+	 * @param fineDataset the population dataset, its interior points and index are used
+	 * @param counts population by position within the fine dataset
+	 * @param sources number of features in the source dataset
+	 */
+	public Crosswalk(DatasetModel fineDataset,double[] counts,int sources) {
+		this.fine = fineDataset;
+		this.population = counts;
+		this.sourceCount = sources;
+		this.sourceOf = new int[counts.length];
+		Arrays.fill(sourceOf,-1);
+		this.sourceTotals = null;
+	}
+
+	public int getSourceCount() { return this.sourceCount; }
+	/**
+	 * @return true once the fine features have been assigned to source features
+	 */
+	public synchronized boolean isComplete() { return this.sourceTotals!=null; }
+	/**
+	 * @return true if the source feature contains some population
+	 */
+	public boolean isPopulated(int source) { return sourceTotals[source]>0.; }
+
+	/**
+	 * Assign the fine features that lie within a range of source features. Different
+	 * ranges may be assigned concurrently. A fine feature whose point lies on a boundary
+	 * shared by two sources is assigned to exactly one of them.
+	 * @param sources the source geometries by position. Null entries are ignored.
+	 * @param first the first source position of the range
+	 * @param last one beyond the last source position of the range
+	 */
+	public void assignSources(List<Geometry> sources,int first,int last) {
+		double[] xy = fine.getInteriorPoints();
+		for(int source=first;source<last;source++) {
+			Geometry geometry = sources.get(source);
+			if( geometry==null || geometry.isEmpty() ) continue;
+			DistrictLocator locator = new DistrictLocator(geometry);
+			List<Integer> candidates = fine.getCandidatePositions(locator.getEnvelope());
+			int[] positions = new int[candidates.size()];
+			int index = 0;
+			for(Integer position:candidates) {
+				positions[index++] = position;
+			}
+			int count = locator.locate(xy,positions,positions.length,positions);
+			for(index=0;index<count;index++) {
+				sourceOf[positions[index]] = source;
+			}
+		}
+	}
+
+	/**
+	 * Total the population of each source feature. Call once all ranges are assigned.
+	 */
+	public synchronized void complete() {
+		double[] totals = new double[sourceCount];
+		for(int position=0;position<sourceOf.length;position++) {
+			if( sourceOf[position]>=0 ) totals[sourceOf[position]] += population[position];
+		}
+		this.sourceTotals = totals;
+	}
+
+	/**
+	 * Compute the factors of a single district.
+	 * @param district point classifier for the district
+	 * @param factors receives the factor of each source feature, indexed by source position.
+	 *        Entries are accumulated, so the array must start at zero.
+	 * @return the positions of the source features with a non-zero factor, ascending.
+	 */
+	public int[] allocate(DistrictLocator district,double[] factors) {
+		double[] xy = fine.getInteriorPoints();
+		List<Integer> candidates = fine.getCandidatePositions(district.getEnvelope());
+		int[] positions = new int[candidates.size()];
+		int index = 0;
+		for(Integer position:candidates) {
+			positions[index++] = position;
+		}
+		int count = district.locate(xy,positions,positions.length,positions);
+		int[] touched = new int[count];
+		int touchCount = 0;
+		for(index=0;index<count;index++) {
+			int position = positions[index];
+			int source = sourceOf[position];
+			if( source<0 || population[position]<=0. ) continue;
+			if( factors[source]==0. ) touched[touchCount++] = source;
+			factors[source] += population[position];
+		}
+		touched = Arrays.copyOf(touched,touchCount);
+		Arrays.sort(touched);
+		for(int source:touched) {
+			factors[source] = Math.min(1.,factors[source]/sourceTotals[source]);
+		}
+		return touched;
+	}
+}
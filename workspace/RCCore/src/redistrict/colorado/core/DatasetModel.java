@@ -6,16 +6,52 @@
  */
 package redistrict.colorado.core;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.logging.Logger;
 
 import org.geotools.data.shapefile.ShapefileReader;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.Point;
+import org.locationtech.jts.index.strtree.STRtree;
+import org.openjump.feature.Feature;
 import org.openjump.feature.FeatureCollection;
+import org.openjump.feature.FeatureUtil;
+import org.openjump.feature.LazyFeatureDataset;
 
 import redistrict.colorado.db.Database;
 
 /**
  * A dataset powers an overlay on the map defined by a Shapefile. 
  * The features are always read from the file, never the database. 
+ * An envelope index over the features is built on first use and is
+ * discarded whenever the features are replaced. A hash of the shapefile
+ * contents identifies the geometry for the purposes of cached overlays.
+ * Numeric attributes are also held as primitive columns, indexed by the
+ * position of the feature in the collection. Those with a standard alias
+ * are extracted as soon as the features are read. An interior point of
+ * each feature is computed on request for assignment of whole features.
+ * If the dataset has a simplification tolerance, redundant vertices are removed
+ * from the features as they are read, preserving the boundaries they share.
+ * Before that, invalid polygons are repaired. The positions of the invalid features
+ * are saved against the content hash, so that a later read of the same file checks
+ * only those. Once a file has been validated, and unless it is to be simplified,
+ * its geometries are decoded lazily, as each is first used.
  */
 public class DatasetModel  {
 	private final static String CLSS = "DatasetModel";
@@ -26,7 +62,18 @@ public class DatasetModel  {
 	private String shapefilePath;
 	private DatasetRole role;
 	private String districtColumn;
+	private double simplifyTolerance;             // Dataset units, 0 for none
+	private CoverageSimplifier simplification;    // Report of the latest simplification
+	private GeometryRepair repair;                // Report of the latest validation
 	private FeatureCollection features;
+	private STRtree spatialIndex;
+	private String contentHash;
+	private final Map<String,double[]> columns;   // Attribute values by attribute name
+	private double[] interiorPoints;              // x,y by feature position
+	private static final StandardAttributes[] NUMERIC_ATTRIBUTES = {
+			StandardAttributes.POPULATION,StandardAttributes.DEMOCRAT,StandardAttributes.REPUBLICAN,
+			StandardAttributes.BLACK,StandardAttributes.HISPANIC,StandardAttributes.WHITE,
+			StandardAttributes.MALE,StandardAttributes.FEMALE };
 	
 	public DatasetModel(long id,String nam) {
 		this.id = id;
@@ -35,7 +82,14 @@ public class DatasetModel  {
 		this.shapefilePath = "";
 		this.role = DatasetRole.BOUNDARIES;
 		this.districtColumn = null;  // By default we do not aggregate
+		this.simplifyTolerance = 0.;
+		this.simplification = null;
+		this.repair = null;
 		this.features = null;
+		this.spatialIndex = null;
+		this.contentHash = null;
+		this.columns = new HashMap<>();
+		this.interiorPoints = null;
 	}
 	
 	public long getId() { return this.id; }
@@ -44,19 +98,42 @@ public class DatasetModel  {
 	public String getShapefilePath() { return this.shapefilePath; }
 	public DatasetRole getRole() { return this.role; }
 	public String getDistrictColumn() { return this.districtColumn; }
+	public double getSimplifyTolerance() { return this.simplifyTolerance; }
+	/**
+	 * @return the result of simplifying the current features, null if they were not simplified.
+	 */
+	public CoverageSimplifier getSimplification() { return this.simplification; }
+	/**
+	 * @return the result of validating the current features, null if they were not validated.
+	 */
+	public GeometryRepair getRepair() { return this.repair; }
 	/**
 	 * As a way of lazy initialization, read from the shapefile when features
-	 * are currently null.
+	 * are currently null. A background aggregation may ask for the same features,
+	 * so the shapefile is read only once.
 	 * @return the layer's features as a collection
 	 */
-	public FeatureCollection getFeatures() { 
+	public synchronized FeatureCollection getFeatures() { 
 		if(features==null && shapefilePath!=null && !shapefilePath.isEmpty() ) {
 			String idColumn = Database.getInstance().getAttributeAliasTable().nameForAlias(id, StandardAttributes.ID.name());
 			try {
-				FeatureCollection fc = ShapefileReader.read(shapefilePath,idColumn,districtColumn);
+				String hash = getContentHash();
+				int[] known = Database.getInstance().getGeometryRepairTable().getInvalidPositions(hash);
+				boolean lazy = known!=null && simplifyTolerance==0.;
+				FeatureCollection fc = ShapefileReader.read(shapefilePath,idColumn,districtColumn,lazy);
+				GeometryRepair repairer = null;
+				if( fc!=null ) repairer = repair(fc,hash,known);
+				CoverageSimplifier simplifier = null;
+				if( fc!=null && simplifyTolerance>0. ) simplifier = simplify(fc);
 				setFeatures(fc);
+				this.contentHash = hash;     // The file is unchanged
+				this.simplification = simplifier;
+				this.repair = repairer;
 				if( fc!=null) {
 					Database.getInstance().getFeatureAttributeTable().synchronizeFeatureAttributes(id, features.getFeatureSchema().getAttributeNames());
+					for(StandardAttributes alias:NUMERIC_ATTRIBUTES) {
+						getColumn(alias);
+					}
 				}
 				else {
 					String msg = String.format("%s: Failed to parse shapefile %s (No features found)",CLSS,shapefilePath);
@@ -73,10 +150,277 @@ public class DatasetModel  {
 	}
 	public void setName(String nam) { this.name = nam; }
 	public void setDescription(String desc) { this.description = desc; }
-	public void setShapefilePath(String path) { this.shapefilePath = path; }
+	public synchronized void setShapefilePath(String path) { 
+		this.shapefilePath = path; 
+		this.contentHash = null;
+	}
 	public void setRole(DatasetRole r) { this.role = r; }
-	public void setDistrictColumn(String att) { this.districtColumn = att; }
-	public void setFeatures(FeatureCollection fc) { this.features = fc; }
+	/**
+	 * A change of tolerance takes effect when the features are next read.
+	 */
+	public synchronized void setSimplifyTolerance(double tol) { 
+		this.simplifyTolerance = tol; 
+		this.contentHash = null;
+	}
+	public synchronized void setDistrictColumn(String att) { 
+		this.districtColumn = att; 
+		this.contentHash = null;
+	}
+	public synchronized void setFeatures(FeatureCollection fc) { 
+		this.features = fc; 
+		this.spatialIndex = null;
+		this.contentHash = null;
+		this.columns.clear();
+		this.interiorPoints = null;
+		this.simplification = null;
+		this.repair = null;
+	}
+	
+	/**
+	 * Find the features whose envelopes overlap the supplied envelope. This is a
+	 * coarse filter only, the caller must still test the actual geometries.
+	 * The features are returned in the same order as they appear in the collection.
+	 * @param env the envelope of the area of interest
+	 * @return candidate features, possibly empty. 
+	 */
+	public List<Feature> getCandidateFeatures(Envelope env) {
+		List<Feature> candidates = new ArrayList<>();
+		List<Integer> hits = getCandidatePositions(env);
+		if( hits.isEmpty() ) return candidates;
+		List<Feature> all = features.getFeatures();
+		for(Integer hit:hits) {
+			candidates.add(all.get(hit));
+		}
+		return candidates;
+	}
+	
+	/**
+	 * Same as getCandidateFeatures(), but return the positions of the features
+	 * within the collection, in ascending order.
+	 * @param env the envelope of the area of interest
+	 * @return candidate feature positions, possibly empty.
+	 */
+	public List<Integer> getCandidatePositions(Envelope env) {
+		STRtree index = getSpatialIndex();
+		if( index==null ) return new ArrayList<>();
+		@SuppressWarnings("unchecked")
+		List<Integer> hits = index.query(env);
+		Collections.sort(hits);
+		return hits;
+	}
+	
+	/**
+	 * Extract the values of a numeric attribute for every feature, in collection order.
+	 * The column is retained until the features are replaced. Missing values are zero.
+	 * Features read from a shapefile supply the column directly from the .dbf file.
+	 * @param attribute name of the attribute
+	 * @return the values, null if there are no features or the attribute is unknown.
+	 * 		   The array is shared and must not be modified.
+	 */
+	public synchronized double[] getColumn(String attribute) {
+		if( attribute==null ) return null;
+		double[] values = columns.get(attribute);
+		if( values==null ) {
+			FeatureCollection fc = getFeatures();
+			if( fc==null || !fc.getFeatureSchema().hasAttribute(attribute) ) return null;
+			double[] column = (fc instanceof LazyFeatureDataset ? ((LazyFeatureDataset)fc).getNumericColumn(attribute) : null);
+			if( column!=null ) {
+				values = new double[column.length];
+				for(int index=0;index<column.length;index++) {
+					if( !Double.isNaN(column[index]) ) values[index] = (long)column[index];  // As castToLong()
+				}
+			}
+			else {
+				int attributeIndex = fc.getFeatureSchema().getAttributeIndex(attribute);
+				List<Feature> all = fc.getFeatures();
+				values = new double[all.size()];
+				int index = 0;
+				for(Feature feat:all) {
+					Object value = feat.getAttribute(attributeIndex);
+					if( value!=null ) values[index] = FeatureUtil.castToLong(value);
+					index++;
+				}
+			}
+			columns.put(attribute, values);
+		}
+		return values;
+	}
+	
+	/**
+	 * @return the values of the attribute with the given standard alias, null if the
+	 * 		   alias is not defined for this dataset. See getColumn(String).
+	 */
+	public double[] getColumn(StandardAttributes alias) {
+		String attribute = Database.getInstance().getAttributeAliasTable().nameForAlias(id, alias.name());
+		return getColumn(attribute);
+	}
+	
+	/**
+	 * As a way of lazy initialization, compute the interior points when first requested.
+	 * A point feature is its own interior point. Any other feature is represented by a
+	 * point guaranteed to lie within it, not the centroid, which may fall outside.
+	 * @return x,y pairs indexed by feature position, NaN for a feature without geometry.
+	 * 		   Null if there are no features. The array is shared and must not be modified.
+	 */
+	public synchronized double[] getInteriorPoints() {
+		if( interiorPoints==null ) {
+			FeatureCollection fc = getFeatures();
+			if( fc==null ) return null;
+			long start = System.currentTimeMillis();
+			List<Feature> all = fc.getFeatures();
+			double[] xy = new double[2*all.size()];
+			int index = 0;
+			for(Feature feat:all) {
+				Geometry geometry = feat.getGeometry();
+				double x = Double.NaN;
+				double y = Double.NaN;
+				if( geometry!=null && !geometry.isEmpty() ) {
+					Coordinate c = (geometry instanceof Point ? geometry.getCoordinate():geometry.getInteriorPoint().getCoordinate());
+					if( c!=null ) {
+						x = c.x;
+						y = c.y;
+					}
+				}
+				xy[2*index] = x;
+				xy[2*index+1] = y;
+				index++;
+			}
+			interiorPoints = xy;
+			LOGGER.info(String.format("%s.getInteriorPoints: %s located %d features in %d msecs",CLSS,name,index,
+					System.currentTimeMillis()-start));
+		}
+		return interiorPoints;
+	}
+	
+	/**
+	 * As a way of lazy initialization, hash the shapefile when first requested.
+	 * The hash changes whenever the file is edited or replaced, but not when
+	 * the dataset is renamed or its aliases are changed. When features are
+	 * aggregated by district, the district column is part of the hash, as is
+	 * the simplification tolerance, since it alters the geometry. An uncompressed
+	 * shapefile is hashed component by component.
+	 * @return a SHA-256 digest of the shapefile in hex, null if the file cannot be read.
+	 */
+	public synchronized String getContentHash() {
+		if( contentHash==null && shapefilePath!=null && !shapefilePath.isEmpty() ) {
+			long start = System.currentTimeMillis();
+			List<Path> paths = new ArrayList<>();
+			if( ShapefileReader.isUncompressedShapefile(shapefilePath) ) {
+				for(File file:ShapefileReader.getComponentFiles(shapefilePath)) {
+					paths.add(file.toPath());
+				}
+			}
+			else {
+				paths.add(Paths.get(shapefilePath));
+			}
+			try {
+				MessageDigest digest = MessageDigest.getInstance("SHA-256");
+				byte[] buffer = new byte[65536];
+				for(Path path:paths) {
+					try(InputStream in = Files.newInputStream(path)) {
+						int n;
+						while( (n=in.read(buffer))>0 ) {
+							digest.update(buffer,0,n);
+						}
+					}
+				}
+				if( districtColumn!=null ) digest.update(districtColumn.getBytes(StandardCharsets.UTF_8));
+				if( simplifyTolerance>0. ) digest.update(Double.toString(simplifyTolerance).getBytes(StandardCharsets.UTF_8));
+				StringBuilder hex = new StringBuilder();
+				for(byte b:digest.digest()) {
+					hex.append(String.format("%02x",b));
+				}
+				contentHash = hex.toString();
+				LOGGER.info(String.format("%s.getContentHash: %s hashed in %d msecs",CLSS,name,System.currentTimeMillis()-start));
+			}
+			catch(IOException|NoSuchAlgorithmException ex) {
+				LOGGER.warning(String.format("%s.getContentHash: Failed to hash %s (%s)",CLSS,shapefilePath,ex.getLocalizedMessage()));
+			}
+		}
+		return contentHash;
+	}
+	
+	/**
+	 * As a way of lazy initialization, build the index when first requested.
+	 * Index items are the positions of the features in the collection.
+	 * @return an envelope index over the dataset's features, null if there are no features.
+	 */
+	public synchronized STRtree getSpatialIndex() {
+		if( spatialIndex==null ) {
+			FeatureCollection fc = getFeatures();
+			if( fc==null ) return null;
+			long start = System.currentTimeMillis();
+			STRtree tree = new STRtree();
+			int index = 0;
+			for(Feature feat:fc.getFeatures()) {
+				Envelope bounds = feat.getBounds();    // Without decoding a lazy geometry
+				if( bounds!=null ) tree.insert(bounds,Integer.valueOf(index));
+				index++;
+			}
+			tree.build();
+			spatialIndex = tree;
+			LOGGER.info(String.format("%s.getSpatialIndex: %s indexed %d features in %d msecs",CLSS,name,index,
+					System.currentTimeMillis()-start));
+		}
+		return spatialIndex;
+	}
+	
+	/**
+	 * Repair the invalid features in place. If the file has been validated before,
+	 * only the features then found invalid are checked. Otherwise all are, and the
+	 * positions of those found invalid are saved.
+	 * Geometries are fetched only for the features that are checked.
+	 * @param hash content hash of the shapefile, null if unknown
+	 * @param known positions of the features previously found invalid, null if never validated
+	 * @return the repairer, which holds the report
+	 */
+	private GeometryRepair repair(FeatureCollection fc,String hash,int[] known) {
+		List<Feature> all = fc.getFeatures();
+		List<Geometry> geometries = new AbstractList<Geometry>() {
+			@Override
+			public Geometry get(int position) { return all.get(position).getGeometry(); }
+			@Override
+			public int size() { return all.size(); }
+		};
+		GeometryRepair repairer = new GeometryRepair();
+		List<Geometry> results = repairer.repair(geometries,known);
+		for(int position:repairer.getInvalidPositions()) {
+			Geometry result = results.get(position);
+			if( result!=all.get(position).getGeometry() ) all.get(position).setGeometry(result);
+		}
+		if( known==null ) Database.getInstance().getGeometryRepairTable().storeInvalidPositions(hash,repairer.getInvalidPositions());
+		LOGGER.info(String.format("%s.repair: %s %s, %s (%d msecs)",CLSS,name,(known==null?"validated":"previously validated"),
+				repairer.getSummary(),repairer.getElapsedTime()));
+		return repairer;
+	}
+
+	/**
+	 * Replace the geometry of each feature with its simplified version and log
+	 * the vertex reduction together with the feature whose area changed the most.
+	 * @return the simplifier, which holds the report
+	 */
+	private CoverageSimplifier simplify(FeatureCollection fc) {
+		List<Feature> all = fc.getFeatures();
+		List<Geometry> geometries = new ArrayList<>(all.size());
+		for(Feature feat:all) {
+			geometries.add(feat.getGeometry());
+		}
+		CoverageSimplifier simplifier = new CoverageSimplifier(simplifyTolerance);
+		List<Geometry> results = simplifier.simplify(geometries);
+		int index = 0;
+		for(Feature feat:all) {
+			feat.setGeometry(results.get(index));
+			index++;
+		}
+		LOGGER.info(String.format("%s.simplify: %s at tolerance %f, %s (%d msecs)",CLSS,name,simplifyTolerance,
+				simplifier.getSummary(),simplifier.getElapsedTime()));
+		int position = simplifier.getMaxAreaChangePosition();
+		if( position>=0 ) {
+			LOGGER.info(String.format("%s.simplify: %s largest area change is %.4f%% for feature %d",CLSS,name,
+					100.*simplifier.getAreaChange(position),all.get(position).getID()));
+		}
+		return simplifier;
+	}
 	
 	/**
 	 * Make comparable for use with the cache.
@@ -0,0 +1,140 @@
+/**
+ * Copyright (C) 2020 Charles Coughlin
+ *
+ * This program is free software; you may redistribute it and/or
+ * modify it under the terms of the GNU General Public License.
+ */
+package redistrict.colorado.core;
+
+import java.util.Arrays;
+
+import org.locationtech.jts.geom.CoordinateSequence;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.Polygon;
+
+/**
+ * Classify points as inside or outside a fixed district polygon. This is used to
+ * assign whole source features (e.g. census blocks) to a district by an interior point.
+ *
+ * The rings of the district are packed once into an array of segments with a horizontal
+ * strip index, as for the OverlapCalculator. A point is tested by counting crossings
+ * of a ray in the +x direction with the segments of its strip only. Each crossing is
+ * half-open in y, so a point on a boundary shared by two districts belongs to exactly one.
+ * The test does not allocate, and an instance may be shared between threads.
+ */
+public class DistrictLocator {
+	private static final int MAX_STRIPS = 8192;
+	private static final int SEGMENTS_PER_STRIP = 4;
+	private static final int STRIDE = 4;                        // x0,y0,x1,y1
+	private final double[] segments;
+	private final int segmentCount;
+	private final Envelope envelope;
+	private final double minY;
+	private final double stripHeight;
+	private final int stripCount;
+	private final int[] stripStart;
+	private final int[] stripSegments;
+
+	/**
+	 * @param geometry the district, a Polygon or MultiPolygon
+	 */
+	public DistrictLocator(Geometry geometry) {
+		this.envelope = geometry.getEnvelopeInternal();
+		int count = 0;
+		double[] segs = new double[STRIDE*64];
+		for(int n=0;n<geometry.getNumGeometries();n++) {
+			Geometry part = geometry.getGeometryN(n);
+			if( !(part instanceof Polygon) ) continue;
+			Polygon polygon = (Polygon)part;
+			segs = packRing(polygon.getExteriorRing().getCoordinateSequence(),segs,count);
+			count += Math.max(0,polygon.getExteriorRing().getNumPoints()-1);
+			for(int h=0;h<polygon.getNumInteriorRing();h++) {
+				segs = packRing(polygon.getInteriorRingN(h).getCoordinateSequence(),segs,count);
+				count += Math.max(0,polygon.getInteriorRingN(h).getNumPoints()-1);
+			}
+		}
+		this.segments = segs;
+		this.segmentCount = count;
+
+		// Build the strip index. A segment is registered in every strip that its y range touches.
+		this.minY = envelope.getMinY();
+		this.stripCount = Math.max(1, Math.min(MAX_STRIPS,segmentCount/SEGMENTS_PER_STRIP));
+		double height = envelope.getHeight()/stripCount;
+		this.stripHeight = (height>0.?height:1.);
+		this.stripStart = new int[stripCount+1];
+		for(int seg=0;seg<segmentCount;seg++) {
+			int first = stripFor(Math.min(segments[STRIDE*seg+1],segments[STRIDE*seg+3]));
+			int last  = stripFor(Math.max(segments[STRIDE*seg+1],segments[STRIDE*seg+3]));
+			for(int strip=first;strip<=last;strip++) stripStart[strip+1]++;
+		}
+		for(int strip=0;strip<stripCount;strip++) stripStart[strip+1]+=stripStart[strip];
+		this.stripSegments = new int[stripStart[stripCount]];
+		int[] fill = Arrays.copyOf(stripStart,stripCount);
+		for(int seg=0;seg<segmentCount;seg++) {
+			int first = stripFor(Math.min(segments[STRIDE*seg+1],segments[STRIDE*seg+3]));
+			int last  = stripFor(Math.max(segments[STRIDE*seg+1],segments[STRIDE*seg+3]));
+			for(int strip=first;strip<=last;strip++) stripSegments[fill[strip]++] = seg;
+		}
+	}
+
+	public Envelope getEnvelope() { return this.envelope; }
+
+	/**
+	 * @return true if the point lies within the district. Holes and separate
+	 *         polygons are handled by the even-odd rule.
+	 */
+	public boolean contains(double x,double y) {
+		if( !(x>=envelope.getMinX() && x<=envelope.getMaxX() && y>=envelope.getMinY() && y<=envelope.getMaxY()) ) return false;
+		boolean inside = false;
+		int strip = stripFor(y);
+		for(int k=stripStart[strip];k<stripStart[strip+1];k++) {
+			int j = STRIDE*stripSegments[k];
+			double y0 = segments[j+1];
+			double y1 = segments[j+3];
+			if( (y0>y)==(y1>y) ) continue;
+			double xi = segments[j]+(y-y0)*(segments[j+2]-segments[j])/(y1-y0);
+			if( x<xi ) inside = !inside;
+		}
+		return inside;
+	}
+
+	/**
+	 * Classify a subset of packed points.
+	 * @param xy x,y pairs indexed by position
+	 * @param positions the positions to be tested
+	 * @param count number of positions to test
+	 * @param result receives the positions that lie within the district, in the order tested
+	 * @return the number of positions written to the result
+	 */
+	public int locate(double[] xy,int[] positions,int count,int[] result) {
+		int found = 0;
+		for(int index=0;index<count;index++) {
+			int position = positions[index];
+			if( contains(xy[2*position],xy[2*position+1]) ) result[found++] = position;
+		}
+		return found;
+	}
+
+	private int stripFor(double y) {
+		int strip = (int)Math.floor((y-minY)/stripHeight);
+		if( strip<0 ) strip = 0;
+		else if( strip>=stripCount ) strip = stripCount-1;
+		return strip;
+	}
+
+	// Orientation is irrelevant to the crossing count, so rings are packed as they are.
+	private double[] packRing(CoordinateSequence seq,double[] segs,int offset) {
+		int n = seq.size();
+		if( n<2 ) return segs;
+		if( STRIDE*(offset+n) > segs.length ) segs = Arrays.copyOf(segs,Math.max(2*segs.length,STRIDE*(offset+n)));
+		for(int i=0;i<n-1;i++) {
+			int j = STRIDE*(offset+i);
+			segs[j]   = seq.getX(i);
+			segs[j+1] = seq.getY(i);
+			segs[j+2] = seq.getX(i+1);
+			segs[j+3] = seq.getY(i+1);
+		}
+		return segs;
+	}
+}
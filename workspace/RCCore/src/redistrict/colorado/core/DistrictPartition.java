@@ -0,0 +1,153 @@
+/**
+ * Copyright (C) 2020 Charles Coughlin
+ *
+ * This program is free software; you may redistribute it and/or
+ * modify it under the terms of the GNU General Public License.
+ */
+package redistrict.colorado.core;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.Polygon;
+import org.locationtech.jts.geom.Polygonal;
+
+/**
+ * Divide a large district into pieces, each no larger than a grid cell, so that the
+ * overlap of a small source feature is computed against the few pieces it touches
+ * rather than against the whole district. The pieces exactly tile the district,
+ * so the overlap fractions of the pieces sum to that of the district.
+ *
+ * The district is clipped by recursive bisection of its envelope along the longer
+ * side. Each level clips only the pieces of the level above, so the cost of building
+ * the partition grows with the logarithm of the number of cells.
+ * An instance must not be shared between threads, but copies may be. A copy shares
+ * the pieces, which are not modified, and builds its own area kernels.
+ */
+public class DistrictPartition {
+	private static final int MAX_DEPTH = 16;
+	private final double cellSize;
+	private final List<Geometry> pieces;
+	private final List<Envelope> envelopes;
+	private final List<OverlapCalculator> calculators;
+	private boolean valid;
+
+	/**
+	 * @param district the district, a Polygon or MultiPolygon
+	 * @param size the largest width or height of a piece
+	 */
+	public DistrictPartition(Geometry district,double size) {
+		this.cellSize = size;
+		this.pieces = new ArrayList<>();
+		this.envelopes = new ArrayList<>();
+		this.calculators = new ArrayList<>();
+		this.valid = true;
+		try {
+			split(district,district.getEnvelopeInternal(),0);
+		}
+		catch(RuntimeException ex) {   // Typically a TopologyException
+			valid = false;
+		}
+		for(Geometry piece:pieces) {
+			envelopes.add(piece.getEnvelopeInternal());
+			calculators.add(null);
+		}
+	}
+
+	// Share the pieces of another partition
+	private DistrictPartition(DistrictPartition original) {
+		this.cellSize = original.cellSize;
+		this.pieces = original.pieces;
+		this.envelopes = original.envelopes;
+		this.calculators = new ArrayList<>();
+		this.valid = original.valid;
+		for(int index=0;index<pieces.size();index++) {
+			calculators.add(null);
+		}
+	}
+
+	/**
+	 * @return a partition of the same pieces, for use by another thread
+	 */
+	public DistrictPartition copy() { return new DistrictPartition(this); }
+
+	public double getCellSize() { return this.cellSize; }
+	public int getPieceCount() { return this.pieces.size(); }
+	/**
+	 * @return false if the district could not be clipped. It should then be treated whole.
+	 */
+	public boolean isValid() { return this.valid; }
+
+	/**
+	 * @param geometry a source Polygon or MultiPolygon
+	 * @return the fraction of the source area that lies within the district, or
+	 *         NaN if the overlap with any piece could not be computed.
+	 */
+	public double areaRatio(Geometry geometry) {
+		Envelope env = geometry.getEnvelopeInternal();
+		double sourceArea = geometry.getArea();
+		if( sourceArea<=0. ) return Double.NaN;
+		double ratio = 0.;
+		for(int index=0;index<pieces.size();index++) {
+			if( !envelopes.get(index).intersects(env) ) continue;
+			OverlapCalculator calculator = calculators.get(index);
+			if( calculator==null ) {
+				calculator = new OverlapCalculator(pieces.get(index));
+				calculators.set(index,calculator);
+			}
+			double fraction = calculator.areaRatio(geometry);
+			if( Double.isNaN(fraction) ) {
+				try {
+					fraction = GeometryRepair.intersection(pieces.get(index),geometry).getArea()/sourceArea;
+				}
+				catch(RuntimeException ex) {
+					return Double.NaN;
+				}
+			}
+			ratio += fraction;
+		}
+		return Math.min(1.,ratio);
+	}
+
+	private void split(Geometry geometry,Envelope env,int depth) {
+		if( geometry.isEmpty() ) return;
+		if( (env.getWidth()<=cellSize && env.getHeight()<=cellSize) || depth>=MAX_DEPTH ) {
+			for(int n=0;n<geometry.getNumGeometries();n++) {
+				Geometry part = geometry.getGeometryN(n);
+				if( part instanceof Polygonal && !part.isEmpty() ) pieces.add(part);
+			}
+			return;
+		}
+		Envelope first;
+		Envelope second;
+		if( env.getWidth()>=env.getHeight() ) {
+			double middle = (env.getMinX()+env.getMaxX())/2.;
+			first = new Envelope(env.getMinX(),middle,env.getMinY(),env.getMaxY());
+			second = new Envelope(middle,env.getMaxX(),env.getMinY(),env.getMaxY());
+		}
+		else {
+			double middle = (env.getMinY()+env.getMaxY())/2.;
+			first = new Envelope(env.getMinX(),env.getMaxX(),env.getMinY(),middle);
+			second = new Envelope(env.getMinX(),env.getMaxX(),middle,env.getMaxY());
+		}
+		split(clip(geometry,first),first,depth+1);
+		split(clip(geometry,second),second,depth+1);
+	}
+
+	private Geometry clip(Geometry geometry,Envelope env) {
+		Envelope bounds = geometry.getEnvelopeInternal();
+		if( env.covers(bounds) ) return geometry;
+		if( !env.intersects(bounds) ) return geometry.getFactory().createPolygon();
+		Geometry result = GeometryRepair.intersection(geometry,geometry.getFactory().toGeometry(env));
+		if( result instanceof Polygonal ) return result;
+		// Discard any lines or points along the cut
+		List<Polygon> polygons = new ArrayList<>();
+		for(int n=0;n<result.getNumGeometries();n++) {
+			Geometry part = result.getGeometryN(n);
+			if( part instanceof Polygon && !part.isEmpty() ) polygons.add((Polygon)part);
+		}
+		return geometry.getFactory().createMultiPolygon(polygons.toArray(new Polygon[polygons.size()]));
+	}
+}
@@ -0,0 +1,315 @@
+/**
+ * Copyright (C) 2020 Charles Coughlin
+ *
+ * This program is free software; you may redistribute it and/or
+ * modify it under the terms of the GNU General Public License.
+ */
+package redistrict.colorado.core;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import org.locationtech.jts.algorithm.RayCrossingCounter;
+import org.locationtech.jts.algorithm.RobustLineIntersector;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.CoordinateArrays;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.LineString;
+import org.locationtech.jts.geom.LinearRing;
+import org.locationtech.jts.geom.Location;
+import org.locationtech.jts.geom.Polygon;
+import org.locationtech.jts.geom.Polygonal;
+import org.locationtech.jts.geom.PrecisionModel;
+import org.locationtech.jts.geom.TopologyException;
+import org.locationtech.jts.noding.IntersectionAdder;
+import org.locationtech.jts.noding.MCIndexNoder;
+import org.locationtech.jts.noding.NodedSegmentString;
+import org.locationtech.jts.noding.SegmentString;
+import org.locationtech.jts.operation.polygonize.Polygonizer;
+import org.locationtech.jts.operation.union.CascadedPolygonUnion;
+import org.locationtech.jts.precision.GeometryPrecisionReducer;
+
+/**
+ * Validate the polygonal features of a dataset and repair those that are invalid,
+ * so that later overlays do not fail on them. Consecutive duplicate points are
+ * removed first. A polygon that is still invalid, typically because a ring crosses
+ * itself, is rebuilt from the faces of its noded rings. Each part of a multipolygon
+ * is rebuilt separately: a face is kept if it lies inside an odd number of the rings
+ * of that part, so the lobes of a "bow-tie" survive where a zero-width buffer would
+ * discard one of them. The parts are then united, so that parts which overlap keep
+ * their shared area. A rebuild that covers less area than the zero-width buffer is
+ * rejected in favor of the buffer. The result is normalized, which orients shells
+ * clockwise and holes counter-clockwise.
+ *
+ * Overlays in JTS use floating point arithmetic and may throw a TopologyException
+ * on nearly coincident edges. The static intersection() repeats a failed overlay
+ * with both operands snapped to a fixed precision grid.
+ *
+ * The instance retains a report of the features that were found invalid. Their
+ * positions may be saved, so that a later read of the same file need check only those.
+ */
+public class GeometryRepair {
+	private static final int SIGNIFICANT_DIGITS = 10;    // Of the fixed precision grid
+	private static final double AREA_TOLERANCE = 1.E-9;  // Relative, in comparing a rebuild with the buffer
+	private int featureCount = 0;
+	private int repairedCount = 0;
+	private int failedCount = 0;
+	private int[] invalid;         // Positions of invalid features, ascending
+	private long elapsed = 0;
+
+	public GeometryRepair() {
+		this.invalid = new int[0];
+	}
+
+	public int getFeatureCount() { return this.featureCount; }
+	public int getRepairedCount() { return this.repairedCount; }
+	/**
+	 * @return the number of features that could not be made valid. They are left as read.
+	 */
+	public int getFailedCount() { return this.failedCount; }
+	/**
+	 * @return the positions of the features found invalid, repaired or not, ascending
+	 */
+	public int[] getInvalidPositions() { return this.invalid; }
+	public long getElapsedTime() { return this.elapsed; }
+	/**
+	 * @return a one-line description of the result, suitable for display
+	 */
+	public String getSummary() {
+		if( invalid.length==0 ) return String.format("All %d features valid",featureCount);
+		return String.format("%d of %d features repaired, %d could not be repaired",repairedCount,featureCount,failedCount);
+	}
+
+	/**
+	 * Validate and repair features. The features are independent, so they are
+	 * checked concurrently.
+	 * @param geometries the features by position. Null entries are ignored. Only the
+	 *        positions to be checked are accessed.
+	 * @param positions positions to check, null to check all of them
+	 * @return the geometries by position, repaired where necessary. Unrepaired
+	 *         entries are taken from the original list when accessed.
+	 */
+	public List<Geometry> repair(List<Geometry> geometries,int[] positions) {
+		long start = System.currentTimeMillis();
+		featureCount = geometries.size();
+		Geometry[] replacements = new Geometry[featureCount];
+		int[] candidates = (positions==null ? IntStream.range(0,featureCount).toArray() : positions);
+		boolean[] changed = new boolean[featureCount];
+		boolean[] failed = new boolean[featureCount];
+		IntStream.range(0,candidates.length).parallel().forEach(index -> {
+			int position = candidates[index];
+			if( position<0 || position>=featureCount ) return;
+			Geometry geometry = geometries.get(position);
+			Geometry result = fix(geometry);
+			if( result==null ) {
+				failed[position] = true;
+			}
+			else if( result!=geometry ) {
+				replacements[position] = result;
+				changed[position] = true;
+			}
+		});
+		repairedCount = 0;
+		failedCount = 0;
+		for(int position=0;position<featureCount;position++) {
+			if( changed[position] ) repairedCount++;
+			if( failed[position] ) failedCount++;
+		}
+		invalid = IntStream.range(0,featureCount).filter(position -> changed[position]||failed[position]).toArray();
+		elapsed = System.currentTimeMillis()-start;
+		return new AbstractList<Geometry>() {
+			@Override
+			public Geometry get(int position) {
+				return (replacements[position]!=null ? replacements[position] : geometries.get(position));
+			}
+			@Override
+			public int size() { return featureCount; }
+		};
+	}
+
+	/**
+	 * @param geometry any geometry
+	 * @return the geometry itself if it is valid or not polygonal, otherwise a valid
+	 *         replacement. The geometry itself is also returned if it cannot be repaired.
+	 */
+	public Geometry repair(Geometry geometry) {
+		Geometry result = fix(geometry);
+		if( result==null ) {
+			failedCount++;
+			return geometry;
+		}
+		return result;
+	}
+
+	// @return the geometry itself if it is valid or not polygonal, a valid replacement,
+	//         or null if it cannot be repaired. This may be called concurrently.
+	private Geometry fix(Geometry geometry) {
+		if( !(geometry instanceof Polygonal) || geometry.isEmpty() ) return geometry;
+		Geometry result = removeRepeatedPoints(geometry);
+		if( result!=null && result.isValid() ) {
+			if( result==geometry ) return geometry;
+			result.normalize();
+			return result;
+		}
+		Geometry rebuilt = null;
+		try {
+			rebuilt = rebuild(result==null?geometry:result);
+		}
+		catch(TopologyException ex) {
+			rebuilt = null;
+		}
+		Geometry buffered = null;
+		try {
+			buffered = geometry.buffer(0.);
+		}
+		catch(TopologyException ex) {
+			buffered = null;
+		}
+		// The rebuild must not lose area that the buffer keeps
+		result = buffered;
+		if( rebuilt!=null && rebuilt.isValid() &&
+			(buffered==null || rebuilt.getArea()>=buffered.getArea()*(1.-AREA_TOLERANCE)) ) {
+			result = rebuilt;
+		}
+		if( result==null || result.isEmpty() || !result.isValid() ) return null;
+		result.normalize();
+		return result;
+	}
+
+	/**
+	 * Compute the intersection of two geometries. If the floating point overlay fails,
+	 * repeat it with both snapped to a fixed precision grid fine enough to leave
+	 * their areas effectively unchanged.
+	 * @throws TopologyException if neither overlay succeeds
+	 */
+	public static Geometry intersection(Geometry a,Geometry b) {
+		try {
+			return a.intersection(b);
+		}
+		catch(TopologyException ex) {
+			Envelope env = new Envelope(a.getEnvelopeInternal());
+			env.expandToInclude(b.getEnvelopeInternal());
+			GeometryPrecisionReducer reducer = new GeometryPrecisionReducer(fixedPrecision(env));
+			return reducer.reduce(a).intersection(reducer.reduce(b));
+		}
+	}
+
+	/**
+	 * @param env the extent of the geometries
+	 * @return a precision model that keeps SIGNIFICANT_DIGITS of the largest coordinate
+	 */
+	public static PrecisionModel fixedPrecision(Envelope env) {
+		double magnitude = Math.max(Math.max(Math.abs(env.getMinX()),Math.abs(env.getMaxX())),
+									Math.max(Math.abs(env.getMinY()),Math.abs(env.getMaxY())));
+		if( !(magnitude>0.) ) magnitude = 1.;
+		double scale = Math.pow(10.,SIGNIFICANT_DIGITS-Math.ceil(Math.log10(magnitude)));
+		return new PrecisionModel(scale);
+	}
+
+	// @return the geometry itself if it has no repeated points, null if a shell collapses
+	private Geometry removeRepeatedPoints(Geometry geometry) {
+		boolean repeated = false;
+		for(Coordinate[] ring:rings(geometry)) {
+			if( CoordinateArrays.hasRepeatedPoints(ring) ) {
+				repeated = true;
+				break;
+			}
+		}
+		if( !repeated ) return geometry;
+		GeometryFactory factory = geometry.getFactory();
+		List<Polygon> polygons = new ArrayList<>();
+		for(int n=0;n<geometry.getNumGeometries();n++) {
+			Polygon polygon = (Polygon)geometry.getGeometryN(n);
+			if( polygon.isEmpty() ) continue;
+			LinearRing shell = ring(factory,polygon.getExteriorRing().getCoordinates());
+			if( shell==null ) continue;
+			List<LinearRing> holes = new ArrayList<>();
+			for(int h=0;h<polygon.getNumInteriorRing();h++) {
+				LinearRing hole = ring(factory,polygon.getInteriorRingN(h).getCoordinates());
+				if( hole!=null ) holes.add(hole);
+			}
+			polygons.add(factory.createPolygon(shell,holes.toArray(new LinearRing[holes.size()])));
+		}
+		if( polygons.isEmpty() ) return null;
+		if( geometry instanceof Polygon ) return polygons.get(0);
+		return factory.createMultiPolygon(polygons.toArray(new Polygon[polygons.size()]));
+	}
+
+	// @return null if fewer than three distinct points remain
+	private LinearRing ring(GeometryFactory factory,Coordinate[] coordinates) {
+		Coordinate[] cleaned = CoordinateArrays.removeRepeatedPoints(coordinates);
+		if( cleaned.length<4 ) return null;
+		return factory.createLinearRing(cleaned);
+	}
+
+	// Rebuild each part from its own noded rings, then unite the parts
+	private Geometry rebuild(Geometry geometry) {
+		List<Geometry> kept = new ArrayList<>();
+		for(int n=0;n<geometry.getNumGeometries();n++) {
+			Geometry part = geometry.getGeometryN(n);
+			if( !(part instanceof Polygon) || part.isEmpty() ) continue;
+			addFaces(part,kept);
+		}
+		if( kept.isEmpty() ) return null;
+		Geometry result = CascadedPolygonUnion.union(kept);
+		if( result instanceof Polygon && !(geometry instanceof Polygon) ) {
+			result = geometry.getFactory().createMultiPolygon(new Polygon[] {(Polygon)result});
+		}
+		return result;
+	}
+
+	// Polygonize the noded rings of a single polygon and keep the faces inside an odd number of them
+	private void addFaces(Geometry polygon,List<Geometry> kept) {
+		List<Coordinate[]> rings = rings(polygon);
+		Geometry noded = node(polygon.getFactory(),rings);
+		Polygonizer polygonizer = new Polygonizer();
+		polygonizer.add(noded);
+		@SuppressWarnings("unchecked")
+		Collection<Polygon> faces = polygonizer.getPolygons();
+		for(Polygon face:faces) {
+			Coordinate point = face.getInteriorPoint().getCoordinate();
+			if( point==null ) continue;
+			int inside = 0;
+			for(Coordinate[] ring:rings) {
+				if( RayCrossingCounter.locatePointInRing(point,ring)==Location.INTERIOR ) inside++;
+			}
+			if( inside%2==1 ) kept.add(face);
+		}
+	}
+
+	// A unary union cannot node a ring that crosses itself, so the rings are first split
+	// at every intersection. The union then merges any edges that coincide.
+	private Geometry node(GeometryFactory factory,List<Coordinate[]> rings) {
+		List<SegmentString> segments = new ArrayList<>();
+		for(Coordinate[] ring:rings) {
+			segments.add(new NodedSegmentString(ring,null));
+		}
+		MCIndexNoder noder = new MCIndexNoder(new IntersectionAdder(new RobustLineIntersector()));
+		noder.computeNodes(segments);
+		List<LineString> lines = new ArrayList<>();
+		for(Object segment:noder.getNodedSubstrings()) {
+			Coordinate[] coordinates = CoordinateArrays.removeRepeatedPoints(((SegmentString)segment).getCoordinates());
+			if( coordinates.length>1 ) lines.add(factory.createLineString(coordinates));
+		}
+		return factory.createMultiLineString(lines.toArray(new LineString[lines.size()])).union();
+	}
+
+	private List<Coordinate[]> rings(Geometry geometry) {
+		List<Coordinate[]> list = new ArrayList<>();
+		for(int n=0;n<geometry.getNumGeometries();n++) {
+			Geometry part = geometry.getGeometryN(n);
+			if( !(part instanceof Polygon) || part.isEmpty() ) continue;
+			Polygon polygon = (Polygon)part;
+			list.add(polygon.getExteriorRing().getCoordinates());
+			for(int h=0;h<polygon.getNumInteriorRing();h++) {
+				list.add(polygon.getInteriorRingN(h).getCoordinates());
+			}
+		}
+		return list;
+	}
+}
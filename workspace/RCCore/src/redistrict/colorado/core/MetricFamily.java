@@ -0,0 +1,24 @@
+/**
+ * Copyright (C) 2020 Charles Coughlin
+ *
+ * This program is free software; you may redistribute it and/or
+ * modify it under the terms of the GNU General Public License.
+ */
+package redistrict.colorado.core;
+
+/**
+ * Group the district metrics of a plan by the source data on which they depend.
+ * A change to the analysis setup invalidates only the families that it affects.
+ *   GEOMETRY    - area and perimeter, depend only on the plan boundaries
+ *   AFFILIATION - democrat and republican, from the affiliation dataset
+ *   DEMOGRAPHIC - population, black, hispanic and white, from the demographic dataset
+ *   COUNTY      - crossings, from the county boundaries dataset
+ */
+public enum MetricFamily
+{
+	GEOMETRY,
+	AFFILIATION,
+	DEMOGRAPHIC,
+	COUNTY
+	;
+}
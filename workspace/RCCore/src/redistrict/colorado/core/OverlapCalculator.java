@@ -0,0 +1,357 @@
+/**
+ * Copyright (C) 2020 Charles Coughlin
+ *
+ * This program is free software; you may redistribute it and/or
+ * modify it under the terms of the GNU General Public License.
+ */
+package redistrict.colorado.core;
+
+import java.util.Arrays;
+
+import org.locationtech.jts.geom.CoordinateSequence;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.MultiPolygon;
+import org.locationtech.jts.geom.Polygon;
+
+/**
+ * Compute the fraction of a source polygon's area that lies within a fixed district
+ * polygon without constructing the intersection geometry.
+ *
+ * The overlap area is evaluated as a line integral (Green's theorem) around the boundary
+ * of the intersection. That boundary consists of the portions of the district boundary
+ * that lie inside the source and the portions of the source boundary that lie inside
+ * the district. Rings are oriented with their interiors on the left, so holes subtract
+ * naturally. Where the two boundaries coincide, the shared piece is counted once if
+ * the interiors are on the same side and not at all otherwise.
+ *
+ * The district is packed once into an array of segments with a horizontal strip index.
+ * Each source polygon is packed into re-usable scratch arrays, so the per-feature
+ * computation does not allocate. An instance must not be shared between threads.
+ */
+public class OverlapCalculator {
+	private static final double DISTANCE_TOLERANCE = 1.0E-10;   // Fraction of the district extent
+	private static final double AREA_TOLERANCE = 1.0E-6;        // Fraction of the source area
+	private static final int MAX_STRIPS = 8192;
+	private static final int SEGMENTS_PER_STRIP = 8;
+	private static final int STRIDE = 4;                        // x0,y0,x1,y1
+	// District
+	private final double[] district;
+	private final int districtCount;
+	private final Envelope districtEnvelope;
+	private final double tolerance;
+	private final double minY;
+	private final double stripHeight;
+	private final int stripCount;
+	private final int[] stripStart;
+	private final int[] stripSegments;
+	private final int[] visited;
+	private int stamp;
+	// Scratch space for the source
+	private double[] source;
+	private int sourceCount;
+	private double[] params;
+	private int paramCount;
+	private double[] overlaps;     // Start,end,sign of collinear pieces
+	private int overlapCount;
+	private double originX;
+	private double originY;
+
+	/**
+	 * @param geometry the district, a Polygon or MultiPolygon
+	 */
+	public OverlapCalculator(Geometry geometry) {
+		this.districtEnvelope = geometry.getEnvelopeInternal();
+		this.tolerance = DISTANCE_TOLERANCE*Math.max(1.,Math.max(districtEnvelope.getWidth(),districtEnvelope.getHeight()));
+		this.source = new double[STRIDE*64];
+		this.district = pack(geometry,new double[STRIDE*64]);
+		this.districtCount = sourceCount;   // Set as a side effect of pack()
+		this.sourceCount = 0;
+		this.params = new double[64];
+		this.overlaps = new double[3*16];
+		this.visited = new int[districtCount];
+		this.stamp = 0;
+
+		// Build the strip index. A segment is registered in every strip that its y range touches.
+		this.minY = districtEnvelope.getMinY();
+		this.stripCount = Math.max(1, Math.min(MAX_STRIPS,districtCount/SEGMENTS_PER_STRIP));
+		double height = districtEnvelope.getHeight()/stripCount;
+		this.stripHeight = (height>0.?height:1.);
+		this.stripStart = new int[stripCount+1];
+		for(int seg=0;seg<districtCount;seg++) {
+			int first = stripFor(Math.min(district[STRIDE*seg+1],district[STRIDE*seg+3]));
+			int last  = stripFor(Math.max(district[STRIDE*seg+1],district[STRIDE*seg+3]));
+			for(int strip=first;strip<=last;strip++) stripStart[strip+1]++;
+		}
+		for(int strip=0;strip<stripCount;strip++) stripStart[strip+1]+=stripStart[strip];
+		this.stripSegments = new int[stripStart[stripCount]];
+		int[] fill = Arrays.copyOf(stripStart,stripCount);
+		for(int seg=0;seg<districtCount;seg++) {
+			int first = stripFor(Math.min(district[STRIDE*seg+1],district[STRIDE*seg+3]));
+			int last  = stripFor(Math.max(district[STRIDE*seg+1],district[STRIDE*seg+3]));
+			for(int strip=first;strip<=last;strip++) stripSegments[fill[strip]++] = seg;
+		}
+	}
+
+	/**
+	 * @param geometry a source Polygon or MultiPolygon
+	 * @return the fraction of the source area that lies within the district,
+	 *         or NaN if the overlap could not be computed reliably. The caller
+	 *         is expected to fall back to a full overlay in that case.
+	 */
+	public double areaRatio(Geometry geometry) {
+		if( !(geometry instanceof Polygon) && !(geometry instanceof MultiPolygon) ) return Double.NaN;
+		Envelope env = geometry.getEnvelopeInternal();
+		if( !env.intersects(districtEnvelope) ) return 0.;
+		originX = env.centre().x;
+		originY = env.centre().y;
+		source = pack(geometry,source);
+
+		double sourceArea = 0.;
+		for(int seg=0;seg<sourceCount;seg++) {
+			int i = STRIDE*seg;
+			sourceArea += cross(source[i]-originX,source[i+1]-originY,source[i+2]-originX,source[i+3]-originY);
+		}
+		sourceArea = sourceArea/2.;
+		if( sourceArea<=0. ) return 0.;
+
+		double overlap = (integrateSourceBoundary()+integrateDistrictBoundary(env))/2.;
+		if( Double.isNaN(overlap) || overlap< -AREA_TOLERANCE*sourceArea || overlap>(1.+AREA_TOLERANCE)*sourceArea ) {
+			return Double.NaN;
+		}
+		return Math.max(0.,Math.min(1.,overlap/sourceArea));
+	}
+
+	/**
+	 * Sum the contribution of the pieces of the source boundary that lie inside the district.
+	 * Pieces that coincide with the district boundary are included only if both interiors
+	 * are on the same side.
+	 */
+	private double integrateSourceBoundary() {
+		double sum = 0.;
+		for(int seg=0;seg<sourceCount;seg++) {
+			int i = STRIDE*seg;
+			double px = source[i];
+			double py = source[i+1];
+			double rx = source[i+2]-px;
+			double ry = source[i+3]-py;
+			if( rx==0. && ry==0. ) continue;
+			startEdge();
+			stamp++;
+			int first = stripFor(Math.min(py,py+ry)-tolerance);
+			int last  = stripFor(Math.max(py,py+ry)+tolerance);
+			double minX = Math.min(px,px+rx)-tolerance;
+			double maxX = Math.max(px,px+rx)+tolerance;
+			for(int strip=first;strip<=last;strip++) {
+				for(int k=stripStart[strip];k<stripStart[strip+1];k++) {
+					int dseg = stripSegments[k];
+					if( visited[dseg]==stamp ) continue;
+					visited[dseg] = stamp;
+					int j = STRIDE*dseg;
+					if( Math.max(district[j],district[j+2])<minX || Math.min(district[j],district[j+2])>maxX ) continue;
+					split(px,py,rx,ry,district[j],district[j+1],district[j+2]-district[j],district[j+3]-district[j+1]);
+				}
+			}
+			Arrays.sort(params,0,paramCount);
+			for(int k=1;k<paramCount;k++) {
+				double t0 = params[k-1];
+				double t1 = params[k];
+				if( t1-t0<=0. ) continue;
+				double mid = (t0+t1)/2.;
+				int sign = overlapSign(mid);
+				boolean include;
+				if( sign!=0 ) include = (sign>0);
+				else include = insideDistrict(px+mid*rx,py+mid*ry);
+				if( include ) {
+					sum += cross(px+t0*rx-originX,py+t0*ry-originY,px+t1*rx-originX,py+t1*ry-originY);
+				}
+			}
+		}
+		return sum;
+	}
+
+	/**
+	 * Sum the contribution of the pieces of the district boundary that lie strictly inside
+	 * the source. Only district segments near the source envelope are considered.
+	 */
+	private double integrateDistrictBoundary(Envelope env) {
+		double sum = 0.;
+		stamp++;
+		int runStamp = stamp;
+		int first = stripFor(env.getMinY()-tolerance);
+		int last  = stripFor(env.getMaxY()+tolerance);
+		for(int strip=first;strip<=last;strip++) {
+			for(int k=stripStart[strip];k<stripStart[strip+1];k++) {
+				int dseg = stripSegments[k];
+				if( visited[dseg]==runStamp ) continue;
+				visited[dseg] = runStamp;
+				int j = STRIDE*dseg;
+				double px = district[j];
+				double py = district[j+1];
+				double rx = district[j+2]-px;
+				double ry = district[j+3]-py;
+				if( Math.max(px,px+rx)<env.getMinX()-tolerance || Math.min(px,px+rx)>env.getMaxX()+tolerance ||
+					Math.max(py,py+ry)<env.getMinY()-tolerance || Math.min(py,py+ry)>env.getMaxY()+tolerance ) continue;
+				if( rx==0. && ry==0. ) continue;
+				startEdge();
+				for(int seg=0;seg<sourceCount;seg++) {
+					int i = STRIDE*seg;
+					split(px,py,rx,ry,source[i],source[i+1],source[i+2]-source[i],source[i+3]-source[i+1]);
+				}
+				Arrays.sort(params,0,paramCount);
+				for(int m=1;m<paramCount;m++) {
+					double t0 = params[m-1];
+					double t1 = params[m];
+					if( t1-t0<=0. ) continue;
+					double mid = (t0+t1)/2.;
+					if( overlapSign(mid)!=0 ) continue;   // Accounted for on the source side
+					if( insideSource(px+mid*rx,py+mid*ry) ) {
+						sum += cross(px+t0*rx-originX,py+t0*ry-originY,px+t1*rx-originX,py+t1*ry-originY);
+					}
+				}
+			}
+		}
+		return sum;
+	}
+
+	/**
+	 * Record the parameters along edge p+t*r at which it meets segment q+u*s.
+	 * Collinear overlaps are also recorded along with their relative direction.
+	 */
+	private void split(double px,double py,double rx,double ry,double qx,double qy,double sx,double sy) {
+		double rlen2 = rx*rx+ry*ry;
+		double rlen  = Math.sqrt(rlen2);
+		double qpx = qx-px;
+		double qpy = qy-py;
+		// Distances of the segment end points from the line of the edge
+		double d0 = cross(rx,ry,qpx,qpy)/rlen;
+		double d1 = cross(rx,ry,qpx+sx,qpy+sy)/rlen;
+		if( Math.abs(d0)<=tolerance && Math.abs(d1)<=tolerance ) {
+			double u0 = (qpx*rx+qpy*ry)/rlen2;
+			double u1 = ((qpx+sx)*rx+(qpy+sy)*ry)/rlen2;
+			double start = Math.max(0.,Math.min(u0,u1));
+			double end   = Math.min(1.,Math.max(u0,u1));
+			if( end>start ) {
+				addParam(start);
+				addParam(end);
+				addOverlap(start,end,(rx*sx+ry*sy)>0.?1:-1);
+			}
+			return;
+		}
+		double denom = cross(rx,ry,sx,sy);
+		if( denom==0. ) return;   // Parallel, not collinear
+		double t = cross(qpx,qpy,sx,sy)/denom;
+		double u = cross(qpx,qpy,rx,ry)/denom;
+		double slen = Math.sqrt(sx*sx+sy*sy);
+		double tt = tolerance/rlen;
+		double tu = (slen>0.?tolerance/slen:0.);
+		if( t< -tt || t>1.+tt || u< -tu || u>1.+tu ) return;
+		addParam(Math.max(0.,Math.min(1.,t)));
+	}
+
+	// Even-odd test of a point against the district, using the strip index.
+	private boolean insideDistrict(double x,double y) {
+		boolean inside = false;
+		int strip = stripFor(y);
+		for(int k=stripStart[strip];k<stripStart[strip+1];k++) {
+			int j = STRIDE*stripSegments[k];
+			if( crosses(district,j,x,y) ) inside = !inside;
+		}
+		return inside;
+	}
+	// Even-odd test of a point against the source.
+	private boolean insideSource(double x,double y) {
+		boolean inside = false;
+		for(int seg=0;seg<sourceCount;seg++) {
+			if( crosses(source,STRIDE*seg,x,y) ) inside = !inside;
+		}
+		return inside;
+	}
+	// True if a ray from (x,y) in the +x direction crosses the segment at offset j
+	private static boolean crosses(double[] segs,int j,double x,double y) {
+		double y0 = segs[j+1];
+		double y1 = segs[j+3];
+		if( (y0>y)==(y1>y) ) return false;
+		double xi = segs[j]+(y-y0)*(segs[j+2]-segs[j])/(y1-y0);
+		return x<xi;
+	}
+
+	private static double cross(double ax,double ay,double bx,double by) {
+		return ax*by-ay*bx;
+	}
+
+	private int stripFor(double y) {
+		int strip = (int)Math.floor((y-minY)/stripHeight);
+		if( strip<0 ) strip = 0;
+		else if( strip>=stripCount ) strip = stripCount-1;
+		return strip;
+	}
+
+	private void startEdge() {
+		paramCount = 0;
+		overlapCount = 0;
+		addParam(0.);
+		addParam(1.);
+	}
+	private void addParam(double t) {
+		if( paramCount==params.length ) params = Arrays.copyOf(params,2*params.length);
+		params[paramCount++] = t;
+	}
+	private void addOverlap(double start,double end,int sign) {
+		if( 3*overlapCount==overlaps.length ) overlaps = Arrays.copyOf(overlaps,2*overlaps.length);
+		overlaps[3*overlapCount]   = start;
+		overlaps[3*overlapCount+1] = end;
+		overlaps[3*overlapCount+2] = sign;
+		overlapCount++;
+	}
+	// @return the direction of a collinear overlap containing t, else 0.
+	private int overlapSign(double t) {
+		for(int k=0;k<overlapCount;k++) {
+			if( t>overlaps[3*k] && t<overlaps[3*k+1] ) return (int)overlaps[3*k+2];
+		}
+		return 0;
+	}
+
+	/**
+	 * Pack the rings of a polygonal geometry into an array of segments, shells
+	 * counter-clockwise and holes clockwise. The segment count is left in sourceCount.
+	 * @return the array, which may have been re-allocated to make room
+	 */
+	private double[] pack(Geometry geometry,double[] segs) {
+		sourceCount = 0;
+		for(int n=0;n<geometry.getNumGeometries();n++) {
+			Geometry part = geometry.getGeometryN(n);
+			if( !(part instanceof Polygon) ) continue;
+			Polygon polygon = (Polygon)part;
+			segs = packRing(polygon.getExteriorRing().getCoordinateSequence(),true,segs);
+			for(int h=0;h<polygon.getNumInteriorRing();h++) {
+				segs = packRing(polygon.getInteriorRingN(h).getCoordinateSequence(),false,segs);
+			}
+		}
+		return segs;
+	}
+
+	private double[] packRing(CoordinateSequence seq,boolean shell,double[] segs) {
+		int n = seq.size();
+		if( n<4 ) return segs;
+		double signed = 0.;
+		double x0 = seq.getX(0);
+		double y0 = seq.getY(0);
+		for(int i=1;i<n-1;i++) {
+			signed += cross(seq.getX(i)-x0,seq.getY(i)-y0,seq.getX(i+1)-x0,seq.getY(i+1)-y0);
+		}
+		boolean reverse = (shell? signed<0. : signed>0.);
+		if( STRIDE*(sourceCount+n) > segs.length ) segs = Arrays.copyOf(segs,Math.max(2*segs.length,STRIDE*(sourceCount+n)));
+		for(int i=0;i<n-1;i++) {
+			int a = (reverse?n-1-i:i);
+			int b = (reverse?n-2-i:i+1);
+			int j = STRIDE*sourceCount;
+			segs[j]   = seq.getX(a);
+			segs[j+1] = seq.getY(a);
+			segs[j+2] = seq.getX(b);
+			segs[j+3] = seq.getY(b);
+			sourceCount++;
+		}
+		return segs;
+	}
+}
@@ -0,0 +1,128 @@
+/**
+ * Copyright (C) 2020 Charles Coughlin
+ *
+ * This program is free software; you may redistribute it and/or
+ * modify it under the terms of the GNU General Public License.
+ */
+package redistrict.colorado.core;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Geometry;
+
+/**
+ * A sparse matrix of the fraction of each source feature's area that lies within
+ * each district of a plan. A row corresponds to a district, a column to the position
+ * of a feature within the source dataset. Only non-disjoint pairs are held.
+ *
+ * The weights depend only on the geometries of the boundary and source datasets,
+ * so once computed they may be re-applied to any attribute of the source.
+ * Rows are filled independently, so different districts may be set concurrently.
+ * A row depends only on its district, so is identified by a fingerprint of the
+ * district geometry.
+ */
+public class OverlapMatrix {
+	private static final int[] NO_FEATURES = new int[0];
+	private static final double[] NO_WEIGHTS = new double[0];
+	private final int sourceCount;
+	private final int[][] features;
+	private final double[][] weights;
+
+	/**
+	 * @param districts number of districts (rows)
+	 * @param sources number of features in the source dataset (columns)
+	 */
+	public OverlapMatrix(int districts,int sources) {
+		this.sourceCount = sources;
+		this.features = new int[districts][];
+		this.weights  = new double[districts][];
+	}
+
+	public int getDistrictCount() { return features.length; }
+	public int getSourceCount() { return sourceCount; }
+	/**
+	 * @return source feature positions for a district, in ascending order.
+	 */
+	public int[] getFeatures(int district) { return (features[district]==null?NO_FEATURES:features[district]); }
+	/**
+	 * @return area fractions corresponding to the features of a district.
+	 */
+	public double[] getWeights(int district) { return (weights[district]==null?NO_WEIGHTS:weights[district]); }
+
+	/**
+	 * Define the entries for a single district.
+	 * @param district row index
+	 * @param positions source feature positions, ascending
+	 * @param fractions area fractions, one per position
+	 */
+	public void setRow(int district,int[] positions,double[] fractions) {
+		if( positions.length!=fractions.length ) {
+			throw new IllegalArgumentException(String.format("OverlapMatrix.setRow: %d positions, %d weights",positions.length,fractions.length));
+		}
+		features[district] = positions;
+		weights[district] = fractions;
+	}
+
+	/**
+	 * @return the total number of non-zero entries
+	 */
+	public int getEntryCount() {
+		int count = 0;
+		for(int[] row:features) {
+			if( row!=null ) count+= row.length;
+		}
+		return count;
+	}
+
+	/**
+	 * Weighted sum of a source attribute over the features of a district.
+	 * @param district row index
+	 * @param values attribute values indexed by source feature position
+	 */
+	public double multiply(int district,double[] values) {
+		double sum = 0.;
+		int[] positions = getFeatures(district);
+		double[] fractions = getWeights(district);
+		for(int index=0;index<positions.length;index++) {
+			sum += fractions[index]*values[positions[index]];
+		}
+		return sum;
+	}
+
+	/**
+	 * Compute a fingerprint of a district geometry that identifies its row independent
+	 * of the dataset that holds it. The geometry is first normalized, so that the
+	 * fingerprint does not depend on ring orientation, starting vertex or the order
+	 * of polygons.
+	 * @return a SHA-256 digest of the normalized coordinates in hex, null on failure.
+	 */
+	public static String fingerprint(Geometry geometry) {
+		if( geometry==null ) return null;
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			Geometry normal = geometry.norm();
+			ByteBuffer buffer = ByteBuffer.allocate(2*Double.BYTES);
+			buffer.clear();
+			buffer.putInt(normal.getNumGeometries());
+			buffer.putInt(normal.getNumPoints());
+			digest.update(buffer.array(),0,buffer.position());
+			for(Coordinate c:normal.getCoordinates()) {
+				buffer.clear();
+				buffer.putDouble(c.x);
+				buffer.putDouble(c.y);
+				digest.update(buffer.array());
+			}
+			StringBuilder hex = new StringBuilder();
+			for(byte b:digest.digest()) {
+				hex.append(String.format("%02x",b));
+			}
+			return hex.toString();
+		}
+		catch(NoSuchAlgorithmException ex) {
+			return null;
+		}
+	}
+}
@@ -0,0 +1,75 @@
+/**
+ * Copyright (C) 2020 Charles Coughlin
+ *
+ * This program is free software; you may redistribute it and/or
+ * modify it under the terms of the GNU General Public License.
+ */
+package redistrict.colorado.core;
+
+import java.lang.ref.SoftReference;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The partition cache is a Singleton that holds the partitions of large districts
+ * between aggregations, since clipping a district into cells costs far more than
+ * a single overlay with it. A partition is keyed by the content of the plan's
+ * boundary file, the district, the fingerprint of its geometry and the cell size.
+ * Partitions are held by soft reference, least recently used first to go.
+ */
+public class PartitionCache {
+	private static final int CAPACITY = 256;     // Partitions
+	private static PartitionCache instance = null;
+	private final Map<String,SoftReference<DistrictPartition>> map;
+
+	/**
+	 * Constructor is private per Singleton pattern.
+	 */
+	private PartitionCache() {
+		this.map = new LinkedHashMap<String,SoftReference<DistrictPartition>>(16,0.75f,true) {
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String,SoftReference<DistrictPartition>> eldest) {
+				return size()>CAPACITY;
+			}
+		};
+	}
+	/**
+	 * Static method to create and/or fetch the single instance.
+	 */
+	public static synchronized PartitionCache getInstance() {
+		if( instance==null) {
+			instance = new PartitionCache();
+		}
+		return instance;
+	}
+
+	/**
+	 * @param contentHash hash of the boundary shapefile, may be null
+	 * @param row position of the district within the boundary dataset
+	 * @param cellSize the largest width or height of a piece
+	 * @param fingerprint fingerprint of the district geometry, as held in memory
+	 * @return the key of the partition
+	 */
+	public static String getKey(String contentHash,int row,double cellSize,String fingerprint) {
+		return String.format("%s:%d:%s:%s",contentHash,row,Double.toString(cellSize),fingerprint);
+	}
+
+	/**
+	 * @return a copy of the cached partition, which the caller alone may use. Null if none.
+	 */
+	public synchronized DistrictPartition getPartition(String key) {
+		SoftReference<DistrictPartition> reference = map.get(key);
+		DistrictPartition partition = (reference==null?null:reference.get());
+		return (partition==null?null:partition.copy());
+	}
+
+	/**
+	 * Retain a partition. The caller may continue to use it, later requests receive copies.
+	 */
+	public synchronized void putPartition(String key,DistrictPartition partition) {
+		map.put(key,new SoftReference<>(partition));
+	}
+
+	public synchronized void clear() { map.clear(); }
+}
@@ -50,6 +50,7 @@ public class PlanFeature  {
     private double 	black = 0.;
     private double 	hispanic = 0.;
     private double 	white	 = 0.;
+    private double 	areaError = 0.;   // Bound on the fraction of area mis-assigned, 0 if exact
 
     /**
      * Define a layer within a plan.
@@ -66,6 +67,7 @@ public class PlanFeature  {
     public long getPlanId() { return this.planId; }
     public String getName() { return this.name; }
     public double getArea() { return this.area; }
+    public double getAreaError() { return this.areaError; }
     public double getPerimeter() { return this.perimeter; }
     public double getPopulation() { return this.	population; }
     public double getDemocrat() { return this.democrat; }
@@ -85,6 +87,7 @@ public class PlanFeature  {
     
     public void setName(String nam) { this.name = nam; }
     public void setArea(double val) { this.area = val; }
+    public void setAreaError(double val) { this.areaError = val; }
     public void setCrossings(double val) { this.crossings = val; }
     public void setPerimeter(double val) { this.perimeter = val; }
     public void setPopulation(double val) { this.population = val; }
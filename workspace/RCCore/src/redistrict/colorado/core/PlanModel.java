@@ -6,15 +6,22 @@
  */
 package redistrict.colorado.core;
 
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javafx.scene.paint.Color;
 
 /**
  * A Plan is a re-districting strategy. It is based on a BOUNDARIES dataset. 
  * Its feature attributes (metrics) depend on the current analyzer configuration.
+ * When the configuration changes, the affected metric families are marked stale
+ * rather than discarded, so that only they need be recomputed. Each family also
+ * carries a version that changes whenever its values are replaced.
  */
 public class PlanModel {
+	private static final AtomicLong versionCounter = new AtomicLong(0);
 	private final long id;
 	private String description;
 	private String name;
@@ -22,6 +29,8 @@ public class PlanModel {
 	private boolean active;
 	private DatasetModel boundary;
 	private List<PlanFeature> metrics;
+	private final EnumSet<MetricFamily> staleFamilies;
+	private final long[] versions;            // By metric family ordinal
 
 	private double maxDemocrat;
 	private double maxRepublican;
@@ -34,6 +43,8 @@ public class PlanModel {
 		this.boundary = null;
 		this.fill = Color.BLACK;
 		this.metrics = null;
+		this.staleFamilies = EnumSet.noneOf(MetricFamily.class);
+		this.versions = new long[MetricFamily.values().length];
 		this.name = "";
 		this.description="";
 		// Initialze the bounds to an illegal value
@@ -71,9 +82,54 @@ public class PlanModel {
 	public void setBoundary(DatasetModel bound) { this.boundary = bound; }
 	public void setDescription(String desc) { this.description = desc; }
 	public void setFill(Color color) { this.fill = color; }
-	public void setMetrics(List<PlanFeature> list) { this.metrics = list; }
+	public void setMetrics(List<PlanFeature> list) { setMetrics(list,EnumSet.allOf(MetricFamily.class)); }
 	public void setName(String nam) { this.name = nam; }
 	
+	/**
+	 * Replace the metrics, of which only the listed families hold new values.
+	 * Those families are no longer stale. A null list leaves nothing stale.
+	 * @param list the new metrics
+	 * @param families the families that were computed
+	 */
+	public void setMetrics(List<PlanFeature> list,Set<MetricFamily> families) {
+		this.metrics = list;
+		if( list==null ) staleFamilies.clear();
+		else staleFamilies.removeAll(families);
+		for(MetricFamily family:families) {
+			versions[family.ordinal()] = versionCounter.incrementAndGet();
+		}
+		// The bounds are recomputed on demand
+		this.maxRepublican = -1.;
+		this.maxDemocrat = -1.;
+		this.minWhite = -1.;
+		this.maxWhite = -1.;
+	}
+	/**
+	 * Mark families of the current metrics as out of date. The values are retained
+	 * until recomputed. This has no effect on a plan without metrics.
+	 */
+	public void invalidateMetrics(Set<MetricFamily> families) {
+		if( metrics==null || metrics.isEmpty() ) return;
+		staleFamilies.addAll(families);
+	}
+	/**
+	 * @return true if the plan has metrics and none is stale
+	 */
+	public boolean hasCurrentMetrics() {
+		return metrics!=null && !metrics.isEmpty() && staleFamilies.isEmpty();
+	}
+	/**
+	 * @return the families that must be computed, all of them if there are no metrics
+	 */
+	public Set<MetricFamily> getPendingFamilies() {
+		if( metrics==null || metrics.isEmpty() ) return EnumSet.allOf(MetricFamily.class);
+		return EnumSet.copyOf(staleFamilies);
+	}
+	/**
+	 * @return a value that changes whenever the metrics of the family are replaced
+	 */
+	public long getMetricsVersion(MetricFamily family) { return versions[family.ordinal()]; }
+	
 	// return the greatest fraction of republicans
 	private double computeMaxRepublican() {
 		double ans = -1;
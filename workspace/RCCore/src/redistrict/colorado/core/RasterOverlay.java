@@ -0,0 +1,256 @@
+/**
+ * Copyright (C) 2020 Charles Coughlin
+ *
+ * This program is free software; you may redistribute it and/or
+ * modify it under the terms of the GNU General Public License.
+ */
+package redistrict.colorado.core;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.locationtech.jts.geom.CoordinateSequence;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.LineString;
+import org.locationtech.jts.geom.Point;
+import org.locationtech.jts.geom.Polygon;
+
+/**
+ * Approximate the overlap of the districts of a plan with a source dataset by
+ * rasterizing both onto a common grid of square cells. A cell belongs to a polygon
+ * if its center does. The districts are drawn once into a grid of labels. Each source
+ * feature is then drawn over the labels, and the fraction of its cells that carry
+ * a district's label is the estimate of the fraction of its area in that district.
+ *
+ * Only cells that straddle a district boundary can be mis-assigned. There are no
+ * more than about perimeter/size of these, each of area size². The cell size is
+ * chosen so that perimeter*size is within the requested fraction of the area of
+ * every district. If the resulting grid would be too large, the cell size is
+ * increased and the bound for each district is reported accordingly.
+ * A source too small to cover any cell center is assigned whole by an interior point.
+ */
+public class RasterOverlay {
+	public static final int MAX_CELLS = 1<<24;
+	private final List<Geometry> districts;
+	private final Envelope extent;
+	private final double cellSize;
+	private final int columns;
+	private final int rows;
+	private final short[] labels;          // District row+1 by cell, 0 if none
+	private final double[] errors;         // Error bound by district, fraction of area
+	// Scratch for the scan conversion
+	private double[] crossings;
+	private int[] rowStart;
+
+	/**
+	 * @param districtGeometries districts by row, Polygon or MultiPolygon. Null entries are ignored.
+	 * @param maxError the largest acceptable fraction of any district's area that is mis-assigned
+	 */
+	public RasterOverlay(List<Geometry> districtGeometries,double maxError) {
+		if( districtGeometries.size()>=Short.MAX_VALUE ) {
+			throw new IllegalArgumentException(String.format("RasterOverlay: too many districts (%d)",districtGeometries.size()));
+		}
+		this.districts = districtGeometries;
+		this.extent = new Envelope();
+		double ratio = Double.MAX_VALUE;     // Smallest area/perimeter
+		for(Geometry geometry:districts) {
+			if( geometry==null || geometry.isEmpty() ) continue;
+			extent.expandToInclude(geometry.getEnvelopeInternal());
+			double perimeter = geometry.getLength();
+			if( perimeter>0. ) ratio = Math.min(ratio,geometry.getArea()/perimeter);
+		}
+		double size = (ratio==Double.MAX_VALUE ? 1. : maxError*ratio);
+		if( !extent.isNull() && size>0. ) {
+			double cells = (extent.getWidth()/size+1.)*(extent.getHeight()/size+1.);
+			if( cells>MAX_CELLS ) size = size*Math.sqrt(cells/MAX_CELLS);
+		}
+		else {
+			size = 1.;
+		}
+		this.cellSize = size;
+		this.columns = (extent.isNull()?0:(int)Math.ceil(extent.getWidth()/cellSize)+1);
+		this.rows = (extent.isNull()?0:(int)Math.ceil(extent.getHeight()/cellSize)+1);
+		this.labels = new short[columns*rows];
+		this.errors = new double[districts.size()];
+		this.crossings = new double[256];
+		this.rowStart = new int[rows+1];
+		for(int row=0;row<districts.size();row++) {
+			Geometry geometry = districts.get(row);
+			if( geometry==null || geometry.isEmpty() ) continue;
+			double area = geometry.getArea();
+			errors[row] = (area>0.?geometry.getLength()*cellSize/area:1.);
+			final short label = (short)(row+1);
+			scan(geometry,(offset,first,last) -> {
+				for(int cell=first;cell<=last;cell++) labels[offset+cell] = label;
+			});
+		}
+	}
+
+	public double getCellSize() { return this.cellSize; }
+	public int getCellCount() { return this.labels.length; }
+	/**
+	 * @return the bound on the fraction of the district's area that may be mis-assigned.
+	 */
+	public double getErrorBound(int row) { return this.errors[row]; }
+
+	/**
+	 * Estimate the area fractions of the source features in each district.
+	 * @param matrix receives a row for each district that is not skipped
+	 * @param sources source features by position. Null entries are ignored.
+	 * @param skip flags by row, true if the row is already known and need not be set
+	 * @return flags by row, true if the row was set
+	 */
+	public boolean[] overlay(OverlapMatrix matrix,List<Geometry> sources,boolean[] skip) {
+		int districtCount = districts.size();
+		boolean[] filled = new boolean[districtCount];
+		// Entries by district, held as parallel growable arrays
+		int[][] positions = new int[districtCount][];
+		double[][] fractions = new double[districtCount][];
+		int[] entries = new int[districtCount];
+		int[] counts = new int[districtCount+1];
+		int[] touched = new int[districtCount];
+		for(int position=0;position<sources.size();position++) {
+			Geometry geometry = sources.get(position);
+			if( geometry==null || geometry.isEmpty() || extent.isNull() || !geometry.getEnvelopeInternal().intersects(extent) ) continue;
+			int[] total = new int[1];
+			int[] touchCount = new int[1];
+			scan(geometry,(offset,first,last) -> {
+				for(int cell=first;cell<=last;cell++) {
+					int label = labels[offset+cell];
+					if( counts[label]==0 && label>0 ) touched[touchCount[0]++] = label-1;
+					counts[label]++;
+				}
+				total[0] += last-first+1;
+			});
+			if( total[0]==0 ) {
+				// Too small to cover a cell center. Assign whole by an interior point.
+				Point point = (geometry instanceof Point ? (Point)geometry : geometry.getInteriorPoint());
+				if( point==null || point.isEmpty() ) continue;
+				int label = labelAt(point.getX(),point.getY());
+				if( label>0 ) {
+					touched[touchCount[0]++] = label-1;
+					counts[label] = 1;
+					total[0] = 1;
+				}
+			}
+			for(int k=0;k<touchCount[0];k++) {
+				int row = touched[k];
+				int label = row+1;
+				if( !skip[row] ) {
+					if( positions[row]==null ) {
+						positions[row] = new int[16];
+						fractions[row] = new double[16];
+					}
+					else if( entries[row]==positions[row].length ) {
+						positions[row] = Arrays.copyOf(positions[row],2*entries[row]);
+						fractions[row] = Arrays.copyOf(fractions[row],2*entries[row]);
+					}
+					positions[row][entries[row]] = position;
+					fractions[row][entries[row]] = (double)counts[label]/total[0];
+					entries[row]++;
+				}
+				counts[label] = 0;
+			}
+			counts[0] = 0;
+		}
+		for(int row=0;row<districtCount;row++) {
+			if( skip[row] || districts.get(row)==null ) continue;
+			if( positions[row]==null ) matrix.setRow(row,new int[0],new double[0]);
+			else matrix.setRow(row,Arrays.copyOf(positions[row],entries[row]),Arrays.copyOf(fractions[row],entries[row]));
+			filled[row] = true;
+		}
+		return filled;
+	}
+
+	private int labelAt(double x,double y) {
+		int column = (int)Math.floor((x-extent.getMinX())/cellSize);
+		int row = (int)Math.floor((y-extent.getMinY())/cellSize);
+		if( column<0 || column>=columns || row<0 || row>=rows ) return 0;
+		return labels[row*columns+column];
+	}
+
+	/**
+	 * Receives the runs of cells whose centers lie within a polygon.
+	 */
+	private interface SpanVisitor {
+		/**
+		 * @param offset index of the first cell of the grid row
+		 * @param first first column of the run
+		 * @param last last column of the run, inclusive
+		 */
+		void visit(int offset,int first,int last);
+	}
+
+	/**
+	 * Scan convert a polygonal geometry. For each grid row, the crossings of the row's
+	 * center line with all rings are collected and sorted, then alternate intervals
+	 * are filled (even-odd rule). Crossings are half-open in y, as for the DistrictLocator.
+	 */
+	private void scan(Geometry geometry,SpanVisitor visitor) {
+		if( rows==0 ) return;
+		Envelope env = geometry.getEnvelopeInternal();
+		int firstRow = Math.max(0,(int)Math.ceil((env.getMinY()-extent.getMinY())/cellSize-0.5));
+		int lastRow = Math.min(rows-1,(int)Math.floor((env.getMaxY()-extent.getMinY())/cellSize-0.5));
+		if( lastRow<firstRow ) return;
+		// Count the crossings in each row, then fill
+		Arrays.fill(rowStart,firstRow,lastRow+2,0);
+		for(int pass=0;pass<2;pass++) {
+			if( pass==1 ) {
+				for(int row=firstRow;row<=lastRow;row++) rowStart[row+1]+=rowStart[row];
+				if( rowStart[lastRow+1]>crossings.length ) crossings = new double[Math.max(2*crossings.length,rowStart[lastRow+1])];
+				for(int row=lastRow+1;row>firstRow;row--) rowStart[row] = rowStart[row-1];
+				rowStart[firstRow] = 0;
+			}
+			for(int n=0;n<geometry.getNumGeometries();n++) {
+				Geometry part = geometry.getGeometryN(n);
+				if( !(part instanceof Polygon) ) continue;
+				Polygon polygon = (Polygon)part;
+				scanRing(polygon.getExteriorRing(),firstRow,lastRow,pass);
+				for(int h=0;h<polygon.getNumInteriorRing();h++) {
+					scanRing(polygon.getInteriorRingN(h),firstRow,lastRow,pass);
+				}
+			}
+		}
+		// After the second pass, rowStart[row+1] marks the end of the row's crossings
+		int begin = 0;
+		for(int row=firstRow;row<=lastRow;row++) {
+			int end = rowStart[row+1];
+			Arrays.sort(crossings,begin,end);
+			int offset = row*columns;
+			for(int k=begin;k+1<end;k+=2) {
+				int first = Math.max(0,(int)Math.ceil((crossings[k]-extent.getMinX())/cellSize-0.5));
+				int last = Math.min(columns-1,(int)Math.ceil((crossings[k+1]-extent.getMinX())/cellSize-0.5)-1);
+				if( last>=first ) visitor.visit(offset,first,last);
+			}
+			begin = end;
+		}
+	}
+
+	// In the first pass count crossings per row in rowStart[row+1], in the second store them
+	private void scanRing(LineString ring,int firstRow,int lastRow,int pass) {
+		CoordinateSequence seq = ring.getCoordinateSequence();
+		int n = seq.size();
+		for(int i=0;i<n-1;i++) {
+			double x0 = seq.getX(i);
+			double y0 = seq.getY(i);
+			double x1 = seq.getX(i+1);
+			double y1 = seq.getY(i+1);
+			if( y0==y1 ) continue;
+			double low = Math.min(y0,y1);
+			double high = Math.max(y0,y1);
+			// Rows whose center line y satisfies low <= y < high
+			int r0 = Math.max(firstRow,(int)Math.ceil((low-extent.getMinY())/cellSize-0.5));
+			int r1 = Math.min(lastRow,(int)Math.ceil((high-extent.getMinY())/cellSize-0.5)-1);
+			for(int row=r0;row<=r1;row++) {
+				if( pass==0 ) {
+					rowStart[row+1]++;
+				}
+				else {
+					double y = extent.getMinY()+(row+0.5)*cellSize;
+					crossings[rowStart[row+1]++] = x0+(y-y0)*(x1-x0)/(y1-y0);
+				}
+			}
+		}
+	}
+}
@@ -38,25 +38,27 @@ public class AttributeAliasTable {
 	 */
 	public void createAlias(long id,String name,String alias) {
 		if( cxn==null ) return;
+		synchronized(cxn) {
 		
-		String SQL = "INSERT INTO AttributeAlias(datasetId,name,alias) values (?,?,?)";
-		PreparedStatement statement = null;
-		try {
-			LOGGER.info(String.format("%s.createAlias: %s for %s",CLSS,alias,name));
-			statement = cxn.prepareStatement(SQL);
-			statement.setLong(1, id);
-			statement.setString(2, name);
-			statement.setString(3, alias);
-			statement.executeUpdate(); 
-		}
-		catch(SQLException e) {
-			// Presumably the error is a duplicate key 
-			LOGGER.severe(String.format("%s.createAlias: error (%s)",CLSS,e.getMessage()));
-			updateAlias(id,name,alias);
-		}
-		finally {
-			if( statement!=null) {
-				try { statement.close(); } catch(SQLException ignore) {}
+			String SQL = "INSERT INTO AttributeAlias(datasetId,name,alias) values (?,?,?)";
+			PreparedStatement statement = null;
+			try {
+				LOGGER.info(String.format("%s.createAlias: %s for %s",CLSS,alias,name));
+				statement = cxn.prepareStatement(SQL);
+				statement.setLong(1, id);
+				statement.setString(2, name);
+				statement.setString(3, alias);
+				statement.executeUpdate(); 
+			}
+			catch(SQLException e) {
+				// Presumably the error is a duplicate key 
+				LOGGER.severe(String.format("%s.createAlias: error (%s)",CLSS,e.getMessage()));
+				updateAlias(id,name,alias);
+			}
+			finally {
+				if( statement!=null) {
+					try { statement.close(); } catch(SQLException ignore) {}
+				}
 			}
 		}
 	}
@@ -64,26 +66,28 @@ public class AttributeAliasTable {
 	 * Delete the alias for the specified layer and name.
 	 */
 	public boolean deleteAlias(long id,String name) {
-		PreparedStatement statement = null;
-		String SQL = "DELETE FROM AttributeAlias WHERE datasetId=? AND name = ?";
-		boolean success = false;
-		try {
-			LOGGER.info(String.format("%s.deleteLayer: \n%s",CLSS,SQL));
-			statement = cxn.prepareStatement(SQL);
-			statement.setLong(1, id);;
-			statement.setString(2, name);
-			statement.executeUpdate();
-			if( statement.getUpdateCount()>0) success = true;
-		}
-		catch(SQLException e) {
-			LOGGER.severe(String.format("%s.deleteAlias: error (%s)",CLSS,e.getMessage()));
-		}
-		finally {
-			if( statement!=null) {
-				try { statement.close(); } catch(SQLException ignore) {}
+		synchronized(cxn) {
+			PreparedStatement statement = null;
+			String SQL = "DELETE FROM AttributeAlias WHERE datasetId=? AND name = ?";
+			boolean success = false;
+			try {
+				LOGGER.info(String.format("%s.deleteLayer: \n%s",CLSS,SQL));
+				statement = cxn.prepareStatement(SQL);
+				statement.setLong(1, id);;
+				statement.setString(2, name);
+				statement.executeUpdate();
+				if( statement.getUpdateCount()>0) success = true;
+			}
+			catch(SQLException e) {
+				LOGGER.severe(String.format("%s.deleteAlias: error (%s)",CLSS,e.getMessage()));
+			}
+			finally {
+				if( statement!=null) {
+					try { statement.close(); } catch(SQLException ignore) {}
+				}
 			}
+			return success;
 		}
-		return success;
 	}
 	/**
 	 * @return a map of all aliases keyed by name.
@@ -161,27 +165,29 @@ public class AttributeAliasTable {
 	 * @return true if the name existed and was re-assigned an alias.
 	 */
 	public boolean updateAlias(long id,String name,String alias) {
-		PreparedStatement statement = null;
-		String SQL = "UPDATE AttributeAlias SET alias=? WHERE datasetId = ? and name = ?";
-		boolean success = false;
-		try {
-			//LOGGER.info(String.format("%s.updateAlias: \n%s",CLSS,SQL));
-			statement = cxn.prepareStatement(SQL);
-			statement.setString(1,alias);
-			statement.setLong(2, id);
-			statement.setString(3,name);
-			statement.executeUpdate();
-			if( statement.getUpdateCount()>0) success = true;
-		}
-		catch(SQLException e) {
-			LOGGER.severe(String.format("%s.updateAlias: error (%s)",CLSS,e.getMessage()));
-		}
-		finally {
-			if( statement!=null) {
-				try { statement.close(); } catch(SQLException ignore) {}
+		synchronized(cxn) {
+			PreparedStatement statement = null;
+			String SQL = "UPDATE AttributeAlias SET alias=? WHERE datasetId = ? and name = ?";
+			boolean success = false;
+			try {
+				//LOGGER.info(String.format("%s.updateAlias: \n%s",CLSS,SQL));
+				statement = cxn.prepareStatement(SQL);
+				statement.setString(1,alias);
+				statement.setLong(2, id);
+				statement.setString(3,name);
+				statement.executeUpdate();
+				if( statement.getUpdateCount()>0) success = true;
+			}
+			catch(SQLException e) {
+				LOGGER.severe(String.format("%s.updateAlias: error (%s)",CLSS,e.getMessage()));
+			}
+			finally {
+				if( statement!=null) {
+					try { statement.close(); } catch(SQLException ignore) {}
+				}
 			}
+			return success;
 		}
-		return success;
 	}
 	/**
 	 * Update aliases for a plan. We only bother with aliases that in the standard list.
@@ -191,25 +197,27 @@ public class AttributeAliasTable {
 	 * @return true if the name existed and was re-assigned an alias.
 	 */
 	public void updateAliasTable(long id,List<FeatureConfiguration> configs) {
-		PreparedStatement statement = null;
-		String SQL = "DELETE FROM AttributeAlias WHERE datasetId=?";
-		try {
-			statement = cxn.prepareStatement(SQL);
-			statement.setLong(1, id);;
-			statement.executeUpdate();
-			for(FeatureConfiguration config:configs) {
-				if(config.getAlias()!=StandardAttributes.NONE.name() &&
-					StandardAttributes.names().contains(config.getAlias())) {
-					createAlias(id,config.getName(),config.getAlias());
+		synchronized(cxn) {
+			PreparedStatement statement = null;
+			String SQL = "DELETE FROM AttributeAlias WHERE datasetId=?";
+			try {
+				statement = cxn.prepareStatement(SQL);
+				statement.setLong(1, id);;
+				statement.executeUpdate();
+				for(FeatureConfiguration config:configs) {
+					if(config.getAlias()!=StandardAttributes.NONE.name() &&
+						StandardAttributes.names().contains(config.getAlias())) {
+						createAlias(id,config.getName(),config.getAlias());
+					}
+				}	
+			}
+			catch(SQLException e) {
+				LOGGER.severe(String.format("%s.updateAliasTable: error (%s)",CLSS,e.getMessage()));
+			}
+			finally {
+				if( statement!=null) {
+					try { statement.close(); } catch(SQLException ignore) {}
 				}
-			}	
-		}
-		catch(SQLException e) {
-			LOGGER.severe(String.format("%s.updateAliasTable: error (%s)",CLSS,e.getMessage()));
-		}
-		finally {
-			if( statement!=null) {
-				try { statement.close(); } catch(SQLException ignore) {}
 			}
 		}
 	}
@@ -22,6 +22,11 @@ import org.sqlite.JDBC;
  * before it can be used as it opens the database connection.
  * 
  * Call shutdown() when database access is no longer required.
+ *
+ * All tables share the one connection, which a background aggregation also
+ * uses. Each method that writes holds the lock of the connection throughout,
+ * so that a transaction on one thread neither commits nor discards the writes
+ * of another.
  */
 public class Database {
 	private final static String CLSS = "Database";
@@ -35,6 +40,9 @@ public class Database {
 	private final FeatureAttributeTable featureAttributeTable;
 	private final DatasetTable datasetTable;
 	private final GatePropertyTable gateTable;
+	private final GeometryRepairTable geometryRepairTable;
+	private final MetricCacheTable metricCacheTable;
+	private final OverlapTable overlapTable;
 	private final PlanTable planTable;
 	private final PreferencesTable preferencesTable;
 
@@ -46,6 +54,9 @@ public class Database {
 		this.featureAttributeTable = new FeatureAttributeTable();
 		this.datasetTable = new DatasetTable();
 		this.gateTable = new GatePropertyTable();
+		this.geometryRepairTable = new GeometryRepairTable();
+		this.metricCacheTable = new MetricCacheTable();
+		this.overlapTable = new OverlapTable();
 		this.planTable = new PlanTable();
 		this.preferencesTable = new PreferencesTable();
 	}
@@ -65,6 +76,9 @@ public class Database {
 	public DatasetTable getDatasetTable() { return this.datasetTable; }
 	public FeatureAttributeTable getFeatureAttributeTable() { return this.featureAttributeTable; }
 	public GatePropertyTable getGateTable() { return this.gateTable; }
+	public GeometryRepairTable getGeometryRepairTable() { return this.geometryRepairTable; }
+	public MetricCacheTable getMetricCacheTable() { return this.metricCacheTable; }
+	public OverlapTable getOverlapTable() { return this.overlapTable; }
 	public PreferencesTable getPreferencesTable() { return this.preferencesTable; }
 	public PlanTable getPlanTable() { return this.planTable; }
 	
@@ -86,6 +100,9 @@ public class Database {
 			datasetTable.setConnection(connection);
 			featureAttributeTable.setConnection(connection);
 			gateTable.setConnection(connection);
+			geometryRepairTable.setConnection(connection);
+			metricCacheTable.setConnection(connection);
+			overlapTable.setConnection(connection);
 			planTable.setConnection(connection);
 			preferencesTable.setConnection(connection);
 			
@@ -41,32 +41,34 @@ public class DatasetTable {
 	 * The "districtColumn" is set to null.
 	 */
 	public DatasetModel createDataset() {
-		DatasetModel model = null;
-		if( cxn==null ) return model;
+		if( cxn==null ) return null;
+		synchronized(cxn) {
+			DatasetModel model = null;
 		
-		// NOTE: aggregated defaults to 0
-		String SQL = String.format("INSERT INTO Dataset(name,description,shapefilePath,role) values ('%s','%s','','%s')",
-				DEFAULT_NAME,DEFAULT_DESCRIPTION,DatasetRole.BOUNDARIES.name());
-		Statement statement = null;
-		try {
-			//LOGGER.info(String.format("%s.createDataset: \n%s",CLSS,SQL));
-			statement = cxn.createStatement();
-			statement.executeUpdate(SQL);
-			ResultSet rs = statement.getGeneratedKeys();
-		    if (rs.next()) {
-		        model = new DatasetModel(rs.getInt(1),DEFAULT_NAME);
-		        cache.addDataset(model);
-		    } 
-		}
-		catch(SQLException e) {
-			LOGGER.severe(String.format("%s.createDataset: error (%s)",CLSS,e.getMessage()));
-		}
-		finally {
-			if( statement!=null) {
-				try { statement.close(); } catch(SQLException ignore) {}
+			// NOTE: aggregated defaults to 0
+			String SQL = String.format("INSERT INTO Dataset(name,description,shapefilePath,role) values ('%s','%s','','%s')",
+					DEFAULT_NAME,DEFAULT_DESCRIPTION,DatasetRole.BOUNDARIES.name());
+			Statement statement = null;
+			try {
+				//LOGGER.info(String.format("%s.createDataset: \n%s",CLSS,SQL));
+				statement = cxn.createStatement();
+				statement.executeUpdate(SQL);
+				ResultSet rs = statement.getGeneratedKeys();
+			    if (rs.next()) {
+			        model = new DatasetModel(rs.getInt(1),DEFAULT_NAME);
+			        cache.addDataset(model);
+			    } 
 			}
+			catch(SQLException e) {
+				LOGGER.severe(String.format("%s.createDataset: error (%s)",CLSS,e.getMessage()));
+			}
+			finally {
+				if( statement!=null) {
+					try { statement.close(); } catch(SQLException ignore) {}
+				}
+			}
+			return model;
 		}
-		return model;
 	}
 	/**
 	 * Delete a dataset given its id. 
@@ -74,26 +76,28 @@ public class DatasetTable {
 	 * removed via cascading delete.
 	 */
 	public boolean deleteDataset(long key) {
-		PreparedStatement statement = null;
-		String SQL = "DELETE FROM Dataset WHERE id = ?";
-		boolean success = false;
-		try {
-			LOGGER.info(String.format("%s.deleteDataset: \n%s",CLSS,SQL));
-			statement = cxn.prepareStatement(SQL);
-			statement.setLong(1, key);
-			statement.executeUpdate();
-			if( statement.getUpdateCount()>0) success = true;
-			cache.removeDataset(key);
-		}
-		catch(SQLException e) {
-			LOGGER.severe(String.format("%s.deleteDataset: error (%s)",CLSS,e.getMessage()));
-		}
-		finally {
-			if( statement!=null) {
-				try { statement.close(); } catch(SQLException ignore) {}
+		synchronized(cxn) {
+			PreparedStatement statement = null;
+			String SQL = "DELETE FROM Dataset WHERE id = ?";
+			boolean success = false;
+			try {
+				LOGGER.info(String.format("%s.deleteDataset: \n%s",CLSS,SQL));
+				statement = cxn.prepareStatement(SQL);
+				statement.setLong(1, key);
+				statement.executeUpdate();
+				if( statement.getUpdateCount()>0) success = true;
+				cache.removeDataset(key);
 			}
+			catch(SQLException e) {
+				LOGGER.severe(String.format("%s.deleteDataset: error (%s)",CLSS,e.getMessage()));
+			}
+			finally {
+				if( statement!=null) {
+					try { statement.close(); } catch(SQLException ignore) {}
+				}
+			}
+			return success;
 		}
-		return success;
 	}
 	/**
 	 * @return a list of all defined datasets. It may be empty.
@@ -103,7 +107,7 @@ public class DatasetTable {
 		DatasetModel model = null;
 		PreparedStatement statement = null;
 		ResultSet rs = null;
-		String SQL = "SELECT id,name,description,shapefilePath,role,districtColumn from Dataset ORDER BY name"; 
+		String SQL = "SELECT id,name,description,shapefilePath,role,districtColumn,simplifyTolerance from Dataset ORDER BY name"; 
 		try {
 			statement = cxn.prepareStatement(SQL);
 			statement.setQueryTimeout(10);  // set timeout to 10 sec.
@@ -116,6 +120,7 @@ public class DatasetTable {
 					model.setDescription(rs.getString("description"));
 					model.setShapefilePath(rs.getString("shapefilePath"));
 					model.setDistrictColumn(rs.getString("districtColumn"));
+					model.setSimplifyTolerance(rs.getDouble("simplifyTolerance"));
 					DatasetRole role = DatasetRole.BOUNDARIES;   // Default
 					try {
 						role = DatasetRole.valueOf(rs.getString("role"));
@@ -154,7 +159,7 @@ public class DatasetTable {
 		Statement statement = null;
 		ResultSet rs = null;
 		String SQL = String.format(
-				"SELECT id,name,description,shapefilePath,districtColumn from Dataset WHERE role ='%s' ORDER BY name",role.name()); 
+				"SELECT id,name,description,shapefilePath,districtColumn,simplifyTolerance from Dataset WHERE role ='%s' ORDER BY name",role.name()); 
 		try {
 			statement = cxn.createStatement();
 			statement.setQueryTimeout(10);  // set timeout to 10 sec.
@@ -168,6 +173,7 @@ public class DatasetTable {
 					model.setDescription(rs.getString("description"));
 					model.setShapefilePath(rs.getString("shapefilePath"));
 					model.setDistrictColumn(rs.getString("districtColumn"));
+					model.setSimplifyTolerance(rs.getDouble("simplifyTolerance"));
 					model.setRole(role);
 					cache.addDataset(model);
 				}
@@ -198,29 +204,32 @@ public class DatasetTable {
 	 * @param newName
 	 */
 	public boolean updateDataset(DatasetModel model) {
-		PreparedStatement statement = null;
-		String SQL = "UPDATE Dataset SET name=?,description=?,shapefilePath=?,role=?, districtColumn=? WHERE id = ?";
-		boolean success = false;
-		try {
-			//LOGGER.info(String.format("%s.updateDataset: \n%s",CLSS,SQL));
-			statement = cxn.prepareStatement(SQL);
-			statement.setString(1,model.getName());
-			statement.setString(2,model.getDescription());
-			statement.setString(3,model.getShapefilePath());
-			statement.setString(4,model.getRole().name());
-			statement.setString(5,model.getDistrictColumn());
-			statement.setLong(6, model.getId());
-			statement.executeUpdate();
-			if( statement.getUpdateCount()>0) success = true;
-		}
-		catch(SQLException e) {
-			LOGGER.severe(String.format("%s.updateDataset: error (%s)",CLSS,e.getMessage()));
-		}
-		finally {
-			if( statement!=null) {
-				try { statement.close(); } catch(SQLException ignore) {}
+		synchronized(cxn) {
+			PreparedStatement statement = null;
+			String SQL = "UPDATE Dataset SET name=?,description=?,shapefilePath=?,role=?, districtColumn=?,simplifyTolerance=? WHERE id = ?";
+			boolean success = false;
+			try {
+				//LOGGER.info(String.format("%s.updateDataset: \n%s",CLSS,SQL));
+				statement = cxn.prepareStatement(SQL);
+				statement.setString(1,model.getName());
+				statement.setString(2,model.getDescription());
+				statement.setString(3,model.getShapefilePath());
+				statement.setString(4,model.getRole().name());
+				statement.setString(5,model.getDistrictColumn());
+				statement.setDouble(6,model.getSimplifyTolerance());
+				statement.setLong(7, model.getId());
+				statement.executeUpdate();
+				if( statement.getUpdateCount()>0) success = true;
+			}
+			catch(SQLException e) {
+				LOGGER.severe(String.format("%s.updateDataset: error (%s)",CLSS,e.getMessage()));
+			}
+			finally {
+				if( statement!=null) {
+					try { statement.close(); } catch(SQLException ignore) {}
+				}
 			}
+			return success;
 		}
-		return success;
 	}
 }
@@ -45,37 +45,39 @@ public class FeatureAttributeTable {
 	 */
 	public void createFeatureAttribute(long id,String name,AttributeType type) {
 		if( cxn==null ) return;
-		// Java 'Color' class takes 3 floats, from 0 to 1.
-		Random rand = new Random();
-		int r = rand.nextInt(255);
-		int g = rand.nextInt(255);
-		int b = rand.nextInt(255);
-		int rgb = 256*256*r+256*g+b;
-		String SQL = String.format("INSERT INTO FeatureAttribute(datasetId,name,alias,type,background,rank) values (%d,'%s','%s','%s',%d,10)",
-															id,name,name,type.name(),rgb);
-		String UPDSQL = String.format("UPDATE FeatureAttribute SET alias = (SELECT alias FROM AttributeAlias WHERE name='%s') WHERE datasetId=%d AND name='%s'",
-										name,id,name);
+		synchronized(cxn) {
+			// Java 'Color' class takes 3 floats, from 0 to 1.
+			Random rand = new Random();
+			int r = rand.nextInt(255);
+			int g = rand.nextInt(255);
+			int b = rand.nextInt(255);
+			int rgb = 256*256*r+256*g+b;
+			String SQL = String.format("INSERT INTO FeatureAttribute(datasetId,name,alias,type,background,rank) values (%d,'%s','%s','%s',%d,10)",
+																id,name,name,type.name(),rgb);
+			String UPDSQL = String.format("UPDATE FeatureAttribute SET alias = (SELECT alias FROM AttributeAlias WHERE name='%s') WHERE datasetId=%d AND name='%s'",
+											name,id,name);
 		
-		Statement statement = null;
-		try {
-			//LOGGER.info(String.format("%s.createFeatureAttribute: \n%s",CLSS,SQL));
-			statement = cxn.createStatement();
-			statement.executeUpdate(SQL);
-			// This statement attempts to set aliases for common names. It will fail harmlessly if there is no corresponding alias.
+			Statement statement = null;
 			try {
-				statement.executeUpdate(UPDSQL);
-				LOGGER.info(String.format("%s.createFeatureAttribute: %s updated to alias",CLSS,name));
+				//LOGGER.info(String.format("%s.createFeatureAttribute: \n%s",CLSS,SQL));
+				statement = cxn.createStatement();
+				statement.executeUpdate(SQL);
+				// This statement attempts to set aliases for common names. It will fail harmlessly if there is no corresponding alias.
+				try {
+					statement.executeUpdate(UPDSQL);
+					LOGGER.info(String.format("%s.createFeatureAttribute: %s updated to alias",CLSS,name));
+				}
+				catch(SQLException ignore) {
+					//LOGGER.info(String.format("%s.createFeatureAttribute: %s has no standard alias",CLSS,name));
+				}
 			}
-			catch(SQLException ignore) {
-				//LOGGER.info(String.format("%s.createFeatureAttribute: %s has no standard alias",CLSS,name));
+			catch(SQLException e) {
+				LOGGER.severe(String.format("%s.createFeatureAttribute: error (%s)",CLSS,e.getMessage()));
 			}
-		}
-		catch(SQLException e) {
-			LOGGER.severe(String.format("%s.createFeatureAttribute: error (%s)",CLSS,e.getMessage()));
-		}
-		finally {
-			if( statement!=null) {
-				try { statement.close(); } catch(SQLException ignore) {}
+			finally {
+				if( statement!=null) {
+					try { statement.close(); } catch(SQLException ignore) {}
+				}
 			}
 		}
 	}
@@ -83,26 +85,28 @@ public class FeatureAttributeTable {
 	 * Delete a row given its dataset id.
 	 */
 	public boolean deleteFeatureAttribute(long key,String name) {
-		PreparedStatement statement = null;
-		String SQL = "DELETE FROM FeatureAttribute WHERE datasetId = ? and name = ?";
-		boolean success = false;
-		try {
-			LOGGER.info(String.format("%s.deleteFeatureAttribute: \n%s",CLSS,SQL));
-			statement = cxn.prepareStatement(SQL);
-			statement.setLong(1, key);
-			statement.setString(2, name);
-			statement.executeUpdate();
-			if( statement.getUpdateCount()>0) success = true;
-		}
-		catch(SQLException e) {
-			LOGGER.severe(String.format("%s.deleteLayerName: error (%s)",CLSS,e.getMessage()));
-		}
-		finally {
-			if( statement!=null) {
-				try { statement.close(); } catch(SQLException ignore) {}
+		synchronized(cxn) {
+			PreparedStatement statement = null;
+			String SQL = "DELETE FROM FeatureAttribute WHERE datasetId = ? and name = ?";
+			boolean success = false;
+			try {
+				LOGGER.info(String.format("%s.deleteFeatureAttribute: \n%s",CLSS,SQL));
+				statement = cxn.prepareStatement(SQL);
+				statement.setLong(1, key);
+				statement.setString(2, name);
+				statement.executeUpdate();
+				if( statement.getUpdateCount()>0) success = true;
 			}
+			catch(SQLException e) {
+				LOGGER.severe(String.format("%s.deleteLayerName: error (%s)",CLSS,e.getMessage()));
+			}
+			finally {
+				if( statement!=null) {
+					try { statement.close(); } catch(SQLException ignore) {}
+				}
+			}
+			return success;
 		}
-		return success;
 	}
 	/**
 	 * The returned map provides for the lookup of feature names given the alias. For a given
@@ -202,25 +206,27 @@ public class FeatureAttributeTable {
 	 * 		  for that dataset
 	 */
 	public void synchronizeFeatureAttributes(long datasetId,List<String> attributes) {
-		LOGGER.info(String.format("%s.synchronizeFeatureAttributes: dataset %d, %d attributes",CLSS,datasetId,attributes.size()));
-		// Make a dictionary of features per database
-		Map<String,FeatureConfiguration> configMap = new HashMap<>();
-		List<FeatureConfiguration> configList = getFeatureAttributes(datasetId);
-		for(FeatureConfiguration config: configList) {
-			configMap.put(config.getName(), config);
-		}
-		// Delete any features not in the collection
-		for(String key:configMap.keySet()) {
-			if(!attributes.contains(key)) {
-				//LOGGER.info(String.format("%s.synchronizeFeatureAttributes: delete dataset %d, %s",CLSS,datasetId,key));
-				deleteFeatureAttribute(datasetId,key);
+		synchronized(cxn) {
+			LOGGER.info(String.format("%s.synchronizeFeatureAttributes: dataset %d, %d attributes",CLSS,datasetId,attributes.size()));
+			// Make a dictionary of features per database
+			Map<String,FeatureConfiguration> configMap = new HashMap<>();
+			List<FeatureConfiguration> configList = getFeatureAttributes(datasetId);
+			for(FeatureConfiguration config: configList) {
+				configMap.put(config.getName(), config);
 			}
-		}
-		// Create database entries for new features
-		for(String name:attributes) {
-			if(!configMap.containsKey(name)) {
-				//LOGGER.info(String.format("%s.synchronizeFeatureAttributes: create dataset %d, %s",CLSS,datasetId,name));
-				createFeatureAttribute(datasetId,name,AttributeType.DOUBLE);
+			// Delete any features not in the collection
+			for(String key:configMap.keySet()) {
+				if(!attributes.contains(key)) {
+					//LOGGER.info(String.format("%s.synchronizeFeatureAttributes: delete dataset %d, %s",CLSS,datasetId,key));
+					deleteFeatureAttribute(datasetId,key);
+				}
+			}
+			// Create database entries for new features
+			for(String name:attributes) {
+				if(!configMap.containsKey(name)) {
+					//LOGGER.info(String.format("%s.synchronizeFeatureAttributes: create dataset %d, %s",CLSS,datasetId,name));
+					createFeatureAttribute(datasetId,name,AttributeType.DOUBLE);
+				}
 			}
 		}
 	}
@@ -230,35 +236,37 @@ public class FeatureAttributeTable {
 	 * @param config configuration object
 	 */
 	public boolean updateFeatureAttribute(FeatureConfiguration config) {
-		PreparedStatement statement = null;
-		String SQL = "UPDATE FeatureAttribute SET alias=?,type=?,visible=?,background=?,rank=? WHERE datasetId = ? AND name=?";
-		boolean success = false;
-		try {
-			statement = cxn.prepareStatement(SQL);
-			statement.setString(1,config.getAlias());
-			statement.setString(2,config.getAttributeType().name());
-			statement.setInt(3,(config.isVisible()?1:0));
-			int r = (int)(config.getBackground().getRed()*255);
-			int g = (int)(config.getBackground().getGreen()*255);
-			int b = (int)(config.getBackground().getBlue()*255);
-			int rgb = b + 256*g + 256*256*r;
-			statement.setInt(4,rgb);
-			//LOGGER.info(String.format("%s.updateFeatureAttribute: background = %d (%02x%02x%02x)",CLSS,rgb,r,g,b));
-			statement.setInt(5,config.getRank());
-			statement.setLong(6, config.getLayerId());
-			statement.setString(7,config.getName());
-			statement.executeUpdate();
-			if( statement.getUpdateCount()>0) success = true;
-		}
-		catch(SQLException e) {
-			LOGGER.severe(String.format("%s.updateFeatureAttribute: error (%s)",CLSS,e.getMessage()));
-		}
-		finally {
-			if( statement!=null) {
-				try { statement.close(); } catch(SQLException ignore) {}
+		synchronized(cxn) {
+			PreparedStatement statement = null;
+			String SQL = "UPDATE FeatureAttribute SET alias=?,type=?,visible=?,background=?,rank=? WHERE datasetId = ? AND name=?";
+			boolean success = false;
+			try {
+				statement = cxn.prepareStatement(SQL);
+				statement.setString(1,config.getAlias());
+				statement.setString(2,config.getAttributeType().name());
+				statement.setInt(3,(config.isVisible()?1:0));
+				int r = (int)(config.getBackground().getRed()*255);
+				int g = (int)(config.getBackground().getGreen()*255);
+				int b = (int)(config.getBackground().getBlue()*255);
+				int rgb = b + 256*g + 256*256*r;
+				statement.setInt(4,rgb);
+				//LOGGER.info(String.format("%s.updateFeatureAttribute: background = %d (%02x%02x%02x)",CLSS,rgb,r,g,b));
+				statement.setInt(5,config.getRank());
+				statement.setLong(6, config.getLayerId());
+				statement.setString(7,config.getName());
+				statement.executeUpdate();
+				if( statement.getUpdateCount()>0) success = true;
+			}
+			catch(SQLException e) {
+				LOGGER.severe(String.format("%s.updateFeatureAttribute: error (%s)",CLSS,e.getMessage()));
 			}
+			finally {
+				if( statement!=null) {
+					try { statement.close(); } catch(SQLException ignore) {}
+				}
+			}
+			return success;
 		}
-		return success;
 	}
 	/**
 	 * Update display characteristics for the features in the supplied list.
@@ -266,10 +274,12 @@ public class FeatureAttributeTable {
 	 * @param config configuration object
 	 */
 	public boolean updateFeatureAttributes(List<FeatureConfiguration> configs) {
-		boolean success = true;
-		for(FeatureConfiguration config:configs) {
-			success = success && updateFeatureAttribute(config);	
+		synchronized(cxn) {
+			boolean success = true;
+			for(FeatureConfiguration config:configs) {
+				success = success && updateFeatureAttribute(config);	
+			}
+			return success;
 		}
-		return success;
 	}
 }
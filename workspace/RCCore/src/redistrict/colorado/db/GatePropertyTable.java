@@ -110,27 +110,29 @@ public class GatePropertyTable {
 	 * @param gate
 	 */
 	public boolean updateGateProperties(GateProperty properties) {
-		PreparedStatement statement = null;
-		String SQL = "UPDATE GateProperties SET weight=?, fair=?, unfair=? WHERE name = ?";
-		boolean success = false;
-		try {
-			//LOGGER.info(String.format("%s.updateGateProperties: \n%s",CLSS,SQL));
-			statement = cxn.prepareStatement(SQL);
-			statement.setDouble(1,properties.getWeight());
-			statement.setDouble(2, properties.getFairValue());
-			statement.setDouble(3, properties.getUnfairValue());
-			statement.setString(4, properties.getType().name());
-			statement.executeUpdate();
-			if( statement.getUpdateCount()>0) success = true;
-		}
-		catch(SQLException e) {
-			LOGGER.severe(String.format("%s.updateGateProperties: error (%s)",CLSS,e.getMessage()));
-		}
-		finally {
-			if( statement!=null) {
-				try { statement.close(); } catch(SQLException ignore) {}
+		synchronized(cxn) {
+			PreparedStatement statement = null;
+			String SQL = "UPDATE GateProperties SET weight=?, fair=?, unfair=? WHERE name = ?";
+			boolean success = false;
+			try {
+				//LOGGER.info(String.format("%s.updateGateProperties: \n%s",CLSS,SQL));
+				statement = cxn.prepareStatement(SQL);
+				statement.setDouble(1,properties.getWeight());
+				statement.setDouble(2, properties.getFairValue());
+				statement.setDouble(3, properties.getUnfairValue());
+				statement.setString(4, properties.getType().name());
+				statement.executeUpdate();
+				if( statement.getUpdateCount()>0) success = true;
+			}
+			catch(SQLException e) {
+				LOGGER.severe(String.format("%s.updateGateProperties: error (%s)",CLSS,e.getMessage()));
+			}
+			finally {
+				if( statement!=null) {
+					try { statement.close(); } catch(SQLException ignore) {}
+				}
 			}
+			return success;
 		}
-		return success;
 	}
 }
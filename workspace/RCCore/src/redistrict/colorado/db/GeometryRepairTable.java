@@ -0,0 +1,126 @@
+/**
+ * Copyright (C) 2020 Charles Coughlin
+ *
+ * This program is free software; you may redistribute it and/or
+ * modify it under the terms of the GNU General Public License.
+ */
+package redistrict.colorado.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * The geometry repair table records the positions of the features of a shapefile
+ * that failed validation when it was first read. A later read of the same file
+ * need check only those. A file is identified by its content hash. A position of
+ * -1 marks a file as validated, whether or not it had invalid features.
+ */
+public class GeometryRepairTable {
+	private static final String CLSS = "GeometryRepairTable";
+	private static Logger LOGGER = Logger.getLogger(CLSS);
+	private static final int VALIDATED = -1;
+	private Connection cxn = null;
+	/**
+	 * Constructor:
+	 */
+	public GeometryRepairTable() {}
+	public void setConnection(Connection connection) { this.cxn = connection; }
+
+	/**
+	 * @param contentHash hash of the shapefile
+	 * @return the positions of the invalid features, ascending. Null if the file
+	 *         has never been validated.
+	 */
+	public int[] getInvalidPositions(String contentHash) {
+		if( cxn==null || contentHash==null ) return null;
+		List<Integer> list = new ArrayList<>();
+		boolean validated = false;
+		PreparedStatement statement = null;
+		ResultSet rs = null;
+		String SQL = "SELECT position FROM GeometryRepair WHERE contentHash = ? ORDER BY position";
+		try {
+			statement = cxn.prepareStatement(SQL);
+			statement.setQueryTimeout(10);  // set timeout to 10 sec.
+			statement.setString(1, contentHash);
+			rs = statement.executeQuery();
+			while(rs.next()) {
+				int position = rs.getInt("position");
+				if( position==VALIDATED ) validated = true;
+				else list.add(position);
+			}
+		}
+		catch(SQLException e) {
+			LOGGER.severe(String.format("%s.getInvalidPositions: Error (%s)",CLSS,e.getMessage()));
+			validated = false;
+		}
+		finally {
+			if( rs!=null) {
+				try { rs.close(); } catch(SQLException ignore) {}
+			}
+			if( statement!=null) {
+				try { statement.close(); } catch(SQLException ignore) {}
+			}
+		}
+		if( !validated ) return null;
+		int[] positions = new int[list.size()];
+		for(int index=0;index<positions.length;index++) {
+			positions[index] = list.get(index);
+		}
+		return positions;
+	}
+
+	/**
+	 * Record the outcome of validating a shapefile, replacing any earlier record.
+	 * The rows are written in a single transaction.
+	 * @param contentHash hash of the shapefile
+	 * @param positions the positions of the invalid features
+	 * @return true on success
+	 */
+	public boolean storeInvalidPositions(String contentHash,int[] positions) {
+		if( cxn==null || contentHash==null || positions==null ) return false;
+		synchronized(cxn) {
+			PreparedStatement deleteStatement = null;
+			PreparedStatement statement = null;
+			boolean success = true;
+			try {
+				cxn.setAutoCommit(false);
+				String SQL = "DELETE FROM GeometryRepair WHERE contentHash = ?";
+				deleteStatement = cxn.prepareStatement(SQL);
+				deleteStatement.setString(1, contentHash);
+				deleteStatement.executeUpdate();
+				SQL = "INSERT INTO GeometryRepair(contentHash,position) VALUES(?,?)";
+				statement = cxn.prepareStatement(SQL);
+				statement.setString(1, contentHash);
+				statement.setInt(2, VALIDATED);
+				statement.addBatch();
+				for(int position:positions) {
+					statement.setString(1, contentHash);
+					statement.setInt(2, position);
+					statement.addBatch();
+				}
+				statement.executeBatch();
+				cxn.commit();
+			}
+			catch(SQLException e) {
+				LOGGER.severe(String.format("%s.storeInvalidPositions: error (%s)",CLSS,e.getMessage()));
+				try { cxn.rollback(); } catch(SQLException ignore) {}
+				success = false;
+			}
+			finally {
+				if( deleteStatement!=null) {
+					try { deleteStatement.close(); } catch(SQLException ignore) {}
+				}
+				if( statement!=null) {
+					try { statement.close(); } catch(SQLException ignore) {}
+				}
+				try { cxn.setAutoCommit(true); } catch(SQLException ignore) {}
+			}
+			return success;
+		}
+	}
+}
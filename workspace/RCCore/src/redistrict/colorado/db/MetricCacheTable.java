@@ -0,0 +1,147 @@
+/**
+ * Copyright (C) 2020 Charles Coughlin
+ *
+ * This program is free software; you may redistribute it and/or
+ * modify it under the terms of the GNU General Public License.
+ */
+package redistrict.colorado.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+import redistrict.colorado.core.PlanFeature;
+import redistrict.colorado.core.PlanModel;
+
+/**
+ * The metric cache holds the district metrics of each plan for every analysis
+ * configuration in which they have been computed. Unlike the PlanFeature table,
+ * which holds only the current metrics, entries are never cleared by a change of
+ * configuration. The configuration key is computed by the AnalysisModel.
+ */
+public class MetricCacheTable {
+	private static final String CLSS = "MetricCacheTable";
+	private static Logger LOGGER = Logger.getLogger(CLSS);
+	private Connection cxn = null;
+	/**
+	 * Constructor:
+	 */
+	public MetricCacheTable() {}
+	public void setConnection(Connection connection) { this.cxn = connection; }
+
+	/**
+	 * @param planId the plan
+	 * @param configuration key of the analysis configuration
+	 * @return the cached metrics of the plan, null if there are none.
+	 */
+	public List<PlanFeature> getMetrics(long planId,String configuration) {
+		if( cxn==null || configuration==null ) return null;
+		List<PlanFeature> list = new ArrayList<>();
+		PreparedStatement statement = null;
+		ResultSet rs = null;
+		String SQL = "SELECT featureId,name,area,perimeter,population,democrat,republican,black,hispanic,white,crossings,areaError "+
+					 "FROM MetricCache WHERE planId = ? AND configuration = ? ORDER BY featureId";
+		try {
+			statement = cxn.prepareStatement(SQL);
+			statement.setQueryTimeout(10);  // set timeout to 10 sec.
+			statement.setLong(1, planId);
+			statement.setString(2, configuration);
+			rs = statement.executeQuery();
+			while(rs.next()) {
+				PlanFeature pfeat = new PlanFeature(planId,rs.getLong("featureId"));
+				pfeat.setName(rs.getString("name"));
+				pfeat.setArea(rs.getDouble("area"));
+				pfeat.setPerimeter(rs.getDouble("perimeter"));
+				pfeat.setPopulation(rs.getDouble("population"));
+				pfeat.setDemocrat(rs.getDouble("democrat"));
+				pfeat.setRepublican(rs.getDouble("republican"));
+				pfeat.setBlack(rs.getDouble("black"));
+				pfeat.setHispanic(rs.getDouble("hispanic"));
+				pfeat.setWhite(rs.getDouble("white"));
+				pfeat.setCrossings(rs.getDouble("crossings"));
+				pfeat.setAreaError(rs.getDouble("areaError"));
+				list.add(pfeat);
+			}
+		}
+		catch(SQLException e) {
+			LOGGER.severe(String.format("%s.getMetrics: Error (%s)",CLSS,e.getMessage()));
+			list.clear();
+		}
+		finally {
+			if( rs!=null) {
+				try { rs.close(); } catch(SQLException ignore) {}
+			}
+			if( statement!=null) {
+				try { statement.close(); } catch(SQLException ignore) {}
+			}
+		}
+		return (list.isEmpty()?null:list);
+	}
+
+	/**
+	 * Save the current metrics of a plan under a configuration, replacing any
+	 * already held for the same configuration. The rows are written in a single transaction.
+	 * @param model the plan, with metrics
+	 * @param configuration key of the analysis configuration
+	 * @return true on success
+	 */
+	public boolean storeMetrics(PlanModel model,String configuration) {
+		if( cxn==null || configuration==null || model.getMetrics()==null || model.getMetrics().isEmpty() ) return false;
+		synchronized(cxn) {
+			PreparedStatement deleteStatement = null;
+			PreparedStatement statement = null;
+			boolean success = true;
+			try {
+				cxn.setAutoCommit(false);
+				String SQL = "DELETE FROM MetricCache WHERE planId = ? AND configuration = ?";
+				deleteStatement = cxn.prepareStatement(SQL);
+				deleteStatement.setLong(1, model.getId());
+				deleteStatement.setString(2, configuration);
+				deleteStatement.executeUpdate();
+				SQL = "INSERT INTO MetricCache(planId,configuration,featureId,name,area,perimeter,population,democrat,republican,black,hispanic,white,crossings,areaError)"+
+					  " VALUES(?,?,?,?,?,?,?,?,?,?,?,?,?,?)";
+				statement = cxn.prepareStatement(SQL);
+				long featureId = 0;
+				for(PlanFeature pfeat:model.getMetrics()) {
+					statement.setLong(1, model.getId());
+					statement.setString(2, configuration);
+					statement.setLong(3, featureId);
+					statement.setString(4, pfeat.getName());
+					statement.setDouble(5, pfeat.getArea());
+					statement.setDouble(6, pfeat.getPerimeter());
+					statement.setDouble(7, pfeat.getPopulation());
+					statement.setDouble(8, pfeat.getDemocrat());
+					statement.setDouble(9, pfeat.getRepublican());
+					statement.setDouble(10, pfeat.getBlack());
+					statement.setDouble(11, pfeat.getHispanic());
+					statement.setDouble(12, pfeat.getWhite());
+					statement.setDouble(13, pfeat.getCrossings());
+					statement.setDouble(14, pfeat.getAreaError());
+					statement.addBatch();
+					featureId++;
+				}
+				statement.executeBatch();
+				cxn.commit();
+			}
+			catch(SQLException e) {
+				LOGGER.severe(String.format("%s.storeMetrics: error (%s)",CLSS,e.getMessage()));
+				try { cxn.rollback(); } catch(SQLException ignore) {}
+				success = false;
+			}
+			finally {
+				if( deleteStatement!=null) {
+					try { deleteStatement.close(); } catch(SQLException ignore) {}
+				}
+				if( statement!=null) {
+					try { statement.close(); } catch(SQLException ignore) {}
+				}
+				try { cxn.setAutoCommit(true); } catch(SQLException ignore) {}
+			}
+			return success;
+		}
+	}
+}
@@ -0,0 +1,190 @@
+/**
+ * Copyright (C) 2020 Charles Coughlin
+ *
+ * This program is free software; you may redistribute it and/or
+ * modify it under the terms of the GNU General Public License.
+ */
+package redistrict.colorado.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Logger;
+
+import redistrict.colorado.core.OverlapMatrix;
+
+/**
+ * The overlap tables cache the area fractions that result from overlaying the
+ * districts of a plan with a source dataset. Each row of an overlap matrix is
+ * stored separately, identified by a fingerprint of the district geometry and
+ * the content hash of the source shapefile. A row remains valid for as long as
+ * neither changes, no matter which plan, boundary dataset or attribute aliases
+ * refer to them. In particular, when a revised boundary file changes only a
+ * few districts, the rows of the others are re-used.
+ */
+public class OverlapTable {
+	private static final String CLSS = "OverlapTable";
+	private static Logger LOGGER = Logger.getLogger(CLSS);
+	private Connection cxn = null;
+	/**
+	 * Constructor:
+	 */
+	public OverlapTable() {}
+	public void setConnection(Connection connection) { this.cxn = connection; }
+
+	/**
+	 * Fill an overlap matrix with any cached rows.
+	 * @param matrix the matrix to be filled, its rows correspond to the fingerprints
+	 * @param fingerprints district geometry fingerprints, by row
+	 * @param sourceHash content hash of the source shapefile
+	 * @return flags by row, true if the row was found.
+	 */
+	public boolean[] getRows(OverlapMatrix matrix,String[] fingerprints,String sourceHash) {
+		boolean[] found = new boolean[fingerprints.length];
+		if( cxn==null || sourceHash==null ) return found;
+		PreparedStatement headerStatement = null;
+		PreparedStatement weightStatement = null;
+		ResultSet rs = null;
+		String SQL = "SELECT id,sources FROM OverlapRow WHERE districtHash = ? AND sourceHash = ?";
+		try {
+			headerStatement = cxn.prepareStatement(SQL);
+			headerStatement.setQueryTimeout(10);  // set timeout to 10 sec.
+			SQL = "SELECT feature,weight FROM OverlapWeight WHERE rowId = ? ORDER BY feature";
+			weightStatement = cxn.prepareStatement(SQL);
+			weightStatement.setQueryTimeout(10);
+			List<Integer> features = new ArrayList<>();
+			List<Double> weights = new ArrayList<>();
+			for(int row=0;row<fingerprints.length;row++) {
+				if( fingerprints[row]==null ) continue;
+				headerStatement.setString(1, fingerprints[row]);
+				headerStatement.setString(2, sourceHash);
+				rs = headerStatement.executeQuery();
+				long rowId = -1;
+				if(rs.next() && rs.getInt("sources")==matrix.getSourceCount() ) rowId = rs.getLong("id");
+				rs.close();
+				if( rowId<0 ) continue;
+
+				weightStatement.setLong(1, rowId);
+				rs = weightStatement.executeQuery();
+				while(rs.next()) {
+					features.add(rs.getInt("feature"));
+					weights.add(rs.getDouble("weight"));
+				}
+				rs.close();
+				setRow(matrix,row,features,weights);
+				found[row] = true;
+			}
+		}
+		catch(SQLException|IndexOutOfBoundsException e) {
+			LOGGER.severe(String.format("%s.getRows: Error (%s)",CLSS,e.getMessage()));
+			found = new boolean[fingerprints.length];
+		}
+		finally {
+			if( rs!=null) {
+				try { rs.close(); } catch(SQLException ignore) {}
+			}
+			if( headerStatement!=null) {
+				try { headerStatement.close(); } catch(SQLException ignore) {}
+			}
+			if( weightStatement!=null) {
+				try { weightStatement.close(); } catch(SQLException ignore) {}
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * Save rows of an overlap matrix, replacing any with the same keys.
+	 * The rows are written in a single transaction.
+	 * @param matrix area fractions
+	 * @param fingerprints district geometry fingerprints, by row
+	 * @param sourceHash content hash of the source shapefile
+	 * @param skip flags by row, true if the row need not be written
+	 * @return the number of rows written
+	 */
+	public int storeRows(OverlapMatrix matrix,String[] fingerprints,String sourceHash,boolean[] skip) {
+		if( cxn==null || sourceHash==null ) return 0;
+		synchronized(cxn) {
+			PreparedStatement deleteStatement = null;
+			PreparedStatement headerStatement = null;
+			PreparedStatement weightStatement = null;
+			ResultSet rs = null;
+			int count = 0;
+			Set<String> written = new HashSet<>();    // Identical districts are written once
+			try {
+				cxn.setAutoCommit(false);
+				String SQL = "DELETE FROM OverlapRow WHERE districtHash = ? AND sourceHash = ?";
+				deleteStatement = cxn.prepareStatement(SQL);
+				SQL = "INSERT INTO OverlapRow(districtHash,sourceHash,sources) VALUES(?,?,?)";
+				headerStatement = cxn.prepareStatement(SQL);
+				SQL = "INSERT INTO OverlapWeight(rowId,feature,weight) VALUES(?,?,?)";
+				weightStatement = cxn.prepareStatement(SQL);
+				for(int row=0;row<fingerprints.length;row++) {
+					if( skip[row] || fingerprints[row]==null || !written.add(fingerprints[row]) ) continue;
+					deleteStatement.setString(1, fingerprints[row]);
+					deleteStatement.setString(2, sourceHash);
+					deleteStatement.executeUpdate();
+
+					headerStatement.setString(1, fingerprints[row]);
+					headerStatement.setString(2, sourceHash);
+					headerStatement.setInt(3, matrix.getSourceCount());
+					headerStatement.executeUpdate();
+					rs = headerStatement.getGeneratedKeys();
+					long rowId = -1;
+					if (rs.next()) rowId = rs.getLong(1);
+					rs.close();
+
+					int[] features = matrix.getFeatures(row);
+					double[] weights = matrix.getWeights(row);
+					for(int index=0;index<features.length;index++) {
+						weightStatement.setLong(1, rowId);
+						weightStatement.setInt(2, features[index]);
+						weightStatement.setDouble(3, weights[index]);
+						weightStatement.addBatch();
+					}
+					count++;
+				}
+				weightStatement.executeBatch();
+				cxn.commit();
+			}
+			catch(SQLException e) {
+				LOGGER.severe(String.format("%s.storeRows: error (%s)",CLSS,e.getMessage()));
+				try { cxn.rollback(); } catch(SQLException ignore) {}
+				count = 0;
+			}
+			finally {
+				if( rs!=null) {
+					try { rs.close(); } catch(SQLException ignore) {}
+				}
+				if( deleteStatement!=null) {
+					try { deleteStatement.close(); } catch(SQLException ignore) {}
+				}
+				if( headerStatement!=null) {
+					try { headerStatement.close(); } catch(SQLException ignore) {}
+				}
+				if( weightStatement!=null) {
+					try { weightStatement.close(); } catch(SQLException ignore) {}
+				}
+				try { cxn.setAutoCommit(true); } catch(SQLException ignore) {}
+			}
+			return count;
+		}
+	}
+
+	private void setRow(OverlapMatrix matrix,int district,List<Integer> features,List<Double> weights) {
+		int[] positions = new int[features.size()];
+		double[] fractions = new double[weights.size()];
+		for(int index=0;index<positions.length;index++) {
+			positions[index] = features.get(index);
+			fractions[index] = weights.get(index);
+		}
+		matrix.setRow(district,positions,fractions);
+		features.clear();
+		weights.clear();
+	}
+}
@@ -43,62 +43,66 @@ public class PlanTable {
 	 * and so must be cleared whenever the underlying datasets are changed.
 	 */
 	public boolean clearMetrics(long key) {
-		PreparedStatement statement = null;
-		String SQL = "DELETE FROM PlanFeature WHERE planId = ?";
-		boolean success = false;
-		try {
-			statement = cxn.prepareStatement(SQL);
-			statement.setLong(1, key);
-			statement.executeUpdate();
-			if( statement.getUpdateCount()>0) success = true;
-		}
-		catch(SQLException e) {
-			LOGGER.severe(String.format("%s.clearMetrics: error (%s)",CLSS,e.getMessage()));
-		}
-		finally {
-			if( statement!=null) {
-				try { statement.close(); } catch(SQLException ignore) {}
+		synchronized(cxn) {
+			PreparedStatement statement = null;
+			String SQL = "DELETE FROM PlanFeature WHERE planId = ?";
+			boolean success = false;
+			try {
+				statement = cxn.prepareStatement(SQL);
+				statement.setLong(1, key);
+				statement.executeUpdate();
+				if( statement.getUpdateCount()>0) success = true;
+			}
+			catch(SQLException e) {
+				LOGGER.severe(String.format("%s.clearMetrics: error (%s)",CLSS,e.getMessage()));
+			}
+			finally {
+				if( statement!=null) {
+					try { statement.close(); } catch(SQLException ignore) {}
+				}
 			}
+			return success;
 		}
-		return success;
 	}
 	/**
 	 * Create a new row. This will fail if there is already a row with the default name.
 	 * Initially, the metrics are empty, the boundaryId is null.
 	 */
 	public PlanModel createPlan() {
-		PlanModel model = null;
-		if( cxn==null ) return model;
-		// Create a random color for the bar that represents this plan
-		Random rand = new Random();
-		int r = rand.nextInt(255);
-		int g = rand.nextInt(255);
-		int b = rand.nextInt(255);
-		int rgb = 256*256*r+256*g+b;
+		if( cxn==null ) return null;
+		synchronized(cxn) {
+			PlanModel model = null;
+			// Create a random color for the bar that represents this plan
+			Random rand = new Random();
+			int r = rand.nextInt(255);
+			int g = rand.nextInt(255);
+			int b = rand.nextInt(255);
+			int rgb = 256*256*r+256*g+b;
 
-		String SQL = String.format("INSERT INTO Plan(name,description,fill,active) values ('%s','',%d,0)",DEFAULT_NAME,rgb);
-		Statement statement = null;
-		try {
-			LOGGER.info(String.format("%s.createPlan: \n%s",CLSS,SQL));
-			statement = cxn.createStatement();
-			statement.executeUpdate(SQL);
-			ResultSet rs = statement.getGeneratedKeys();
-		    if (rs.next()) {
-		        model = new PlanModel(rs.getLong(1));
-		        model.setActive(false);
-		        model.setName(DEFAULT_NAME);
-		        model.setFill(Color.rgb(r,g,b));
-		    } 
-		}
-		catch(SQLException e) {
-			LOGGER.severe(String.format("%s.createPlan: error (%s)",CLSS,e.getMessage()));
-		}
-		finally {
-			if( statement!=null) {
-				try { statement.close(); } catch(SQLException ignore) {}
+			String SQL = String.format("INSERT INTO Plan(name,description,fill,active) values ('%s','',%d,0)",DEFAULT_NAME,rgb);
+			Statement statement = null;
+			try {
+				LOGGER.info(String.format("%s.createPlan: \n%s",CLSS,SQL));
+				statement = cxn.createStatement();
+				statement.executeUpdate(SQL);
+				ResultSet rs = statement.getGeneratedKeys();
+			    if (rs.next()) {
+			        model = new PlanModel(rs.getLong(1));
+			        model.setActive(false);
+			        model.setName(DEFAULT_NAME);
+			        model.setFill(Color.rgb(r,g,b));
+			    } 
 			}
+			catch(SQLException e) {
+				LOGGER.severe(String.format("%s.createPlan: error (%s)",CLSS,e.getMessage()));
+			}
+			finally {
+				if( statement!=null) {
+					try { statement.close(); } catch(SQLException ignore) {}
+				}
+			}
+			return model;
 		}
-		return model;
 	}
 	/**
 	 * Delete a plan given its id. 
@@ -106,25 +110,27 @@ public class PlanTable {
 	 * removed via cascading delete.
 	 */
 	public boolean deletePlan(long key) {
-		PreparedStatement statement = null;
-		String SQL = "DELETE FROM Plan WHERE id = ?";
-		boolean success = false;
-		try {
-			//LOGGER.info(String.format("%s.deletePlan: \n%s",CLSS,SQL));
-			statement = cxn.prepareStatement(SQL);
-			statement.setLong(1, key);
-			statement.executeUpdate();
-			if( statement.getUpdateCount()>0) success = true;
-		}
-		catch(SQLException e) {
-			LOGGER.severe(String.format("%s.deletePlan: error (%s)",CLSS,e.getMessage()));
-		}
-		finally {
-			if( statement!=null) {
-				try { statement.close(); } catch(SQLException ignore) {}
+		synchronized(cxn) {
+			PreparedStatement statement = null;
+			String SQL = "DELETE FROM Plan WHERE id = ?";
+			boolean success = false;
+			try {
+				//LOGGER.info(String.format("%s.deletePlan: \n%s",CLSS,SQL));
+				statement = cxn.prepareStatement(SQL);
+				statement.setLong(1, key);
+				statement.executeUpdate();
+				if( statement.getUpdateCount()>0) success = true;
+			}
+			catch(SQLException e) {
+				LOGGER.severe(String.format("%s.deletePlan: error (%s)",CLSS,e.getMessage()));
 			}
+			finally {
+				if( statement!=null) {
+					try { statement.close(); } catch(SQLException ignore) {}
+				}
+			}
+			return success;
 		}
-		return success;
 	}
 	/**
 	 * Refresh a plan model with metrics cached in the database.
@@ -136,7 +142,7 @@ public class PlanTable {
 		List<PlanFeature> list = new ArrayList<>();
 		Statement statement = null;
 		ResultSet rs = null;
-		String SQL = "SELECT featureId,name,area,perimeter,population,democrat,republican,black,hispanic,white,crossings "+
+		String SQL = "SELECT featureId,name,area,perimeter,population,democrat,republican,black,hispanic,white,crossings,areaError "+
 					  String.format("FROM PlanFeature WHERE planId=%d",plan.getId()); 
 		try {
 			statement = cxn.createStatement();
@@ -155,6 +161,7 @@ public class PlanTable {
 				pfeat.setHispanic(rs.getDouble("hispanic"));
 				pfeat.setWhite(rs.getDouble("white"));
 				pfeat.setCrossings(rs.getDouble("crossings"));
+				pfeat.setAreaError(rs.getDouble("areaError"));
 				list.add(pfeat);
 				//LOGGER.info(String.format("%s.getMetrics for %d: name = %s",CLSS,fid,pfeat.getName()));
 			}
@@ -237,39 +244,41 @@ public class PlanTable {
 	 * @param model
 	 */
 	public boolean updatePlan(PlanModel model) {
-		PreparedStatement statement = null;
-		String SQL = "UPDATE Plan SET active=?, name=?, description=?, boundaryId=?, fill=? WHERE id = ?";
-		boolean success = false;
-		try {
-			//LOGGER.info(String.format("%s.updatePlan: \n%s",CLSS,SQL));
-			statement = cxn.prepareStatement(SQL);
-			statement.setInt(1,(model.isActive()?1:0));
-			statement.setString(2, model.getName());
-			statement.setString(3, model.getDescription());
-			if( model.getBoundary()!=null) {
-				statement.setLong(4, model.getBoundary().getId());
+		synchronized(cxn) {
+			PreparedStatement statement = null;
+			String SQL = "UPDATE Plan SET active=?, name=?, description=?, boundaryId=?, fill=? WHERE id = ?";
+			boolean success = false;
+			try {
+				//LOGGER.info(String.format("%s.updatePlan: \n%s",CLSS,SQL));
+				statement = cxn.prepareStatement(SQL);
+				statement.setInt(1,(model.isActive()?1:0));
+				statement.setString(2, model.getName());
+				statement.setString(3, model.getDescription());
+				if( model.getBoundary()!=null) {
+					statement.setLong(4, model.getBoundary().getId());
+				}
+				else {
+					statement.setLong(4, -1);
+				}
+				int r = (int)(model.getFill().getRed()*255);
+				int g = (int)(model.getFill().getGreen()*255);
+				int b = (int)(model.getFill().getBlue()*255);
+				int rgb = b + 256*g + 256*256*r;
+				statement.setInt(5, rgb);
+				statement.setLong(6, model.getId());
+				statement.executeUpdate();
+				if( statement.getUpdateCount()>0) success = true;
 			}
-			else {
-				statement.setLong(4, -1);
+			catch(SQLException e) {
+				LOGGER.severe(String.format("%s.updatePlan: error (%s)",CLSS,e.getMessage()));
 			}
-			int r = (int)(model.getFill().getRed()*255);
-			int g = (int)(model.getFill().getGreen()*255);
-			int b = (int)(model.getFill().getBlue()*255);
-			int rgb = b + 256*g + 256*256*r;
-			statement.setInt(5, rgb);
-			statement.setLong(6, model.getId());
-			statement.executeUpdate();
-			if( statement.getUpdateCount()>0) success = true;
-		}
-		catch(SQLException e) {
-			LOGGER.severe(String.format("%s.updatePlan: error (%s)",CLSS,e.getMessage()));
-		}
-		finally {
-			if( statement!=null) {
-				try { statement.close(); } catch(SQLException ignore) {}
+			finally {
+				if( statement!=null) {
+					try { statement.close(); } catch(SQLException ignore) {}
+				}
 			}
+			return success;
 		}
-		return success;
 	}
 	
 	/**
@@ -278,10 +287,45 @@ public class PlanTable {
 	 * @param model
 	 */
 	public boolean updatePlanMetrics(PlanModel model) {
-		clearMetrics(model.getId());
+		synchronized(cxn) {
+			clearMetrics(model.getId());
+			return insertMetrics(model);
+		}
+	}
+	
+	/**
+	 * Completely replace PlanFeatures for several plans. The plans are
+	 * written in a single transaction.
+	 * @param models
+	 */
+	public boolean updatePlanMetrics(List<PlanModel> models) {
+		synchronized(cxn) {
+			boolean success = true;
+			try {
+				cxn.setAutoCommit(false);
+				for(PlanModel model:models) {
+					clearMetrics(model.getId());
+					if( !insertMetrics(model) ) success = false;
+				}
+				if( success ) cxn.commit();
+				else cxn.rollback();
+			}
+			catch(SQLException e) {
+				LOGGER.severe(String.format("%s.updatePlanMetrics: error (%s)",CLSS,e.getMessage()));
+				try { cxn.rollback(); } catch(SQLException ignore) {}
+				success = false;
+			}
+			finally {
+				try { cxn.setAutoCommit(true); } catch(SQLException ignore) {}
+			}
+			return success;
+		}
+	}
+	
+	private boolean insertMetrics(PlanModel model) {
 		PreparedStatement statement = null;
-		String SQL = "INSERT INTO PlanFeature(planId,featureId,name,area,perimeter,population,democrat,republican,black,hispanic,white,crossings)"+
-					 " VALUES(?,?,?,?,?,?,?,?,?,?,?,?)";
+		String SQL = "INSERT INTO PlanFeature(planId,featureId,name,area,perimeter,population,democrat,republican,black,hispanic,white,crossings,areaError)"+
+					 " VALUES(?,?,?,?,?,?,?,?,?,?,?,?,?)";
 		boolean success = true;
 		try {
 			statement = cxn.prepareStatement(SQL);
@@ -300,6 +344,7 @@ public class PlanTable {
 				statement.setDouble(10, pfeat.getHispanic());
 				statement.setDouble(11, pfeat.getWhite());
 				statement.setDouble(12, pfeat.getCrossings());
+				statement.setDouble(13, pfeat.getAreaError());
 				statement.executeUpdate();
 				featureId++;
 			}
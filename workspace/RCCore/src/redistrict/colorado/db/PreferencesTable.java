@@ -13,6 +13,7 @@ import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.logging.Logger;
 
+import redistrict.colorado.core.AggregationStrategy;
 import redistrict.colorado.core.AnalysisModel;
 import redistrict.colorado.core.PartisanMetric;
 
@@ -26,9 +27,11 @@ public class PreferencesTable {
 	private static Logger LOGGER = Logger.getLogger(CLSS);
 	private static final long MODEL_ID = 42;
 	private static final String AFFILIATION_KEY = "AffiliationId";
+	public static final String AGGREGATION_STRATEGY_KEY = "AggregationStrategy";
 	public static final String PARTISAN_METRIC_KEY = "PartisanAsymmetryMetric";
 	private static final String DEMOGRAPHIC_KEY = "DemographicId";
 	private static final String COUNTY_BOUNDARIES_KEY = "CountyBoundariesId";
+	private static final String POPULATION_KEY = "PopulationWeightingId";
 	public static final String COMPETITIVENESS_THRESHOLD_KEY = "CompetitivenessThreshold";
 	
 	public static final double DEFAULT_COMETITIVE_THRESHOLD = 15.0;   // Store as string, convert when extracted
@@ -59,13 +62,15 @@ public class PreferencesTable {
 					if( name.equalsIgnoreCase(AFFILIATION_KEY)) model.setAffiliationId(Long.parseLong(text));
 					else if( name.equalsIgnoreCase(DEMOGRAPHIC_KEY)) model.setDemographicId(Long.parseLong(text));
 					else if( name.equalsIgnoreCase(COUNTY_BOUNDARIES_KEY)) model.setCountyBoundariesId(Long.parseLong(text));
+					else if( name.equalsIgnoreCase(POPULATION_KEY)) model.setPopulationId(Long.parseLong(text));
 					else if( name.equalsIgnoreCase(COMPETITIVENESS_THRESHOLD_KEY)) model.setCompetitiveThreshold(Double.parseDouble(text));
 					else if( name.equalsIgnoreCase(PARTISAN_METRIC_KEY)) model.setPartisanMetric(PartisanMetric.valueOf(text));
+					else if( name.equalsIgnoreCase(AGGREGATION_STRATEGY_KEY)) model.setAggregationStrategy(AggregationStrategy.valueOf(text));
 				}
 			}
 		}
-		catch(NumberFormatException nfe) {
-			LOGGER.severe(String.format("%s.getAnalysisModel: Error (%s)",CLSS,nfe.getMessage()));
+		catch(IllegalArgumentException iae) {   // Includes NumberFormatException
+			LOGGER.severe(String.format("%s.getAnalysisModel: Error (%s)",CLSS,iae.getMessage()));
 		}
 		catch(SQLException e) {
 			LOGGER.severe(String.format("%s.getAnalysisModel: Error (%s)",CLSS,e.getMessage()));
@@ -136,59 +141,71 @@ public class PreferencesTable {
 	}
 	
 	public void setParameter(String key,String value) {
-		String SQL = String.format("UPDATE Preferences SET value = '%s' WHERE name = '%s'",value,key);
-		Statement statement = null;
-		try {
-			statement = cxn.createStatement();
-			statement.setQueryTimeout(10);     // set timeout to 10 sec.
-			statement.executeUpdate(SQL); 
-		}
-		catch(SQLException e) {
-			LOGGER.severe(String.format("%s.setParameter: Error (%s)",CLSS,e.getMessage()));
+		synchronized(cxn) {
+			String SQL = String.format("UPDATE Preferences SET value = '%s' WHERE name = '%s'",value,key);
+			Statement statement = null;
+			try {
+				statement = cxn.createStatement();
+				statement.setQueryTimeout(10);     // set timeout to 10 sec.
+				statement.executeUpdate(SQL); 
+			}
+			catch(SQLException e) {
+				LOGGER.severe(String.format("%s.setParameter: Error (%s)",CLSS,e.getMessage()));
+			}
 		}
 	}
 	public void setWeight(String key,double value) {
-		String SQL = String.format("UPDATE Preferences SET value = %s WHERE name = '%s'",String.valueOf(value),key);
-		Statement statement = null;
-		try {
-			statement = cxn.createStatement();
-			statement.setQueryTimeout(10);     // set timeout to 10 sec.
-			statement.executeUpdate(SQL); 
-		}
-		catch(SQLException e) {
-			LOGGER.severe(String.format("%s.setWeight: Error (%s)",CLSS,e.getMessage()));
+		synchronized(cxn) {
+			String SQL = String.format("UPDATE Preferences SET value = %s WHERE name = '%s'",String.valueOf(value),key);
+			Statement statement = null;
+			try {
+				statement = cxn.createStatement();
+				statement.setQueryTimeout(10);     // set timeout to 10 sec.
+				statement.executeUpdate(SQL); 
+			}
+			catch(SQLException e) {
+				LOGGER.severe(String.format("%s.setWeight: Error (%s)",CLSS,e.getMessage()));
+			}
 		}
 	}
 	/**
 	 * Update preferences based on the analysis model object.
 	 */
 	public void updateAnalysisModel(AnalysisModel model) {
-		PreparedStatement statement = null;
-		String SQL = "REPLACE INTO Preferences(name,value) VALUES(?,?)";
-		try {
-			statement = cxn.prepareStatement(SQL);
-			statement.setString(1,AFFILIATION_KEY);
-			statement.setString(2, String.valueOf(model.getAffiliationId()));
-			statement.executeUpdate();
-			statement.setString(1,DEMOGRAPHIC_KEY);
-			statement.setString(2, String.valueOf(model.getDemographicId()));
-			statement.executeUpdate();
-			statement.setString(1,COUNTY_BOUNDARIES_KEY);
-			statement.setString(2, String.valueOf(model.getCountyBoundariesId()));
-			statement.executeUpdate();
-			statement.setString(1,COMPETITIVENESS_THRESHOLD_KEY);
-			statement.setString(2, String.valueOf(model.getCompetitiveThreshold()));
-			statement.executeUpdate();
-			statement.setString(1,PARTISAN_METRIC_KEY);
-			statement.setString(2, model.getPartisanMetric().name());
-			statement.executeUpdate();
-		}
-		catch(SQLException e) {
-			LOGGER.severe(String.format("%s.updateAnalysisModel: error (%s)",CLSS,e.getMessage()));
-		}
-		finally {
-			if( statement!=null) {
-				try { statement.close(); } catch(SQLException ignore) {}
+		synchronized(cxn) {
+			PreparedStatement statement = null;
+			String SQL = "REPLACE INTO Preferences(name,value) VALUES(?,?)";
+			try {
+				statement = cxn.prepareStatement(SQL);
+				statement.setString(1,AFFILIATION_KEY);
+				statement.setString(2, String.valueOf(model.getAffiliationId()));
+				statement.executeUpdate();
+				statement.setString(1,DEMOGRAPHIC_KEY);
+				statement.setString(2, String.valueOf(model.getDemographicId()));
+				statement.executeUpdate();
+				statement.setString(1,COUNTY_BOUNDARIES_KEY);
+				statement.setString(2, String.valueOf(model.getCountyBoundariesId()));
+				statement.executeUpdate();
+				statement.setString(1,POPULATION_KEY);
+				statement.setString(2, String.valueOf(model.getPopulationId()));
+				statement.executeUpdate();
+				statement.setString(1,COMPETITIVENESS_THRESHOLD_KEY);
+				statement.setString(2, String.valueOf(model.getCompetitiveThreshold()));
+				statement.executeUpdate();
+				statement.setString(1,PARTISAN_METRIC_KEY);
+				statement.setString(2, model.getPartisanMetric().name());
+				statement.executeUpdate();
+				statement.setString(1,AGGREGATION_STRATEGY_KEY);
+				statement.setString(2, model.getAggregationStrategy().name());
+				statement.executeUpdate();
+			}
+			catch(SQLException e) {
+				LOGGER.severe(String.format("%s.updateAnalysisModel: error (%s)",CLSS,e.getMessage()));
+			}
+			finally {
+				if( statement!=null) {
+					try { statement.close(); } catch(SQLException ignore) {}
+				}
 			}
 		}
 	}
@@ -11,6 +11,10 @@ package redistrict.colorado.pref;
 public interface PreferenceKeys   {
 	public final static String DATABASE_PATH = "DatabasePath";     // SQLite 
 	public final static String GOOGLE_API_KEY = "GoogleKey";    // 
+	public final static String AGGREGATION_THREADS = "AggregationThreads";  // 0 = all processors
+	public final static String DEMOGRAPHIC_ASSIGNMENT = "DemographicAssignment";  // AREA or POINT
+	public final static String RASTER_AREA_ERROR = "RasterAreaError";  // Largest fraction of a district area mis-assigned
+	public final static String PARTITION_CELL_SIZE = "PartitionCellSize";  // Dataset units, 0 = no partitioning
 	
 	public final static String PREFERENCES_NAME = "RedistricColoradoPreferences"; 
 
@@ -39,6 +39,7 @@ public class DatasetDetailPane extends BasicRightSideNode {
 	private DatasetModel model;
 	private final ObservableList<Feature> items;
 	private final Label headerLabel = new Label("Layer Details");
+	private final Label repairLabel = new Label("");   // Count of repaired features
 	private final TableView<Feature> table;
 	private final CheckBox showAllColumns;  // Including the hidden ones
 	private final EventHandler<ActionEvent> eventHandler;
@@ -58,10 +59,13 @@ public class DatasetDetailPane extends BasicRightSideNode {
 		headerLabel.getStyleClass().add("list-header-label");
 		getChildren().add(headerLabel);
 		getChildren().add(showAllColumns);
+		getChildren().add(repairLabel);
 		getChildren().add(table);
 		setTopAnchor(headerLabel,0.);
 		setTopAnchor(showAllColumns,UIConstants.BUTTON_PANEL_HEIGHT/5);
 		setLeftAnchor(showAllColumns,UIConstants.BUTTON_PANEL_HEIGHT/5);
+		setTopAnchor(repairLabel,UIConstants.BUTTON_PANEL_HEIGHT/5);
+		setRightAnchor(repairLabel,UIConstants.LIST_PANEL_RIGHT_MARGIN);
 		setLeftAnchor(headerLabel,UIConstants.LIST_PANEL_LEFT_MARGIN);
 		setRightAnchor(headerLabel,UIConstants.LIST_PANEL_RIGHT_MARGIN);
 		setTopAnchor(table,UIConstants.BUTTON_PANEL_HEIGHT);
@@ -86,6 +90,7 @@ public class DatasetDetailPane extends BasicRightSideNode {
 					items.add(feat);
 				}
 			}
+			repairLabel.setText(model.getRepair()==null?"":model.getRepair().getSummary());
 
 			TableColumn<Feature,String> column;
 			Map<String,String> aliasMap = Database.getInstance().getFeatureAttributeTable().getNamesForFeatureAliases(model.getId());
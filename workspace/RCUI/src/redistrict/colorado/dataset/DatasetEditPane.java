@@ -7,9 +7,10 @@
 package redistrict.colorado.dataset;
 import java.io.File;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.logging.Logger;
 
-import org.geotools.data.shapefile.ShapefileReader;
 import org.openjump.feature.AttributeType;
 import org.openjump.feature.FeatureSchema;
 
@@ -35,13 +36,16 @@ import javafx.stage.FileChooser;
 import javafx.stage.Popup;
 import javafx.stage.Window;
 import redistrict.colorado.bind.EventBindingHub;
+import redistrict.colorado.core.AnalysisModel;
 import redistrict.colorado.core.DatasetModel;
 import redistrict.colorado.core.DatasetRole;
 import redistrict.colorado.core.FeatureConfiguration;
+import redistrict.colorado.core.MetricFamily;
 import redistrict.colorado.core.StandardAttributes;
 import redistrict.colorado.db.Database;
 import redistrict.colorado.pane.BasicRightSideNode;
 import redistrict.colorado.pane.SavePane;
+import redistrict.colorado.plan.BackgroundAggregator;
 import redistrict.colorado.table.FCBooleanCellFactory;
 import redistrict.colorado.table.FCBooleanValueFactory;
 import redistrict.colorado.table.FCColorCellFactory;
@@ -63,7 +67,7 @@ public class DatasetEditPane extends BasicRightSideNode implements EventHandler<
 	private final static double GRID2_WIDTH = 40.;
 	private static final double CONFIGURATION_TABLE_HEIGHT = 500; // Preferred
 	private static final double CONFIGURATION_TABLE_WIDTH  = 600; 
-	private final static double TABLE_OFFSET_TOP = 200.;
+	private final static double TABLE_OFFSET_TOP = 250.;
 	private static final GuiUtil guiu = new GuiUtil();
 	private final GridPane grid;
 	private Label headerLabel = new Label("Dataset Configuration");
@@ -72,10 +76,13 @@ public class DatasetEditPane extends BasicRightSideNode implements EventHandler<
 	private final Label descriptionLabel = new Label("Description: ");
 	private final Button fileButton = new Button("Shapefile: ");
 	private final Label roleLabel = new Label("Role: ");
+	private final Label toleranceLabel = new Label("Simplify: ");
 	private final TextField nameField;
 	private final TextField descriptionField;
 	private final TextField pathField;
 	private final ComboBox<String> roleChooser;
+	private final TextField toleranceField;
+	private final Label simplificationLabel;
 	private Label indicator;
 	private DatasetModel model;
 	private final ObservableList<FeatureConfiguration> items;
@@ -104,6 +111,9 @@ public class DatasetEditPane extends BasicRightSideNode implements EventHandler<
         pathField.setEditable(false);
         this.roleChooser = new ComboBox<>();
         roleChooser.getItems().addAll(DatasetRole.names());
+        this.toleranceField = new TextField();
+        toleranceField.setPromptText("0 for none");
+        this.simplificationLabel = new Label("");
         this.indicator = new Label("",guiu.loadImage("images/ball_gray.png"));
         this.grid = new GridPane();
         grid.setHgap(10);
@@ -126,6 +136,9 @@ public class DatasetEditPane extends BasicRightSideNode implements EventHandler<
 		grid.add(roleLabel, 0, 3);
 		grid.add(roleChooser, 1, 3);
 		grid.add(indicator, 2, 3);
+		grid.add(toleranceLabel, 0, 4);
+		grid.add(toleranceField, 1, 4);
+		grid.add(simplificationLabel, 1, 5);
 		
 		getChildren().add(grid);
 		setTopAnchor(grid,UIConstants.DETAIL_HEADER_SPACING);
@@ -217,6 +230,7 @@ public class DatasetEditPane extends BasicRightSideNode implements EventHandler<
 			descriptionField.setText(model.getDescription());
 			pathField.setText(model.getShapefilePath());
 	        roleChooser.getSelectionModel().select(model.getRole().name());
+	        toleranceField.setText(String.valueOf(model.getSimplifyTolerance()));
 			if( model.getShapefilePath()!=null && !model.getShapefilePath().isEmpty() ) {
 	        	if( model.getFeatures()==null){
 	        		indicator = new Label("",guiu.loadImage("images/ball_red.png"));
@@ -225,6 +239,7 @@ public class DatasetEditPane extends BasicRightSideNode implements EventHandler<
 	        		indicator = new Label("",guiu.loadImage("images/ball_green.png"));
 	        	}
 	        }
+			simplificationLabel.setText(model.getSimplification()==null?"":model.getSimplification().getSummary());
 		}
 	}
 	
@@ -250,11 +265,27 @@ public class DatasetEditPane extends BasicRightSideNode implements EventHandler<
 		}
 		// On a save, update the model object, the database and then the hub.
 		// If the shapefile path is changed, then update the feature list.
+		// Plan metrics that depend on the dataset or its aliases are marked stale.
+		// A background aggregation is stopped while the dataset is saved, then started again.
 		else if( source instanceof Button && ((Button)source).getId().equals(ComponentIds.BUTTON_SAVE)) {
 			if(model!=null) {
+				BackgroundAggregator.getInstance().cancel();
+				AnalysisModel am = EventBindingHub.getInstance().getAnalysisModel();
+				Map<MetricFamily,String> familyKeys = am.getFamilyKeys();   // Before the change
 				model.setName(nameField.getText());
 				model.setDescription(descriptionField.getText());
 				model.setRole(DatasetRole.valueOf(roleChooser.getValue()));
+				double tolerance = model.getSimplifyTolerance();
+				try {
+					tolerance = Math.max(0.,Double.parseDouble(toleranceField.getText().trim()));
+				}
+				catch(NumberFormatException nfe) {
+					LOGGER.warning(String.format("%s.handle: Bad value for tolerance - %s",CLSS,toleranceField.getText()));
+				}
+				if( tolerance!=model.getSimplifyTolerance() ) {
+					model.setSimplifyTolerance(tolerance);
+					model.setFeatures(null);  // Force re-read with the new tolerance
+				}
 
 				if( !pathField.getText().equals(model.getShapefilePath())) {
 					model.setShapefilePath(pathField.getText());
@@ -265,12 +296,21 @@ public class DatasetEditPane extends BasicRightSideNode implements EventHandler<
 				// Update attributes in the model
 				Database.getInstance().getFeatureAttributeTable().updateFeatureAttributes(items);
 				Database.getInstance().getAttributeAliasTable().updateAliasTable(model.getId(),items);
+				Set<MetricFamily> changed = am.getChangedFamilies(familyKeys);
+				if( !changed.isEmpty() ) {
+					// The attribute names may have changed with the aliases
+					am.updateAffiliationFeatures();
+					am.updateDemographicFeatures();
+					am.updateCountyFeatures();
+					am.restoreMetrics(EventBindingHub.getInstance().getPlans(),changed);
+				}
 				EventBindingHub.getInstance().unselectDataset();     // Force fire
 				EventBindingHub.getInstance().setSelectedDataset(model);
 
 			}
 			updateFeatures();
 			configureTable();
+			if( model!=null ) BackgroundAggregator.getInstance().schedule();
 		}
 	}
 
@@ -298,13 +338,9 @@ public class DatasetEditPane extends BasicRightSideNode implements EventHandler<
 				}
 			}
 			if( reread ) {
-				try {
-					String idColumn = Database.getInstance().getAttributeAliasTable().nameForAlias(model.getId(), StandardAttributes.ID.name());
-					model.setFeatures(ShapefileReader.read(model.getShapefilePath(),idColumn,districtColumn));
-				}
-				catch(Exception ex) {
-					LOGGER.warning(String.format("%s.updateFeatures: Exception re-reading shapefile (%s)",CLSS,ex.getLocalizedMessage()));
-				}
+				// Re-read through the model so that any simplification is applied
+				model.setFeatures(null);
+				model.getFeatures();
 			}
 		}
 	}
@@ -1,196 +1,1151 @@
 package redistrict.colorado.gate;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinPool.ForkJoinWorkerThreadFactory;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.util.logging.Logger;
 
 import org.geotools.util.Geometries;
 import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.prep.PreparedGeometry;
+import org.locationtech.jts.geom.prep.PreparedGeometryFactory;
 import org.openjump.feature.Feature;
-import org.openjump.feature.FeatureCollection;
-import org.openjump.feature.FeatureUtil;
 
 import javafx.concurrent.Task;
+import redistrict.colorado.core.AggregationStrategy;
 import redistrict.colorado.core.AnalysisModel;
+import redistrict.colorado.core.CoverageOverlay;
+import redistrict.colorado.core.Crosswalk;
 import redistrict.colorado.core.DatasetModel;
+import redistrict.colorado.core.DistrictLocator;
+import redistrict.colorado.core.DistrictPartition;
+import redistrict.colorado.core.GeometryRepair;
+import redistrict.colorado.core.MetricFamily;
+import redistrict.colorado.core.OverlapCalculator;
+import redistrict.colorado.core.OverlapMatrix;
+import redistrict.colorado.core.PartitionCache;
 import redistrict.colorado.core.PlanFeature;
 import redistrict.colorado.core.PlanModel;
+import redistrict.colorado.core.RasterOverlay;
 import redistrict.colorado.core.StandardAttributes;
 import redistrict.colorado.db.Database;
 import redistrict.colorado.db.DatasetCache;
+import redistrict.colorado.pref.PreferenceKeys;
 
+/**
+ * Aggregate affiliation, demographic and county information into the districts
+ * of one or more plans. The source datasets are loaded, indexed and reduced to
+ * attribute columns once for the whole batch, then the districts are aggregated
+ * concurrently on a work-stealing pool. Each result carries its plan id.
+ * 
+ * The share of each source feature that falls in a district is kept as a row of a
+ * sparse matrix per source dataset. Shares are computed by area, by interior point
+ * or by population, depending on the configuration and the analysis strategy, and
+ * are cached in the database so that unchanged districts reduce to weighted sums.
+ * 
+ * A coarse estimate of every district is published as the task's value first and
+ * refined district by district. The result of the task is always exact, except
+ * under the RASTER strategy, whose metrics carry their estimated area error.
+ */
 public class AggregateTask  extends Task<List<PlanFeature>> {
 	private final static String CLSS = "AggregateTask";
 	private static Logger LOGGER = Logger.getLogger(CLSS);
-	private final PlanModel model;
+	private final static String POINT_ASSIGNMENT = "POINT";  // Value of the DemographicAssignment preference
+	private final static String POINT_SUFFIX = ":points";
+	private final static String CROSSWALK_SUFFIX = ":crosswalk:";
+	private final static int CROSSWALK_CHUNK = 256;     // Source features per assignment job
+	private final static double DEFAULT_RASTER_ERROR = 0.01;
+	private final static long PUBLISH_INTERVAL = 500;   // msecs between snapshots
+	private final static int PARTITION_MIN_VERTICES = 2000;  // Smaller districts are not partitioned
+	// Workers for a background task
+	private final static ForkJoinWorkerThreadFactory LOW_PRIORITY_FACTORY = (pool) -> {
+		ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+		thread.setPriority(Thread.MIN_PRIORITY);
+		return thread;
+	};
+	private final List<PlanModel> plans;
 	private final AnalysisModel am;
+	private final Map<Long,Set<MetricFamily>> pendingFamilies;  // Families to compute by plan id
+	private final Map<Long,List<PlanFeature>> currentMetrics;   // Metrics to carry over by plan id
+	private final AtomicInteger candidateCount;     // Features tested after the index lookup
+	private final AtomicInteger scanCount;          // Features that a full scan would have tested
+	private final AtomicInteger containedCount;     // Features wholly inside a district
+	private final AtomicInteger overlayCount;       // Features straddling a district boundary
+	private final AtomicInteger fallbackCount;      // Straddling features the area kernel declined
+	private final AtomicLong overlayNanos;          // Time spent computing overlaps
+	private final AtomicInteger reusedCount;        // Districts with all weights read from the database
+	private final AtomicInteger pointCount;         // Interior points tested
+	private final AtomicLong pointNanos;            // Time spent locating interior points
+	private final AtomicInteger coverageCount;      // District rows filled by coverage overlay
+	private final AtomicLong coverageNanos;         // Time spent in coverage overlays
+	private final AtomicLong lastPublished;         // Time of the latest snapshot
+	private final AtomicInteger partitionCount;     // Districts partitioned into cells
+	private final AtomicInteger partitionReusedCount;  // Partitions taken from the cache
+	private final AtomicLong partitionNanos;        // Time spent partitioning
+	private double partitionCellSize = 0.;          // Non-positive to disable partitioning
+	private boolean background = false;             // Workers at low priority
+	private final Map<Long,Crosswalk> crosswalks;   // By source dataset id
+	private DatasetModel populationDataset = null;  // Fine dataset for population weighting
+	private double[] finePopulation = null;
+	private String populationKey = null;            // Identifies the population in the database
+	// Source attribute values by feature position
+	private double[] democrat = null;
+	private double[] republican = null;
+	private double[] black = null;
+	private double[] hispanic = null;
+	private double[] white = null;
+	private double[] population = null;
 	
 	public AggregateTask(PlanModel mdl,AnalysisModel analysisModel) {
-		this.model = mdl;
+		this(Collections.singletonList(mdl),analysisModel);
+	}
+	
+	/**
+	 * Aggregate several plans as a batch.
+	 * @param models plans, each with a boundary dataset
+	 * @param analysisModel identifies the source datasets
+	 */
+	public AggregateTask(List<PlanModel> models,AnalysisModel analysisModel) {
+		this.plans = models;
 		this.am = analysisModel;
+		// Capture the state of the plans before any estimates are published
+		this.pendingFamilies = new HashMap<>();
+		this.currentMetrics = new HashMap<>();
+		for(PlanModel model:models) {
+			pendingFamilies.put(model.getId(), model.getPendingFamilies());
+			if( model.getMetrics()!=null ) currentMetrics.put(model.getId(), new ArrayList<>(model.getMetrics()));
+		}
+		this.candidateCount = new AtomicInteger(0);
+		this.scanCount = new AtomicInteger(0);
+		this.containedCount = new AtomicInteger(0);
+		this.overlayCount = new AtomicInteger(0);
+		this.fallbackCount = new AtomicInteger(0);
+		this.overlayNanos = new AtomicLong(0);
+		this.reusedCount = new AtomicInteger(0);
+		this.pointCount = new AtomicInteger(0);
+		this.pointNanos = new AtomicLong(0);
+		this.coverageCount = new AtomicInteger(0);
+		this.coverageNanos = new AtomicLong(0);
+		this.lastPublished = new AtomicLong(0);
+		this.partitionCount = new AtomicInteger(0);
+		this.partitionReusedCount = new AtomicInteger(0);
+		this.partitionNanos = new AtomicLong(0);
+		this.crosswalks = new HashMap<>();
 	}
 	
+	/**
+	 * @param flag true to run the workers at minimum priority, and fewer of them.
+	 *        Set before the task is started.
+	 */
+	public void setBackground(boolean flag) { this.background = flag; }
+	
 	@Override
 	protected List<PlanFeature> call()  {
 		List<PlanFeature> attributes = new ArrayList<>();
-		DatasetModel boundaryDataset = model.getBoundary();
-		// Populate attributes for each feature
-		String idName = Database.getInstance().getAttributeAliasTable().nameForAlias(boundaryDataset.getId(), StandardAttributes.ID.name());
-		String geoName = Database.getInstance().getAttributeAliasTable().nameForAlias(boundaryDataset.getId(), StandardAttributes.GEOMETRY.name());
-
-		int count = boundaryDataset.getFeatures().getFeatures().size();
-		int index = 1;
-		for(Feature feat:boundaryDataset.getFeatures().getFeatures()) {
-			this.updateProgress(index, count);
-			PlanFeature attribute = new PlanFeature(model.getId(),feat.getID());
-			if(idName!=null) attribute.setName(feat.getString(idName).toString());
-			this.updateMessage("Aggregating district "+attribute.getName());
-			if(geoName!=null) {
-				Geometry geometry = (Geometry)(feat.getAttribute(geoName));
-				attribute.setArea(geometry.getArea());
-				attribute.setPerimeter(geometry.getLength());
-				aggregateAffiliations(attribute, geometry,am);
-				aggregateDemographics(attribute, geometry,am);
-				aggregateCountyBoundaries(attribute,geometry,am);
-			}
-			attributes.add(attribute);
-			index++;
-		}
-		LOGGER.info(String.format("%s.call: Complete, returned %d attributes",CLSS,attributes.size()));
-		return attributes;
-	}
-	/**
-	 * Augment a single polygon with values from an affiliation dataset.
-	 */
-	public void aggregateAffiliations(PlanFeature planFeat, Geometry polygon,AnalysisModel am) {
-		if( am == null ) return;
-		DatasetModel dm = DatasetCache.getInstance().getDataset(am.getAffiliationId());
-		if( dm!=null ) {
-			FeatureCollection fc = dm.getFeatures();
-			if( fc==null ) return;
-			int count = 0;
-			for(Feature feat:fc.getFeatures()) {
-				Geometry geometry = (Geometry)(feat.getAttribute(am.getAffiliationGeometryName()));
-				Geometries type = Geometries.get(geometry);
-				// If the shapes don't intersect, ignore.
-				if( geometry.disjoint(polygon)) {
-					continue; 
-				}
-				if( !type.equals(Geometries.POLYGON) && !type.equals(Geometries.MULTIPOLYGON))  {
-					LOGGER.warning(String.format("%s.aggregateAffiliations: Geometry not a polygon (%s)", CLSS,type.getName()));
-					continue;
+		long start = System.currentTimeMillis();
+		candidateCount.set(0);
+		scanCount.set(0);
+		containedCount.set(0);
+		overlayCount.set(0);
+		fallbackCount.set(0);
+		overlayNanos.set(0);
+		reusedCount.set(0);
+		pointCount.set(0);
+		pointNanos.set(0);
+		coverageCount.set(0);
+		coverageNanos.set(0);
+		partitionCount.set(0);
+		partitionReusedCount.set(0);
+		partitionNanos.set(0);
+		partitionCellSize = getPartitionCellSize();
+		// Load the source datasets and their indices before the workers share them
+		this.updateMessage("Indexing source datasets");
+		prepareColumns();
+		preparePopulation();
+		List<PlanAggregation> aggregations = new ArrayList<>();
+		int total = 0;
+		for(PlanModel plan:plans) {
+			PlanAggregation aggregation = preparePlan(plan);
+			if( aggregation==null ) continue;
+			aggregations.add(aggregation);
+			total += aggregation.districts.size();
+		}
+		final int count = total;
+		// Each district has its own accumulator, so the order of summation within
+		// a district is the same as in a sequential pass.
+		AtomicInteger completed = new AtomicInteger(0);
+		int parallelism = getParallelism();
+		ForkJoinPool pool = null;
+		if( background ) {
+			parallelism = Math.max(1,parallelism/2);
+			pool = new ForkJoinPool(parallelism,LOW_PRIORITY_FACTORY,null,false);
+		}
+		else {
+			pool = new ForkJoinPool(parallelism);
+		}
+		try {
+			List<ForkJoinTask<?>> jobs = new ArrayList<>();
+			// Publish a coarse estimate of all districts before refining
+			this.updateMessage("Estimating district metrics");
+			for(PlanAggregation aggregation:aggregations) {
+				for(int index=0;index<aggregation.districts.size();index++) {
+					final int position = index;
+					jobs.add(pool.submit(() -> {
+						if( isCancelled() ) return;
+						aggregation.estimates.set(position,estimateDistrict(aggregation,position));
+					}));
+				}
+			}
+			for(ForkJoinTask<?> job:jobs) {
+				if( isCancelled() ) break;
+				job.join();
+			}
+			jobs.clear();
+			publish(aggregations);
+			LOGGER.info(String.format("%s.call: Published estimates for %d districts after %d msecs",CLSS,count,
+					System.currentTimeMillis()-start));
+			if( am.getAggregationStrategy()==AggregationStrategy.COVERAGE ) {
+				this.updateMessage("Overlaying source coverages");
+				for(PlanAggregation aggregation:aggregations) {
+					for(OverlapLayer layer:aggregation.layers) {
+						if( layer.weights==null || layer.points || layer.crosswalk!=null || layer.getCachedCount()==aggregation.districts.size() ) continue;
+						jobs.add(pool.submit(() -> overlayLayer(aggregation,layer)));
+					}
 				}
-				double areaRatio = 1.0;
-				try {
-					Geometry intersect = polygon.intersection(geometry);
-					if( intersect!=null && intersect.getEnvelope()!=null && !intersect.isEmpty() ) {
-						areaRatio = intersect.getArea() / geometry.getArea();
+			}
+			else if( am.getAggregationStrategy()==AggregationStrategy.RASTER ) {
+				this.updateMessage("Rasterizing source datasets");
+				double maxError = getRasterError();
+				for(PlanAggregation aggregation:aggregations) {
+					jobs.add(pool.submit(() -> rasterizePlan(aggregation,maxError)));
+				}
+			}
+			// Assign the population to source features for any crosswalk that is needed
+			long crosswalkStart = System.currentTimeMillis();
+			List<Crosswalk> assigned = new ArrayList<>();
+			for(PlanAggregation aggregation:aggregations) {
+				for(OverlapLayer layer:aggregation.layers) {
+					Crosswalk crosswalk = layer.crosswalk;
+					if( crosswalk==null || assigned.contains(crosswalk) || layer.getCachedCount()==aggregation.districts.size() ) continue;
+					assigned.add(crosswalk);
+					List<Geometry> sources = new ArrayList<>();
+					for(Feature feat:layer.dataset.getFeatures().getFeatures()) {
+						sources.add((Geometry)feat.getAttribute(layer.geometryIndex));
 					}
-					else {
-						areaRatio = 0.;
+					for(int first=0;first<sources.size();first+=CROSSWALK_CHUNK) {
+						final int from = first;
+						final int to = Math.min(sources.size(),first+CROSSWALK_CHUNK);
+						jobs.add(pool.submit(() -> {
+							if( !isCancelled() ) crosswalk.assignSources(sources,from,to);
+						}));
 					}
 				}
-				catch(Exception ex) {
-					LOGGER.warning(String.format("%s.aggregateAffiliations: Intersect exception (%s)", CLSS,ex.getLocalizedMessage()));
+			}
+			if( !jobs.isEmpty() ) {
+				for(ForkJoinTask<?> job:jobs) {
+					if( isCancelled() ) break;
+					job.join();
 				}
-				long increment = FeatureUtil.castToLong(feat.getAttribute(am.getAttributeForDemocrat()));
-				planFeat.incrementDemocrat(areaRatio*increment);
-				increment = FeatureUtil.castToLong(feat.getAttribute(am.getAttributeForRepublican()));
-				planFeat.incrementRepublican(areaRatio*increment);
-				count++;
+				jobs.clear();
+			}
+			for(Crosswalk crosswalk:assigned) {
+				crosswalk.complete();
+			}
+			if( !assigned.isEmpty() ) {
+				LOGGER.info(String.format("%s.call: Assigned %s to %d source datasets in %d msecs",CLSS,populationDataset.getName(),
+						assigned.size(),System.currentTimeMillis()-crosswalkStart));
+			}
+			for(PlanAggregation aggregation:aggregations) {
+				for(int index=0;index<aggregation.districts.size();index++) {
+					final int position = index;
+					jobs.add(pool.submit(() -> {
+						if( isCancelled() ) return;
+						PlanFeature attribute = aggregateDistrict(aggregation,position);
+						aggregation.results.set(position,attribute);
+						updateProgress(completed.incrementAndGet(), count);
+						updateMessage("Refined district "+attribute.getName());
+						long now = System.currentTimeMillis();
+						long last = lastPublished.get();
+						if( now-last>PUBLISH_INTERVAL && lastPublished.compareAndSet(last, now) ) publish(aggregations);
+					}));
+				}
+			}
+			for(ForkJoinTask<?> job:jobs) {
+				if( isCancelled() ) break;
+				job.join();
+			}
+		}
+		finally {
+			pool.shutdownNow();
+		}
+		if( isCancelled() ) {
+			LOGGER.info(String.format("%s.call: Cancelled after %d of %d districts",CLSS,completed.get(),count));
+			return attributes;
+		}
+		for(PlanAggregation aggregation:aggregations) {
+			for(int row=0;row<aggregation.results.length();row++) {
+				attributes.add(aggregation.results.get(row));
+			}
+			for(OverlapLayer layer:aggregation.layers) {
+				storeLayer(aggregation,layer);
 			}
-			LOGGER.info(String.format("%s.aggregateAffiliations: %d features of %d intersect", CLSS,count,fc.getFeatures().size()));
 		}
+		LOGGER.info(String.format("%s.call: Aggregated %d plans, re-used cached overlaps for %d of %d districts",CLSS,aggregations.size(),
+				reusedCount.get(),count));
+		LOGGER.info(String.format("%s.call: Complete, returned %d attributes in %d msecs (%d threads)",CLSS,attributes.size(),
+				System.currentTimeMillis()-start,parallelism));
+		LOGGER.info(String.format("%s.call: Tested %d candidate features, a full scan would test %d",CLSS,candidateCount.get(),scanCount.get()));
+		LOGGER.info(String.format("%s.call: %d features were contained in a district, %d straddled a boundary (%d msecs)",CLSS,
+				containedCount.get(),overlayCount.get(),overlayNanos.get()/1000000));
+		LOGGER.info(String.format("%s.call: %d overlaps required a full intersection",CLSS,fallbackCount.get()));
+		if( coverageCount.get()>0 ) {
+			LOGGER.info(String.format("%s.call: Coverage or raster overlay covered %d districts (%d msecs)",CLSS,coverageCount.get(),coverageNanos.get()/1000000));
+		}
+		if( partitionCount.get()+partitionReusedCount.get()>0 ) {
+			LOGGER.info(String.format("%s.call: Partitioned %d districts into cells of size %f (%d msecs), %d partitions re-used",CLSS,
+					partitionCount.get(),partitionCellSize,partitionNanos.get()/1000000,partitionReusedCount.get()));
+		}
+		if( pointCount.get()>0 ) {
+			LOGGER.info(String.format("%s.call: Located %d interior points (%d msecs)",CLSS,pointCount.get(),pointNanos.get()/1000000));
+		}
+		return attributes;
 	}
-
+	
 	/**
-	 * Augment a single polygon with values from an demographic dataset.
-	 * NOTE: We have seen datasets with no apparent total population. In this case
-	 * 		 simply add male and female.
+	 * Compute the metrics for a single district. This is called concurrently
+	 * for different districts.
+	 * @param aggregation the plan that owns the district
+	 * @param row position of the district within the plan
 	 */
-	public void aggregateDemographics(PlanFeature planFeat, Geometry polygon,AnalysisModel am) {
-		if( am == null ) return;
-		DatasetModel dm = DatasetCache.getInstance().getDataset(am.getDemographicId());
-		if( dm!=null ) {
-			FeatureCollection fc = dm.getFeatures();
-			if( fc==null ) return;
-			int count = 0;
-			for(Feature feat:fc.getFeatures()) {
-				Geometry geometry = (Geometry)(feat.getAttribute(am.getDemographicGeometryName()));
-				Geometries type = Geometries.get(geometry);
-				if( geometry.disjoint(polygon)) {
+	private PlanFeature aggregateDistrict(PlanAggregation aggregation,int row) {
+		Feature feat = aggregation.districts.get(row);
+		PlanFeature attribute = new PlanFeature(aggregation.plan.getId(),feat.getID());
+		if(aggregation.idName!=null) attribute.setName(feat.getString(aggregation.idName).toString());
+		if(aggregation.geoName!=null) {
+			Geometry geometry = (Geometry)(feat.getAttribute(aggregation.geoName));
+			attribute.setArea(geometry.getArea());
+			attribute.setPerimeter(geometry.getLength());
+			if( aggregation.areaErrors!=null ) attribute.setAreaError(aggregation.areaErrors[row]);
+			PreparedGeometry district = PreparedGeometryFactory.prepare(geometry);
+			// The area kernel is only needed if weights must be computed
+			OverlapCalculator calculator = null;
+			DistrictPartition partition = null;
+			DistrictLocator locator = null;
+			boolean reused = true;
+			for(OverlapLayer layer:aggregation.layers) {
+				if( layer.isCached(row) ) continue;
+				if( layer.isOverlaid(row) ) {
+					if( layer.weights!=null ) reused = false;
 					continue;
 				}
-				if( !type.equals(Geometries.POLYGON) && !type.equals(Geometries.MULTIPOLYGON)) {
-					LOGGER.warning(String.format("%s.aggregateDemographics: Geometry not a polygon (%s)", CLSS,type.getName()));
+				if( layer.points ) {
+					if( locator==null ) locator = new DistrictLocator(geometry);
+					locateLayer(layer,row,locator);
+					reused = false;
 					continue;
 				}
-				double areaRatio = 1.0;
-				try {
-					Geometry intersect = polygon.intersection(geometry);
-					if( intersect!=null && intersect.getEnvelope()!=null && !intersect.isEmpty() ) {
-						areaRatio = intersect.getArea() / geometry.getArea();
+				if( layer.crosswalk!=null ) {
+					if( locator==null ) locator = new DistrictLocator(geometry);
+					if( calculator==null ) {
+						calculator = new OverlapCalculator(geometry);
+						partition = getPartition(aggregation,row,geometry);
 					}
-					else {
-						areaRatio = 0.;
+					crosswalkLayer(layer,row,district,locator,calculator,partition);
+					reused = false;
+					continue;
+				}
+				if( layer.weights!=null ) {
+					if( calculator==null ) {
+						calculator = new OverlapCalculator(geometry);
+						partition = getPartition(aggregation,row,geometry);
 					}
+					reused = false;
 				}
-				catch(Exception ex) {
-					LOGGER.warning(String.format("%s.aggregateDemographics: Intersect exception (%s)", CLSS,ex.getLocalizedMessage()));
+				scanLayer(layer,row,district,calculator,partition);
+			}
+			if( reused ) reusedCount.incrementAndGet();
+			aggregateAffiliations(aggregation.affiliationLayer, attribute, row);
+			aggregateDemographics(aggregation.demographicLayer, attribute, row);
+			aggregateCountyBoundaries(aggregation.countyLayer, attribute, row);
+		}
+		retainMetrics(aggregation, attribute, row);
+		return attribute;
+	}
+	
+	/**
+	 * Compute a quick estimate of the metrics for a single district. A source feature
+	 * is counted whole in the district that holds its interior point, unless the
+	 * district's exact weights are already known from the database. County crossings
+	 * are cheap to count exactly, so they are final. This is called concurrently
+	 * for different districts.
+	 * @param aggregation the plan that owns the district
+	 * @param row position of the district within the plan
+	 */
+	private PlanFeature estimateDistrict(PlanAggregation aggregation,int row) {
+		Feature feat = aggregation.districts.get(row);
+		PlanFeature attribute = new PlanFeature(aggregation.plan.getId(),feat.getID());
+		if(aggregation.idName!=null) attribute.setName(feat.getString(aggregation.idName).toString());
+		if(aggregation.geoName!=null) {
+			Geometry geometry = (Geometry)(feat.getAttribute(aggregation.geoName));
+			attribute.setArea(geometry.getArea());
+			attribute.setPerimeter(geometry.getLength());
+			DistrictLocator locator = new DistrictLocator(geometry);
+			for(OverlapLayer layer:aggregation.layers) {
+				if( layer.weights==null ) {
+					scanLayer(layer,row,PreparedGeometryFactory.prepare(geometry),null,null);
+					layer.overlaidRows[row] = true;
 				}
-
-				long increment = FeatureUtil.castToLong(feat.getAttribute(am.getAttributeForBlack()));
-				planFeat.incrementBlack(areaRatio*increment);
-				increment = FeatureUtil.castToLong(feat.getAttribute(am.getAttributeForHispanic()));
-				planFeat.incrementHispanic(areaRatio*increment);
-				increment = FeatureUtil.castToLong(feat.getAttribute(am.getAttributeForWhite()));
-				planFeat.incrementWhite(areaRatio*increment);
-				if(am.getAttributeForPopulation()==null) { // Use male+female
-					increment = FeatureUtil.castToLong(feat.getAttribute(am.getAttributeForFemale()));
-					planFeat.incrementPopulation(areaRatio*increment);
-					increment = FeatureUtil.castToLong(feat.getAttribute(am.getAttributeForMale()));
-					planFeat.incrementPopulation(areaRatio*increment);
+			}
+			OverlapLayer layer = aggregation.affiliationLayer;
+			if( layer!=null ) {
+				if( layer.isCached(row) ) aggregateAffiliations(layer, attribute, row);
+				else {
+					for(int position:estimatePositions(layer,locator)) {
+						attribute.incrementDemocrat(democrat[position]);
+						attribute.incrementRepublican(republican[position]);
+					}
 				}
+			}
+			layer = aggregation.demographicLayer;
+			if( layer!=null ) {
+				if( layer.isCached(row) ) aggregateDemographics(layer, attribute, row);
 				else {
-					increment = FeatureUtil.castToLong(feat.getAttribute(am.getAttributeForPopulation()));
-					planFeat.incrementPopulation(areaRatio*increment);
+					for(int position:estimatePositions(layer,locator)) {
+						attribute.incrementBlack(black[position]);
+						attribute.incrementHispanic(hispanic[position]);
+						attribute.incrementWhite(white[position]);
+						attribute.incrementPopulation(population[position]);
+					}
 				}
+			}
+			aggregateCountyBoundaries(aggregation.countyLayer, attribute, row);
+		}
+		retainMetrics(aggregation, attribute, row);
+		return attribute;
+	}
+
+	/**
+	 * Copy the families that are not being computed from the current metrics of the district.
+	 * @param aggregation the plan that owns the district
+	 * @param attribute the new metrics of the district
+	 * @param row position of the district within the plan
+	 */
+	private void retainMetrics(PlanAggregation aggregation,PlanFeature attribute,int row) {
+		if( aggregation.current==null ) return;
+		PlanFeature current = aggregation.current.get(row);
+		if( !aggregation.families.contains(MetricFamily.AFFILIATION) ) {
+			attribute.setDemocrat(current.getDemocrat());
+			attribute.setRepublican(current.getRepublican());
+		}
+		if( !aggregation.families.contains(MetricFamily.DEMOGRAPHIC) ) {
+			attribute.setPopulation(current.getPopulation());
+			attribute.setBlack(current.getBlack());
+			attribute.setHispanic(current.getHispanic());
+			attribute.setWhite(current.getWhite());
+		}
+		if( !aggregation.families.contains(MetricFamily.COUNTY) ) {
+			attribute.setCrossings(current.getCrossings());
+		}
+	}
+
+	/**
+	 * @return positions of the source features of a layer whose interior points lie in a district.
+	 */
+	private int[] estimatePositions(OverlapLayer layer,DistrictLocator locator) {
+		double[] xy = layer.dataset.getInteriorPoints();
+		List<Integer> candidates = layer.dataset.getCandidatePositions(locator.getEnvelope());
+		int[] positions = new int[candidates.size()];
+		int index = 0;
+		for(Integer position:candidates) {
+			positions[index++] = position;
+		}
+		int count = locator.locate(xy, positions, positions.length, positions);
+		return Arrays.copyOf(positions, count);
+	}
+
+	/**
+	 * Publish the current metrics of all plans as the task's value. Districts
+	 * that have not yet been refined are represented by their estimates.
+	 */
+	private void publish(List<PlanAggregation> aggregations) {
+		List<PlanFeature> snapshot = new ArrayList<>();
+		for(PlanAggregation aggregation:aggregations) {
+			for(int row=0;row<aggregation.results.length();row++) {
+				PlanFeature attribute = aggregation.results.get(row);
+				if( attribute==null ) attribute = aggregation.estimates.get(row);
+				if( attribute!=null ) snapshot.add(attribute);
+			}
+		}
+		lastPublished.set(System.currentTimeMillis());
+		updateValue(snapshot);
+	}
+
+	/**
+	 * Resolve the boundary dataset of a plan together with its affiliation, demographic
+	 * and county layers. A dataset that fills more than one role is represented by a
+	 * single layer, and so is scanned only once per district. Only the layers of
+	 * families that must be computed are resolved.
+	 * @return the work for the plan, null if it has no boundary features.
+	 */
+	private PlanAggregation preparePlan(PlanModel plan) {
+		DatasetModel boundaryDataset = plan.getBoundary();
+		if( boundaryDataset==null || boundaryDataset.getFeatures()==null ) {
+			LOGGER.warning(String.format("%s.preparePlan: %s has no boundary features",CLSS,plan.getName()));
+			return null;
+		}
+		PlanAggregation aggregation = new PlanAggregation(plan,boundaryDataset);
+		int districts = aggregation.districts.size();
+		List<PlanFeature> current = currentMetrics.get(plan.getId());
+		Set<MetricFamily> families = pendingFamilies.get(plan.getId());
+		if( families!=null && !families.containsAll(EnumSet.allOf(MetricFamily.class)) && matchesDistricts(aggregation,current) ) {
+			aggregation.families = families;
+			aggregation.current = current;
+			LOGGER.info(String.format("%s.preparePlan: %s, computing %s only",CLSS,plan.getName(),families.toString()));
+		}
+		if( aggregation.families.contains(MetricFamily.AFFILIATION) ) {
+			aggregation.affiliationLayer = getLayer(aggregation,am.getAffiliationId(),am.getAffiliationGeometryName(),districts,true,false,"aggregateAffiliations");
+		}
+		if( aggregation.families.contains(MetricFamily.DEMOGRAPHIC) ) {
+			boolean points = usePointAssignment(DatasetCache.getInstance().getDataset(am.getDemographicId()));
+			aggregation.demographicLayer = getLayer(aggregation,am.getDemographicId(),am.getDemographicGeometryName(),districts,true,points,"aggregateDemographics");
+		}
+		if( aggregation.families.contains(MetricFamily.COUNTY) ) {
+			aggregation.countyLayer = getLayer(aggregation,am.getCountyBoundariesId(),am.getCountyGeometryName(),districts,false,false,"aggregateCountyBoundaries");
+		}
+		return aggregation;
+	}
+	
+	/**
+	 * @return true if the current metrics of a plan are for its districts, row by row,
+	 *         so that they may be carried over.
+	 */
+	private boolean matchesDistricts(PlanAggregation aggregation,List<PlanFeature> current) {
+		if( current==null || current.size()!=aggregation.districts.size() ) return false;
+		if( aggregation.idName==null ) return true;
+		for(int row=0;row<current.size();row++) {
+			String name = aggregation.districts.get(row).getString(aggregation.idName);
+			if( name==null || !name.equals(current.get(row).getName()) ) return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Extract the attribute values that are to be aggregated. These are shared
+	 * by all plans.
+	 */
+	private void prepareColumns() {
+		DatasetModel dm = DatasetCache.getInstance().getDataset(am.getAffiliationId());
+		if( dm!=null && dm.getFeatures()!=null ) {
+			democrat = getColumn(dm,am.getAttributeForDemocrat());
+			republican = getColumn(dm,am.getAttributeForRepublican());
+		}
+		dm = DatasetCache.getInstance().getDataset(am.getDemographicId());
+		if( dm!=null && dm.getFeatures()!=null ) {
+			black = getColumn(dm,am.getAttributeForBlack());
+			hispanic = getColumn(dm,am.getAttributeForHispanic());
+			white = getColumn(dm,am.getAttributeForWhite());
+			// NOTE: We have seen datasets with no apparent total population. In this case
+			// 		 simply add male and female.
+			if(am.getAttributeForPopulation()==null) {
+				double[] female = getColumn(dm,am.getAttributeForFemale());
+				double[] male = getColumn(dm,am.getAttributeForMale());
+				population = new double[female.length];
+				for(int index=0;index<population.length;index++) {
+					population[index] = female[index]+male[index];
+				}
+			}
+			else {
+				population = getColumn(dm,am.getAttributeForPopulation());
+			}
+		}
+	}
+	
+	/**
+	 * Resolve the fine dataset selected for population weighting, if any. Its
+	 * interior points and index are built here, before the workers share them.
+	 */
+	private void preparePopulation() {
+		populationDataset = null;
+		finePopulation = null;
+		populationKey = null;
+		crosswalks.clear();
+		DatasetModel dm = DatasetCache.getInstance().getDataset(am.getPopulationId());
+		if( dm==null || dm.getFeatures()==null || dm.getSpatialIndex()==null ) return;
+		String attribute = Database.getInstance().getAttributeAliasTable().nameForAlias(dm.getId(), StandardAttributes.POPULATION.name());
+		double[] values = dm.getColumn(attribute);
+		if( values==null || dm.getInteriorPoints()==null ) {
+			LOGGER.warning(String.format("%s.preparePopulation: %s has no %s attribute, weighting by area",CLSS,dm.getName(),
+					StandardAttributes.POPULATION.name()));
+			return;
+		}
+		populationDataset = dm;
+		finePopulation = values;
+		// The factors depend on the population attribute as well as the geometry
+		if( dm.getContentHash()!=null ) populationKey = CROSSWALK_SUFFIX+dm.getContentHash()+":"+attribute;
+	}
+
+	/**
+	 * @return the crosswalk between the population dataset and a source dataset, shared by
+	 * 		   all plans. Null if there is no population weighting or the source is itself
+	 * 		   the population dataset.
+	 */
+	private Crosswalk getCrosswalk(DatasetModel source) {
+		if( populationDataset==null || source.getId()==populationDataset.getId() ) return null;
+		Crosswalk crosswalk = crosswalks.get(source.getId());
+		if( crosswalk==null ) {
+			crosswalk = new Crosswalk(populationDataset,finePopulation,source.getFeatures().size());
+			crosswalks.put(source.getId(), crosswalk);
+		}
+		return crosswalk;
+	}
+
+	/**
+	 * The number of worker threads is configured in the Preferences table.
+	 * A missing or non-positive value means use all available processors.
+	 */
+	private int getParallelism() {
+		int threads = Runtime.getRuntime().availableProcessors();
+		String value = Database.getInstance().getPreferencesTable().getParameter(PreferenceKeys.AGGREGATION_THREADS);
+		if( value==null ) return threads;
+		try {
+			int configured = Integer.parseInt(value.trim());
+			if( configured>0 ) threads = configured;
+		}
+		catch(NumberFormatException ignore) {}
+		return threads;
+	}
+	
+	/**
+	 * A dataset of points is always assigned by point. A polygon dataset is assigned
+	 * by interior point if so configured in the Preferences table, otherwise by area.
+	 */
+	private boolean usePointAssignment(DatasetModel dm) {
+		if( dm==null || dm.getFeatures()==null ) return false;
+		for(Feature feat:dm.getFeatures().getFeatures()) {
+			Geometry geometry = feat.getGeometry();
+			if( geometry==null || geometry.isEmpty() ) continue;
+			Geometries type = Geometries.get(geometry);
+			if( type.equals(Geometries.POINT) || type.equals(Geometries.MULTIPOINT) ) return true;
+			break;
+		}
+		String value = Database.getInstance().getPreferencesTable().getParameter(PreferenceKeys.DEMOGRAPHIC_ASSIGNMENT);
+		return value!=null && value.trim().equalsIgnoreCase(POINT_ASSIGNMENT);
+	}
+	/**
+	 * Augment a single district with values from the affiliation dataset.
+	 * @param affiliationLayer the affiliation weights for the district's plan
+	 * @param planFeat the district metrics
+	 * @param row position of the district within the plan
+	 */
+	private void aggregateAffiliations(OverlapLayer affiliationLayer, PlanFeature planFeat, int row) {
+		if( affiliationLayer==null ) return;
+		OverlapMatrix weights = affiliationLayer.weights;
+		planFeat.incrementDemocrat(weights.multiply(row, democrat));
+		planFeat.incrementRepublican(weights.multiply(row, republican));
+	}
+
+	/**
+	 * Augment a single district with values from the demographic dataset.
+	 * @param demographicLayer the demographic weights for the district's plan
+	 * @param planFeat the district metrics
+	 * @param row position of the district within the plan
+	 */
+	private void aggregateDemographics(OverlapLayer demographicLayer, PlanFeature planFeat, int row) {
+		if( demographicLayer==null ) return;
+		OverlapMatrix weights = demographicLayer.weights;
+		planFeat.incrementBlack(weights.multiply(row, black));
+		planFeat.incrementHispanic(weights.multiply(row, hispanic));
+		planFeat.incrementWhite(weights.multiply(row, white));
+		planFeat.incrementPopulation(weights.multiply(row, population));
+	}
+
+	/**
+	 * Augment a single district with the number of county (or municipal) boundaries
+	 * that it crosses. Simply sum the number of times there is a total or partial mapping.
+	 * @param countyLayer the county intersections for the district's plan
+	 * @param planFeat the district metrics
+	 * @param row position of the district within the plan
+	 */
+	private void aggregateCountyBoundaries(OverlapLayer countyLayer, PlanFeature planFeat, int row) {
+		if( countyLayer==null ) return;
+		planFeat.incrementCrossings(countyLayer.getIntersections(row));
+	}
+
+	/**
+	 * Find the source features of a layer that intersect a single district. For a
+	 * weighted layer, fill the district's row of the overlap matrix with the fraction
+	 * of each feature's area inside the district. Otherwise simply count them.
+	 * @param layer the source dataset and matrix
+	 * @param row position of the district within the plan
+	 * @param district the prepared district area
+	 * @param calculator area kernel for the same district, unused for a counted layer
+	 * @param partition the same district divided into cells, null if not partitioned
+	 */
+	private void scanLayer(OverlapLayer layer, int row, PreparedGeometry district, OverlapCalculator calculator, DistrictPartition partition) {
+		List<Feature> all = layer.dataset.getFeatures().getFeatures();
+		List<Integer> candidates = layer.dataset.getCandidatePositions(district.getGeometry().getEnvelopeInternal());
+		candidateCount.addAndGet(candidates.size());
+		scanCount.addAndGet(all.size());
+		int[] positions = new int[candidates.size()];
+		double[] fractions = new double[candidates.size()];
+		int count = 0;
+		for(Integer position:candidates) {
+			Geometry geometry = (Geometry)(all.get(position).getAttribute(layer.geometryIndex));
+			Geometries type = Geometries.get(geometry);
+			// If the shapes don't intersect, ignore.
+			if( !district.intersects(geometry)) {
+				continue; 
+			}
+			if( !type.equals(Geometries.POLYGON) && !type.equals(Geometries.MULTIPOLYGON))  {
+				LOGGER.warning(String.format("%s.%s: Geometry not a polygon (%s)", CLSS,layer.method,type.getName()));
+				continue;
+			}
+			// It's not disjoint so it shares area.
+			positions[count] = position;
+			if( layer.weights!=null ) fractions[count] = computeAreaRatio(district,calculator,partition,geometry,layer.method);
+			count++;
+		}
+		if( layer.weights!=null ) layer.weights.setRow(row, Arrays.copyOf(positions, count), Arrays.copyOf(fractions, count));
+		else layer.counts[row] = count;
+		LOGGER.info(String.format("%s.%s: %d features of %d intersect (%d candidates)", CLSS,layer.method,count,all.size(),candidates.size()));
+	}
+
+	/**
+	 * Assign source features of a layer to a single district by their interior points.
+	 * A feature belongs to the district that contains its point, so its weight is one.
+	 * @param layer the source dataset and matrix
+	 * @param row position of the district within the plan
+	 * @param locator point classifier for the district
+	 */
+	private void locateLayer(OverlapLayer layer, int row, DistrictLocator locator) {
+		long start = System.nanoTime();
+		double[] xy = layer.dataset.getInteriorPoints();
+		List<Integer> candidates = layer.dataset.getCandidatePositions(locator.getEnvelope());
+		candidateCount.addAndGet(candidates.size());
+		scanCount.addAndGet(xy.length/2);
+		int[] positions = new int[candidates.size()];
+		int index = 0;
+		for(Integer position:candidates) {
+			positions[index++] = position;
+		}
+		int count = locator.locate(xy, positions, positions.length, positions);
+		double[] fractions = new double[count];
+		Arrays.fill(fractions, 1.0);
+		layer.weights.setRow(row, Arrays.copyOf(positions, count), fractions);
+		pointCount.addAndGet(candidates.size());
+		pointNanos.addAndGet(System.nanoTime()-start);
+		LOGGER.info(String.format("%s.%s: %d points of %d in district (%d candidates)", CLSS,layer.method,count,xy.length/2,candidates.size()));
+	}
+
+	/**
+	 * Apportion the source features of a layer to a single district by population.
+	 * A source feature without population is apportioned by area instead.
+	 * @param layer the source dataset, matrix and crosswalk
+	 * @param row position of the district within the plan
+	 * @param district the prepared district area
+	 * @param locator point classifier for the district
+	 * @param calculator area kernel for the district
+	 * @param partition the same district divided into cells, null if not partitioned
+	 */
+	private void crosswalkLayer(OverlapLayer layer, int row, PreparedGeometry district, DistrictLocator locator,
+								OverlapCalculator calculator, DistrictPartition partition) {
+		long start = System.nanoTime();
+		Crosswalk crosswalk = layer.crosswalk;
+		double[] factors = new double[crosswalk.getSourceCount()];
+		int[] populated = crosswalk.allocate(locator, factors);
+		pointNanos.addAndGet(System.nanoTime()-start);
+		// Source features without population
+		List<Feature> all = layer.dataset.getFeatures().getFeatures();
+		List<Integer> candidates = layer.dataset.getCandidatePositions(district.getGeometry().getEnvelopeInternal());
+		int[] positions = new int[populated.length+candidates.size()];
+		System.arraycopy(populated, 0, positions, 0, populated.length);
+		int count = populated.length;
+		for(Integer position:candidates) {
+			if( crosswalk.isPopulated(position) ) continue;
+			Geometry geometry = (Geometry)(all.get(position).getAttribute(layer.geometryIndex));
+			Geometries type = Geometries.get(geometry);
+			if( !district.intersects(geometry) ) continue;
+			if( !type.equals(Geometries.POLYGON) && !type.equals(Geometries.MULTIPOLYGON))  continue;
+			factors[position] = computeAreaRatio(district,calculator,partition,geometry,layer.method);
+			positions[count++] = position;
+		}
+		positions = Arrays.copyOf(positions, count);
+		Arrays.sort(positions);
+		double[] fractions = new double[count];
+		for(int index=0;index<count;index++) {
+			fractions[index] = factors[positions[index]];
+		}
+		layer.weights.setRow(row, positions, fractions);
+		LOGGER.info(String.format("%s.%s: %d features by population, %d by area (%d candidates)", CLSS,layer.method,
+				populated.length,count-populated.length,candidates.size()));
+	}
+
+	/**
+	 * Compute the weights of all districts of a plan with a source dataset in a single
+	 * overlay of the two coverages. Rows already read from the database are left alone.
+	 * Any that the overlay cannot resolve are left to be scanned district by district.
+	 * @param aggregation the plan
+	 * @param layer a weighted source layer
+	 */
+	private void overlayLayer(PlanAggregation aggregation, OverlapLayer layer) {
+		if( isCancelled() ) return;
+		long start = System.nanoTime();
+		List<Geometry> districts = new ArrayList<>();
+		for(Feature feat:aggregation.districts) {
+			districts.add(aggregation.geoName==null?null:(Geometry)feat.getAttribute(aggregation.geoName));
+		}
+		List<Geometry> sources = new ArrayList<>();
+		for(Feature feat:layer.dataset.getFeatures().getFeatures()) {
+			sources.add((Geometry)feat.getAttribute(layer.geometryIndex));
+		}
+		CoverageOverlay overlay = new CoverageOverlay(districts,sources);
+		boolean[] filled = overlay.overlay(layer.weights,layer.cachedRows);
+		int count = 0;
+		for(int row=0;row<filled.length;row++) {
+			if( filled[row] ) {
+				layer.overlaidRows[row] = true;
 				count++;
 			}
-			LOGGER.info(String.format("%s.aggregateDemographics: %d features of %d intersect", CLSS,count,fc.getFeatures().size()));
 		}
-	}	
+		long nanos = System.nanoTime()-start;
+		coverageCount.addAndGet(count);
+		coverageNanos.addAndGet(nanos);
+		LOGGER.info(String.format("%s.overlayLayer: %s with %s, %d of %d districts in %d msecs (%d segment pairs)",CLSS,
+				aggregation.plan.getName(),layer.dataset.getName(),count,filled.length-layer.getCachedCount(),nanos/1000000,overlay.getPairCount()));
+	}
+
 	/**
-	 * Augment a single polygon (district) with values from a county (or municipal) boundaries dataset.
-	 * Simply sum the number of times there is a total or partial mapping.
-	 * @param planFeature a feature representing a district
-	 * @param polygon an area representing a county
-	 * @param am the model holding the metrics
+	 * Estimate the weights of all districts of a plan with each of its area-weighted
+	 * layers by rasterizing them onto a common grid. The districts are drawn once.
+	 * Rows already read from the database are left alone.
+	 * @param aggregation the plan
+	 * @param maxError largest acceptable fraction of a district's area that is mis-assigned
 	 */
-	public void aggregateCountyBoundaries(PlanFeature planFeat, Geometry polygon,AnalysisModel am) {
-		if( am == null ) return;
-		DatasetModel dm = DatasetCache.getInstance().getDataset(am.getCountyBoundariesId());
-		if( dm!=null ) {
-			FeatureCollection fc = dm.getFeatures();
-			if( fc==null ) return;
-			int count = 0;
-			for(Feature feat:fc.getFeatures()) {
-				Geometry geometry = (Geometry)(feat.getAttribute(am.getCountyGeometryName()));
-				Geometries type = Geometries.get(geometry);
-				// Disjoint means there is no overlap.
-				if( geometry.disjoint(polygon)) {
-					continue;
+	private void rasterizePlan(PlanAggregation aggregation, double maxError) {
+		if( isCancelled() || aggregation.geoName==null ) return;
+		long start = System.nanoTime();
+		List<Geometry> districts = new ArrayList<>();
+		for(Feature feat:aggregation.districts) {
+			districts.add((Geometry)feat.getAttribute(aggregation.geoName));
+		}
+		RasterOverlay raster = new RasterOverlay(districts,maxError);
+		double[] errors = new double[districts.size()];
+		for(OverlapLayer layer:aggregation.layers) {
+			if( layer.weights==null || layer.points || layer.crosswalk!=null || layer.getCachedCount()==districts.size() ) continue;
+			List<Geometry> sources = new ArrayList<>();
+			for(Feature feat:layer.dataset.getFeatures().getFeatures()) {
+				sources.add((Geometry)feat.getAttribute(layer.geometryIndex));
+			}
+			boolean[] filled = raster.overlay(layer.weights,sources,layer.cachedRows);
+			layer.estimated = true;
+			for(int row=0;row<filled.length;row++) {
+				if( filled[row] ) {
+					layer.overlaidRows[row] = true;
+					errors[row] = raster.getErrorBound(row);
 				}
-				if( !type.equals(Geometries.POLYGON) && !type.equals(Geometries.MULTIPOLYGON)) {
-					LOGGER.warning(String.format("%s.aggregateCountyBoundaries: Geometry not a polygon (%s)", CLSS,type.getName()));
-					continue;
+			}
+		}
+		aggregation.areaErrors = errors;
+		long nanos = System.nanoTime()-start;
+		coverageCount.addAndGet(districts.size());
+		coverageNanos.addAndGet(nanos);
+		double worst = 0.;
+		for(double error:errors) worst = Math.max(worst,error);
+		LOGGER.info(String.format("%s.rasterizePlan: %s, %d cells of size %f in %d msecs, largest area error %2.4f",CLSS,
+				aggregation.plan.getName(),raster.getCellCount(),raster.getCellSize(),nanos/1000000,worst));
+	}
+
+	/**
+	 * Divide a district with very many vertices into cells. This is called
+	 * once per district, by the job that aggregates it. The partition is kept
+	 * in the PartitionCache, so that it is built only once for a given boundary.
+	 * @param aggregation the plan that owns the district
+	 * @param row position of the district within the plan
+	 * @return the partition, null if the district is to be treated whole
+	 */
+	private DistrictPartition getPartition(PlanAggregation aggregation,int row,Geometry geometry) {
+		if( partitionCellSize<=0. || geometry.getNumPoints()<PARTITION_MIN_VERTICES ) return null;
+		String key = PartitionCache.getKey(aggregation.boundary.getContentHash(),row,partitionCellSize,aggregation.fingerprints[row]);
+		DistrictPartition partition = PartitionCache.getInstance().getPartition(key);
+		if( partition!=null ) {
+			if( !partition.isValid() ) return null;
+			partitionReusedCount.incrementAndGet();
+			return partition;
+		}
+		long start = System.nanoTime();
+		partition = new DistrictPartition(geometry,partitionCellSize);
+		partitionNanos.addAndGet(System.nanoTime()-start);
+		PartitionCache.getInstance().putPartition(key,partition);
+		if( !partition.isValid() ) {
+			LOGGER.warning(String.format("%s.getPartition: Failed to partition a district of %d vertices",CLSS,geometry.getNumPoints()));
+			return null;
+		}
+		partitionCount.incrementAndGet();
+		return partition;
+	}
+
+	/**
+	 * The partition cell size is configured in the Preferences table, in the units
+	 * of the dataset coordinates. A missing or non-positive value disables partitioning.
+	 */
+	private double getPartitionCellSize() {
+		double size = 0.;
+		String value = Database.getInstance().getPreferencesTable().getParameter(PreferenceKeys.PARTITION_CELL_SIZE);
+		if( value==null ) return size;
+		try {
+			size = Double.parseDouble(value.trim());
+		}
+		catch(NumberFormatException ignore) {}
+		return size;
+	}
+
+	/**
+	 * The acceptable raster error is configured in the Preferences table.
+	 */
+	private double getRasterError() {
+		double maxError = DEFAULT_RASTER_ERROR;
+		String value = Database.getInstance().getPreferencesTable().getParameter(PreferenceKeys.RASTER_AREA_ERROR);
+		if( value==null ) return maxError;
+		try {
+			double configured = Double.parseDouble(value.trim());
+			if( configured>0. ) maxError = configured;
+		}
+		catch(NumberFormatException ignore) {}
+		return maxError;
+	}
+
+	/**
+	 * Resolve a source dataset into a layer, re-using an existing layer if the dataset
+	 * already fills another role in the same way. A layer that only counts intersections
+	 * never shares the matrix of a weighted layer, whose rows may be apportioned by
+	 * population or estimated by raster, so its counts are always exact. For a weighted
+	 * layer, the rows of districts whose overlap with the unchanged source has been cached
+	 * are read from the database. The remaining rows are filled by the district jobs.
+	 * @param weighted true if area fractions are required, false to simply count intersections
+	 * @param points true if features are to be assigned whole by interior point
+	 * @return the layer, null if the source dataset has no features.
+	 */
+	private OverlapLayer getLayer(PlanAggregation aggregation, long sourceId, String geometryName, int districts, boolean weighted, boolean points, String method) {
+		for(OverlapLayer layer:aggregation.layers) {
+			if( layer.dataset.getId()==sourceId && layer.points==points && (layer.weights!=null)==weighted ) return layer;
+		}
+		DatasetModel dm = DatasetCache.getInstance().getDataset(sourceId);
+		if( dm==null || dm.getFeatures()==null || dm.getSpatialIndex()==null ) return null;
+		int geometryIndex = -1;
+		try {
+			geometryIndex = dm.getFeatures().getFeatureSchema().getAttributeIndex(geometryName);
+		}
+		catch(IllegalArgumentException iae) {
+			LOGGER.severe(String.format("%s.getLayer: %s has no geometry attribute (%s)",CLSS,dm.getName(),iae.getLocalizedMessage()));
+			return null;
+		}
+		OverlapLayer layer = null;
+		int sources = dm.getFeatures().size();
+		if( weighted ) {
+			// Point assignments and population factors are cached separately from area fractions
+			String sourceKey = dm.getContentHash();
+			Crosswalk crosswalk = (points?null:getCrosswalk(dm));
+			if( points && sourceKey!=null ) sourceKey = sourceKey+POINT_SUFFIX;
+			else if( crosswalk!=null ) sourceKey = (sourceKey==null||populationKey==null?null:sourceKey+populationKey);
+			OverlapMatrix weights = new OverlapMatrix(districts,sources);
+			boolean[] found = Database.getInstance().getOverlapTable().getRows(weights,aggregation.fingerprints,sourceKey);
+			layer = new OverlapLayer(dm,geometryIndex,weights,found,sourceKey,points,crosswalk,method);
+			LOGGER.info(String.format("%s.getLayer: Using cached overlap weights for %d of %d districts of %s with %s",CLSS,
+					layer.getCachedCount(),districts,aggregation.plan.getName(),dm.getName()));
+		}
+		else {
+			layer = new OverlapLayer(dm,geometryIndex,districts,method);
+		}
+		aggregation.layers.add(layer);
+		return layer;
+	}
+
+	/**
+	 * Save newly computed rows of an overlap matrix so that subsequent aggregations
+	 * involving the same districts and source may skip the geometry entirely.
+	 */
+	private void storeLayer(PlanAggregation aggregation, OverlapLayer layer) {
+		if( layer.weights==null || layer.getCachedCount()==aggregation.districts.size() ) return;
+		// Estimated rows are not worth keeping
+		boolean[] skip = layer.cachedRows;
+		if( layer.estimated ) {
+			skip = new boolean[skip.length];
+			for(int row=0;row<skip.length;row++) skip[row] = layer.isCached(row) || layer.isOverlaid(row);
+		}
+		long start = System.currentTimeMillis();
+		int rows = Database.getInstance().getOverlapTable().storeRows(layer.weights,aggregation.fingerprints,
+				layer.sourceKey, skip);
+		LOGGER.info(String.format("%s.storeLayer: Saved overlap weights for %d districts with %s in %d msecs",CLSS,rows,
+				layer.dataset.getName(),System.currentTimeMillis()-start));
+	}
+
+	/**
+	 * Fetch the primitive column of an attribute from a source dataset.
+	 * An attribute that is not part of the dataset contributes zero.
+	 */
+	private double[] getColumn(DatasetModel dm, String attribute) {
+		double[] values = dm.getColumn(attribute);
+		if( values==null ) {
+			LOGGER.severe(String.format("%s.getColumn: %s has no attribute %s",CLSS,dm.getName(),attribute));
+			values = new double[dm.getFeatures().size()];
+		}
+		return values;
+	}
+
+	/**
+	 * Compute the fraction of a source feature's area that lies within the district.
+	 * A feature entirely inside the district is recognized with a cheap containment
+	 * test. The overlap of those that straddle the boundary is computed by the
+	 * area kernel, falling back to a full intersection if the kernel declines. The
+	 * intersection is repeated at fixed precision should it fail. If even that fails,
+	 * the feature is assigned whole according to the location of its interior point.
+	 * @param district the prepared district area
+	 * @param calculator area kernel for the same district
+	 * @param partition the same district divided into cells, null if not partitioned
+	 * @param geometry a source feature known to intersect the district
+	 * @param method name of the caller, for logging
+	 * @return the area ratio
+	 */
+	private double computeAreaRatio(PreparedGeometry district,OverlapCalculator calculator,DistrictPartition partition,Geometry geometry,String method) {
+		if( district.contains(geometry) ) {
+			containedCount.incrementAndGet();
+			return 1.0;
+		}
+		overlayCount.incrementAndGet();
+		long start = System.nanoTime();
+		double areaRatio = Double.NaN;
+		if( partition!=null ) areaRatio = partition.areaRatio(geometry);
+		if( Double.isNaN(areaRatio) ) areaRatio = calculator.areaRatio(geometry);
+		if( !Double.isNaN(areaRatio) ) {
+			overlayNanos.addAndGet(System.nanoTime()-start);
+			return areaRatio;
+		}
+		fallbackCount.incrementAndGet();
+		try {
+			Geometry intersect = GeometryRepair.intersection(district.getGeometry(),geometry);
+			if( intersect!=null && intersect.getEnvelope()!=null && !intersect.isEmpty() ) {
+				areaRatio = intersect.getArea() / geometry.getArea();
+			}
+			else {
+				areaRatio = 0.;
+			}
+		}
+		catch(Exception ex) {
+			areaRatio = (district.contains(geometry.getInteriorPoint())?1.:0.);
+			LOGGER.warning(String.format("%s.%s: Intersect exception (%s), assigned %.0f by interior point", CLSS,method,
+					ex.getLocalizedMessage(),areaRatio));
+		}
+		overlayNanos.addAndGet(System.nanoTime()-start);
+		return areaRatio;
+	}
+	
+	/**
+	 * The boundary features of a single plan, the source layers resolved against
+	 * them and the metrics as they are computed.
+	 */
+	private static class PlanAggregation {
+		private final PlanModel plan;
+		private final DatasetModel boundary;
+		private final List<Feature> districts;
+		private final String idName;
+		private final String geoName;
+		private final String[] fingerprints;         // District geometry fingerprints
+		private final List<OverlapLayer> layers;     // Distinct source layers
+		private final AtomicReferenceArray<PlanFeature> results;    // Set by the district jobs, read as they are published
+		private final AtomicReferenceArray<PlanFeature> estimates;  // Published until the result is known
+		private double[] areaErrors = null;          // By district, if estimated
+		private OverlapLayer affiliationLayer = null;
+		private OverlapLayer demographicLayer = null;
+		private OverlapLayer countyLayer = null;
+		private Set<MetricFamily> families = EnumSet.allOf(MetricFamily.class);  // Families to compute
+		private List<PlanFeature> current = null;    // By row, source of the other families
+
+		public PlanAggregation(PlanModel model,DatasetModel boundaryDataset) {
+			this.plan = model;
+			this.boundary = boundaryDataset;
+			this.districts = boundaryDataset.getFeatures().getFeatures();
+			this.idName = Database.getInstance().getAttributeAliasTable().nameForAlias(boundaryDataset.getId(), StandardAttributes.ID.name());
+			this.geoName = Database.getInstance().getAttributeAliasTable().nameForAlias(boundaryDataset.getId(), StandardAttributes.GEOMETRY.name());
+			this.fingerprints = new String[districts.size()];
+			if( geoName!=null ) {
+				for(int row=0;row<fingerprints.length;row++) {
+					fingerprints[row] = OverlapMatrix.fingerprint((Geometry)districts.get(row).getAttribute(geoName));
 				}
-				// It's not disjoint so it shares area.
-				planFeat.incrementCrossings(1.);
-				count++;
 			}
-			LOGGER.info(String.format("%s.aggregateCountyBoundaries: %d features of %d intersect", CLSS,count,fc.getFeatures().size()));
+			this.layers = new ArrayList<>();
+			this.results = new AtomicReferenceArray<>(districts.size());
+			this.estimates = new AtomicReferenceArray<>(districts.size());
 		}
-	}	
-}
+	}
 
+	/**
+	 * A source dataset together with its overlap matrix against the plan's districts.
+	 * A layer that is only used to count intersections has no matrix.
+	 */
+	private static class OverlapLayer {
+		private final DatasetModel dataset;
+		private final int geometryIndex;
+		private final OverlapMatrix weights;
+		private final int[] counts;      // Intersections by district, if there is no matrix
+		private final boolean[] cachedRows;  // By district, true if the weights were read from the database
+		private final boolean[] overlaidRows; // By district, true if the weights were set by a coverage or raster overlay
+		private boolean estimated = false;   // True if overlaid rows are raster estimates
+		private final String sourceKey;      // Identifies the source in the database
+		private final boolean points;        // True if features are assigned by interior point
+		private final Crosswalk crosswalk;   // Non-null if features are apportioned by population
+		private final String method;         // For logging
+
+		public OverlapLayer(DatasetModel dm,int geoIndex,OverlapMatrix matrix,boolean[] fromDatabase,String key,boolean byPoint,
+							Crosswalk cw,String name) {
+			this.dataset = dm;
+			this.geometryIndex = geoIndex;
+			this.weights = matrix;
+			this.counts = null;
+			this.cachedRows = fromDatabase;
+			this.overlaidRows = new boolean[fromDatabase.length];
+			this.sourceKey = key;
+			this.points = byPoint;
+			this.crosswalk = cw;
+			this.method = name;
+		}
+		public OverlapLayer(DatasetModel dm,int geoIndex,int districts,String name) {
+			this.dataset = dm;
+			this.geometryIndex = geoIndex;
+			this.weights = null;
+			this.counts = new int[districts];
+			this.cachedRows = new boolean[districts];
+			this.overlaidRows = new boolean[districts];
+			this.sourceKey = null;
+			this.points = false;
+			this.crosswalk = null;
+			this.method = name;
+		}
+		public boolean isCached(int row) { return cachedRows[row]; }
+		public boolean isOverlaid(int row) { return overlaidRows[row]; }
+		public int getCachedCount() {
+			int count = 0;
+			for(boolean cached:cachedRows) {
+				if( cached ) count++;
+			}
+			return count;
+		}
+		/**
+		 * @return the number of source features that intersect a district
+		 */
+		public int getIntersections(int row) {
+			return (weights!=null?weights.getFeatures(row).length:counts[row]);
+		}
+	}
+}
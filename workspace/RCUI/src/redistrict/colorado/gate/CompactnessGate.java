@@ -8,9 +8,11 @@ package redistrict.colorado.gate;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.apache.commons.math3.stat.descriptive.moment.StandardDeviation;
 
@@ -25,6 +27,7 @@ import javafx.scene.text.Text;
 import javafx.scene.text.TextFlow;
 import redistrict.colorado.core.GateType;
 import redistrict.colorado.core.HarmonicMean;
+import redistrict.colorado.core.MetricFamily;
 import redistrict.colorado.core.NameValue;
 import redistrict.colorado.core.PlanFeature;
 import redistrict.colorado.core.PlanModel;
@@ -71,6 +74,7 @@ public class CompactnessGate extends Gate {
 	public String getScoreAttribute() { return KEY_MEAN; };
 	public String getTitle() { return "Compactness"; } 
 	public GateType getType() { return GateType.COMPACTNESS; }
+	public Set<MetricFamily> getMetricFamilies() { return EnumSet.of(MetricFamily.GEOMETRY); }
  	/**
 	 * Compute the normalized isoperimetric quotient for each plan. 
 	 * The list of plans will be sorted in place by score, best score
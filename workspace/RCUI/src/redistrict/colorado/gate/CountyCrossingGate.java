@@ -8,7 +8,9 @@ package redistrict.colorado.gate;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Set;
 
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
@@ -21,6 +23,7 @@ import javafx.scene.text.Text;
 import javafx.scene.text.TextFlow;
 import redistrict.colorado.bind.EventBindingHub;
 import redistrict.colorado.core.GateType;
+import redistrict.colorado.core.MetricFamily;
 import redistrict.colorado.core.NameValue;
 import redistrict.colorado.core.PlanFeature;
 import redistrict.colorado.core.PlanModel;
@@ -60,6 +63,7 @@ public class CountyCrossingGate extends Gate {
 	public String getScoreAttribute() { return KEY_COUNT; };
 	public String getTitle() { return "County Line Crossings"; }
 	public GateType getType() { return GateType.COUNTY_CROSSINGS; }
+	public Set<MetricFamily> getMetricFamilies() { return EnumSet.of(MetricFamily.COUNTY); }
 	
 	/**
 	 * Sort the districts by name and compute overall results.
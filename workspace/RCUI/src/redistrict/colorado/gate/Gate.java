@@ -7,9 +7,11 @@
 package redistrict.colorado.gate;
 import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.logging.Logger;
 
 import javafx.beans.value.ChangeListener;
@@ -36,6 +38,7 @@ import javafx.scene.text.Text;
 import javafx.scene.text.TextFlow;
 import redistrict.colorado.bind.EventBindingHub;
 import redistrict.colorado.core.GateType;
+import redistrict.colorado.core.MetricFamily;
 import redistrict.colorado.core.NameValue;
 import redistrict.colorado.core.PlanModel;
 import redistrict.colorado.db.Database;
@@ -138,6 +141,11 @@ public abstract class Gate extends VBox {
 	public abstract GateType getType();
 	public abstract String getScoreAttribute();
 	public abstract String getTitle();
+	/**
+	 * @return the families of plan metrics on which the score depends. The gate
+	 *         need not be re-evaluated unless one of these has changed.
+	 */
+	public Set<MetricFamily> getMetricFamilies() { return EnumSet.allOf(MetricFamily.class); }
 	public double getScore(long planId) {
 		NameValue nv = scoreMap.get(planId);
 		Object val = nv.getValue(getScoreAttribute());
@@ -10,13 +10,20 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 import java.util.logging.Logger;
 
 import redistrict.colorado.core.GateType;
+import redistrict.colorado.core.MetricFamily;
+import redistrict.colorado.core.PlanModel;
 
 /**
  * The gate cache is a Singleton that holds references to all of
  * the currently instantiated gate instances. Gates are keyed by type.
+ * 
+ * Each gate remembers the plans and the versions of the metric families
+ * that it last evaluated, so that it is re-evaluated only when one of
+ * the families on which it depends has changed.
  */
 public class GateCache {
 	private final static String CLSS = "GateCache";
@@ -24,6 +31,7 @@ public class GateCache {
 	
 	private static GateCache instance = null;
 	private final Map<GateType,Gate> map;
+	private final Map<GateType,String> signatures;   // Inputs of the latest evaluation
 
 	/**
 	 * Constructor is private per Singleton pattern.
@@ -31,6 +39,7 @@ public class GateCache {
 	 */
 	private GateCache() {
 		this.map = new HashMap<>();
+		this.signatures = new HashMap<>();
 		map.put(GateType.COMPACTNESS, new CompactnessGate());
 		map.put(GateType.COMPETIVENESS, new CompetitiveDistrictsGate());
 		map.put(GateType.COMPOSITE, new CompositeGate());
@@ -85,5 +94,46 @@ public class GateCache {
 		}
 		return gates;
 	}
+	
+	/**
+	 * Evaluate the gates for a list of plans. A gate whose inputs are unchanged
+	 * since its last evaluation is skipped. The composite is evaluated last,
+	 * always, as it relies on the others.
+	 */
+	public void evaluate(List<PlanModel> models) {
+		int skipped = 0;
+		for(Gate gate:getBasicGates()) {
+			String signature = signature(models,gate);
+			if( signature.equals(signatures.get(gate.getType())) ) {
+				skipped++;
+				continue;
+			}
+			gate.evaluate(models);
+			signatures.put(gate.getType(), signature);
+		}
+		map.get(GateType.COMPOSITE).evaluate(models);
+		LOGGER.info(String.format("%s.evaluate: %d gates were unchanged", CLSS,skipped));
+	}
+	
+	/**
+	 * Force re-evaluation of all gates, for example when a setting that is
+	 * applied to the metrics, rather than used to compute them, has changed.
+	 */
+	public void invalidate() {
+		signatures.clear();
+	}
+	
+	// Describe the plans and the versions of the families that the gate uses.
+	// The gates sort the list in place, so order by plan id.
+	private String signature(List<PlanModel> models,Gate gate) {
+		Map<Long,String> versions = new TreeMap<>();
+		for(PlanModel model:models) {
+			StringBuilder sb = new StringBuilder(model.getName()).append(';');
+			for(MetricFamily family:gate.getMetricFamilies()) {
+				sb.append(family.name()).append('=').append(model.getMetricsVersion(family)).append(';');
+			}
+			versions.put(model.getId(), sb.toString());
+		}
+		return versions.toString();
+	}
 }
-
@@ -9,7 +9,9 @@ package redistrict.colorado.gate;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Set;
 
 import org.apache.commons.math3.stat.descriptive.SummaryStatistics;
 import org.apache.commons.math3.stat.descriptive.moment.Mean;
@@ -31,6 +33,7 @@ import redistrict.colorado.chart.VoteSeatChart;
 import redistrict.colorado.core.Declination;
 import redistrict.colorado.core.GateProperty;
 import redistrict.colorado.core.GateType;
+import redistrict.colorado.core.MetricFamily;
 import redistrict.colorado.core.NameValue;
 import redistrict.colorado.core.PartisanMetric;
 import redistrict.colorado.core.PlanFeature;
@@ -163,6 +166,7 @@ public class PartisanAsymmetryGate extends Gate {
 	} 
 	public String getTitle() { return "Partisan Asymmetry"; } 
 	public GateType getType() { return GateType.PARTISAN_ASYMMETRY; }
+	public Set<MetricFamily> getMetricFamilies() { return EnumSet.of(MetricFamily.AFFILIATION); }
 
 	@Override
 	public void evaluate(List<PlanModel> plans) { 
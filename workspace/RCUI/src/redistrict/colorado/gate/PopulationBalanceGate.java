@@ -8,9 +8,11 @@ package redistrict.colorado.gate;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.apache.commons.math3.stat.descriptive.moment.StandardDeviation;
 
@@ -25,6 +27,7 @@ import javafx.scene.text.Text;
 import javafx.scene.text.TextFlow;
 import redistrict.colorado.core.GateProperty;
 import redistrict.colorado.core.GateType;
+import redistrict.colorado.core.MetricFamily;
 import redistrict.colorado.core.NameValue;
 import redistrict.colorado.core.PlanFeature;
 import redistrict.colorado.core.PlanModel;
@@ -73,6 +76,7 @@ public class PopulationBalanceGate extends Gate {
 	public String getScoreAttribute() { return KEY_SCORE; };
 	public String getTitle() { return "Population Imbalance"; } 
 	public GateType getType() { return GateType.POPULATION_BALANCE; }
+	public Set<MetricFamily> getMetricFamilies() { return EnumSet.of(MetricFamily.DEMOGRAPHIC); }
 	
 	protected Label getBarOverlayLabel(PlanModel model) {
 		boolean inError = planInError.get(model.getId());
@@ -8,9 +8,11 @@ package redistrict.colorado.gate;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
@@ -22,6 +24,7 @@ import javafx.scene.layout.VBox;
 import javafx.scene.text.Text;
 import javafx.scene.text.TextFlow;
 import redistrict.colorado.core.GateType;
+import redistrict.colorado.core.MetricFamily;
 import redistrict.colorado.core.NameValue;
 import redistrict.colorado.core.PlanFeature;
 import redistrict.colorado.core.PlanModel;
@@ -67,6 +70,7 @@ public class ProportionalityGate extends Gate {
 	public String getScoreAttribute() { return KEY_EXTRA_SEATS; };
 	public String getTitle() { return "Proportionality"; } 
 	public GateType getType() { return GateType.PROPORTIONALITY; }
+	public Set<MetricFamily> getMetricFamilies() { return EnumSet.of(MetricFamily.AFFILIATION); }
 	
 	protected Label getBarOverlayLabel(PlanModel model) {
 		int biased = planBiased.get(model.getId());
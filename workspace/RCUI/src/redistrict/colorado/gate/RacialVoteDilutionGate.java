@@ -8,9 +8,11 @@ package redistrict.colorado.gate;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
@@ -24,6 +26,7 @@ import javafx.scene.text.TextFlow;
 import redistrict.colorado.core.Ethnicity;
 import redistrict.colorado.core.GateProperty;
 import redistrict.colorado.core.GateType;
+import redistrict.colorado.core.MetricFamily;
 import redistrict.colorado.core.NameValue;
 import redistrict.colorado.core.PlanModel;
 import redistrict.colorado.core.PowerSummary;
@@ -72,6 +75,7 @@ public class RacialVoteDilutionGate extends Gate {
 	public String getScoreAttribute() { return KEY_MAD; };
 	public String getTitle() { return "Racial Vote Dilution"; } 
 	public GateType getType() { return GateType.RACIAL_VOTE_DILUTION; }
+	public Set<MetricFamily> getMetricFamilies() { return EnumSet.of(MetricFamily.AFFILIATION,MetricFamily.DEMOGRAPHIC); }
  	/**
 	 * Compute the voting power across ethnicities for each district. Save in the district scores.
 	 * Also compute the composite.
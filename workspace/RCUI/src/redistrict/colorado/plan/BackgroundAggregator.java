@@ -0,0 +1,159 @@
+/**
+ * Copyright (C) 2020 Charles Coughlin
+ *
+ * This program is free software; you may redistribute it and/or
+ * modify it under the terms of the GNU General Public License.
+ */
+package redistrict.colorado.plan;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.logging.Logger;
+
+import redistrict.colorado.bind.EventBindingHub;
+import redistrict.colorado.core.AnalysisModel;
+import redistrict.colorado.core.PlanFeature;
+import redistrict.colorado.core.PlanModel;
+import redistrict.colorado.db.Database;
+import redistrict.colorado.gate.AggregateTask;
+
+/**
+ * The background aggregator is a Singleton that computes, ahead of need, the
+ * metrics of every active plan that lacks them. The plans are queued and
+ * aggregated one at a time at low priority. Results are saved just as if the
+ * plan's properties had been displayed, so that they are ready when they are.
+ * Progress through the queue is reported in the status pane.
+ *
+ * Aggregation on request of the user takes precedence. It cancels the queue,
+ * which is scheduled again once it completes. All methods are to be called
+ * on the application thread.
+ */
+public class BackgroundAggregator {
+	private final static String CLSS = "BackgroundAggregator";
+	private static Logger LOGGER = Logger.getLogger(CLSS);
+
+	private static BackgroundAggregator instance = null;
+	private final LinkedList<PlanModel> queue;
+	private AggregateTask task;      // Current task, null when idle
+	private int total;               // Plans in the current queue
+
+	/**
+	 * Constructor is private per Singleton pattern.
+	 */
+	private BackgroundAggregator() {
+		this.queue = new LinkedList<>();
+		this.task = null;
+		this.total = 0;
+	}
+	/**
+	 * Static method to create and/or fetch the single instance.
+	 */
+	public static BackgroundAggregator getInstance() {
+		if( instance==null) {
+			synchronized(BackgroundAggregator.class) {
+				instance = new BackgroundAggregator();
+			}
+		}
+		return instance;
+	}
+
+	public boolean isRunning() { return this.task!=null; }
+
+	/**
+	 * Queue every active plan that lacks current metrics and start on the first.
+	 * Any queue in progress is replaced. Nothing is queued unless the analysis
+	 * setup is complete.
+	 */
+	public void schedule() {
+		cancel();
+		AnalysisModel am = EventBindingHub.getInstance().getAnalysisModel();
+		if( am.getAffiliationId()<0 || am.getDemographicId()<0 || am.getCountyBoundariesId()<0 ) return;
+		for(PlanModel model:Database.getInstance().getPlanTable().getPlans()) {
+			if( model.isActive() && model.getBoundary()!=null && !model.hasCurrentMetrics() ) queue.add(model);
+		}
+		total = queue.size();
+		LOGGER.info(String.format("%s.schedule: %d active plans to aggregate",CLSS,total));
+		next(am);
+	}
+
+	/**
+	 * Stop the task in progress, if any, and empty the queue.
+	 */
+	public void cancel() {
+		if( task!=null ) {
+			LOGGER.info(String.format("%s.cancel: Cancelled with %d of %d plans remaining",CLSS,queue.size()+1,total));
+			task.cancel(true);
+			task = null;
+			EventBindingHub.getInstance().setMessage("");
+		}
+		queue.clear();
+	}
+
+	/**
+	 * Start a task on the plan at the head of the queue.
+	 */
+	private void next(AnalysisModel am) {
+		EventBindingHub hub = EventBindingHub.getInstance();
+		PlanModel model = queue.poll();
+		if( model==null ) {
+			if( task!=null ) hub.setMessage(String.format("Metrics ready for %d plans",total));
+			task = null;
+			return;
+		}
+		String configuration = am.getConfigurationKey(model.getBoundary());
+		String prefix = String.format("Aggregating %s (%d of %d)",model.getName(),total-queue.size(),total);
+		hub.setMessage(prefix);
+		AggregateTask current = new AggregateTask(model,am);
+		current.setBackground(true);
+		current.messageProperty().addListener((observable,oldValue,message) -> {
+			if( current==task && message!=null ) hub.setMessage(prefix+": "+message);
+		});
+		current.setOnSucceeded(event -> {
+			if( current!=task ) return;
+			List<PlanFeature> metrics = current.getValue();
+			if( metrics==null || metrics.isEmpty() ) {
+				next(am);
+			}
+			// The setup was changed while the plan was aggregated, start over
+			else if( configuration==null || !configuration.equals(hub.getAnalysisModel().getConfigurationKey(model.getBoundary())) ) {
+				LOGGER.info(String.format("%s.next: Setup changed, discarding metrics for %s",CLSS,model.getName()));
+				schedule();
+			}
+			else {
+				store(model,metrics,configuration);
+				next(am);
+			}
+		});
+		current.setOnFailed(event -> {
+			if( current!=task ) return;
+			LOGGER.warning(String.format("%s.next: Failed to aggregate %s (%s)",CLSS,model.getName(),
+					(current.getException()==null?"no reason":current.getException().getLocalizedMessage())));
+			next(am);
+		});
+		task = current;
+		Thread thread = new Thread(current,CLSS);
+		thread.setDaemon(true);
+		thread.setPriority(Thread.MIN_PRIORITY);
+		thread.start();
+	}
+
+	/**
+	 * Save the metrics of a plan and give them to the copies of the plan held by the hub.
+	 */
+	private void store(PlanModel model,List<PlanFeature> metrics,String configuration) {
+		model.setMetrics(metrics);
+		Database.getInstance().getPlanTable().updatePlanMetrics(model);
+		Database.getInstance().getMetricCacheTable().storeMetrics(model,configuration);
+		EventBindingHub hub = EventBindingHub.getInstance();
+		share(hub.getPlans(),model);
+		share(hub.getActivePlans(),model);
+		LOGGER.info(String.format("%s.store: Saved metrics for %d districts of %s",CLSS,metrics.size(),model.getName()));
+	}
+
+	private void share(List<PlanModel> plans,PlanModel model) {
+		if( plans==null ) return;
+		for(PlanModel plan:plans) {
+			if( plan.getId()==model.getId() && !plan.hasCurrentMetrics() ) plan.setMetrics(model.getMetrics());
+		}
+	}
+}
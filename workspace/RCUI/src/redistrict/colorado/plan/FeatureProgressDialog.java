@@ -7,10 +7,12 @@
 package redistrict.colorado.plan;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.ExecutionException;
 import java.util.logging.Logger;
 
+import javafx.beans.property.ReadOnlyObjectProperty;
 import javafx.concurrent.WorkerStateEvent;
 import javafx.event.ActionEvent;
 import javafx.event.EventHandler;
@@ -29,7 +31,10 @@ import redistrict.colorado.gate.AggregateTask;
 import redistrict.colorado.ui.ComponentIds;
 
 /**
- * Display a progress dialog while aggregating features for a plan.
+ * Display a progress dialog while aggregating features for a plan, or for
+ * several plans at once. In the latter case the result holds the metrics
+ * of all the plans, distinguished by plan id. While the dialog is open,
+ * estimated and partially refined metrics are available as a property.
  * @author chuckc
  *
  */
@@ -46,10 +51,14 @@ public class FeatureProgressDialog extends Dialog<List<PlanFeature>> {
 	private final ProgressBar progressBar; 
 	
 	public FeatureProgressDialog(PlanModel model,AnalysisModel am) {
-		this.task = new AggregateTask(model,am);
+		this(Collections.singletonList(model),am);
+	}
+	
+	public FeatureProgressDialog(List<PlanModel> models,AnalysisModel am) {
+		this.task = new AggregateTask(models,am);
 		
 		this.setTitle("Aggregating Feature Information");
-		this.setHeaderText("Aggregate affiliation and demographic information into plan boundaries.");
+		this.setHeaderText("Aggregate affiliation and demographic information into plan boundaries.\nEstimates are shown until the exact values are known.");
 		this.progressBar = new ProgressBar(0);
 		progressBar.setProgress(0.);
 		progressBar.setPrefWidth(PROGRESS_WIDTH);
@@ -112,4 +121,13 @@ public class FeatureProgressDialog extends Dialog<List<PlanFeature>> {
 	    // Start the Task.
 	    new Thread(task).start();
 	}
+	
+	/**
+	 * @return a property holding the latest snapshot of the metrics, estimated at
+	 *         first, then refined district by district. Changes are reported on the
+	 *         application thread.
+	 */
+	public ReadOnlyObjectProperty<List<PlanFeature>> partialResultProperty() {
+		return task.valueProperty();
+	}
 }
@@ -8,7 +8,11 @@ package redistrict.colorado.plan;
 
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
 import java.util.logging.Logger;
 
 import javafx.beans.value.ChangeListener;
@@ -24,8 +28,12 @@ import redistrict.colorado.bind.BasicEventDispatcher;
 import redistrict.colorado.bind.EventBindingHub;
 import redistrict.colorado.bind.EventSource;
 import redistrict.colorado.bind.LeftSelectionEvent;
+import redistrict.colorado.core.AnalysisModel;
+import redistrict.colorado.core.MetricFamily;
+import redistrict.colorado.core.PlanFeature;
 import redistrict.colorado.core.PlanModel;
 import redistrict.colorado.db.Database;
+import redistrict.colorado.gate.GateCache;
 import redistrict.colorado.ui.ComponentIds;
 import redistrict.colorado.ui.DisplayOption;
 import redistrict.colorado.ui.GuiUtil;
@@ -122,6 +130,7 @@ public class PlanButtonPane extends AnchorPane implements EventSource<ActionEven
 		String id = GuiUtil.idFromSource(event.getSource());
 		LOGGER.info(String.format("%s.handle: Action event: source = %s", CLSS,id));
 		if( id.equalsIgnoreCase(ComponentIds.BUTTON_ANALYZE)) {
+			aggregateActivePlans();
 			hub.setLeftSideSelection(new LeftSelectionEvent(ViewMode.PLAN,DisplayOption.PLAN_COMPARISON));
 		}
 		else if( id.equalsIgnoreCase(ComponentIds.BUTTON_SETUP)) {
@@ -131,6 +140,72 @@ public class PlanButtonPane extends AnchorPane implements EventSource<ActionEven
 		
 	}
 	
+	/**
+	 * Compute metrics for all active plans that lack them, or whose metrics are partly
+	 * stale. For the latter only the stale families are recomputed. The plans are
+	 * aggregated together so that the source datasets are prepared only once.
+	 */
+	private void aggregateActivePlans() {
+		EventBindingHub hub = EventBindingHub.getInstance();
+		List<PlanModel> pending = new ArrayList<>();
+		Map<Long,Set<MetricFamily>> families = new HashMap<>();
+		Map<Long,List<PlanFeature>> previous = new HashMap<>();
+		for(PlanModel model:hub.getActivePlans()) {
+			if( model.getBoundary()!=null && !model.hasCurrentMetrics() ) {
+				pending.add(model);
+				families.put(model.getId(), model.getPendingFamilies());
+				previous.put(model.getId(), model.getMetrics());
+			}
+		}
+		if( pending.isEmpty() ) return;
+		AnalysisModel am = hub.getAnalysisModel();
+		if( am.getAffiliationId()<0 || am.getDemographicId()<0 || am.getCountyBoundariesId()<0 ) return;
+		
+		BackgroundAggregator.getInstance().cancel();
+		FeatureProgressDialog dialog = new FeatureProgressDialog(pending,am);
+		dialog.initOwner(getScene().getWindow());
+		// Refresh the gates as estimates arrive, once every active plan has metrics
+		dialog.partialResultProperty().addListener((observable,oldValue,snapshot) -> {
+			if( snapshot==null ) return;
+			distributeMetrics(pending,families,snapshot);
+			for(PlanModel model:hub.getActivePlans()) {
+				if( model.getMetrics()==null || model.getMetrics().isEmpty() ) return;
+			}
+			GateCache.getInstance().evaluate(hub.getActivePlans());
+		});
+		Optional<List<PlanFeature>> result = dialog.showAndWait();
+		if (result.isPresent() && !result.get().isEmpty() ) {
+			LOGGER.info(String.format("%s.aggregateActivePlans: Dialog returned metrics for %d features of %d plans", CLSS,result.get().size(),pending.size()));
+			distributeMetrics(pending,families,result.get());
+			Database.getInstance().getPlanTable().updatePlanMetrics(pending);
+			for(PlanModel model:pending) {
+				Database.getInstance().getMetricCacheTable().storeMetrics(model,am.getConfigurationKey(model.getBoundary()));
+			}
+		}
+		else {
+			// Discard any estimates, restoring the stale metrics where there were some
+			for(PlanModel model:pending) {
+				List<PlanFeature> metrics = previous.get(model.getId());
+				model.setMetrics(metrics,families.get(model.getId()));
+				model.invalidateMetrics(families.get(model.getId()));
+			}
+		}
+		BackgroundAggregator.getInstance().schedule();
+	}
+	
+	/**
+	 * Split the metrics of a batch of plans by plan id.
+	 */
+	private void distributeMetrics(List<PlanModel> models,Map<Long,Set<MetricFamily>> families,List<PlanFeature> features) {
+		for(PlanModel model:models) {
+			List<PlanFeature> metrics = new ArrayList<>();
+			for(PlanFeature feat:features) {
+				if( feat.getPlanId()==model.getId() ) metrics.add(feat);
+			}
+			model.setMetrics(metrics,families.get(model.getId()));
+		}
+	}
+	
 	// =========================== ChangeListener<PlanModel> =============================================
 	/**
 	 * There has been some change to a plan. Check to see if any are active - even if the new model is null
@@ -113,11 +113,6 @@ public class PlanComparisonPane extends BasicRightSideNode {
 	@Override
 	public void updateModel() {
 		models = EventBindingHub.getInstance().getActivePlans();
-		for(Gate gate:GateCache.getInstance().getBasicGates()) {
-			gate.evaluate(models);
-		}
-		// Do the composite last as it relies on the others
-		Gate composite = GateCache.getInstance().getGate(GateType.COMPOSITE);
-		composite.evaluate(models);
+		GateCache.getInstance().evaluate(models);
 	}
 }
@@ -132,6 +132,7 @@ public class PlanEditPane extends BasicRightSideNode implements EventHandler<Act
 	
 	/**
 	 * Respond to button presses, including "Save". Clear model metrics if the boundary changes.
+	 * A background aggregation is stopped while the plan is saved, then started again.
 	 */
 	@Override
 	public void handle(ActionEvent event) {
@@ -139,18 +140,23 @@ public class PlanEditPane extends BasicRightSideNode implements EventHandler<Act
 		// On a save, update the model object, the database and then the hub.
 		if( source instanceof Button && ((Button)source).getId().equals(ComponentIds.BUTTON_SAVE)) {
 			if(model!=null) {
+				BackgroundAggregator.getInstance().cancel();
 				model.setName(nameField.getText());
 				model.setDescription(descriptionField.getText());
 				model.setFill(colorPicker.getValue());
 				DatasetModel dm = DatasetCache.getInstance().getDataset(boundaryCombo.getSelectionModel().getSelectedItem());
 				if( model.getBoundary()==null || model.getBoundary().getId()!=dm.getId() ) {
 					model.setBoundary(dm);
-					model.setMetrics(null);
-					Database.getInstance().getPlanTable().clearMetrics(model.getId());
+					// Use the metrics of the new boundaries if they have been computed before
+					String configuration = EventBindingHub.getInstance().getAnalysisModel().getConfigurationKey(dm);
+					model.setMetrics(Database.getInstance().getMetricCacheTable().getMetrics(model.getId(),configuration));
+					if( model.getMetrics()==null ) Database.getInstance().getPlanTable().clearMetrics(model.getId());
+					else Database.getInstance().getPlanTable().updatePlanMetrics(model);
 				}
 				Database.getInstance().getPlanTable().updatePlan(model);
 				EventBindingHub.getInstance().unselectPlan();     // Force fire
 				EventBindingHub.getInstance().setSelectedPlan(model);
+				BackgroundAggregator.getInstance().schedule();
 			}
 		}
 
@@ -7,6 +7,7 @@
 package redistrict.colorado.plan;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 import java.util.logging.Logger;
 
 import javafx.collections.FXCollections;
@@ -21,6 +22,7 @@ import javafx.scene.control.TableColumn;
 import javafx.scene.control.TableView;
 import redistrict.colorado.core.AnalysisModel;
 import redistrict.colorado.core.DatasetModel;
+import redistrict.colorado.core.MetricFamily;
 import redistrict.colorado.core.PlanFeature;
 import redistrict.colorado.core.PlanModel;
 import redistrict.colorado.db.Database;
@@ -110,17 +112,27 @@ public class PlanPropertiesPane extends BasicRightSideNode{
 				return;
 			}
 			this.headerLabel.setText(boundaryDataset.getName()+" Properties");
-			if(model.getMetrics()==null || model.getMetrics().isEmpty()) {
+			if( !model.hasCurrentMetrics() ) {
 				AnalysisModel am = hub.getAnalysisModel();
 				if( am.getAffiliationId()>=0 && am.getDemographicId()>=0 && am.getCountyBoundariesId()>=0 ) {
+					// Only the stale families are recomputed, the others are carried over
+					Set<MetricFamily> families = model.getPendingFamilies();
+					BackgroundAggregator.getInstance().cancel();
 					FeatureProgressDialog dialog = new FeatureProgressDialog(model,am);
 					dialog.initOwner(getScene().getWindow());
+					// Show the estimates as they arrive
+					table.setItems(items);
+					dialog.partialResultProperty().addListener((observable,oldValue,snapshot) -> {
+						if( snapshot!=null ) items.setAll(snapshot);
+					});
 					Optional<List<PlanFeature>> result = dialog.showAndWait();
-					if (result.isPresent() ) {
+					if (result.isPresent() && !result.get().isEmpty() ) {
 						LOGGER.info(String.format("%s.updateModel:Dialog returned metrics for %d features", CLSS,result.get().size()));
-						model.setMetrics(result.get());
+						model.setMetrics(result.get(),families);
 						Database.getInstance().getPlanTable().updatePlanMetrics(model);
+						Database.getInstance().getMetricCacheTable().storeMetrics(model,am.getConfigurationKey(boundaryDataset));
 					}
+					BackgroundAggregator.getInstance().schedule();
 				}
 				else {
 					Alert alert = new Alert(AlertType.INFORMATION);
@@ -130,7 +142,7 @@ public class PlanPropertiesPane extends BasicRightSideNode{
 					alert.show();
 				}
 			}
-			LOGGER.info(String.format("%s.updateModel: %s has %d attributes", CLSS,model.getName(),model.getMetrics().size()));
+			LOGGER.info(String.format("%s.updateModel: %s has %d attributes", CLSS,model.getName(),(model.getMetrics()==null?0:model.getMetrics().size())));
 			items.clear();
 			
 			if( model.getMetrics()!=null) {
@@ -173,6 +185,14 @@ public class PlanPropertiesPane extends BasicRightSideNode{
 			dcol.setEditable(false);
 			dcol.setCellValueFactory(dblValueFactory);
 			table.getColumns().add(dcol);
+
+			// Raster estimates carry a bound on the fraction of area mis-assigned, exact metrics zero
+			dcol = new TableColumn<>("Area Error");
+			dcol.prefWidthProperty().bind(table.widthProperty().multiply(0.125));
+			dcol.setResizable(true);
+			dcol.setEditable(false);
+			dcol.setCellValueFactory(dblValueFactory);
+			table.getColumns().add(dcol);
 		}
 		if(showDemographics.isSelected()) {
 			TableColumn<PlanFeature,Number> dcol = new TableColumn<>("Population");
@@ -7,6 +7,8 @@
 package redistrict.colorado.plan;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.logging.Logger;
 
 import javafx.collections.FXCollections;
@@ -26,14 +28,15 @@ import javafx.scene.layout.ColumnConstraints;
 import javafx.scene.layout.GridPane;
 import javafx.scene.layout.Priority;
 import redistrict.colorado.bind.EventBindingHub;
+import redistrict.colorado.core.AggregationStrategy;
 import redistrict.colorado.core.AnalysisModel;
 import redistrict.colorado.core.DatasetModel;
 import redistrict.colorado.core.DatasetRole;
 import redistrict.colorado.core.GateProperty;
 import redistrict.colorado.core.GateType;
+import redistrict.colorado.core.MetricFamily;
 import redistrict.colorado.core.NameValue;
 import redistrict.colorado.core.PartisanMetric;
-import redistrict.colorado.core.PlanModel;
 import redistrict.colorado.db.Database;
 import redistrict.colorado.db.DatasetCache;
 import redistrict.colorado.gate.Gate;
@@ -61,7 +64,8 @@ public class PlanSetupPane extends BasicRightSideNode
 	private static Logger LOGGER = Logger.getLogger(CLSS);
 	private final static double COL0_WIDTH = 100.;    // margin
 	private final static double COL1_WIDTH = 400.;
-	private final static double TABLE_OFFSET_TOP = 230.;
+	private final static double TABLE_OFFSET_TOP = 290.;
+	private final static String NO_WEIGHTING = "None (area)";
 	// Column names for the table
 	private final static String KEY_NAME = "Name";
 	private final static String KEY_FAIR = "Fair";
@@ -80,11 +84,15 @@ public class PlanSetupPane extends BasicRightSideNode
 	private final Label countyBoundariesLabel = new Label("County Boundaries: ");
 	private final Label competitivenessLabel = new Label("Competitive Threshold: ");
 	private final Label partisanAsymmetryLabel = new Label("Partisan Asymmetry Metric: ");
+	private final Label strategyLabel = new Label("Aggregation Strategy: ");
+	private final Label populationLabel = new Label("Population Weighting: ");
 	private final TextField competitivenessField = new TextField();
 	private final ComboBox<String> affiliationCombo;
 	private final ComboBox<String> countyCombo;
 	private final ComboBox<String> demographicCombo;
 	private final ComboBox<String> partisanCombo;
+	private final ComboBox<String> strategyCombo;
+	private final ComboBox<String> populationCombo;
 	private final ObservableList<NameValue> items;  // Array displayed in table
 	private final TableView<NameValue> table;
 	private final TableEventHandler cellHandler;
@@ -114,13 +122,21 @@ public class PlanSetupPane extends BasicRightSideNode
         countyCombo = new ComboBox<>();
         demographicCombo = new ComboBox<>();
         partisanCombo = new ComboBox<>();
+        strategyCombo = new ComboBox<>();
+        populationCombo = new ComboBox<>();
         affiliationCombo.setPrefWidth(COL1_WIDTH);
         countyCombo.setPrefWidth(COL1_WIDTH);
         demographicCombo.setPrefWidth(COL1_WIDTH);
         partisanCombo.setPrefWidth(COL1_WIDTH);
+        strategyCombo.setPrefWidth(COL1_WIDTH);
+        populationCombo.setPrefWidth(COL1_WIDTH);
         
 	    Tooltip tt = new Tooltip("The threshold is the vote differential between parties ~ percent. Valid ranges is 1. to 60.");
 	    Tooltip.install(competitivenessLabel, tt);
+	    tt = new Tooltip("Overlay the districts one by one, or all districts with each source dataset at once.");
+	    Tooltip.install(strategyLabel, tt);
+	    tt = new Tooltip("Apportion affiliation and demographic features to districts by the population of a finer dataset, e.g. census blocks.");
+	    Tooltip.install(populationLabel, tt);
         
 		table = new TableView<NameValue>();
 		table.setEditable(true);
@@ -149,6 +165,10 @@ public class PlanSetupPane extends BasicRightSideNode
 		grid.add(partisanCombo, 1, 3);
 		grid.add(competitivenessLabel, 0, 4);
 		grid.add(competitivenessField, 1, 4);
+		grid.add(strategyLabel, 0, 5);
+		grid.add(strategyCombo, 1, 5);
+		grid.add(populationLabel, 0, 6);
+		grid.add(populationCombo, 1, 6);
 		
 		getChildren().add(grid);
 		setTopAnchor(grid,UIConstants.DETAIL_HEADER_SPACING);
@@ -226,6 +246,11 @@ public class PlanSetupPane extends BasicRightSideNode
 		countyCombo.getItems().addAll(boundaries);
 		partisanCombo.getItems().clear();
 		partisanCombo.getItems().addAll(PartisanMetric.labels());
+		strategyCombo.getItems().clear();
+		strategyCombo.getItems().addAll(AggregationStrategy.labels());
+		populationCombo.getItems().clear();
+		populationCombo.getItems().add(NO_WEIGHTING);
+		populationCombo.getItems().addAll(demographics);
 	}
 	/**
 	 * Update the table's combo boxes from the database and caches. If the model has no datasets, read them from the database.
@@ -246,6 +271,8 @@ public class PlanSetupPane extends BasicRightSideNode
 			if( countyModel!=null ) {
 				countyCombo.getSelectionModel().select(countyModel.getName());
 			}
+			DatasetModel popModel = DatasetCache.getInstance().getDataset(model.getPopulationId());
+			populationCombo.getSelectionModel().select(popModel==null?NO_WEIGHTING:popModel.getName());
 			List<GateProperty> gateProperties = Database.getInstance().getGateTable().getGateProperties();
 			for( GateProperty gp:gateProperties ) {
 				if(gp.getType().equals(GateType.COMPOSITE) ) continue;
@@ -259,6 +286,7 @@ public class PlanSetupPane extends BasicRightSideNode
 			}
 			PartisanMetric metric = model.getPartisanMetric();
 			partisanCombo.getSelectionModel().select(PartisanMetric.labelForMetric(metric));
+			strategyCombo.getSelectionModel().select(AggregationStrategy.labelForStrategy(model.getAggregationStrategy()));
 		}
 	}
 	private void configureTable() {
@@ -284,15 +312,22 @@ public class PlanSetupPane extends BasicRightSideNode
 	}
 
 	/**
-	 * On a "save", update the model object, the database and then the hub. If either affiliation or
-	 * demographics datasets change, invalidate the cached  model metrics.
+	 * On a "save", update the model object, the database and then the hub. If any setting
+	 * that the metrics depend upon changes, replace the model metrics with those cached
+	 * for the new configuration, if any. Otherwise mark stale only the metric families
+	 * that the change affects. A background aggregation is stopped while the change is
+	 * saved, then started again on the plans that lack metrics.
 	 */
 	@Override
 	public void handle(ActionEvent event) {
 		Object source = event.getSource();
 		if( source instanceof Button && ((Button)source).getId().equals(ComponentIds.BUTTON_SAVE)) {
 			if(model!=null) {
+				BackgroundAggregator.getInstance().cancel();
 				EventBindingHub hub = EventBindingHub.getInstance();
+				Map<MetricFamily,String> familyKeys = model.getFamilyKeys();   // Before the change
+				PartisanMetric previousMetric = model.getPartisanMetric();
+				double previousThreshold = model.getCompetitiveThreshold();
 				// Update the model from UI elements
 				String name = affiliationCombo.getSelectionModel().getSelectedItem();
 				DatasetModel affModel = DatasetCache.getInstance().getDataset(name);
@@ -300,10 +335,6 @@ public class PlanSetupPane extends BasicRightSideNode
 					if( model.getAffiliationId()!=affModel.getId()) {
 						model.setAffiliationId(affModel.getId());
 						model.updateAffiliationFeatures();
-						for(PlanModel plan:hub.getPlans()) {
-							plan.setMetrics(null);
-							Database.getInstance().getPlanTable().clearMetrics(plan.getId());
-						}
 					}
 				}
 				name = demographicCombo.getSelectionModel().getSelectedItem();
@@ -312,10 +343,6 @@ public class PlanSetupPane extends BasicRightSideNode
 					if( model.getDemographicId()!=demModel.getId()) {
 						model.setDemographicId(demModel.getId());
 						model.updateDemographicFeatures();
-						for(PlanModel plan:hub.getPlans()) {
-							plan.setMetrics(null);
-							Database.getInstance().getPlanTable().clearMetrics(plan.getId());
-						}
 					}
 				}
 				name = countyCombo.getSelectionModel().getSelectedItem();
@@ -324,16 +351,23 @@ public class PlanSetupPane extends BasicRightSideNode
 					if( model.getCountyBoundariesId()!=cbModel.getId()) {
 						model.setCountyBoundariesId(cbModel.getId());
 						model.updateCountyFeatures();
-						for(PlanModel plan:hub.getPlans()) {
-							plan.setMetrics(null);
-							Database.getInstance().getPlanTable().clearMetrics(plan.getId());
-						}
 					}
 				}
+				name = populationCombo.getSelectionModel().getSelectedItem();
+				DatasetModel popModel = DatasetCache.getInstance().getDataset(name);
+				long populationId = (popModel==null?-1:popModel.getId());
+				if( name!=null && model.getPopulationId()!=populationId ) {
+					model.setPopulationId(populationId);
+				}
 				name = partisanCombo.getSelectionModel().getSelectedItem();
 				PartisanMetric metric = PartisanMetric.metricForLabel(name);
 				model.setPartisanMetric(metric);
 				LOGGER.info(String.format("%s.save: metric = %s",CLSS,metric.name()));
+				name = strategyCombo.getSelectionModel().getSelectedItem();
+				AggregationStrategy strategy = AggregationStrategy.strategyForLabel(name);
+				if( strategy!=null ) {
+					model.setAggregationStrategy(strategy);
+				}
 				try {
 					model.setCompetitiveThreshold(Double.parseDouble(competitivenessField.getText()));
 				}
@@ -341,6 +375,9 @@ public class PlanSetupPane extends BasicRightSideNode
 					LOGGER.severe(String.format("%s.save: Failed to save competetiveness field %s (%s)",CLSS,competitivenessField.getText(),nfe.getLocalizedMessage()));
 				}
 
+				Set<MetricFamily> changed = model.getChangedFamilies(familyKeys);
+				if( !changed.isEmpty() ) model.restoreMetrics(hub.getPlans(),changed);
+				boolean gatesChanged = (model.getPartisanMetric()!=previousMetric || model.getCompetitiveThreshold()!=previousThreshold);
 				// Update model in the database
 				Database.getInstance().getPreferencesTable().updateAnalysisModel(model);
 				LOGGER.info(String.format("%s.save = %s",CLSS,competitivenessField.getText()));
@@ -352,8 +389,16 @@ public class PlanSetupPane extends BasicRightSideNode
 							(Double)nv.getValue(KEY_WEIGHT),
 							(Double)nv.getValue(KEY_FAIR),
 							(Double)nv.getValue(KEY_UNFAIR) );
+					GateProperty previous = Database.getInstance().getGateTable().getGateProperty(type);
+					if( previous==null || previous.getWeight()!=gp.getWeight() || previous.getFairValue()!=gp.getFairValue() ||
+							previous.getUnfairValue()!=gp.getUnfairValue() ) {
+						gatesChanged = true;
+					}
 					Database.getInstance().getGateTable().updateGateProperties(gp);	
 				}
+				// These settings are applied to the metrics, so every gate must be re-evaluated
+				if( gatesChanged ) GateCache.getInstance().invalidate();
+				BackgroundAggregator.getInstance().schedule();
 			}
 		}
 	}
@@ -32,6 +32,9 @@ public class FMDoubleValueFactory implements Callback<TableColumn.CellDataFeatur
 		if( name.equalsIgnoreCase("Area")) {
 			property.setValue(fm.getArea());
 		}
+		else if( name.equalsIgnoreCase("Area Error")) {
+			property.setValue(fm.getAreaError());
+		}
 		else if( name.equalsIgnoreCase("Perimeter")) {
 			property.setValue(fm.getPerimeter());
 		}